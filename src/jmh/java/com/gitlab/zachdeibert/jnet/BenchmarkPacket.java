@@ -0,0 +1,141 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * A small packet, similar to the ones a game server sends every tick, that
+ * can be encoded either by serialization or by its own binary codec
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class BenchmarkPacket extends Packet implements BinaryPacket
+{
+    /**
+     * The serialization UID
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final long serialVersionUID = -2817146376493021744L;
+    /**
+     * The id used for packets that are sent by serialization
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    static final int          SERIALIZED_ID    = 9001;
+    /**
+     * The id used for packets that are sent with the binary codec
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    static final int          BINARY_ID        = 9002;
+    /**
+     * The id used for packets that are sent with the binary codec and read
+     * into recycled packets
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    static final int          RECYCLED_ID      = 9003;
+    /**
+     * The id of the entity the packet is about
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    int                       entity;
+    /**
+     * The position of the entity
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    double                    x, y, z;
+    /**
+     * The name of the entity
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    String                    name;
+
+    static
+    {
+        PacketCodecs.register(BINARY_ID, new BinaryCodec<BenchmarkPacket>(
+                        BenchmarkPacket::new));
+        PacketCodecs.register(RECYCLED_ID, new BinaryCodec<BenchmarkPacket>(
+                        new Recycler<BenchmarkPacket>(BenchmarkPacket::new)));
+    }
+
+    /**
+     * Writes the fields of the packet
+     * 
+     * @author Zach Deibert
+     * @param out
+     *            The output to write to
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    public void write(final PacketOutput out) throws IOException
+    {
+        out.writeVarInt(entity);
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeDouble(z);
+        out.writeString(name);
+    }
+
+    /**
+     * Reads the fields of the packet
+     * 
+     * @author Zach Deibert
+     * @param in
+     *            The input to read from
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    public void read(final PacketInput in) throws IOException
+    {
+        entity = in.readVarInt();
+        x = in.readDouble();
+        y = in.readDouble();
+        z = in.readDouble();
+        name = in.readString();
+    }
+
+    /**
+     * Creates a packet with some sample data
+     * 
+     * @author Zach Deibert
+     * @param id
+     *            The packet id
+     * @since 1.3
+     */
+    public BenchmarkPacket(final int id)
+    {
+        super(id);
+        entity = 1234;
+        x = 1.5;
+        y = -20.25;
+        z = 300.125;
+        name = "zombie";
+    }
+
+    /**
+     * Creates an empty packet for the binary codec to read into
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    BenchmarkPacket()
+    {
+    }
+}
@@ -0,0 +1,121 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to encode and decode a packet, both through
+ * serialization and through a binary codec
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+    /**
+     * The id of the packet, which decides which codec is used
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Param({ "" + BenchmarkPacket.SERIALIZED_ID, "" + BenchmarkPacket.BINARY_ID,
+                    "" + BenchmarkPacket.RECYCLED_ID })
+    public int                   id;
+    /**
+     * The packet to encode
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private Packet               packet;
+    /**
+     * The encoded frame of the packet
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private ByteBuffer           frame;
+    /**
+     * The input the frame is decoded from
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final PacketInput    input = new PacketInput();
+
+    /**
+     * Creates the packet and its frame
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             The packet could not be encoded
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        packet = new BenchmarkPacket(id);
+        frame = PacketCodecs.encode(packet);
+        // Skip over the length at the start of the frame, since the runner
+        // has already read it by the time a packet is decoded
+        while (frame.get() < 0)
+        {
+        }
+    }
+
+    /**
+     * Encodes the packet into a frame and gives the frame back to the pool
+     * 
+     * @author Zach Deibert
+     * @return The length of the frame
+     * @since 1.3
+     * @throws IOException
+     *             The packet could not be encoded
+     */
+    @Benchmark
+    public int encode() throws IOException
+    {
+        final ByteBuffer encoded = PacketCodecs.encode(packet);
+        final int length = encoded.remaining();
+        BufferPool.release(encoded);
+        return length;
+    }
+
+    /**
+     * Decodes the packet from its frame and releases it, the same way the
+     * runner does once the packet has been handled
+     * 
+     * @author Zach Deibert
+     * @return The packet
+     * @since 1.3
+     * @throws IOException
+     *             The packet could not be decoded
+     */
+    @Benchmark
+    public Packet decode() throws IOException
+    {
+        input.reset(frame, frame.position(), frame.limit());
+        final Packet decoded = PacketCodecs.decode(input);
+        decoded.release();
+        return decoded;
+    }
+}
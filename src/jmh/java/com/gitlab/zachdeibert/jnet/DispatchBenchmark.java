@@ -0,0 +1,113 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to find and run the handler for a packet, and to
+ * check if a packet id is reserved
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    /**
+     * The id of the packet. Small ids are looked up in an array and large ids
+     * in a hash table.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Param({ "10", "1000000" })
+    public int     id;
+    /**
+     * If the handler is timed for the metrics of its packet id
+     * 
+     * @author Zach Deibert
+     * @see Metrics#setTimingEnabled(boolean)
+     * @since 1.3
+     */
+    @Param({ "true", "false" })
+    public boolean timing;
+    /**
+     * The packet to dispatch
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private Packet  packet;
+    /**
+     * The number of packets that have been handled, so the handler is not
+     * optimized away
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private long    handled;
+
+    /**
+     * Registers a handler for the packet id
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Setup
+    public void setup()
+    {
+        Metrics.setTimingEnabled(timing);
+        new PacketHandler(id)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                ++handled;
+            }
+        };
+        packet = new Packet(id);
+    }
+
+    /**
+     * Finds and runs the handler for the packet
+     * 
+     * @author Zach Deibert
+     * @return The number of packets that have been handled
+     * @since 1.3
+     */
+    @Benchmark
+    public long process()
+    {
+        PacketHandler.process(packet, null);
+        return handled;
+    }
+
+    /**
+     * Checks if the packet id is reserved
+     * 
+     * @author Zach Deibert
+     * @return If the id is reserved
+     * @since 1.3
+     */
+    @Benchmark
+    public boolean isReserved()
+    {
+        return ReservedIds.isReserved(id);
+    }
+}
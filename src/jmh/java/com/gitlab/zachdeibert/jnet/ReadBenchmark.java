@@ -0,0 +1,275 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how long it takes to read packets from a socket. A batch of frames
+ * is written to a loopback socket before each invocation, and the invocation
+ * reads the data and picks the packets out of it the same way the runner
+ * does.
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark
+{
+    /**
+     * A deserializer that is never added to a running runner, so the
+     * benchmark is the only thing that reads from it
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final class Reader extends AsyncDeserializer
+    {
+        /**
+         * Queues a packet to be sent
+         * 
+         * @author Zach Deibert
+         * @param packet
+         *            The packet to send
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        @Override
+        public void sendPacket(final Packet packet) throws IOException
+        {
+            writePacket(packet);
+        }
+
+        /**
+         * Closes the channel
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        @Override
+        public void disconnect() throws IOException
+        {
+            closeChannel(false);
+        }
+
+        /**
+         * Closes the channel after the other end has closed it
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        @Override
+        protected void connectionLost() throws IOException
+        {
+            closeChannel(false);
+        }
+
+        /**
+         * Gets the IP of the other end
+         * 
+         * @author Zach Deibert
+         * @return The IP
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        @Override
+        public String getIP() throws IOException
+        {
+            return "127.0.0.1";
+        }
+
+        /**
+         * Gets the port of the other end
+         * 
+         * @author Zach Deibert
+         * @return The port
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        @Override
+        public int getPort() throws IOException
+        {
+            return socket.getPort();
+        }
+
+        /**
+         * Creates a new reader
+         * 
+         * @author Zach Deibert
+         * @param channel
+         *            The channel to read from
+         * @since 1.3
+         * @throws IOException
+         *             An I/O error has occurred
+         */
+        Reader(final SocketChannel channel) throws IOException
+        {
+            // The runner is never started, so it never reads the channel
+            super(new AsyncRunner(0));
+            attach(channel);
+        }
+    }
+
+    /**
+     * The number of packets read in each invocation
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int    BATCH = 256;
+    /**
+     * The id of the packets, which decides which codec is used
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Param({ "" + BenchmarkPacket.SERIALIZED_ID, "" + BenchmarkPacket.BINARY_ID,
+                    "" + BenchmarkPacket.RECYCLED_ID })
+    public int                  id;
+    /**
+     * The socket that accepts the connection
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private ServerSocketChannel server;
+    /**
+     * The end of the connection that the frames are written to
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private SocketChannel       writer;
+    /**
+     * The deserializer that reads the frames
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private Reader              reader;
+    /**
+     * A batch of encoded frames
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private ByteBuffer          batch;
+
+    /**
+     * Connects the sockets and encodes the batch of frames
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Setup(Level.Trial)
+    public void connect() throws IOException
+    {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        writer = SocketChannel.open(server.getLocalAddress());
+        reader = new Reader(server.accept());
+        final ByteBuffer frame = PacketCodecs.encode(new BenchmarkPacket(id));
+        batch = ByteBuffer.allocate(frame.remaining() * BATCH);
+        for (int i = 0; i < BATCH; ++i)
+        {
+            batch.put(frame.duplicate());
+        }
+        batch.flip();
+        BufferPool.release(frame);
+    }
+
+    /**
+     * Sends a batch of frames to the deserializer
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Setup(Level.Invocation)
+    public void fill() throws IOException
+    {
+        final ByteBuffer data = batch.duplicate();
+        while (data.hasRemaining())
+        {
+            writer.write(data);
+        }
+    }
+
+    /**
+     * Reads every packet in the batch
+     * 
+     * @author Zach Deibert
+     * @param bh
+     *            The blackhole that consumes the packets
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void readPacket(final Blackhole bh) throws IOException
+    {
+        int count = 0;
+        while (count < BATCH)
+        {
+            reader.fill();
+            while (reader.packetAvailable())
+            {
+                final Packet packet = reader.readPacket();
+                bh.consume(packet);
+                packet.release();
+                ++count;
+            }
+        }
+    }
+
+    /**
+     * Closes the sockets
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException
+    {
+        reader.disconnect();
+        writer.close();
+        server.close();
+    }
+}
@@ -0,0 +1,189 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes for every client to send a packet to a server
+ * over loopback and get it echoed back
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark
+{
+    /**
+     * The id of the packets the clients send to the server
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int        REQUEST_ID  = 9101;
+    /**
+     * The id of the packets the server echoes back
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int        RESPONSE_ID = 9102;
+    /**
+     * The port the server listens on
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final short      PORT        = 4299;
+    /**
+     * The number of responses that are still expected in the current round
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static volatile CountDownLatch pending;
+
+    static
+    {
+        new PacketHandler(REQUEST_ID)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                try
+                {
+                    sender.sendPacket(new BenchmarkPacket(RESPONSE_ID));
+                }
+                catch (final IOException ex)
+                {
+                    NetworkErrors.networkError(ex, sender);
+                }
+            }
+        };
+        new PacketHandler(RESPONSE_ID)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                pending.countDown();
+            }
+        };
+        PacketCodecs.register(REQUEST_ID, new BinaryCodec<BenchmarkPacket>(
+                        BenchmarkPacket::new));
+        PacketCodecs.register(RESPONSE_ID, new BinaryCodec<BenchmarkPacket>(
+                        BenchmarkPacket::new));
+    }
+
+    /**
+     * The number of clients connected to the server
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Param({ "1", "8", "64" })
+    public int                      clients;
+    /**
+     * The server
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private NetworkServer           server;
+    /**
+     * The clients
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private NetworkClient[]         nodes;
+    /**
+     * The packet each client sends
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private Packet                  request;
+
+    /**
+     * Starts the server and connects the clients
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Exception
+     *             The nodes could not be connected
+     */
+    @Setup(Level.Trial)
+    public void connect() throws Exception
+    {
+        server = new NetworkServer();
+        server.connect(PORT);
+        nodes = new NetworkClient[clients];
+        for (int i = 0; i < clients; ++i)
+        {
+            nodes[i] = new NetworkClient();
+            nodes[i].connect("127.0.0.1", PORT);
+        }
+        request = new BenchmarkPacket(REQUEST_ID);
+        Thread.sleep(100);
+    }
+
+    /**
+     * Sends a packet from every client and waits for all of the responses
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Exception
+     *             A packet could not be sent
+     */
+    @Benchmark
+    public void roundTrip() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(clients);
+        pending = latch;
+        for (final NetworkClient client : nodes)
+        {
+            client.sendPacket(request);
+        }
+        if (!latch.await(10, TimeUnit.SECONDS))
+        {
+            throw new IllegalStateException("Responses were lost");
+        }
+    }
+
+    /**
+     * Disconnects the clients and stops the server
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException
+    {
+        for (final NetworkClient client : nodes)
+        {
+            client.disconnect();
+        }
+        server.disconnect();
+    }
+}
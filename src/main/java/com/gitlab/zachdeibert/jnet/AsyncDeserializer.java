@@ -1,19 +1,83 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class will asynchronously read packets from a socket
+ * This class will asynchronously read packets from a socket.
+ * Each packet is sent in a length prefixed frame, so whole packets can be
+ * picked out of the data as it arrives without blocking. Packets that are sent
+ * are queued and written out by the runner when the socket is ready for them.
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 abstract class AsyncDeserializer extends AsyncReadable
 {
+    /**
+     * The event to call when the data waiting to be written to this
+     * connection crosses one of its watermarks
+     * 
+     * @author Zach Deibert
+     * @see WatermarkEvent#add
+     * @see setWatermarks
+     * @since 1.3
+     */
+    public WatermarkEvent       onWatermark;
+    /**
+     * The initial size of the buffer that incoming data is read into
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int    INITIAL_CAPACITY = 8192;
+    /**
+     * The largest packet that will be accepted from the network
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int    MAX_PACKET_SIZE  = 64 * 1024 * 1024;
+    /**
+     * The most milliseconds to wait for queued packets to be written when the
+     * connection is closed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    static final long           CLOSE_TIMEOUT    = 1000;
+    /**
+     * The most seconds to wait for the response to a request if no timeout
+     * is given
+     * 
+     * @author Zach Deibert
+     * @see request(Packet)
+     * @since 1.3
+     */
+    private static final long   REQUEST_TIMEOUT  = 30;
+    /**
+     * The size of the array that compressed data is read into when the
+     * connection is compressed as a stream
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int    RAW_CAPACITY     = 64 * 1024;
+    /**
+     * The channel associated with this network connection
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    protected SocketChannel     channel;
     /**
      * The socket associated with this network connection
      * 
@@ -22,59 +86,529 @@ abstract class AsyncDeserializer extends AsyncReadable
      */
     protected Socket            socket;
     /**
-     * The raw input stream for the socket
+     * The data that has been read from the channel but not yet deserialized.
+     * This buffer is always kept ready to be read from.
      * 
      * @author Zach Deibert
-     * @since 1.0
+     * @since 1.3
      */
-    protected InputStream       ristream;
+    private ByteBuffer          inbound;
     /**
-     * The object input stream for the socket
+     * The input used to decode each packet
      * 
      * @author Zach Deibert
-     * @since 1.0
+     * @since 1.3
+     */
+    private final PacketInput   input            = new PacketInput();
+    /**
+     * The number of bytes taken up by the length at the start of the next
+     * frame
+     * 
+     * @author Zach Deibert
+     * @see frameLength
+     * @since 1.3
+     */
+    private int                 headerLength;
+    /**
+     * The frames that are waiting to be written to the channel
+     * 
+     * @author Zach Deibert
+     * @see writeFrame
+     * @since 1.3
+     */
+    final OutboundQueue         outbound         = new OutboundQueue(this);
+    /**
+     * The metrics of this connection
+     * 
+     * @author Zach Deibert
+     * @see getMetrics
+     * @since 1.3
+     */
+    final ConnectionMetrics     metrics;
+    /**
+     * The requests sent on this connection that are waiting for a response
+     * 
+     * @author Zach Deibert
+     * @see request
+     * @since 1.3
+     */
+    final PendingRequests       requests         = new PendingRequests();
+    /**
+     * The compression settings of this connection
+     * 
+     * @author Zach Deibert
+     * @see Compression
+     * @since 1.3
+     */
+    Compression                 compression      = Compression.NONE;
+    /**
+     * The codec that each packet is compressed with, or <code>null</code> if
+     * packets are not compressed one at a time
+     * 
+     * @author Zach Deibert
+     * @see getCompressionCodec
+     * @since 1.3
+     */
+    private volatile CompressionCodec codec;
+    /**
+     * The codec that has been agreed on with the other end of the
+     * connection, whether it compresses each packet or the whole stream
+     * 
+     * @author Zach Deibert
+     * @see getCompressionCodec
+     * @since 1.3
+     */
+    private volatile CompressionCodec agreed;
+    /**
+     * The stream that everything is compressed with, or <code>null</code> if
+     * the connection is not compressed as a stream. This is only used by the
+     * runner.
+     * 
+     * @author Zach Deibert
+     * @see CompressionCodec#newStream()
+     * @since 1.3
+     */
+    private CompressionStream   stream;
+    /**
+     * If the data that is received is decompressed with the stream. This is
+     * only used by the runner.
+     * 
+     * @author Zach Deibert
+     * @see startInflating
+     * @since 1.3
+     */
+    private boolean             inflating;
+    /**
+     * The compressed data that has been read from the channel, which the
+     * stream decompresses into {@link #inbound}
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private byte[]              raw;
+    /**
+     * The array the stream decompresses into before it is copied into
+     * {@link #inbound}
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private byte[]              inflated;
+    /**
+     * If this end of the connection offered to compress packets, so the
+     * other end answers instead of offering
+     * 
+     * @author Zach Deibert
+     * @see offerCompression
+     * @since 1.3
+     */
+    private boolean             offered;
+    /**
+     * Completed once the channel has been closed after the frames that were
+     * queued when it started closing have been written, or <code>null</code>
+     * if it is not closing that way
+     * 
+     * @author Zach Deibert
+     * @see closeAfterFlush
+     * @since 1.3
+     */
+    private volatile CompletableFuture<Void> lingering;
+    /**
+     * The value of {@link System#nanoTime()} to stop waiting for the queued
+     * frames to be written at
+     * 
+     * @author Zach Deibert
+     * @see closeAfterFlush
+     * @since 1.3
      */
-    protected ObjectInputStream istream;
+    private volatile long       lingerDeadline;
 
     /**
-     * Checks to see if a packet can be read from the socket
+     * Constructs a new AsyncDeserializer
      * 
      * @author Zach Deibert
-     * @return If a packet is available to be read
-     * @since 1.0
+     * @param runner
+     *            The runner that will read from this instance
+     * @since 1.3
      */
-    @Override
-    protected boolean packetAvailable()
+    AsyncDeserializer(final AsyncRunner runner)
+    {
+        this(runner, null);
+    }
+
+    /**
+     * Constructs a new AsyncDeserializer for a connection that belongs to a
+     * server
+     * 
+     * @author Zach Deibert
+     * @param runner
+     *            The runner that will read from this instance
+     * @param server
+     *            The metrics of the server, or <code>null</code> if the
+     *            connection does not belong to one
+     * @since 1.3
+     */
+    AsyncDeserializer(final AsyncRunner runner, final ServerMetrics server)
+    {
+        super(runner);
+        metrics = new ConnectionMetrics(this, server);
+    }
+
+    /**
+     * Starts reading packets from a connected channel
+     * 
+     * @author Zach Deibert
+     * @param channel
+     *            The channel to read from
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void attach(final SocketChannel channel) throws IOException
+    {
+        channel.configureBlocking(false);
+        this.channel = channel;
+        socket = channel.socket();
+        inbound = BufferPool.acquire(INITIAL_CAPACITY);
+        inbound.flip();
+        outbound.open();
+        codec = null;
+        agreed = null;
+        stream = null;
+        inflating = false;
+        offered = false;
+        lingering = null;
+        closed = false;
+        Metrics.add(metrics);
+        runner.add(this);
+    }
+
+    /**
+     * Closes the channel
+     * 
+     * @author Zach Deibert
+     * @param flush
+     *            If packets that are still queued should be written before the
+     *            channel is closed
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void closeChannel(final boolean flush) throws IOException
     {
+        if (flush && Thread.currentThread() instanceof AsyncRunner)
+        {
+            // Waiting here would stall every connection on this runner
+            closeAfterFlush(System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT));
+            return;
+        }
+        closed = true;
+        runner.remove(this);
+        Metrics.remove(metrics);
+        requests.failAll(new ClosedChannelException());
+        if (channel == null)
+        {
+            return;
+        }
         try
         {
-            if (socket == null)
+            if (flush && channel.isOpen())
+            {
+                outbound.flush(channel, CLOSE_TIMEOUT);
+            }
+        }
+        catch (final IOException ex)
+        {
+            NetworkErrors.networkError(ex, this);
+        }
+        finally
+        {
+            channel.close();
+            outbound.close();
+            // The runner may still be reading into the buffer, so it has to
+            // be the one to give it back
+            runner.execute(this::releaseInbound);
+            final CompletableFuture<Void> done = lingering;
+            if (done != null)
+            {
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Closes the channel once the frames that are already queued have been
+     * written, without waiting for them. No more frames can be queued, and the
+     * runner closes the channel as soon as the queue is empty or the deadline
+     * has passed.
+     * 
+     * @author Zach Deibert
+     * @param deadline
+     *            The value of {@link System#nanoTime()} to close the channel
+     *            by even if frames are still queued
+     * @return A future that is completed once the channel has been closed
+     * @since 1.3
+     */
+    CompletableFuture<Void> closeAfterFlush(final long deadline)
+    {
+        synchronized (this)
+        {
+            if (lingering != null)
             {
-                ristream = null;
-                istream = null;
-                return false;
+                return lingering;
             }
-            if (ristream == null)
+            lingerDeadline = deadline;
+            lingering = new CompletableFuture<Void>();
+        }
+        if (closed || channel == null || !channel.isOpen())
+        {
+            try
             {
-                ristream = socket.getInputStream();
+                closeChannel(false);
             }
-            if (istream == null)
+            catch (final IOException ex)
             {
-                istream = new ObjectInputStream(ristream);
+                NetworkErrors.networkError(ex, this);
             }
-            return ristream.available() > 0;
         }
-        catch (final IOException ex)
+        else
+        {
+            runner.requestWrite(this);
+            runner.requestWrite(this, deadline);
+        }
+        return lingering;
+    }
+
+    /**
+     * Gives the buffer that frames are read into back to the pool once the
+     * channel has been closed. This must be called by the runner.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private void releaseInbound()
+    {
+        if (closed && inbound != null)
+        {
+            BufferPool.release(inbound);
+            inbound = null;
+            if (stream != null)
+            {
+                stream.close();
+                stream = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the channel to wait on
+     * 
+     * @author Zach Deibert
+     * @return The channel
+     * @since 1.3
+     */
+    @Override
+    protected SelectableChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * Reads the length at the start of the next frame
+     * 
+     * @author Zach Deibert
+     * @return The length of the frame after the length itself, -1 if the whole
+     *         length has not been read yet, or {@link Integer#MAX_VALUE} if
+     *         the length is malformed
+     * @see headerLength
+     * @since 1.3
+     */
+    private int frameLength()
+    {
+        int length = 0;
+        for (int i = 0; i < PacketCodecs.MAX_VAR_INT_LENGTH; ++i)
+        {
+            if (i >= inbound.remaining())
+            {
+                return -1;
+            }
+            final byte b = inbound.get(inbound.position() + i);
+            length |= (b & 0x7F) << (7 * i);
+            if (b >= 0)
+            {
+                headerLength = i + 1;
+                return length < 0 ? Integer.MAX_VALUE : length;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads all of the data that is ready on the channel
+     * 
+     * @author Zach Deibert
+     * @return The number of bytes read, or -1 at the end of the stream
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    protected int fill() throws IOException
+    {
+        if (inflating)
+        {
+            return fillStream();
+        }
+        final int length = frameLength();
+        if (length > MAX_PACKET_SIZE)
+        {
+            throw new IOException("Corrupted network stream");
+        }
+        if (length >= 0)
+        {
+            if (length + headerLength > inbound.capacity())
+            {
+                final ByteBuffer grown = BufferPool.acquire(length
+                                + headerLength);
+                grown.put(inbound);
+                grown.flip();
+                BufferPool.release(inbound);
+                inbound = grown;
+            }
+        }
+        inbound.compact();
+        try
+        {
+            final int read = channel.read(inbound);
+            if (read > 0)
+            {
+                metrics.read(read);
+            }
+            return read;
+        }
+        finally
+        {
+            inbound.flip();
+        }
+    }
+
+    /**
+     * Reads all of the compressed data that is ready on the channel and
+     * decompresses it
+     * 
+     * @author Zach Deibert
+     * @return The number of bytes read, or -1 at the end of the stream
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private int fillStream() throws IOException
+    {
+        if (frameLength() > MAX_PACKET_SIZE)
+        {
+            throw new IOException("Corrupted network stream");
+        }
+        final int read = channel.read(ByteBuffer.wrap(raw));
+        if (read > 0)
+        {
+            metrics.read(read);
+            stream.setInput(raw, read);
+            inflateStream();
+        }
+        return read;
+    }
+
+    /**
+     * Decompresses everything the stream has been given into the buffer of
+     * data that has not been deserialized yet. The buffer is grown as needed,
+     * since the stream cannot be given any more data until it has all been
+     * decompressed.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             The data is corrupted
+     */
+    private void inflateStream() throws IOException
+    {
+        inbound.compact();
+        try
+        {
+            while (true)
+            {
+                if (!inbound.hasRemaining())
+                {
+                    if (inbound.capacity() >= 2 * MAX_PACKET_SIZE)
+                    {
+                        throw new IOException("Corrupted network stream");
+                    }
+                    final ByteBuffer grown = BufferPool.acquire(2 * inbound
+                                    .capacity());
+                    inbound.flip();
+                    grown.put(inbound);
+                    BufferPool.release(inbound);
+                    inbound = grown;
+                }
+                final int read = stream.decompress(inflated, 0, Math.min(
+                                inflated.length, inbound.remaining()));
+                if (read == 0)
+                {
+                    return;
+                }
+                inbound.put(inflated, 0, read);
+            }
+        }
+        finally
+        {
+            inbound.flip();
+        }
+    }
+
+    /**
+     * Starts decompressing the data that is received with the stream. Any
+     * data that has already been read after the frame that started the stream
+     * is decompressed right away.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             The data is corrupted
+     */
+    private void startInflating() throws IOException
+    {
+        inflating = true;
+        raw = new byte[Math.max(RAW_CAPACITY, inbound.remaining())];
+        inflated = new byte[INITIAL_CAPACITY];
+        final int length = inbound.remaining();
+        inbound.get(raw, 0, length);
+        stream.setInput(raw, length);
+        inflateStream();
+    }
+
+    /**
+     * Checks to see if a whole packet has been read from the socket
+     * 
+     * @author Zach Deibert
+     * @return If a packet is available to be read
+     * @since 1.0
+     */
+    @Override
+    protected boolean packetAvailable()
+    {
+        if (inbound == null)
         {
             return false;
         }
+        final int length = frameLength();
+        return length >= 0 && length <= inbound.remaining() - headerLength;
     }
 
     /**
      * Reads a single packet from the socket
      * 
      * @author Zach Deibert
-     * @return The packet that has been deserialized from the socket
+     * @return The packet that has been decoded from the socket
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
@@ -82,18 +616,809 @@ abstract class AsyncDeserializer extends AsyncReadable
     @Override
     protected Packet readPacket() throws IOException
     {
-        try
+        final int length = frameLength();
+        final int start = inbound.position() + headerLength;
+        final int end = start + length;
+        inbound.position(end);
+        input.reset(inbound, start, end);
+        final boolean timed = Metrics.isTimingEnabled();
+        final long begin = timed ? System.nanoTime() : 0;
+        int id = input.readSignedVarInt();
+        if (id == PacketCodecs.COMPRESSED_ID)
         {
-            final Object obj = istream.readObject();
-            if (obj instanceof Packet)
-            {
-                return (Packet) obj;
-            }
+            id = inflate();
+        }
+        if (id == PacketCodecs.HELLO_ID)
+        {
+            negotiate();
+            return null;
+        }
+        final Packet packet = PacketCodecs.decode(id, input);
+        metrics.decoded(packet.id, end - start + headerLength,
+                        timed ? System.nanoTime() - begin : -1);
+        return packet;
+    }
+
+    /**
+     * Decompresses the frame that is being read
+     * 
+     * @author Zach Deibert
+     * @return The id of the packet in the frame
+     * @since 1.3
+     * @throws IOException
+     *             The frame is corrupted, or no codec has been agreed on
+     */
+    private int inflate() throws IOException
+    {
+        final CompressionCodec codec = this.codec;
+        if (codec == null)
+        {
+            throw new IOException(
+                            "A compressed packet was received before compression was agreed on");
+        }
+        final int length = input.readVarInt();
+        if (length > MAX_PACKET_SIZE)
+        {
+            throw new IOException("Corrupted network stream");
+        }
+        compression.decompress(input, codec, length);
+        return input.readSignedVarInt();
+    }
+
+    /**
+     * Offers the other end of the connection the codecs in the compression
+     * settings. Nothing is compressed until it has agreed on one.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void offerCompression() throws IOException
+    {
+        final List<CompressionCodec> codecs = compression.getCodecs();
+        if (codecs.isEmpty())
+        {
+            return;
+        }
+        final String[] names = new String[codecs.size()];
+        for (int i = 0; i < names.length; ++i)
+        {
+            names[i] = codecs.get(i).getName();
+        }
+        offered = true;
+        writeHello(names);
+    }
+
+    /**
+     * Reads the codecs the other end of the connection offered, or the one it
+     * agreed on. When answering an offer, the codec is only used once the
+     * answer has been queued, so the other end never receives a compressed
+     * packet before it knows which codec was picked.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             The other end agreed on a codec that was not offered
+     */
+    private void negotiate() throws IOException
+    {
+        final String[] names = new String[input.readVarInt()];
+        for (int i = 0; i < names.length; ++i)
+        {
+            names[i] = input.readString();
+        }
+        if (offered)
+        {
+            if (names.length > 0)
+            {
+                final CompressionCodec chosen = compression.find(names[0]);
+                if (chosen == null)
+                {
+                    throw new IOException(
+                                    "The other end agreed on a codec that was not offered");
+                }
+                agreed = chosen;
+                stream = chosen.newStream();
+                if (stream == null)
+                {
+                    codec = chosen;
+                }
+                else
+                {
+                    // Everything after the answer is compressed, and the
+                    // other end starts decompressing once this end is ready
+                    startInflating();
+                    writeStreamStart(names[0]);
+                }
+            }
+            return;
+        }
+        if (stream != null)
+        {
+            // The other end marks where its stream starts
+            if (!inflating)
+            {
+                startInflating();
+            }
+            return;
+        }
+        for (final String name : names)
+        {
+            final CompressionCodec chosen = compression.find(name);
+            if (chosen != null)
+            {
+                agreed = chosen;
+                stream = chosen.newStream();
+                if (stream == null)
+                {
+                    writeHello(name);
+                    codec = chosen;
+                }
+                else
+                {
+                    writeStreamStart(name);
+                }
+                return;
+            }
+        }
+        writeHello();
+    }
+
+    /**
+     * Queues a frame that offers or agrees on codecs
+     * 
+     * @author Zach Deibert
+     * @param names
+     *            The names of the codecs
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private void writeHello(final String... names) throws IOException
+    {
+        final SharedBuffer frame = new SharedBuffer(
+                        PacketCodecs.encodeHello(names));
+        try
+        {
+            writeControlFrame(frame, PacketCodecs.HELLO_ID);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Queues a frame that agrees on a codec that compresses streams, after
+     * which everything this end sends is compressed with the stream
+     * 
+     * @author Zach Deibert
+     * @param name
+     *            The name of the codec
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private void writeStreamStart(final String name) throws IOException
+    {
+        if (closed || channel == null)
+        {
+            throw new ClosedChannelException();
+        }
+        final SharedBuffer frame = new SharedBuffer(
+                        PacketCodecs.encodeHello(name));
+        try
+        {
+            schedule(outbound.addStreamStart(frame, PacketCodecs.HELLO_ID,
+                            stream));
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Compresses a frame with the codec that has been agreed on, if it is
+     * large enough
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame, which is given back to the pool if it is
+     *            compressed
+     * @return The frame to write
+     * @since 1.3
+     */
+    ByteBuffer compress(final ByteBuffer frame)
+    {
+        final CompressionCodec codec = this.codec;
+        if (codec == null)
+        {
+            return frame;
+        }
+        final ByteBuffer compressed = compression.compress(frame, codec);
+        if (compressed == null)
+        {
+            return frame;
+        }
+        BufferPool.release(frame);
+        return compressed;
+    }
+
+    /**
+     * Gets the codec that has been agreed on with the other end of the
+     * connection
+     * 
+     * @author Zach Deibert
+     * @return The codec, or <code>null</code> if packets are not compressed
+     * @see NetworkClient#setCompression(Compression)
+     * @since 1.3
+     */
+    public CompressionCodec getCompressionCodec()
+    {
+        return agreed;
+    }
+
+    /**
+     * Gets the codec that each packet is compressed with before it is queued
+     * 
+     * @author Zach Deibert
+     * @return The codec, or <code>null</code> if packets are not compressed
+     *         one at a time
+     * @since 1.3
+     */
+    CompressionCodec getPacketCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * Encodes a packet and queues it to be written to the socket
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to write
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    protected void writePacket(final Packet packet) throws IOException
+    {
+        writePacket(packet, 0);
+    }
+
+    /**
+     * Encodes a packet as part of a request and queues it to be written to
+     * the socket
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to write
+     * @param correlation
+     *            The correlation id if the packet is a request, its negative
+     *            if the packet is a response, or 0 if it is neither
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private void writePacket(final Packet packet, final int correlation)
+                    throws IOException
+    {
+        final SharedBuffer frame = new SharedBuffer(compress(PacketCodecs
+                        .encode(packet, correlation)));
+        try
+        {
+            if (correlation == 0)
+            {
+                writeFrame(frame, packet.id);
+            }
+            else
+            {
+                // The other end is waiting for requests and responses
+                writeControlFrame(frame, packet.id);
+            }
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Sends a packet that only matters until a newer one with the same key is
+     * sent. If a packet with the same id and key is still queued and has not
+     * started being written, the new packet takes its place in the queue
+     * instead of being added to the end, so the queue never holds more than
+     * one packet for each key.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @param key
+     *            The key of the packet, such as the entity it is about. It
+     *            must implement {@link Object#equals(Object)} and
+     *            {@link Object#hashCode()}.
+     * @see NetworkNode#sendCoalesced(Packet, Object)
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void sendCoalesced(final Packet packet, final Object key)
+                    throws IOException
+    {
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
+        final SharedBuffer frame = new SharedBuffer(compress(PacketCodecs
+                        .encode(packet)));
+        try
+        {
+            writeFrame(frame, packet.id, null, key);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Sends a packet without waiting. The future is completed once the packet
+     * has been written to the socket, or fails if it could not be encoded, is
+     * dropped by the backpressure policy or the connection is closed first.
+     * This never blocks, so a full queue is allowed to grow past its high
+     * watermark when the policy is {@link BackpressurePolicy#BLOCK}. The
+     * future is usually completed on the runner thread, so anything slow
+     * should be moved to another thread.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @return The future that is completed once the packet has been written
+     * @see NetworkNode#sendPacketAsync(Packet)
+     * @since 1.3
+     */
+    @Override
+    public CompletableFuture<Void> sendPacketAsync(final Packet packet)
+    {
+        final CompletableFuture<Void> written = new CompletableFuture<Void>();
+        try
+        {
+            final SharedBuffer frame = new SharedBuffer(compress(PacketCodecs
+                            .encode(packet)));
+            try
+            {
+                writeFrame(frame, packet.id, written);
+            }
+            finally
+            {
+                frame.release();
+            }
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+            written.completeExceptionally(ex);
+        }
+        return written;
+    }
+
+    /**
+     * Sends a request and waits up to 30 seconds for the response
+     * 
+     * @author Zach Deibert
+     * @param <T>
+     *            The type of the response
+     * @param request
+     *            The request
+     * @return The future that is completed with the response
+     * @see request(Packet, long, TimeUnit)
+     * @since 1.3
+     */
+    public <T extends Packet> CompletableFuture<T> request(final Packet request)
+    {
+        return request(request, REQUEST_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends a request to be answered by the {@link RequestHandler} for its id
+     * on the other end of the connection. This does not wait for the
+     * response, so any number of requests can be sent before the first one is
+     * answered. The future is completed on the runner thread that read the
+     * response, so anything slow should be moved to another thread. It fails
+     * with a {@link RequestFailedException} if the handler threw an exception
+     * or did not respond, with a
+     * {@link java.util.concurrent.TimeoutException} if the response does not
+     * arrive in time, or with a {@link ClosedChannelException} if the
+     * connection is closed first. A response that arrives after the future
+     * has been completed is released.
+     * 
+     * @author Zach Deibert
+     * @param <T>
+     *            The type of the response
+     * @param request
+     *            The request
+     * @param timeout
+     *            How long to wait for the response, or 0 to wait until the
+     *            connection is closed
+     * @param unit
+     *            The unit of the timeout
+     * @return The future that is completed with the response
+     * @see RequestHandler
+     * @since 1.3
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Packet> CompletableFuture<T> request(
+                    final Packet request, final long timeout,
+                    final TimeUnit unit)
+    {
+        final int id = requests.next();
+        final CompletableFuture<Packet> future = requests.add(id, timeout,
+                        unit);
+        try
+        {
+            writePacket(request, id);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+            requests.fail(id, ex);
+        }
+        return (CompletableFuture<T>) future;
+    }
+
+    /**
+     * Sends the response to a request
+     * 
+     * @author Zach Deibert
+     * @param response
+     *            The response
+     * @param correlation
+     *            The correlation id of the request
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void respond(final Packet response, final int correlation)
+                    throws IOException
+    {
+        writePacket(response, -correlation);
+    }
+
+    /**
+     * Tells the other end of the connection that a request failed
+     * 
+     * @author Zach Deibert
+     * @param correlation
+     *            The correlation id of the request
+     * @param message
+     *            The reason the request failed
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void failRequest(final int correlation, final String message)
+                    throws IOException
+    {
+        final SharedBuffer frame = new SharedBuffer(PacketCodecs.encodeFailure(
+                        correlation, message));
+        try
+        {
+            writeControlFrame(frame, PacketCodecs.FAILURE_ID);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Queues a frame that has already been encoded to be written to the
+     * socket. This does not wait for the frame to be written. The queue keeps
+     * its own reference to the frame, so the same frame can be passed to
+     * several connections and the caller still has to release its reference
+     * afterwards. If the queue is above its high watermark, the backpressure
+     * policy decides what happens to the frame.
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame to write
+     * @param id
+     *            The id of the packet in the frame
+     * @see PacketCodecs#encode
+     * @see setBackpressurePolicy
+     * @since 1.3
+     * @throws IOException
+     *             The connection is closed
+     */
+    void writeFrame(final SharedBuffer frame, final int id) throws IOException
+    {
+        writeFrame(frame, id, null);
+    }
+
+    /**
+     * Queues a frame that has already been encoded to be written to the
+     * socket, and completes a future once it has been written. Frames with a
+     * future never wait for the queue to fall below its high watermark, even
+     * if the backpressure policy is {@link BackpressurePolicy#BLOCK}.
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame to write
+     * @param id
+     *            The id of the packet in the frame
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>. It is failed if the frame is dropped or
+     *            the connection is closed first.
+     * @see writeFrame(SharedBuffer, int)
+     * @since 1.3
+     * @throws IOException
+     *             The connection is closed
+     */
+    void writeFrame(final SharedBuffer frame, final int id,
+                    final CompletableFuture<Void> written) throws IOException
+    {
+        writeFrame(frame, id, written, null);
+    }
+
+    /**
+     * Queues a frame that has already been encoded to be written to the
+     * socket, replacing a queued frame with the same packet id and key that
+     * has not started being written yet
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame to write
+     * @param id
+     *            The id of the packet in the frame
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code> if it cannot be replaced
+     * @see sendCoalesced
+     * @since 1.3
+     * @throws IOException
+     *             The connection is closed
+     */
+    void writeFrame(final SharedBuffer frame, final int id,
+                    final CompletableFuture<Void> written, final Object key)
+                    throws IOException
+    {
+        if (closed || lingering != null || channel == null)
+        {
+            throw new ClosedChannelException();
+        }
+        schedule(outbound.add(frame, id, written == null
+                        && !(Thread.currentThread() instanceof AsyncRunner),
+                        written, key));
+    }
+
+    /**
+     * Queues a control frame to be written to the socket. The other end is
+     * waiting for it, so the backpressure policy never drops or replaces it.
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame to write
+     * @param id
+     *            The id of the packet in the frame
+     * @see OutboundQueue#addControl
+     * @since 1.3
+     * @throws IOException
+     *             The connection is closed
+     */
+    private void writeControlFrame(final SharedBuffer frame, final int id)
+                    throws IOException
+    {
+        if (closed || lingering != null || channel == null)
+        {
+            throw new ClosedChannelException();
+        }
+        schedule(outbound.addControl(frame, id,
+                        !(Thread.currentThread() instanceof AsyncRunner)));
+    }
+
+    /**
+     * Asks the runner to write the queue out
+     * 
+     * @author Zach Deibert
+     * @param schedule
+     *            How the runner needs to be asked, as returned by the queue
+     * @since 1.3
+     */
+    private void schedule(final int schedule)
+    {
+        switch (schedule)
+        {
+            case OutboundQueue.WRITE_NOW:
+                runner.requestWrite(this);
+                break;
+            case OutboundQueue.WRITE_LATER:
+                runner.requestWrite(this,
+                                System.nanoTime() + outbound.getBatchWindow());
+                break;
+        }
+    }
+
+    /**
+     * Writes as many of the queued frames as the socket will accept
+     * 
+     * @author Zach Deibert
+     * @return If all of the queued frames have been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    protected boolean drain() throws IOException
+    {
+        final boolean drained = outbound.drain(channel);
+        if (lingering != null && !closed
+                        && (drained || System.nanoTime() - lingerDeadline >= 0))
+        {
+            closeChannel(false);
+            return true;
+        }
+        return drained;
+    }
+
+    /**
+     * Calls the watermark event after the data waiting to be written has
+     * crossed one of the watermarks
+     * 
+     * @author Zach Deibert
+     * @param high
+     *            If the high watermark was crossed
+     * @param pendingBytes
+     *            The number of bytes waiting to be written
+     * @since 1.3
+     */
+    void watermarkCrossed(final boolean high, final long pendingBytes)
+    {
+        if (onWatermark != null)
+        {
+            onWatermark.onWatermark(this, high, pendingBytes);
+        }
+    }
+
+    /**
+     * Sets how much data can be waiting to be written to this connection.
+     * Once more than the high watermark is waiting, the backpressure policy is
+     * applied to new packets until the queue falls back to the low watermark.
+     * By default there is no limit.
+     * 
+     * @author Zach Deibert
+     * @param low
+     *            The number of bytes the queue must fall to after it has gone
+     *            above the high watermark
+     * @param high
+     *            The most bytes that can be waiting before the policy is
+     *            applied
+     * @see setBackpressurePolicy
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The low watermark is negative or above the high watermark
+     */
+    public void setWatermarks(final long low, final long high)
+    {
+        outbound.setWatermarks(low, high);
+    }
+
+    /**
+     * Sets what happens to packets sent to this connection while it is above
+     * its high watermark. The default is {@link BackpressurePolicy#BLOCK}.
+     * 
+     * @author Zach Deibert
+     * @param policy
+     *            The policy
+     * @see setWatermarks
+     * @since 1.3
+     */
+    public void setBackpressurePolicy(final BackpressurePolicy policy)
+    {
+        outbound.setPolicy(policy);
+    }
+
+    /**
+     * Gets what happens to packets sent to this connection while it is above
+     * its high watermark
+     * 
+     * @author Zach Deibert
+     * @return The policy
+     * @since 1.3
+     */
+    public BackpressurePolicy getBackpressurePolicy()
+    {
+        return outbound.getPolicy();
+    }
+
+    /**
+     * Gets the number of bytes that are waiting to be written to this
+     * connection
+     * 
+     * @author Zach Deibert
+     * @return The number of bytes
+     * @since 1.3
+     */
+    public long getPendingBytes()
+    {
+        return outbound.getPendingBytes();
+    }
+
+    /**
+     * Gets the metrics of this connection
+     * 
+     * @author Zach Deibert
+     * @return The metrics
+     * @see Metrics
+     * @since 1.3
+     */
+    public ConnectionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of packets that are waiting to be written to this
+     * connection
+     * 
+     * @author Zach Deibert
+     * @return The number of packets
+     * @since 1.3
+     */
+    public int getPendingPackets()
+    {
+        return outbound.getPendingFrames();
+    }
+
+    /**
+     * Turns on batching, so packets sent within a short window are gathered
+     * and written to the socket together instead of one at a time. A batch is
+     * written once its window has passed, once it reaches the given number of
+     * bytes, or when {@link #flush()} is called, whichever happens first.
+     * Batching is off by default.
+     * 
+     * @author Zach Deibert
+     * @param window
+     *            How long to gather packets for, or 0 to turn batching off
+     * @param unit
+     *            The unit of the window
+     * @param bytes
+     *            The number of bytes that causes a batch to be written before
+     *            its window has passed
+     * @see flush
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The window or byte count is negative
+     */
+    public void setBatching(final long window, final TimeUnit unit,
+                    final int bytes)
+    {
+        outbound.setBatching(unit.toNanos(window), bytes);
+    }
+
+    /**
+     * Writes out any packets that are being held back for batching without
+     * waiting for the rest of the window
+     * 
+     * @author Zach Deibert
+     * @see setBatching
+     * @since 1.3
+     * @throws IOException
+     *             The connection is closed
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (closed || channel == null)
+        {
+            throw new ClosedChannelException();
         }
-        catch (final Exception ex)
+        if (outbound.promote())
         {
-            throw new IOException(ex);
+            runner.requestWrite(this);
         }
-        throw new IOException("Corrupted network stream");
     }
 }
@@ -1,6 +1,9 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.Executor;
 
 /**
  * A class that will be asynchronously be run by AsyncRunner
@@ -8,7 +11,7 @@ import java.io.IOException;
  * @author Zach Deibert
  * @see AsyncRunner
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 abstract class AsyncReadable implements NetworkNode
 {
@@ -18,7 +21,62 @@ abstract class AsyncReadable implements NetworkNode
      * @author Zach Deibert
      * @since 1.0
      */
-    boolean closed;
+    volatile boolean    closed;
+    /**
+     * The runner that reads from this instance
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    final AsyncRunner   runner;
+    /**
+     * The key this instance is registered with in the runner's selector, or
+     * null if it is not registered
+     * 
+     * @author Zach Deibert
+     * @see AsyncRunner#add
+     * @since 1.3
+     */
+    SelectionKey        key;
+    /**
+     * The executor that keeps this node's packets in order on the worker
+     * pool, or null if it has not been needed yet
+     * 
+     * @author Zach Deibert
+     * @see orderedExecutor
+     * @since 1.3
+     */
+    private Executor    orderedPool;
+    /**
+     * The executor that keeps this node's packets in order on virtual
+     * threads, or null if it has not been needed yet
+     * 
+     * @author Zach Deibert
+     * @see orderedExecutor
+     * @since 1.3
+     */
+    private Executor    orderedVirtual;
+
+    /**
+     * Gets the channel that the runner should wait on for readiness
+     * 
+     * @author Zach Deibert
+     * @return The channel
+     * @since 1.3
+     */
+    protected abstract SelectableChannel getChannel();
+
+    /**
+     * Reads whatever data is ready on the channel without blocking
+     * 
+     * @author Zach Deibert
+     * @return The number of bytes read, or -1 if the remote end closed the
+     *         connection
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    protected abstract int fill() throws IOException;
 
     /**
      * Checks if there is a packet available to be read
@@ -41,7 +99,74 @@ abstract class AsyncReadable implements NetworkNode
     protected abstract Packet readPacket() throws IOException;
 
     /**
-     * Runs an iteration of the asynchronous loop
+     * Writes as much queued data to the channel as possible without blocking
+     * 
+     * @author Zach Deibert
+     * @return If all of the queued data has been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    protected abstract boolean drain() throws IOException;
+
+    /**
+     * Called once the connection has been lost, either because the remote end
+     * closed it or because reading from it failed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    protected abstract void connectionLost() throws IOException;
+
+    /**
+     * Gets the executor that runs this node's handlers one at a time in the
+     * order their packets arrived. This is only called by the runner.
+     * 
+     * @author Zach Deibert
+     * @param mode
+     *            The execution mode of the handler
+     * @return The executor that keeps the handlers in order
+     * @see PacketHandler
+     * @since 1.3
+     */
+    Executor orderedExecutor(final ExecutionMode mode)
+    {
+        if (mode == ExecutionMode.VIRTUAL)
+        {
+            if (orderedVirtual == null)
+            {
+                orderedVirtual = new SerialExecutor(
+                                () -> HandlerExecutors.get(mode));
+            }
+            return orderedVirtual;
+        }
+        if (orderedPool == null)
+        {
+            orderedPool = new SerialExecutor(() -> HandlerExecutors.get(mode));
+        }
+        return orderedPool;
+    }
+
+    /**
+     * Gets the index of the runner that reads from this node. Every packet
+     * this node receives is read on that runner's thread, and handled there
+     * too unless its handler has a different {@link ExecutionMode}.
+     * 
+     * @author Zach Deibert
+     * @return The index of the runner within its group
+     * @see NetworkServer#getLoopCount()
+     * @since 1.3
+     */
+    public int getLoop()
+    {
+        return runner.index;
+    }
+
+    /**
+     * Runs an iteration of the asynchronous loop. This is called by the
+     * runner whenever the channel has data ready to be read.
      * 
      * @author Zach Deibert
      * @since 1.0
@@ -50,31 +175,44 @@ abstract class AsyncReadable implements NetworkNode
      */
     void iteration() throws IOException
     {
-        if (packetAvailable())
+        final int read = fill();
+        while (packetAvailable())
         {
-            final Packet p = readPacket();
-            if (p != null)
+            try
             {
-                PacketHandler.process(p, this);
+                final Packet p = readPacket();
+                if (p != null)
+                {
+                    PacketHandler.process(p, this);
+                }
             }
+            catch (final Exception ex)
+            {
+                NetworkErrors.networkError(ex, this);
+            }
+        }
+        if (read < 0)
+        {
+            closed = true;
+            connectionLost();
         }
     }
 
     /**
      * Constructs a new AsyncReadable.
-     * This new instance is automatically added to the asynchronous queue.
-     * The asynchronous execution thread is started it it is not already
-     * running.
+     * The new instance is not added to the asynchronous queue until it has a
+     * channel to read from.
      * 
      * @author Zach Deibert
-     * @see AsyncRunner.add
-     * @see AsyncRunner.init
+     * @param runner
+     *            The runner that will read from this instance
+     * @see AsyncRunner#add
+     * @see AsyncRunnerGroup#next
      * @since 1.0
      */
-    AsyncReadable()
+    AsyncReadable(final AsyncRunner runner)
     {
         closed = false;
-        AsyncRunner.add(this);
-        AsyncRunner.init();
+        this.runner = runner;
     }
 }
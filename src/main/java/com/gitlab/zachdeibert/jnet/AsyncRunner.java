@@ -1,58 +1,214 @@
 package com.gitlab.zachdeibert.jnet;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * The thread that executes all of the asynchronous tasks
+ * A thread that executes asynchronous tasks. It waits on a selector so it only
+ * wakes up when one of the channels has data ready to be read or can accept
+ * data that is queued to be written. Each task is always run by the same
+ * runner, so the packets from a single connection are handled in order.
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2.2
+ * @version 1.3
  */
 final class AsyncRunner extends Thread
 {
     /**
-     * A list of all of the tasks that need to run
+     * A request to write out the data a task has queued at a later time
      * 
      * @author Zach Deibert
-     * @since 1.0
+     * @see requestWrite(AsyncReadable, long)
+     * @since 1.3
+     */
+    private static final class DelayedWrite implements
+                    Comparable<DelayedWrite>
+    {
+        /**
+         * The task that has data to write
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        final AsyncReadable readable;
+        /**
+         * The value of {@link System#nanoTime()} to write the data at
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        final long          deadline;
+
+        /**
+         * Orders the requests so the earliest deadline comes first
+         * 
+         * @author Zach Deibert
+         * @param other
+         *            The request to compare to
+         * @return A negative number if this request is earlier, a positive
+         *         number if it is later, or zero if they are at the same time
+         * @since 1.3
+         */
+        @Override
+        public int compareTo(final DelayedWrite other)
+        {
+            return Long.signum(deadline - other.deadline);
+        }
+
+        /**
+         * Creates a new request
+         * 
+         * @author Zach Deibert
+         * @param readable
+         *            The task that has data to write
+         * @param deadline
+         *            The value of {@link System#nanoTime()} to write the data
+         *            at
+         * @since 1.3
+         */
+        DelayedWrite(final AsyncReadable readable, final long deadline)
+        {
+            this.readable = readable;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * A list of all of the runners that are still running
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final List<AsyncRunner>     activeRunners = Collections.synchronizedList(new LinkedList<AsyncRunner>());
+    /**
+     * Contains whether the shutdown hook has been registered or not
+     * 
+     * @author Zach Deibert
+     * @see init
+     * @since 1.3
+     */
+    private static boolean                     inited        = false;
+    /**
+     * The index of this runner in its group
+     * 
+     * @author Zach Deibert
+     * @see AsyncRunnerGroup
+     * @since 1.3
+     */
+    final int                                  index;
+    /**
+     * The selector that waits for channels to become readable
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final Selector                     selector;
+    /**
+     * The tasks that are waiting to be registered with the selector. The
+     * selector can only be safely modified from this thread, so other threads
+     * queue their tasks here.
+     * 
+     * @author Zach Deibert
+     * @see add
+     * @since 1.3
      */
-    private static final List<AsyncReadable> readables = Collections.synchronizedList(new LinkedList<AsyncReadable>());
+    private final Queue<AsyncReadable>         registrations;
     /**
-     * Contains the target state of the thread.
-     * Null denotes that the thread has not started.
-     * False denotes that the thread needs to be shutdown.
-     * True denotes that the thread should be running
+     * The tasks that have data queued to be written
+     * 
+     * @author Zach Deibert
+     * @see requestWrite
+     * @since 1.3
+     */
+    private final Queue<AsyncReadable>         writes;
+    /**
+     * The delayed writes that have been requested but not yet moved into the
+     * timer queue
+     * 
+     * @author Zach Deibert
+     * @see requestWrite(AsyncReadable, long)
+     * @since 1.3
+     */
+    private final Queue<DelayedWrite>          delayedRequests;
+    /**
+     * The delayed writes ordered by their deadlines. This is only used by the
+     * runner thread.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final PriorityQueue<DelayedWrite>  delayed;
+    /**
+     * The tasks that have to be run by this thread between iterations
+     * 
+     * @author Zach Deibert
+     * @see execute
+     * @since 1.3
+     */
+    private final Queue<Runnable>              tasks;
+    /**
+     * The value of {@link System#nanoTime()} that the runner will wake up by
+     * even if nothing happens, or {@link Long#MAX_VALUE} if it will wait
+     * forever
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private volatile long                      wakeAt;
+    /**
+     * Contains whether the thread should keep running
      * 
      * @author Zach Deibert
      * @since 1.0
      */
-    private static Boolean                   running   = null;
+    private volatile boolean                   running;
+    /**
+     * Contains whether the thread has stopped reading from and writing to its
+     * channels
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private volatile boolean                   stopped;
 
     /**
-     * Starts the thread if it is not already running
+     * Adds the shutdown hook if it is not already added
      * 
      * @author Zach Deibert
-     * @see running
-     * @since 1.0
+     * @since 1.3
      */
-    static void init()
+    private static synchronized void init()
     {
-        if (running == null)
+        if (!inited)
         {
-            running = true;
+            inited = true;
             Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
             {
                 @Override
                 public void run()
                 {
-                    running = false;
+                    synchronized (activeRunners)
+                    {
+                        for (final AsyncRunner runner : activeRunners)
+                        {
+                            runner.shutdown();
+                        }
+                        activeRunners.clear();
+                    }
                 }
             }));
-            final Thread thread = new AsyncRunner();
-            thread.start();
         }
     }
 
@@ -62,14 +218,103 @@ final class AsyncRunner extends Thread
      * @author Zach Deibert
      * @param ar
      *            The instance to add to the queue
-     * @see readables
+     * @see registrations
      * @since 1.0
      */
-    static void add(final AsyncReadable ar)
+    void add(final AsyncReadable ar)
+    {
+        registrations.add(ar);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the runner to write out the data that a task has queued
+     * 
+     * @author Zach Deibert
+     * @param ar
+     *            The task that has data to write
+     * @see writes
+     * @since 1.3
+     */
+    void requestWrite(final AsyncReadable ar)
+    {
+        writes.add(ar);
+        if (Thread.currentThread() != this)
+        {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Asks the runner to write out the data that a task has queued once a
+     * deadline has passed. The selector is only woken up if it would
+     * otherwise sleep past the deadline.
+     * 
+     * @author Zach Deibert
+     * @param ar
+     *            The task that has data to write
+     * @param deadline
+     *            The value of {@link System#nanoTime()} to write the data at
+     * @see delayed
+     * @since 1.3
+     */
+    void requestWrite(final AsyncReadable ar, final long deadline)
+    {
+        delayedRequests.add(new DelayedWrite(ar, deadline));
+        if (Thread.currentThread() != this)
+        {
+            final long wake = wakeAt;
+            if (wake == Long.MAX_VALUE || deadline - wake < 0)
+            {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Runs a piece of code on this thread once it is not reading from or
+     * writing to any channel. If the thread has not started or has stopped,
+     * the code is run straight away on the calling thread.
+     * 
+     * @author Zach Deibert
+     * @param task
+     *            The code to run
+     * @see tasks
+     * @since 1.3
+     */
+    void execute(final Runnable task)
+    {
+        tasks.add(task);
+        if (stopped || getState() == State.NEW)
+        {
+            runTasks();
+        }
+        else if (Thread.currentThread() != this)
+        {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs all of the tasks that have been passed to {@link #execute}
+     * 
+     * @author Zach Deibert
+     * @see tasks
+     * @since 1.3
+     */
+    private void runTasks()
     {
-        synchronized (readables)
+        Runnable task;
+        while ((task = tasks.poll()) != null)
         {
-            readables.add(ar);
+            try
+            {
+                task.run();
+            }
+            catch (final RuntimeException ex)
+            {
+                NetworkErrors.networkError(ex);
+            }
         }
     }
 
@@ -79,14 +324,238 @@ final class AsyncRunner extends Thread
      * @author Zach Deibert
      * @param ar
      *            The instance to remove from the queue
-     * @see readables
      * @since 1.0
      */
-    static void remove(final AsyncReadable ar)
+    void remove(final AsyncReadable ar)
+    {
+        final SelectionKey key = ar.key;
+        if (key != null)
+        {
+            key.cancel();
+        }
+    }
+
+    /**
+     * Stops the thread after the current iteration has finished
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Checks if the thread is running or is about to start running
+     * 
+     * @author Zach Deibert
+     * @return If the thread has not been shut down
+     * @since 1.3
+     */
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Starts the thread
+     * 
+     * @author Zach Deibert
+     * @see run
+     * @since 1.3
+     */
+    @Override
+    public void start()
+    {
+        super.start();
+        activeRunners.add(this);
+    }
+
+    /**
+     * Registers all of the queued tasks with the selector
+     * 
+     * @author Zach Deibert
+     * @see registrations
+     * @since 1.3
+     */
+    private void register()
+    {
+        AsyncReadable ar;
+        while ((ar = registrations.poll()) != null)
+        {
+            final SelectableChannel channel = ar.getChannel();
+            if (ar.closed || channel == null || !channel.isOpen())
+            {
+                continue;
+            }
+            try
+            {
+                ar.key = channel.register(selector, SelectionKey.OP_READ, ar);
+            }
+            catch (final ClosedChannelException ex)
+            {
+                ar.key = null;
+            }
+        }
+    }
+
+    /**
+     * Works out how long the selector can sleep for
+     * 
+     * @author Zach Deibert
+     * @return The number of milliseconds to sleep, 0 to sleep until a channel
+     *         is ready, or -1 if the selector should not sleep at all
+     * @since 1.3
+     */
+    private long timeout()
+    {
+        while (true)
+        {
+            DelayedWrite request;
+            while ((request = delayedRequests.poll()) != null)
+            {
+                delayed.add(request);
+            }
+            if (!writes.isEmpty() || !tasks.isEmpty())
+            {
+                return -1;
+            }
+            final DelayedWrite next = delayed.peek();
+            wakeAt = next == null ? Long.MAX_VALUE : next.deadline;
+            // A request added before wakeAt was published may not have woken
+            // the selector, so it has to be picked up now
+            if (!delayedRequests.isEmpty())
+            {
+                continue;
+            }
+            if (next == null)
+            {
+                return 0;
+            }
+            final long delay = next.deadline - System.nanoTime();
+            if (delay <= 0)
+            {
+                return -1;
+            }
+            return (delay + 999999) / 1000000;
+        }
+    }
+
+    /**
+     * Moves the delayed writes whose deadlines have passed into the write
+     * queue
+     * 
+     * @author Zach Deibert
+     * @see delayed
+     * @see writes
+     * @since 1.3
+     */
+    private void expire()
+    {
+        final long now = System.nanoTime();
+        DelayedWrite next;
+        while ((next = delayed.peek()) != null && next.deadline - now <= 0)
+        {
+            delayed.poll();
+            writes.add(next.readable);
+        }
+    }
+
+    /**
+     * Writes out the data that tasks have queued. Tasks whose channels cannot
+     * accept all of their data are woken up again once they can accept more.
+     * 
+     * @author Zach Deibert
+     * @see writes
+     * @since 1.3
+     */
+    private void write()
+    {
+        AsyncReadable ar;
+        while ((ar = writes.poll()) != null)
+        {
+            final SelectionKey key = ar.key;
+            if (key == null || !key.isValid())
+            {
+                continue;
+            }
+            try
+            {
+                // Draining can close the connection and cancel its key
+                if (!ar.drain() && key.isValid())
+                {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+            catch (final Exception ex)
+            {
+                fail(key, ex);
+            }
+        }
+    }
+
+    /**
+     * Reads from or writes to a task whose channel is ready
+     * 
+     * @author Zach Deibert
+     * @param key
+     *            The selection key of the task
+     * @since 1.3
+     */
+    private void process(final SelectionKey key)
+    {
+        final AsyncReadable readable = (AsyncReadable) key.attachment();
+        if (!key.isValid() || readable.closed)
+        {
+            key.cancel();
+            return;
+        }
+        try
+        {
+            if (key.isReadable())
+            {
+                readable.iteration();
+            }
+            if (key.isValid() && key.isWritable() && readable.drain()
+                            && key.isValid())
+            {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        catch (final Exception ex)
+        {
+            fail(key, ex);
+        }
+    }
+
+    /**
+     * Closes a task after an error has occurred
+     * 
+     * @author Zach Deibert
+     * @param key
+     *            The selection key of the task
+     * @param ex
+     *            The error
+     * @since 1.3
+     */
+    private void fail(final SelectionKey key, final Exception ex)
     {
-        synchronized (readables)
+        final AsyncReadable readable = (AsyncReadable) key.attachment();
+        NetworkErrors.networkError(ex, readable);
+        key.cancel();
+        if (!readable.closed)
         {
-            readables.remove(ar);
+            readable.closed = true;
+            try
+            {
+                readable.connectionLost();
+            }
+            catch (final Exception e)
+            {
+                NetworkErrors.networkError(e, readable);
+            }
         }
     }
 
@@ -94,39 +563,92 @@ final class AsyncRunner extends Thread
      * Processes the asynchronous execution queue
      * 
      * @author Zach Deibert
-     * @see readables
      * @since 1.0
      */
     @Override
     public void run()
     {
-        final List<AsyncReadable> copy = new LinkedList<AsyncReadable>();
         while (running)
         {
-            copy.clear();
-            synchronized (readables)
-            {
-                copy.addAll(readables);
-            }
-            for (final AsyncReadable readable : copy)
+            try
             {
-                if (readable.closed)
+                final long timeout = timeout();
+                if (timeout < 0)
                 {
-                    remove(readable);
+                    selector.selectNow();
                 }
                 else
                 {
-                    try
-                    {
-                        readable.iteration();
-                    }
-                    catch (final Exception ex)
-                    {
-                    	final Object o = this;
-                    	NetworkErrors.networkError(ex, o instanceof NetworkNode ? (NetworkNode) o : null);
-                    }
+                    selector.select(timeout);
                 }
             }
+            catch (final IOException ex)
+            {
+                NetworkErrors.networkError(ex);
+                continue;
+            }
+            final boolean timed = Metrics.isTimingEnabled();
+            final long start = timed ? System.nanoTime() : 0;
+            runTasks();
+            register();
+            expire();
+            write();
+            final Iterator<SelectionKey> it = selector.selectedKeys()
+                            .iterator();
+            while (it.hasNext())
+            {
+                final SelectionKey key = it.next();
+                it.remove();
+                process(key);
+            }
+            if (timed)
+            {
+                Metrics.loop(System.nanoTime() - start);
+            }
+        }
+        stopped = true;
+        activeRunners.remove(this);
+        runTasks();
+        try
+        {
+            selector.close();
+        }
+        catch (final IOException ex)
+        {
+            NetworkErrors.networkError(ex);
+        }
+    }
+
+    /**
+     * Creates a new runner. The thread must be started before it will run
+     * any tasks.
+     * 
+     * @author Zach Deibert
+     * @param index
+     *            The index of this runner in its group
+     * @since 1.3
+     * @throws UncheckedIOException
+     *             The selector could not be opened
+     */
+    AsyncRunner(final int index)
+    {
+        super("JNet AsyncRunner " + index);
+        init();
+        this.index = index;
+        try
+        {
+            selector = Selector.open();
+        }
+        catch (final IOException ex)
+        {
+            throw new UncheckedIOException(ex);
         }
+        registrations = new ConcurrentLinkedQueue<AsyncReadable>();
+        writes = new ConcurrentLinkedQueue<AsyncReadable>();
+        delayedRequests = new ConcurrentLinkedQueue<DelayedWrite>();
+        delayed = new PriorityQueue<DelayedWrite>();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        wakeAt = Long.MAX_VALUE;
+        running = true;
     }
 }
@@ -0,0 +1,147 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed size group of runners that connections are spread across. Each
+ * connection is pinned to one runner for its whole lifetime, so packets from
+ * one connection are handled in order while different connections can be
+ * handled on different cores.
+ * 
+ * @author Zach Deibert
+ * @see AsyncRunner
+ * @since 1.3
+ * @version 1.3
+ */
+final class AsyncRunnerGroup
+{
+    /**
+     * The group that is shared by every node that does not have its own group,
+     * or null if it has not been created
+     * 
+     * @author Zach Deibert
+     * @see getDefault
+     * @since 1.3
+     */
+    private static AsyncRunnerGroup defaultGroup;
+    /**
+     * The runners in this group. A runner is only started once the first
+     * connection is assigned to it.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final AsyncRunner[]     runners;
+    /**
+     * The counter used to assign connections to runners in turn
+     * 
+     * @author Zach Deibert
+     * @see next
+     * @since 1.3
+     */
+    private final AtomicInteger     counter;
+
+    /**
+     * Gets the group that is shared by every node that does not have its own
+     * group. It has one runner for every processor.
+     * 
+     * @author Zach Deibert
+     * @return The default group
+     * @since 1.3
+     */
+    static synchronized AsyncRunnerGroup getDefault()
+    {
+        if (defaultGroup == null)
+        {
+            defaultGroup = new AsyncRunnerGroup(Runtime.getRuntime()
+                            .availableProcessors());
+        }
+        return defaultGroup;
+    }
+
+    /**
+     * Gets the number of runners in this group
+     * 
+     * @author Zach Deibert
+     * @return The number of runners
+     * @since 1.3
+     */
+    int size()
+    {
+        return runners.length;
+    }
+
+    /**
+     * Gets a runner, starting it if it is not already running
+     * 
+     * @author Zach Deibert
+     * @param index
+     *            The index of the runner
+     * @return The runner
+     * @since 1.3
+     */
+    synchronized AsyncRunner get(final int index)
+    {
+        AsyncRunner runner = runners[index];
+        if (runner == null || !runner.isRunning())
+        {
+            runner = new AsyncRunner(index);
+            runner.start();
+            runners[index] = runner;
+        }
+        return runner;
+    }
+
+    /**
+     * Gets the runner that the next connection should be assigned to
+     * 
+     * @author Zach Deibert
+     * @return The runner
+     * @since 1.3
+     */
+    AsyncRunner next()
+    {
+        return get((counter.getAndIncrement() & Integer.MAX_VALUE)
+                        % runners.length);
+    }
+
+    /**
+     * Stops all of the runners in this group. They will be started again if
+     * any more connections are assigned to them.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    synchronized void shutdown()
+    {
+        for (int i = 0; i < runners.length; ++i)
+        {
+            if (runners[i] != null)
+            {
+                runners[i].shutdown();
+                runners[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a new group of runners
+     * 
+     * @author Zach Deibert
+     * @param size
+     *            The number of runners in the group
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The size is less than one
+     */
+    AsyncRunnerGroup(final int size)
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException(
+                            "There must be at least one runner");
+        }
+        runners = new AsyncRunner[size];
+        counter = new AtomicInteger();
+    }
+}
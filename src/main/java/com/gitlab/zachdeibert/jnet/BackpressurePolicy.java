@@ -0,0 +1,49 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * What happens when a packet is sent to a connection that already has more
+ * data waiting to be written than its high watermark allows
+ * 
+ * @author Zach Deibert
+ * @see AsyncDeserializer#setWatermarks(long, long)
+ * @since 1.3
+ * @version 1.3
+ */
+public enum BackpressurePolicy {
+	/**
+	 * The sending thread waits until the connection has written enough data to
+	 * fall back to its low watermark. Packets sent from the threads that read
+	 * from connections are queued without waiting, since those threads are
+	 * the ones that write the data out.
+	 * 
+	 * @since 1.3
+	 */
+	BLOCK,
+	/**
+	 * The oldest packets that have not started being written are thrown away
+	 * to make room for the new packet
+	 * 
+	 * @since 1.3
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new packet is thrown away
+	 * 
+	 * @since 1.3
+	 */
+	DROP_NEWEST,
+	/**
+	 * The new packet replaces a queued packet with the same id that has not
+	 * started being written, so only the latest state is sent. If there is no
+	 * such packet, the new packet is queued anyway.
+	 * 
+	 * @since 1.3
+	 */
+	COALESCE,
+	/**
+	 * The connection is treated as a slow consumer and is closed
+	 * 
+	 * @since 1.3
+	 */
+	DISCONNECT
+}
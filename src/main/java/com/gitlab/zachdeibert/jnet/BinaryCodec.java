@@ -0,0 +1,85 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * A codec for packets that implement {@link BinaryPacket}. It must be
+ * registered for the packet's id on both ends of the connection:
+ * 
+ * <pre>
+ * PacketCodecs.register(5, new BinaryCodec&lt;PositionPacket&gt;(PositionPacket::new));
+ * </pre>
+ * 
+ * Passing a {@link Recycler} as the factory makes the codec fill in pooled
+ * packets instead of creating a new one for every packet that is received.
+ * 
+ * @author Zach Deibert
+ * @param <T>
+ *            The type of packet
+ * @see PacketCodecs#register(int, PacketCodec)
+ * @see Recycler
+ * @since 1.3
+ * @version 1.3
+ */
+public final class BinaryCodec<T extends Packet & BinaryPacket> implements PacketCodec {
+	/**
+	 * Creates empty packets for the decoder to fill in
+	 * 
+	 * @since 1.3
+	 */
+	private final Supplier<T> factory;
+
+	/**
+	 * Writes the fields of the packet
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             An error has occurred
+	 * @since 1.3
+	 */
+	@Override
+	public void encode(final Packet packet, final PacketOutput out) throws IOException {
+		((BinaryPacket) packet).write(out);
+	}
+
+	/**
+	 * Creates a new packet and reads its fields
+	 * 
+	 * @param id
+	 *            The id of the packet
+	 * @param in
+	 *            The data to read from
+	 * @return The packet
+	 * @throws IOException
+	 *             An error has occurred
+	 * @since 1.3
+	 */
+	@Override
+	public Packet decode(final int id, final PacketInput in) throws IOException {
+		final T packet = factory.get();
+		packet.id = id;
+		try {
+			packet.read(in);
+		} catch ( final IOException | RuntimeException ex ) {
+			packet.release();
+			throw ex;
+		}
+		return packet;
+	}
+
+	/**
+	 * Creates a new codec
+	 * 
+	 * @param factory
+	 *            Creates an empty packet for every packet that is received,
+	 *            or gets one from a {@link Recycler}
+	 * @since 1.3
+	 */
+	public BinaryCodec(final Supplier<T> factory) {
+		this.factory = factory;
+	}
+}
@@ -0,0 +1,38 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * A packet that writes and reads its own fields. This is much more compact
+ * than Java serialization, because no class information has to be sent with
+ * the packet.
+ * 
+ * @author Zach Deibert
+ * @see BinaryCodec
+ * @since 1.3
+ * @version 1.3
+ */
+public interface BinaryPacket {
+	/**
+	 * Writes the fields of this packet
+	 * 
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             An error has occurred
+	 * @since 1.3
+	 */
+	void write(PacketOutput out) throws IOException;
+
+	/**
+	 * Reads the fields of this packet. They must be read in the same order
+	 * that they were written by {@link #write(PacketOutput)}.
+	 * 
+	 * @param in
+	 *            The data to read from
+	 * @throws IOException
+	 *             An error has occurred
+	 * @since 1.3
+	 */
+	void read(PacketInput in) throws IOException;
+}
@@ -0,0 +1,334 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The pool of direct buffers that packets are encoded into and read from.
+ * Buffers are grouped into size classes of powers of two. Each platform
+ * thread that acquires buffers keeps a few buffers of each class for itself,
+ * and buffers that do not fit in a thread's cache, or that are released by a
+ * thread without a cache, go to a pool shared by all threads. Buffers that are bigger
+ * than the largest class are allocated on the heap and are not pooled.
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public final class BufferPool {
+	/**
+	 * A stack of buffers of one size class that is shared by all threads
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Stack {
+		/**
+		 * The buffers in the stack
+		 * 
+		 * @since 1.3
+		 */
+		private final ByteBuffer[] buffers;
+		/**
+		 * The number of buffers in the stack
+		 * 
+		 * @since 1.3
+		 */
+		private int size;
+
+		/**
+		 * Takes a buffer off the stack
+		 * 
+		 * @return The buffer, or <code>null</code> if the stack is empty
+		 * @since 1.3
+		 */
+		synchronized ByteBuffer pop() {
+			if ( size == 0 ) {
+				return null;
+			}
+			final ByteBuffer buffer = buffers[--size];
+			buffers[size] = null;
+			return buffer;
+		}
+
+		/**
+		 * Puts a buffer on the stack
+		 * 
+		 * @param buffer
+		 *            The buffer
+		 * @return If there was room for the buffer
+		 * @since 1.3
+		 */
+		synchronized boolean push(final ByteBuffer buffer) {
+			if ( size == buffers.length ) {
+				return false;
+			}
+			buffers[size++] = buffer;
+			return true;
+		}
+
+		/**
+		 * Creates an empty stack
+		 * 
+		 * @param capacity
+		 *            The most buffers the stack can hold
+		 * @since 1.3
+		 */
+		Stack(final int capacity) {
+			buffers = new ByteBuffer[capacity];
+		}
+	}
+
+	/**
+	 * The buffers of each size class that a single thread keeps for itself
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Cache {
+		/**
+		 * The buffers of each class
+		 * 
+		 * @since 1.3
+		 */
+		final ByteBuffer[][] buffers = new ByteBuffer[CLASSES][THREAD_CACHE_SIZE];
+		/**
+		 * The number of buffers of each class
+		 * 
+		 * @since 1.3
+		 */
+		final int[] sizes = new int[CLASSES];
+	}
+
+	/**
+	 * The log base 2 of the capacity of the smallest size class
+	 * 
+	 * @since 1.3
+	 */
+	private static final int MIN_SHIFT = 6;
+	/**
+	 * The log base 2 of the capacity of the largest size class
+	 * 
+	 * @since 1.3
+	 */
+	private static final int MAX_SHIFT = 20;
+	/**
+	 * The number of size classes
+	 * 
+	 * @since 1.3
+	 */
+	private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+	/**
+	 * The most buffers of each class that a thread keeps for itself
+	 * 
+	 * @since 1.3
+	 */
+	private static final int THREAD_CACHE_SIZE = 16;
+	/**
+	 * The most bytes of each class that the shared pool holds on to
+	 * 
+	 * @since 1.3
+	 */
+	private static final int SHARED_BYTES = 4 * 1024 * 1024;
+	/**
+	 * The most buffers of each class that the shared pool holds on to
+	 * 
+	 * @since 1.3
+	 */
+	private static final int SHARED_BUFFERS = 1024;
+	/**
+	 * The shared pool for each class
+	 * 
+	 * @since 1.3
+	 */
+	private static final Stack[] shared = new Stack[CLASSES];
+	/**
+	 * The cache of the current thread, or <code>null</code> if it does not
+	 * have one
+	 * 
+	 * @since 1.3
+	 */
+	private static final ThreadLocal<Cache> caches = new ThreadLocal<Cache>();
+	/**
+	 * The number of buffers that have been handed out
+	 * 
+	 * @since 1.3
+	 */
+	private static final LongAdder acquired = new LongAdder();
+	/**
+	 * The number of buffers that have been handed out without allocating a new
+	 * one
+	 * 
+	 * @since 1.3
+	 */
+	private static final LongAdder hits = new LongAdder();
+	/**
+	 * The number of buffers that have been given back
+	 * 
+	 * @since 1.3
+	 */
+	private static final LongAdder released = new LongAdder();
+
+	static {
+		for ( int i = 0; i < CLASSES; ++i ) {
+			shared[i] = new Stack(Math.max(1, Math.min(SHARED_BUFFERS, SHARED_BYTES >> (MIN_SHIFT + i))));
+		}
+	}
+
+	/**
+	 * Gets the cache of the current thread, creating it the first time a
+	 * thread acquires a buffer. Threads that only release buffers do not get
+	 * a cache, so the buffers go back to the shared pool where the threads
+	 * that acquire them can find them. Virtual threads never get a cache,
+	 * since there is a new one for each packet.
+	 * 
+	 * @return The cache, or <code>null</code> if the current thread does not
+	 *         have one
+	 * @since 1.3
+	 */
+	private static Cache cache() {
+		Cache cache = caches.get();
+		if ( cache == null && !HandlerExecutors.isVirtualThread() ) {
+			cache = new Cache();
+			caches.set(cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the size class that a buffer of some capacity comes from
+	 * 
+	 * @param capacity
+	 *            The capacity
+	 * @return The index of the smallest class that can hold that many bytes,
+	 *         or {@link #CLASSES} if no class is big enough
+	 * @since 1.3
+	 */
+	private static int sizeClass(final int capacity) {
+		if ( capacity <= 1 << MIN_SHIFT ) {
+			return 0;
+		}
+		return Math.min(CLASSES, 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT);
+	}
+
+	/**
+	 * Gets a buffer that can hold at least some number of bytes. The buffer
+	 * is cleared and should be given back with {@link #release(ByteBuffer)}
+	 * once it is no longer being used.
+	 * 
+	 * @param capacity
+	 *            The number of bytes the buffer must hold
+	 * @return The buffer
+	 * @since 1.3
+	 */
+	static ByteBuffer acquire(final int capacity) {
+		acquired.increment();
+		final int index = sizeClass(capacity);
+		if ( index == CLASSES ) {
+			return ByteBuffer.allocate(capacity);
+		}
+		final Cache cache = cache();
+		ByteBuffer buffer;
+		if ( cache != null && cache.sizes[index] > 0 ) {
+			final int size = --cache.sizes[index];
+			buffer = cache.buffers[index][size];
+			cache.buffers[index][size] = null;
+		} else {
+			buffer = shared[index].pop();
+		}
+		if ( buffer == null ) {
+			return ByteBuffer.allocateDirect(1 << (MIN_SHIFT + index));
+		}
+		hits.increment();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used after it
+	 * has been given back. Buffers that did not come from the pool are
+	 * ignored.
+	 * 
+	 * @param buffer
+	 *            The buffer
+	 * @since 1.3
+	 */
+	static void release(final ByteBuffer buffer) {
+		released.increment();
+		final int capacity = buffer.capacity();
+		if ( !buffer.isDirect() || Integer.bitCount(capacity) != 1 ) {
+			return;
+		}
+		final int index = sizeClass(capacity);
+		if ( index == CLASSES || capacity < 1 << MIN_SHIFT ) {
+			return;
+		}
+		final Cache cache = caches.get();
+		if ( cache != null && cache.sizes[index] < THREAD_CACHE_SIZE ) {
+			cache.buffers[index][cache.sizes[index]++] = buffer;
+		} else {
+			shared[index].push(buffer);
+		}
+	}
+
+	/**
+	 * Gets the number of buffers that have been handed out by the pool
+	 * 
+	 * @return The number of buffers
+	 * @since 1.3
+	 */
+	public static long getAcquired() {
+		return acquired.sum();
+	}
+
+	/**
+	 * Gets the number of buffers that were handed out without allocating a
+	 * new buffer
+	 * 
+	 * @return The number of buffers
+	 * @since 1.3
+	 */
+	public static long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of buffers that had to be allocated because the pool
+	 * did not have one of the right size
+	 * 
+	 * @return The number of buffers
+	 * @since 1.3
+	 */
+	public static long getMisses() {
+		return acquired.sum() - hits.sum();
+	}
+
+	/**
+	 * Gets the fraction of buffers that were handed out without allocating a
+	 * new buffer
+	 * 
+	 * @return The hit rate, from 0 to 1
+	 * @since 1.3
+	 */
+	public static double getHitRate() {
+		final long total = acquired.sum();
+		return total == 0 ? 0 : (double) hits.sum() / total;
+	}
+
+	/**
+	 * Gets the number of buffers that have been handed out and not given back
+	 * yet. If this keeps growing, buffers are being leaked.
+	 * 
+	 * @return The number of buffers
+	 * @since 1.3
+	 */
+	public static long getOutstanding() {
+		return acquired.sum() - released.sum();
+	}
+
+	/**
+	 * This class only contains static members
+	 * 
+	 * @since 1.3
+	 */
+	private BufferPool() {
+	}
+}
@@ -0,0 +1,326 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The compression settings of a connection. When a client connects it offers
+ * its codecs in order of preference, and the server picks the first one it
+ * also supports. Once a codec has been agreed on, each end compresses the
+ * packets it sends that are at least as large as its own threshold, as long
+ * as that makes them smaller. Packets that are not compressed are sent
+ * exactly as they would be without compression, so small packets pay
+ * nothing. If the codec that is agreed on compresses streams, the threshold
+ * is ignored and everything after the handshake is compressed as one stream
+ * instead, so even small packets benefit from data that was sent before them.
+ * Packets larger than the maximum frame size are never compressed, and a
+ * compressed packet that would decompress to more than it is rejected before
+ * any space is set aside for it, so both ends should use the same maximum.
+ * 
+ * <pre>
+ * client.setCompression(Compression.of(256, DeflateCodec.INSTANCE));
+ * </pre>
+ * 
+ * @author Zach Deibert
+ * @see NetworkClient#setCompression(Compression)
+ * @see NetworkServer#setCompression(Compression)
+ * @since 1.3
+ * @version 1.3
+ */
+public final class Compression {
+	/**
+	 * The settings that never compress anything
+	 * 
+	 * @since 1.3
+	 */
+	public static final Compression NONE = new Compression(0, new CompressionCodec[0], Compression.DEFAULT_MAX_FRAME_SIZE);
+	/**
+	 * The default largest packet that is compressed or decompressed, in bytes
+	 * 
+	 * @since 1.3
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+	/**
+	 * The most bytes of scratch space each thread keeps between packets
+	 * 
+	 * @since 1.3
+	 */
+	private static final int MAX_SCRATCH = 1024 * 1024;
+	/**
+	 * The number of bytes a compressed frame adds in front of the compressed
+	 * data, at most
+	 * 
+	 * @since 1.3
+	 */
+	private static final int OVERHEAD = 2 * PacketCodecs.MAX_VAR_INT_LENGTH;
+	/**
+	 * The array each thread copies data into before it is compressed or
+	 * decompressed
+	 * 
+	 * @since 1.3
+	 */
+	private static final ThreadLocal<byte[]> sources = new ThreadLocal<byte[]>();
+	/**
+	 * The array each thread compresses or decompresses data into
+	 * 
+	 * @since 1.3
+	 */
+	private static final ThreadLocal<byte[]> targets = new ThreadLocal<byte[]>();
+	/**
+	 * The smallest packet that is compressed, in bytes
+	 * 
+	 * @since 1.3
+	 */
+	private final int threshold;
+	/**
+	 * The largest packet that is compressed or decompressed, in bytes
+	 * 
+	 * @since 1.3
+	 */
+	private final int maxFrameSize;
+	/**
+	 * The codecs that can be used, in order of preference
+	 * 
+	 * @since 1.3
+	 */
+	private final List<CompressionCodec> codecs;
+
+	/**
+	 * Creates compression settings
+	 * 
+	 * @param threshold
+	 *            The smallest packet to compress, in bytes
+	 * @param codecs
+	 *            The codecs that can be used, in order of preference
+	 * @return The settings
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The threshold is negative, or two codecs have the same name
+	 */
+	public static Compression of(final int threshold, final CompressionCodec... codecs) {
+		if ( threshold < 0 ) {
+			throw new IllegalArgumentException("The threshold cannot be negative");
+		}
+		for ( int i = 0; i < codecs.length; ++i ) {
+			for ( int j = 0; j < i; ++j ) {
+				if ( codecs[i].getName().equals(codecs[j].getName()) ) {
+					throw new IllegalArgumentException("Two codecs have the same name");
+				}
+			}
+		}
+		return new Compression(threshold, codecs.clone(), DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * Creates a copy of these settings with a different maximum frame size
+	 * 
+	 * @param maxFrameSize
+	 *            The largest packet to compress or decompress, in bytes
+	 * @return The new settings
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The size is not positive
+	 */
+	public Compression withMaxFrameSize(final int maxFrameSize) {
+		if ( maxFrameSize <= 0 ) {
+			throw new IllegalArgumentException("The maximum frame size must be positive");
+		}
+		return new Compression(threshold, codecs.toArray(new CompressionCodec[codecs.size()]), maxFrameSize);
+	}
+
+	/**
+	 * Gets the smallest packet that is compressed
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Gets the largest packet that is compressed or decompressed
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/**
+	 * Gets the codecs that can be used
+	 * 
+	 * @return The codecs, in order of preference
+	 * @since 1.3
+	 */
+	public List<CompressionCodec> getCodecs() {
+		return codecs;
+	}
+
+	/**
+	 * Finds a codec by name
+	 * 
+	 * @param name
+	 *            The name of the codec
+	 * @return The codec, or <code>null</code> if it cannot be used
+	 * @since 1.3
+	 */
+	CompressionCodec find(final String name) {
+		for ( final CompressionCodec codec : codecs ) {
+			if ( codec.getName().equals(name) ) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets an array for a thread to use as scratch space
+	 * 
+	 * @param arrays
+	 *            The arrays of each thread
+	 * @param length
+	 *            The number of bytes the array must hold
+	 * @return The array
+	 * @since 1.3
+	 */
+	private static byte[] scratch(final ThreadLocal<byte[]> arrays, final int length) {
+		byte[] array = arrays.get();
+		if ( array == null || array.length < length ) {
+			array = new byte[length];
+			if ( length <= MAX_SCRATCH ) {
+				arrays.set(array);
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * Gets the index of the packet in a frame, just after its length
+	 * 
+	 * @param frame
+	 *            The frame, ready to be written to a channel
+	 * @return The index in the frame
+	 * @since 1.3
+	 */
+	private static int packetStart(final ByteBuffer frame) {
+		int start = frame.position();
+		while ( frame.get(start++) < 0 ) {
+		}
+		return start;
+	}
+
+	/**
+	 * Checks if a frame is large enough to compress, and no larger than the
+	 * maximum frame size
+	 * 
+	 * @param frame
+	 *            The frame, ready to be written to a channel
+	 * @return If the frame should be compressed
+	 * @since 1.3
+	 */
+	boolean wants(final ByteBuffer frame) {
+		final int length = frame.limit() - packetStart(frame);
+		return length >= threshold && length > OVERHEAD && length <= maxFrameSize;
+	}
+
+	/**
+	 * Compresses a frame if these settings want it compressed and compressing
+	 * it makes it smaller. The frame itself is not changed.
+	 * 
+	 * @param frame
+	 *            The frame, ready to be written to a channel
+	 * @param codec
+	 *            The codec to compress it with
+	 * @return A buffer from the {@link BufferPool} containing the compressed
+	 *         frame, or <code>null</code> if it was not compressed
+	 * @since 1.3
+	 */
+	ByteBuffer compress(final ByteBuffer frame, final CompressionCodec codec) {
+		return wants(frame) ? compressAlways(frame, codec) : null;
+	}
+
+	/**
+	 * Compresses a frame if compressing it makes it smaller, however large it
+	 * is. The frame itself is not changed.
+	 * 
+	 * @param frame
+	 *            The frame, ready to be written to a channel
+	 * @param codec
+	 *            The codec to compress it with
+	 * @return A buffer from the {@link BufferPool} containing the compressed
+	 *         frame, or <code>null</code> if it was not compressed
+	 * @see #wants(ByteBuffer)
+	 * @since 1.3
+	 */
+	static ByteBuffer compressAlways(final ByteBuffer frame, final CompressionCodec codec) {
+		final int start = packetStart(frame);
+		final int length = frame.limit() - start;
+		if ( length <= OVERHEAD ) {
+			return null;
+		}
+		final byte[] src = scratch(sources, length);
+		final ByteBuffer view = frame.duplicate();
+		view.position(start);
+		view.get(src, 0, length);
+		final byte[] dst = scratch(targets, length);
+		final int compressed = codec.compress(src, length, dst);
+		if ( compressed < 0 || compressed + OVERHEAD >= length ) {
+			return null;
+		}
+		final PacketOutput out = new PacketOutput();
+		out.skip(PacketCodecs.MAX_VAR_INT_LENGTH);
+		out.writeSignedVarInt(PacketCodecs.COMPRESSED_ID);
+		out.writeVarInt(length);
+		out.write(dst, 0, compressed);
+		return PacketCodecs.finish(out);
+	}
+
+	/**
+	 * Decompresses the rest of a compressed frame and points the input at the
+	 * decompressed data, which starts with the packet id
+	 * 
+	 * @param in
+	 *            The input, just after the length of the decompressed data
+	 * @param codec
+	 *            The codec the frame was compressed with
+	 * @param length
+	 *            The length of the decompressed data
+	 * @throws IOException
+	 *             The frame is corrupted, or would decompress to more than
+	 *             the maximum frame size
+	 * @since 1.3
+	 */
+	void decompress(final PacketInput in, final CompressionCodec codec, final int length) throws IOException {
+		if ( length < 0 || length > maxFrameSize ) {
+			throw new IOException("A compressed packet is larger than the maximum frame size");
+		}
+		final int compressed = in.available();
+		final byte[] src = scratch(sources, compressed);
+		in.read(src, 0, compressed);
+		final byte[] dst = scratch(targets, length);
+		codec.decompress(src, compressed, dst, length);
+		in.reset(ByteBuffer.wrap(dst), 0, length);
+	}
+
+	/**
+	 * Creates compression settings
+	 * 
+	 * @param threshold
+	 *            The smallest packet to compress, in bytes
+	 * @param codecs
+	 *            The codecs that can be used, in order of preference
+	 * @param maxFrameSize
+	 *            The largest packet to compress or decompress, in bytes
+	 * @since 1.3
+	 */
+	private Compression(final int threshold, final CompressionCodec[] codecs, final int maxFrameSize) {
+		this.threshold = threshold;
+		this.maxFrameSize = maxFrameSize;
+		this.codecs = Collections.unmodifiableList(Arrays.asList(codecs));
+	}
+}
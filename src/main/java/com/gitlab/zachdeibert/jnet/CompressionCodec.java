@@ -0,0 +1,71 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * A way of compressing the packets sent on a connection. Both ends of the
+ * connection agree on a codec by name when they connect, so a codec must have
+ * the same name and produce the same data everywhere it is used.
+ * Implementations must be safe to call from several threads at once.
+ * 
+ * @author Zach Deibert
+ * @see Compression
+ * @see DeflateCodec
+ * @since 1.3
+ * @version 1.3
+ */
+public interface CompressionCodec {
+	/**
+	 * Gets the name the codec is agreed on by
+	 * 
+	 * @return The name
+	 * @since 1.3
+	 */
+	String getName();
+
+	/**
+	 * Compresses some data
+	 * 
+	 * @param src
+	 *            The array that contains the data
+	 * @param length
+	 *            The number of bytes at the start of the array to compress
+	 * @param dst
+	 *            The array to write the compressed data to
+	 * @return The number of bytes written, or -1 if the compressed data does
+	 *         not fit in the array
+	 * @since 1.3
+	 */
+	int compress(byte[] src, int length, byte[] dst);
+
+	/**
+	 * Decompresses some data that was compressed by this codec
+	 * 
+	 * @param src
+	 *            The array that contains the compressed data
+	 * @param srcLength
+	 *            The number of bytes at the start of the array to decompress
+	 * @param dst
+	 *            The array to write the data to
+	 * @param dstLength
+	 *            The number of bytes the data decompresses to
+	 * @throws IOException
+	 *             The data is corrupted
+	 * @since 1.3
+	 */
+	void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException;
+
+	/**
+	 * Creates the state of a connection that compresses everything it sends
+	 * as one stream instead of compressing each packet on its own. Streams
+	 * compress small, similar packets much better, but every byte sent on the
+	 * connection goes through them.
+	 * 
+	 * @return The stream, or <code>null</code> if this codec compresses each
+	 *         packet on its own
+	 * @since 1.3
+	 */
+	default CompressionStream newStream() {
+		return null;
+	}
+}
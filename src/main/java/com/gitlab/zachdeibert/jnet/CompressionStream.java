@@ -0,0 +1,81 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The state of a connection that compresses everything it sends as one
+ * continuous stream, so later packets can refer back to data in earlier ones.
+ * It sits below the frames, so packets are framed exactly as they would be
+ * without compression. Each end of the connection has its own stream, which
+ * is only used by one thread at a time.
+ * 
+ * @author Zach Deibert
+ * @see CompressionCodec#newStream()
+ * @since 1.3
+ * @version 1.3
+ */
+public interface CompressionStream {
+	/**
+	 * Compresses a packet that is being sent. This is called once for each
+	 * frame, in the order they are written.
+	 * 
+	 * @param src
+	 *            The array that contains the frame
+	 * @param length
+	 *            The length of the frame
+	 * @param flush
+	 *            If this is the last frame that is about to be written, so
+	 *            everything compressed so far must be written out in a form
+	 *            the other end can decompress
+	 * @param out
+	 *            The stream to write the compressed data to
+	 * @throws IOException
+	 *             The data could not be written
+	 * @since 1.3
+	 */
+	void compress(byte[] src, int length, boolean flush, OutputStream out) throws IOException;
+
+	/**
+	 * Gives the stream more data that has been received
+	 * 
+	 * @param src
+	 *            The array that contains the compressed data. It must not be
+	 *            changed until {@link #needsInput()} returns <code>true</code>.
+	 * @param length
+	 *            The number of bytes at the start of the array
+	 * @since 1.3
+	 */
+	void setInput(byte[] src, int length);
+
+	/**
+	 * Checks if all of the data that has been received has been decompressed
+	 * 
+	 * @return If more data is needed
+	 * @since 1.3
+	 */
+	boolean needsInput();
+
+	/**
+	 * Decompresses data that has been received
+	 * 
+	 * @param dst
+	 *            The array to write the data to
+	 * @param offset
+	 *            The index to start writing at
+	 * @param length
+	 *            The most bytes to write
+	 * @return The number of bytes written, which is 0 if more data is needed
+	 * @throws IOException
+	 *             The data is corrupted
+	 * @since 1.3
+	 */
+	int decompress(byte[] dst, int offset, int length) throws IOException;
+
+	/**
+	 * Frees the resources of the stream once the connection has closed
+	 * 
+	 * @since 1.3
+	 */
+	void close();
+}
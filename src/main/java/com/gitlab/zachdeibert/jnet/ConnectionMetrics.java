@@ -0,0 +1,339 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of a single connection. Everything recorded here is also added
+ * to the metrics of the server the connection belongs to, if there is one,
+ * and to the metrics of the packet id.
+ * 
+ * @author Zach Deibert
+ * @see AsyncDeserializer#getMetrics()
+ * @see Metrics
+ * @since 1.3
+ * @version 1.3
+ */
+public final class ConnectionMetrics implements ConnectionMetricsMXBean {
+	/**
+	 * The connection these metrics are for
+	 * 
+	 * @since 1.3
+	 */
+	private final AsyncDeserializer node;
+	/**
+	 * The metrics of the server the connection belongs to, or
+	 * <code>null</code> if it does not belong to a server
+	 * 
+	 * @since 1.3
+	 */
+	private final ServerMetrics server;
+	/**
+	 * The packets that have been received
+	 * 
+	 * @since 1.3
+	 */
+	private final Meter packetsIn;
+	/**
+	 * The packets that have been written
+	 * 
+	 * @since 1.3
+	 */
+	private final Meter packetsOut;
+	/**
+	 * The bytes that have been read
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder bytesIn;
+	/**
+	 * The bytes that have been written
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder bytesOut;
+	/**
+	 * The packets that were dropped by the backpressure policy
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder dropped;
+	/**
+	 * How long it took to decode each packet
+	 * 
+	 * @since 1.3
+	 */
+	private final Histogram decodeTime;
+	/**
+	 * How long the handler of each packet took to run
+	 * 
+	 * @since 1.3
+	 */
+	private final Histogram handlerTime;
+	/**
+	 * The name these metrics are registered with JMX under, or
+	 * <code>null</code> if they are not registered
+	 * 
+	 * @since 1.3
+	 */
+	ObjectName name;
+
+	/**
+	 * Records data that has been read from the socket
+	 * 
+	 * @param bytes
+	 *            The number of bytes
+	 * @since 1.3
+	 */
+	void read(final int bytes) {
+		bytesIn.add(bytes);
+		if ( server != null ) {
+			server.bytesIn.add(bytes);
+		}
+	}
+
+	/**
+	 * Records a packet that has been decoded
+	 * 
+	 * @param id
+	 *            The id of the packet
+	 * @param length
+	 *            The length of the frame
+	 * @param nanos
+	 *            How long it took to decode the packet, or -1 if it was not
+	 *            timed
+	 * @since 1.3
+	 */
+	void decoded(final int id, final int length, final long nanos) {
+		packetsIn.mark();
+		if ( nanos >= 0 ) {
+			decodeTime.record(nanos);
+		}
+		if ( server != null ) {
+			server.packetsIn.mark();
+			if ( nanos >= 0 ) {
+				server.decodeTime.record(nanos);
+			}
+		}
+		if ( Metrics.isPacketMetricsEnabled() ) {
+			Metrics.received(id).received(length);
+		}
+	}
+
+	/**
+	 * Records a packet that has been handled
+	 * 
+	 * @param nanos
+	 *            How long the handler took to run
+	 * @since 1.3
+	 */
+	void handled(final long nanos) {
+		handlerTime.record(nanos);
+		if ( server != null ) {
+			server.handlerTime.record(nanos);
+		}
+	}
+
+	/**
+	 * Records data that has been written to the socket
+	 * 
+	 * @param bytes
+	 *            The number of bytes
+	 * @since 1.3
+	 */
+	void wrote(final long bytes) {
+		bytesOut.add(bytes);
+		if ( server != null ) {
+			server.bytesOut.add(bytes);
+		}
+	}
+
+	/**
+	 * Records a packet that has been completely written to the socket
+	 * 
+	 * @param id
+	 *            The id of the packet
+	 * @param length
+	 *            The length of the frame
+	 * @since 1.3
+	 */
+	void sent(final int id, final int length) {
+		packetsOut.mark();
+		if ( server != null ) {
+			server.packetsOut.mark();
+		}
+		if ( Metrics.isPacketMetricsEnabled() ) {
+			Metrics.packet(id).sent(length);
+		}
+	}
+
+	/**
+	 * Records a packet that was dropped by the backpressure policy
+	 * 
+	 * @since 1.3
+	 */
+	void dropped() {
+		dropped.increment();
+		if ( server != null ) {
+			server.dropped.increment();
+		}
+	}
+
+	/**
+	 * Gets the address of the other end of the connection
+	 * 
+	 * @return The address, or <code>null</code> if it is not connected
+	 * @since 1.3
+	 */
+	@Override
+	public String getRemoteAddress() {
+		final SocketAddress address = node.socket == null ? null : node.socket.getRemoteSocketAddress();
+		return address == null ? null : address.toString();
+	}
+
+	/**
+	 * Gets the number of packets that have been received
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getPacketsIn() {
+		return packetsIn.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been received per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	@Override
+	public double getPacketsInRate() {
+		return packetsIn.getRate();
+	}
+
+	/**
+	 * Gets the number of packets that have been written to the socket
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getPacketsOut() {
+		return packetsOut.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been written to the socket per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	@Override
+	public double getPacketsOutRate() {
+		return packetsOut.getRate();
+	}
+
+	/**
+	 * Gets the number of bytes that have been read from the socket
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * Gets the number of bytes that have been written to the socket
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Gets the number of packets that were dropped by the backpressure policy
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Gets the number of bytes that are waiting to be written
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public long getPendingBytes() {
+		return node.getPendingBytes();
+	}
+
+	/**
+	 * Gets the number of packets that are waiting to be written
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public int getPendingPackets() {
+		return node.getPendingPackets();
+	}
+
+	/**
+	 * Gets how long it took to decode each packet, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	@Override
+	public HistogramSnapshot getDecodeTime() {
+		return decodeTime.snapshot();
+	}
+
+	/**
+	 * Gets how long the handler of each packet took to run, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	@Override
+	public HistogramSnapshot getHandlerTime() {
+		return handlerTime.snapshot();
+	}
+
+	/**
+	 * Creates the metrics for a connection
+	 * 
+	 * @param node
+	 *            The connection
+	 * @param server
+	 *            The metrics of the server the connection belongs to, or
+	 *            <code>null</code> if it does not belong to a server
+	 * @since 1.3
+	 */
+	ConnectionMetrics(final AsyncDeserializer node, final ServerMetrics server) {
+		this.node = node;
+		this.server = server;
+		packetsIn = new Meter();
+		packetsOut = new Meter();
+		bytesIn = new LongAdder();
+		bytesOut = new LongAdder();
+		dropped = new LongAdder();
+		decodeTime = new Histogram();
+		handlerTime = new Histogram();
+	}
+}
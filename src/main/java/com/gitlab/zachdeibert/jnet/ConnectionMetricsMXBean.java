@@ -0,0 +1,109 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * The metrics of a single connection that are exposed through JMX
+ * 
+ * @author Zach Deibert
+ * @see ConnectionMetrics
+ * @since 1.3
+ * @version 1.3
+ */
+public interface ConnectionMetricsMXBean {
+	/**
+	 * Gets the address of the other end of the connection
+	 * 
+	 * @return The address, or <code>null</code> if it is not connected
+	 * @since 1.3
+	 */
+	String getRemoteAddress();
+
+	/**
+	 * Gets the number of packets that have been received
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getPacketsIn();
+
+	/**
+	 * Gets the number of packets that have been received per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	double getPacketsInRate();
+
+	/**
+	 * Gets the number of packets that have been written to the socket
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getPacketsOut();
+
+	/**
+	 * Gets the number of packets that have been written to the socket per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	double getPacketsOutRate();
+
+	/**
+	 * Gets the number of bytes that have been read from the socket
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	long getBytesIn();
+
+	/**
+	 * Gets the number of bytes that have been written to the socket
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	long getBytesOut();
+
+	/**
+	 * Gets the number of packets that were dropped by the backpressure policy
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getDropped();
+
+	/**
+	 * Gets the number of bytes that are waiting to be written
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	long getPendingBytes();
+
+	/**
+	 * Gets the number of packets that are waiting to be written
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	int getPendingPackets();
+
+	/**
+	 * Gets how long it took to decode each packet, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	HistogramSnapshot getDecodeTime();
+
+	/**
+	 * Gets how long the handler of each packet took to run, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	HistogramSnapshot getHandlerTime();
+}
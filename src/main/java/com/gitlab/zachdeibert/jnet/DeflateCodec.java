@@ -0,0 +1,387 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A codec that compresses packets with the deflate algorithm built into Java.
+ * Each thread keeps its own deflater and inflater, so compressing a packet
+ * does not allocate anything. The codec can be primed with a preset
+ * dictionary of data that is often sent, such as a capture of real traffic,
+ * which makes small packets compress much better. Both ends of the connection
+ * must use the same dictionary, so it is part of the name the codec is agreed
+ * on by.
+ * 
+ * <pre>
+ * Compression.of(0, DeflateCodec.streaming(Deflater.DEFAULT_COMPRESSION, dictionary, false), DeflateCodec.INSTANCE);
+ * </pre>
+ * 
+ * @author Zach Deibert
+ * @see Compression
+ * @since 1.3
+ * @version 1.3
+ */
+public final class DeflateCodec implements CompressionCodec {
+	/**
+	 * The state of a connection that compresses everything it sends as one
+	 * deflate stream, flushing it at the end of each batch or packet
+	 * 
+	 * @since 1.3
+	 */
+	private final class Stream implements CompressionStream {
+		/**
+		 * The deflater that compresses the data being sent
+		 * 
+		 * @since 1.3
+		 */
+		private final Deflater deflater;
+		/**
+		 * The inflater that decompresses the data being received
+		 * 
+		 * @since 1.3
+		 */
+		private final Inflater inflater;
+		/**
+		 * The array the deflater writes into
+		 * 
+		 * @since 1.3
+		 */
+		private final byte[] buffer;
+
+		/**
+		 * Compresses a packet that is being sent
+		 * 
+		 * @param src
+		 *            The array that contains the packet
+		 * @param length
+		 *            The length of the packet
+		 * @param flush
+		 *            If this is the last packet of a batch
+		 * @param out
+		 *            The stream to write the compressed data to
+		 * @throws IOException
+		 *             The data could not be written
+		 * @since 1.3
+		 */
+		@Override
+		public void compress(final byte[] src, final int length, final boolean flush, final OutputStream out) throws IOException {
+			deflater.setInput(src, 0, length);
+			final int mode = flush || flushEachPacket ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+			int written;
+			do {
+				written = deflater.deflate(buffer, 0, buffer.length, mode);
+				out.write(buffer, 0, written);
+			} while ( written == buffer.length || !deflater.needsInput() );
+		}
+
+		/**
+		 * Gives the inflater more data that has been received
+		 * 
+		 * @param src
+		 *            The array that contains the compressed data
+		 * @param length
+		 *            The number of bytes at the start of the array
+		 * @since 1.3
+		 */
+		@Override
+		public void setInput(final byte[] src, final int length) {
+			inflater.setInput(src, 0, length);
+		}
+
+		/**
+		 * Checks if all of the data that has been received has been
+		 * decompressed
+		 * 
+		 * @return If more data is needed
+		 * @since 1.3
+		 */
+		@Override
+		public boolean needsInput() {
+			return inflater.needsInput();
+		}
+
+		/**
+		 * Decompresses data that has been received
+		 * 
+		 * @param dst
+		 *            The array to write the data to
+		 * @param offset
+		 *            The index to start writing at
+		 * @param length
+		 *            The most bytes to write
+		 * @return The number of bytes written
+		 * @throws IOException
+		 *             The data is corrupted
+		 * @since 1.3
+		 */
+		@Override
+		public int decompress(final byte[] dst, final int offset, final int length) throws IOException {
+			try {
+				return inflater.inflate(dst, offset, length);
+			} catch ( final DataFormatException ex ) {
+				throw new IOException("Corrupted compressed stream", ex);
+			}
+		}
+
+		/**
+		 * Frees the native memory of the deflater and inflater
+		 * 
+		 * @since 1.3
+		 */
+		@Override
+		public void close() {
+			deflater.end();
+			inflater.end();
+		}
+
+		/**
+		 * Creates a new stream, primed with the dictionary of the codec
+		 * 
+		 * @since 1.3
+		 */
+		Stream() {
+			deflater = new Deflater(level, true);
+			inflater = new Inflater(true);
+			if ( dictionary != null ) {
+				deflater.setDictionary(dictionary);
+				inflater.setDictionary(dictionary);
+			}
+			buffer = new byte[8192];
+		}
+	}
+
+	/**
+	 * The shared instance of this codec, which compresses each packet on its
+	 * own with the default compression level
+	 * 
+	 * @since 1.3
+	 */
+	public static final DeflateCodec INSTANCE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+	/**
+	 * The compression level
+	 * 
+	 * @since 1.3
+	 */
+	private final int level;
+	/**
+	 * The preset dictionary, or <code>null</code> if there is not one
+	 * 
+	 * @since 1.3
+	 */
+	private final byte[] dictionary;
+	/**
+	 * If each connection compresses everything it sends as one stream
+	 * 
+	 * @since 1.3
+	 */
+	private final boolean streaming;
+	/**
+	 * If a stream is flushed after every packet instead of after every batch
+	 * 
+	 * @since 1.3
+	 */
+	private final boolean flushEachPacket;
+	/**
+	 * The name the codec is agreed on by
+	 * 
+	 * @since 1.3
+	 */
+	private final String name;
+	/**
+	 * The deflater of each thread
+	 * 
+	 * @since 1.3
+	 */
+	private final ThreadLocal<Deflater> deflaters;
+	/**
+	 * The inflater of each thread
+	 * 
+	 * @since 1.3
+	 */
+	private final ThreadLocal<Inflater> inflaters;
+
+	/**
+	 * Creates a codec that compresses everything a connection sends as one
+	 * stream. The stream is flushed whenever the queue of packets waiting to
+	 * be written is emptied, so packets that are sent together are compressed
+	 * together. The other end receives each packet at the same time it would
+	 * have without compression.
+	 * 
+	 * @param level
+	 *            The compression level, from 0 to 9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param dictionary
+	 *            The preset dictionary, or <code>null</code>
+	 * @param flushEachPacket
+	 *            If the stream is flushed after every packet instead of after
+	 *            every batch. This compresses worse, but each packet can be
+	 *            decompressed as soon as it arrives.
+	 * @return The codec
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The level is not valid
+	 */
+	public static DeflateCodec streaming(final int level, final byte[] dictionary, final boolean flushEachPacket) {
+		return new DeflateCodec(level, dictionary, true, flushEachPacket);
+	}
+
+	/**
+	 * Gets the name the codec is agreed on by
+	 * 
+	 * @return <code>"deflate"</code>, followed by <code>"-stream"</code> if
+	 *         the codec compresses streams and the checksum of the dictionary
+	 *         if it has one
+	 * @since 1.3
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Compresses some data
+	 * 
+	 * @param src
+	 *            The array that contains the data
+	 * @param length
+	 *            The number of bytes at the start of the array to compress
+	 * @param dst
+	 *            The array to write the compressed data to
+	 * @return The number of bytes written, or -1 if the compressed data does
+	 *         not fit in the array
+	 * @since 1.3
+	 */
+	@Override
+	public int compress(final byte[] src, final int length, final byte[] dst) {
+		final Deflater deflater = deflaters.get();
+		deflater.reset();
+		if ( dictionary != null ) {
+			deflater.setDictionary(dictionary);
+		}
+		deflater.setInput(src, 0, length);
+		deflater.finish();
+		final int written = deflater.deflate(dst);
+		return deflater.finished() ? written : -1;
+	}
+
+	/**
+	 * Decompresses some data that was compressed by this codec
+	 * 
+	 * @param src
+	 *            The array that contains the compressed data
+	 * @param srcLength
+	 *            The number of bytes at the start of the array to decompress
+	 * @param dst
+	 *            The array to write the data to
+	 * @param dstLength
+	 *            The number of bytes the data decompresses to
+	 * @throws IOException
+	 *             The data is corrupted
+	 * @since 1.3
+	 */
+	@Override
+	public void decompress(final byte[] src, final int srcLength, final byte[] dst, final int dstLength) throws IOException {
+		final Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(src, 0, srcLength);
+		try {
+			int read = inflater.inflate(dst, 0, dstLength);
+			if ( read == 0 && inflater.needsDictionary() && dictionary != null ) {
+				inflater.setDictionary(dictionary);
+				read = inflater.inflate(dst, 0, dstLength);
+			}
+			if ( read != dstLength || !inflater.finished() ) {
+				throw new IOException("Corrupted compressed packet");
+			}
+		} catch ( final DataFormatException ex ) {
+			throw new IOException("Corrupted compressed packet", ex);
+		}
+	}
+
+	/**
+	 * Creates the state of a connection if this codec compresses streams
+	 * 
+	 * @return The stream, or <code>null</code> if this codec compresses each
+	 *         packet on its own
+	 * @since 1.3
+	 */
+	@Override
+	public CompressionStream newStream() {
+		return streaming ? new Stream() : null;
+	}
+
+	/**
+	 * Creates a new deflate codec that compresses each packet on its own
+	 * 
+	 * @param level
+	 *            The compression level, from 0 to 9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @see Deflater#setLevel(int)
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The level is not valid
+	 */
+	public DeflateCodec(final int level) {
+		this(level, null);
+	}
+
+	/**
+	 * Creates a new deflate codec that compresses each packet on its own,
+	 * primed with a preset dictionary
+	 * 
+	 * @param level
+	 *            The compression level, from 0 to 9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param dictionary
+	 *            The preset dictionary, or <code>null</code>
+	 * @see Deflater#setDictionary(byte[])
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The level is not valid
+	 */
+	public DeflateCodec(final int level, final byte[] dictionary) {
+		this(level, dictionary, false, false);
+	}
+
+	/**
+	 * Creates a new deflate codec
+	 * 
+	 * @param level
+	 *            The compression level
+	 * @param dictionary
+	 *            The preset dictionary, or <code>null</code>
+	 * @param streaming
+	 *            If each connection compresses everything it sends as one
+	 *            stream
+	 * @param flushEachPacket
+	 *            If a stream is flushed after every packet
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The level is not valid
+	 */
+	private DeflateCodec(final int level, final byte[] dictionary, final boolean streaming, final boolean flushEachPacket) {
+		if ( level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9) ) {
+			throw new IllegalArgumentException("Invalid compression level");
+		}
+		this.level = level;
+		this.dictionary = dictionary == null ? null : dictionary.clone();
+		this.streaming = streaming;
+		this.flushEachPacket = flushEachPacket;
+		final StringBuilder name = new StringBuilder("deflate");
+		if ( streaming ) {
+			name.append("-stream");
+		}
+		if ( dictionary != null ) {
+			final Adler32 checksum = new Adler32();
+			checksum.update(dictionary, 0, dictionary.length);
+			name.append('-').append(Long.toHexString(checksum.getValue()));
+		}
+		this.name = name.toString();
+		deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+		inflaters = ThreadLocal.withInitial(Inflater::new);
+	}
+}
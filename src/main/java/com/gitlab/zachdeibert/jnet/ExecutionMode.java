@@ -0,0 +1,36 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * Where a {@link PacketHandler} is run after its packet has been read
+ * 
+ * @author Zach Deibert
+ * @see PacketHandler#PacketHandler(int, ExecutionMode, boolean)
+ * @since 1.3
+ * @version 1.3
+ */
+public enum ExecutionMode {
+	/**
+	 * The handler runs on the thread that read the packet. This is the
+	 * fastest mode for handlers that do very little, but a slow handler holds
+	 * up every connection that shares the thread.
+	 * 
+	 * @since 1.3
+	 */
+	INLINE,
+	/**
+	 * The handler runs on the bounded pool of worker threads. If the pool is
+	 * full, the handler runs on the thread that read the packet instead, which
+	 * slows down reading until the pool catches up.
+	 * 
+	 * @see PacketHandler#setWorkerPool(java.util.concurrent.Executor)
+	 * @since 1.3
+	 */
+	POOL,
+	/**
+	 * The handler runs on a new virtual thread for each packet. On Java
+	 * versions without virtual threads the worker pool is used instead.
+	 * 
+	 * @since 1.3
+	 */
+	VIRTUAL
+}
@@ -0,0 +1,59 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * The base class of the codecs generated for {@link PacketLayout} packets.
+ * Each generated codec writes and reads the fields of its packet directly,
+ * without any reflection, and is listed as a service so that
+ * {@link PacketCodecs#registerGenerated()} can find it.
+ * 
+ * @author Zach Deibert
+ * @see PacketLayoutProcessor
+ * @since 1.3
+ * @version 1.3
+ */
+public abstract class GeneratedCodec implements PacketCodec {
+	/**
+	 * The id of the packets this codec is for
+	 * 
+	 * @since 1.3
+	 */
+	private final int id;
+
+	/**
+	 * Gets the id of the packets this codec is for
+	 * 
+	 * @return The id from the {@link PacketLayout} of the packet
+	 * @since 1.3
+	 */
+	public final int getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the id of a packet that has been decoded
+	 * 
+	 * @param <T>
+	 *            The type of packet
+	 * @param packet
+	 *            The packet
+	 * @param id
+	 *            The id at the start of the frame
+	 * @return The packet
+	 * @since 1.3
+	 */
+	protected static <T extends Packet> T received(final T packet, final int id) {
+		packet.id = id;
+		return packet;
+	}
+
+	/**
+	 * Creates a new codec
+	 * 
+	 * @param id
+	 *            The id of the packets the codec is for
+	 * @since 1.3
+	 */
+	protected GeneratedCodec(final int id) {
+		this.id = id;
+	}
+}
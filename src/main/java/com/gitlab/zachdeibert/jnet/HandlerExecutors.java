@@ -0,0 +1,201 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executors that packet handlers are run on when they do not run on the
+ * thread that read the packet
+ * 
+ * @author Zach Deibert
+ * @see ExecutionMode
+ * @since 1.3
+ * @version 1.3
+ */
+final class HandlerExecutors {
+	/**
+	 * The most handlers that can be waiting for a worker before more are
+	 * rejected
+	 * 
+	 * @since 1.3
+	 */
+	private static final int POOL_QUEUE_SIZE = 4096;
+	/**
+	 * Holds the default worker pool, so it is only created the first time it
+	 * is used
+	 * 
+	 * @since 1.3
+	 */
+	private static final class DefaultPool {
+		/**
+		 * The default worker pool
+		 * 
+		 * @since 1.3
+		 */
+		static final Executor INSTANCE = createPool();
+	}
+
+	/**
+	 * Holds the virtual thread executor, so this Java version is only checked
+	 * for virtual threads the first time it is used
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Virtual {
+		/**
+		 * The executor, or <code>null</code> if this Java version does not
+		 * have virtual threads
+		 * 
+		 * @since 1.3
+		 */
+		static final Executor INSTANCE = createVirtual();
+	}
+
+	/**
+	 * Checks if a thread is virtual, or <code>null</code> if this Java
+	 * version does not have virtual threads
+	 * 
+	 * @since 1.3
+	 */
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+	/**
+	 * The pool that {@link ExecutionMode#POOL} handlers run on, or
+	 * <code>null</code> to use the default pool. This is only written by
+	 * {@link #setPool(Executor)}, so handlers can be dispatched without
+	 * locking.
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile Executor pool;
+
+	/**
+	 * Gets the executor for an execution mode
+	 * 
+	 * @param mode
+	 *            The mode, which must not be {@link ExecutionMode#INLINE}
+	 * @return The executor
+	 * @since 1.3
+	 */
+	static Executor get(final ExecutionMode mode) {
+		if ( mode == ExecutionMode.VIRTUAL && Virtual.INSTANCE != null ) {
+			return Virtual.INSTANCE;
+		}
+		final Executor executor = pool;
+		return executor == null ? DefaultPool.INSTANCE : executor;
+	}
+
+	/**
+	 * Replaces the worker pool
+	 * 
+	 * @param executor
+	 *            The new pool, or <code>null</code> to go back to the default
+	 *            pool
+	 * @since 1.3
+	 */
+	static void setPool(final Executor executor) {
+		pool = executor;
+	}
+
+	/**
+	 * Checks if the current thread is a virtual thread. Virtual threads are
+	 * started for each packet, so the pools must not give them caches of
+	 * their own.
+	 * 
+	 * @return If the current thread is virtual
+	 * @since 1.3
+	 */
+	static boolean isVirtualThread() {
+		if ( IS_VIRTUAL == null ) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+		} catch ( final Throwable t ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Looks up {@code Thread.isVirtual()}. This library is built for Java 8,
+	 * so it is looked up by reflection.
+	 * 
+	 * @return The method, or <code>null</code> if this Java version does not
+	 *         have virtual threads
+	 * @since 1.3
+	 */
+	private static MethodHandle findIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+					MethodType.methodType(boolean.class));
+		} catch ( final ReflectiveOperationException ex ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the default worker pool. It has one thread for each processor
+	 * and a bounded queue. When the queue is full, handlers are rejected if
+	 * they came from a runner, so a slow handler can never stall every
+	 * connection on it, and run on the calling thread otherwise.
+	 * 
+	 * @return The pool
+	 * @since 1.3
+	 */
+	private static Executor createPool() {
+		final int threads = Runtime.getRuntime().availableProcessors();
+		final AtomicInteger count = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(POOL_QUEUE_SIZE), new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r, "JNet Worker " + count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+						if ( Thread.currentThread() instanceof AsyncRunner ) {
+							throw new RejectedExecutionException("The worker pool is full");
+						}
+						r.run();
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Creates an executor that starts a virtual thread for each task. This
+	 * library is built for Java 8, so the executor is looked up by reflection.
+	 * 
+	 * @return The executor, or <code>null</code> if this Java version does not
+	 *         have virtual threads
+	 * @since 1.3
+	 */
+	private static Executor createVirtual() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch ( final ReflectiveOperationException ex ) {
+			return null;
+		}
+	}
+
+	/**
+	 * This class only has static members
+	 * 
+	 * @since 1.3
+	 */
+	private HandlerExecutors() {
+	}
+}
@@ -0,0 +1,262 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of values such as latencies in nanoseconds or sizes in bytes.
+ * Values are counted in buckets that get wider as the values get bigger, with
+ * 8 buckets for each power of two, so any percentile is accurate to within
+ * 12.5% no matter how big the values are. Recording a value never takes a
+ * lock or allocates memory. Histograms that are recorded to by many threads
+ * can be split into stripes, so the threads do not fight over the same
+ * counters.
+ * 
+ * @author Zach Deibert
+ * @see Metrics
+ * @since 1.3
+ * @version 1.3
+ */
+public final class Histogram {
+	/**
+	 * The log base 2 of the number of buckets for each power of two
+	 * 
+	 * @since 1.3
+	 */
+	private static final int SUB_BITS = 3;
+	/**
+	 * The number of buckets for each power of two
+	 * 
+	 * @since 1.3
+	 */
+	private static final int SUB = 1 << SUB_BITS;
+	/**
+	 * The log base 2 of the biggest value that gets its own bucket. Bigger
+	 * values are counted in the last bucket.
+	 * 
+	 * @since 1.3
+	 */
+	private static final int MAX_EXPONENT = 40;
+	/**
+	 * The number of buckets
+	 * 
+	 * @since 1.3
+	 */
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB;
+	/**
+	 * The counts of each bucket for each stripe
+	 * 
+	 * @since 1.3
+	 */
+	private final AtomicLongArray[] stripes;
+	/**
+	 * The sum of every value that has been recorded
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder sum;
+	/**
+	 * The biggest value that has been recorded
+	 * 
+	 * @since 1.3
+	 */
+	private final AtomicLong max;
+
+	/**
+	 * Gets the bucket a value is counted in
+	 * 
+	 * @param value
+	 *            The value
+	 * @return The index of the bucket
+	 * @since 1.3
+	 */
+	static int bucket(final long value) {
+		if ( value < SUB ) {
+			return value < 0 ? 0 : (int) value;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return Math.min(BUCKETS - 1, (shift + 1) * SUB + (int) (value >>> shift) - SUB);
+	}
+
+	/**
+	 * Gets the biggest value that is counted in a bucket
+	 * 
+	 * @param bucket
+	 *            The index of the bucket
+	 * @return The value
+	 * @since 1.3
+	 */
+	static long highestValue(final int bucket) {
+		if ( bucket < SUB ) {
+			return bucket;
+		}
+		final int shift = bucket / SUB - 1;
+		return ((SUB + bucket % SUB + 1L) << shift) - 1;
+	}
+
+	/**
+	 * Records a value
+	 * 
+	 * @param value
+	 *            The value, which should not be negative
+	 * @since 1.3
+	 */
+	public void record(final long value) {
+		final AtomicLongArray counts = stripes.length == 1 ? stripes[0]
+				: stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+		counts.incrementAndGet(bucket(value));
+		sum.add(value);
+		long current;
+		while ( value > (current = max.get()) && !max.compareAndSet(current, value) ) {
+		}
+	}
+
+	/**
+	 * Gets the number of values that have been recorded
+	 * 
+	 * @return The number of values
+	 * @since 1.3
+	 */
+	public long getCount() {
+		long count = 0;
+		for ( final AtomicLongArray counts : stripes ) {
+			for ( int i = 0; i < BUCKETS; ++i ) {
+				count += counts.get(i);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the biggest value that has been recorded
+	 * 
+	 * @return The value, or 0 if nothing has been recorded
+	 * @since 1.3
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets a copy of the counts of the buckets, with the stripes added
+	 * together
+	 * 
+	 * @return The counts
+	 * @since 1.3
+	 */
+	private long[] counts() {
+		final long[] counts = new long[BUCKETS];
+		for ( final AtomicLongArray stripe : stripes ) {
+			for ( int i = 0; i < BUCKETS; ++i ) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Gets the value that a percentage of the recorded values are less than or
+	 * equal to
+	 * 
+	 * @param percentile
+	 *            The percentage, from 0 to 100
+	 * @return The value, or 0 if nothing has been recorded
+	 * @since 1.3
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		return valueAtPercentile(counts(), percentile);
+	}
+
+	/**
+	 * Gets the value that a percentage of the counted values are less than or
+	 * equal to
+	 * 
+	 * @param counts
+	 *            The counts of the buckets
+	 * @param percentile
+	 *            The percentage, from 0 to 100
+	 * @return The value, or 0 if nothing has been counted
+	 * @since 1.3
+	 */
+	private long valueAtPercentile(final long[] counts, final double percentile) {
+		long total = 0;
+		for ( final long count : counts ) {
+			total += count;
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for ( int i = 0; i < BUCKETS; ++i ) {
+			seen += counts[i];
+			if ( seen >= target ) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Takes a summary of the values that have been recorded
+	 * 
+	 * @return The summary
+	 * @since 1.3
+	 */
+	public HistogramSnapshot snapshot() {
+		final long[] counts = counts();
+		long count = 0;
+		for ( final long c : counts ) {
+			count += c;
+		}
+		return new HistogramSnapshot(count, count == 0 ? 0 : (double) sum.sum() / count, max.get(),
+				valueAtPercentile(counts, 50), valueAtPercentile(counts, 90), valueAtPercentile(counts, 99),
+				valueAtPercentile(counts, 99.9));
+	}
+
+	/**
+	 * Forgets every value that has been recorded. Values that are recorded
+	 * while the histogram is being reset may be partly forgotten.
+	 * 
+	 * @since 1.3
+	 */
+	public void reset() {
+		for ( final AtomicLongArray counts : stripes ) {
+			for ( int i = 0; i < BUCKETS; ++i ) {
+				counts.set(i, 0);
+			}
+		}
+		sum.reset();
+		max.set(0);
+	}
+
+	/**
+	 * Creates a new histogram
+	 * 
+	 * @param shared
+	 *            If the histogram is recorded to by many threads at once, in
+	 *            which case it is split into a stripe for each processor
+	 * @since 1.3
+	 */
+	Histogram(final boolean shared) {
+		final int count = shared ? Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()))
+				: 1;
+		stripes = new AtomicLongArray[count];
+		for ( int i = 0; i < count; ++i ) {
+			stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Creates a new histogram that is mostly recorded to by one thread at a
+	 * time
+	 * 
+	 * @since 1.3
+	 */
+	public Histogram() {
+		this(false);
+	}
+}
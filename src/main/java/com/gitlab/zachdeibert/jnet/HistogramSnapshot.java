@@ -0,0 +1,168 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * A summary of the values in a {@link Histogram} at one point in time. The
+ * values are in the same unit that was recorded, which is nanoseconds for
+ * latencies and bytes for sizes.
+ * 
+ * @author Zach Deibert
+ * @see Histogram#snapshot()
+ * @since 1.3
+ * @version 1.3
+ */
+public final class HistogramSnapshot {
+	/**
+	 * The number of values
+	 * 
+	 * @since 1.3
+	 */
+	private final long count;
+	/**
+	 * The average value
+	 * 
+	 * @since 1.3
+	 */
+	private final double mean;
+	/**
+	 * The biggest value
+	 * 
+	 * @since 1.3
+	 */
+	private final long max;
+	/**
+	 * The median
+	 * 
+	 * @since 1.3
+	 */
+	private final long p50;
+	/**
+	 * The 90th percentile
+	 * 
+	 * @since 1.3
+	 */
+	private final long p90;
+	/**
+	 * The 99th percentile
+	 * 
+	 * @since 1.3
+	 */
+	private final long p99;
+	/**
+	 * The 99.9th percentile
+	 * 
+	 * @since 1.3
+	 */
+	private final long p999;
+
+	/**
+	 * Gets the number of values
+	 * 
+	 * @return The number of values
+	 * @since 1.3
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the average value
+	 * 
+	 * @return The average, or 0 if there are no values
+	 * @since 1.3
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Gets the biggest value
+	 * 
+	 * @return The value, or 0 if there are no values
+	 * @since 1.3
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the median
+	 * 
+	 * @return The value
+	 * @since 1.3
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * Gets the 90th percentile
+	 * 
+	 * @return The value
+	 * @since 1.3
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * Gets the 99th percentile
+	 * 
+	 * @return The value
+	 * @since 1.3
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * Gets the 99.9th percentile
+	 * 
+	 * @return The value
+	 * @since 1.3
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * Formats the summary for logging
+	 * 
+	 * @return The summary
+	 * @since 1.3
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", count, mean, p50, p90, p99,
+				p999, max);
+	}
+
+	/**
+	 * Creates a new summary
+	 * 
+	 * @param count
+	 *            The number of values
+	 * @param mean
+	 *            The average value
+	 * @param max
+	 *            The biggest value
+	 * @param p50
+	 *            The median
+	 * @param p90
+	 *            The 90th percentile
+	 * @param p99
+	 *            The 99th percentile
+	 * @param p999
+	 *            The 99.9th percentile
+	 * @since 1.3
+	 */
+	HistogramSnapshot(final long count, final double mean, final long max, final long p50, final long p90,
+			final long p99, final long p999) {
+		this.count = count;
+		this.mean = mean;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+}
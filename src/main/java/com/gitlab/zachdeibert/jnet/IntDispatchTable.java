@@ -0,0 +1,207 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A table that maps packet ids to values and is read on every packet. Small
+ * non-negative ids are looked up directly in an array, and all other ids are
+ * looked up in an open addressed hash table, so reads never box the id. Every
+ * change builds a new snapshot of the table and publishes it through a
+ * volatile field, so reads do not take any locks and always see a consistent
+ * table.
+ * 
+ * @author Zach Deibert
+ * @param <V>
+ *            The type of the values
+ * @since 1.3
+ * @version 1.3
+ */
+final class IntDispatchTable<V> {
+	/**
+	 * An immutable copy of the table
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Snapshot {
+		/**
+		 * The values for the ids from 0 to the length of the array
+		 * 
+		 * @since 1.3
+		 */
+		final Object[] dense;
+		/**
+		 * The ids in the hash table
+		 * 
+		 * @since 1.3
+		 */
+		final int[] keys;
+		/**
+		 * The values in the hash table, where <code>null</code> marks an empty
+		 * slot
+		 * 
+		 * @since 1.3
+		 */
+		final Object[] values;
+		/**
+		 * The mask used to turn a hash into a slot in the hash table
+		 * 
+		 * @since 1.3
+		 */
+		final int mask;
+
+		/**
+		 * Looks up the value for an id
+		 * 
+		 * @param id
+		 *            The id
+		 * @return The value, or <code>null</code> if there is none
+		 * @since 1.3
+		 */
+		Object get(final int id) {
+			if ( id >= 0 && id < dense.length ) {
+				return dense[id];
+			}
+			for ( int i = hash(id) & mask;; i = (i + 1) & mask ) {
+				final Object value = values[i];
+				if ( value == null || keys[i] == id ) {
+					return value;
+				}
+			}
+		}
+
+		/**
+		 * Builds a snapshot of the entries in a map
+		 * 
+		 * @param entries
+		 *            The entries
+		 * @since 1.3
+		 */
+		Snapshot(final Map<Integer, ?> entries) {
+			int denseLength = 0;
+			int sparse = 0;
+			for ( final int id : entries.keySet() ) {
+				if ( id >= 0 && id < MAX_DENSE ) {
+					denseLength = Math.max(denseLength, id + 1);
+				} else {
+					++sparse;
+				}
+			}
+			dense = new Object[denseLength];
+			// Keep the hash table at most half full so probes stay short
+			int capacity = 2;
+			while ( capacity < sparse * 2 ) {
+				capacity <<= 1;
+			}
+			keys = new int[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+			for ( final Map.Entry<Integer, ?> entry : entries.entrySet() ) {
+				final int id = entry.getKey();
+				if ( id >= 0 && id < MAX_DENSE ) {
+					dense[id] = entry.getValue();
+				} else {
+					int i = hash(id) & mask;
+					while ( values[i] != null ) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = id;
+					values[i] = entry.getValue();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The ids below this are stored in the array instead of the hash table
+	 * 
+	 * @since 1.3
+	 */
+	private static final int MAX_DENSE = 4096;
+	/**
+	 * The entries in the table. This is only used by threads that change the
+	 * table, and is guarded by the table's lock.
+	 * 
+	 * @since 1.3
+	 */
+	private final Map<Integer, V> entries;
+	/**
+	 * The snapshot that reads are made from
+	 * 
+	 * @since 1.3
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Spreads the bits of an id so nearby ids land in different slots
+	 * 
+	 * @param id
+	 *            The id
+	 * @return The hash
+	 * @since 1.3
+	 */
+	private static int hash(final int id) {
+		final int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Gets the value for an id without taking any locks
+	 * 
+	 * @param id
+	 *            The id
+	 * @return The value, or <code>null</code> if there is none
+	 * @since 1.3
+	 */
+	@SuppressWarnings("unchecked")
+	V get(final int id) {
+		return (V) snapshot.get(id);
+	}
+
+	/**
+	 * Sets the value for an id. Threads that read the table see the new value
+	 * as soon as this returns.
+	 * 
+	 * @param id
+	 *            The id
+	 * @param value
+	 *            The value
+	 * @return The value the id had before, or <code>null</code> if there was
+	 *         none
+	 * @since 1.3
+	 */
+	synchronized V put(final int id, final V value) {
+		if ( value == null ) {
+			throw new NullPointerException();
+		}
+		final V old = entries.put(id, value);
+		snapshot = new Snapshot(entries);
+		return old;
+	}
+
+	/**
+	 * Removes the value for an id
+	 * 
+	 * @param id
+	 *            The id
+	 * @return The value the id had, or <code>null</code> if there was none
+	 * @since 1.3
+	 */
+	synchronized V remove(final int id) {
+		final V old = entries.remove(id);
+		if ( old != null ) {
+			snapshot = new Snapshot(entries);
+		}
+		return old;
+	}
+
+	/**
+	 * Creates a new, empty table
+	 * 
+	 * @since 1.3
+	 */
+	IntDispatchTable() {
+		entries = new HashMap<Integer, V>();
+		snapshot = new Snapshot(entries);
+	}
+}
@@ -0,0 +1,138 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and works out how often they happen. Marking an event only
+ * adds to a counter; the rate is worked out when it is read, as an average
+ * that is weighted towards the last minute.
+ * 
+ * @author Zach Deibert
+ * @see Metrics
+ * @since 1.3
+ * @version 1.3
+ */
+public final class Meter {
+	/**
+	 * The time constant of the weighted average, in nanoseconds
+	 * 
+	 * @since 1.3
+	 */
+	private static final double WINDOW = TimeUnit.MINUTES.toNanos(1);
+	/**
+	 * The shortest time between updates of the rate, in nanoseconds
+	 * 
+	 * @since 1.3
+	 */
+	private static final long MIN_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * The number of events
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder count;
+	/**
+	 * The number of events when the rate was last updated
+	 * 
+	 * @since 1.3
+	 */
+	private long lastCount;
+	/**
+	 * The value of {@link System#nanoTime()} when the rate was last updated
+	 * 
+	 * @since 1.3
+	 */
+	private long lastTime;
+	/**
+	 * The rate in events per second when it was last updated
+	 * 
+	 * @since 1.3
+	 */
+	private double rate;
+	/**
+	 * If the rate has been updated at least once
+	 * 
+	 * @since 1.3
+	 */
+	private boolean primed;
+
+	/**
+	 * Counts an event
+	 * 
+	 * @since 1.3
+	 */
+	public void mark() {
+		count.increment();
+	}
+
+	/**
+	 * Counts several events
+	 * 
+	 * @param events
+	 *            The number of events
+	 * @since 1.3
+	 */
+	public void mark(final long events) {
+		count.add(events);
+	}
+
+	/**
+	 * Gets the number of events that have been counted
+	 * 
+	 * @return The number of events
+	 * @since 1.3
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets how often events have been happening, weighted towards the last
+	 * minute
+	 * 
+	 * @return The number of events per second
+	 * @since 1.3
+	 */
+	public synchronized double getRate() {
+		final long now = System.nanoTime();
+		final long elapsed = now - lastTime;
+		if ( elapsed < MIN_INTERVAL ) {
+			return rate;
+		}
+		final long total = count.sum();
+		final double instant = (total - lastCount) * 1e9 / elapsed;
+		if ( primed ) {
+			rate += (1 - Math.exp(-elapsed / WINDOW)) * (instant - rate);
+		} else {
+			rate = instant;
+			primed = true;
+		}
+		lastCount = total;
+		lastTime = now;
+		return rate;
+	}
+
+	/**
+	 * Forgets every event that has been counted
+	 * 
+	 * @since 1.3
+	 */
+	public synchronized void reset() {
+		count.reset();
+		lastCount = 0;
+		lastTime = System.nanoTime();
+		rate = 0;
+		primed = false;
+	}
+
+	/**
+	 * Creates a new meter that has not counted any events
+	 * 
+	 * @since 1.3
+	 */
+	public Meter() {
+		count = new LongAdder();
+		lastTime = System.nanoTime();
+	}
+}
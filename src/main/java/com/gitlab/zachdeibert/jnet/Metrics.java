@@ -0,0 +1,601 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The registry of the metrics of every connection, server and packet id. The
+ * metrics can be read through this class, or through JMX under the
+ * <code>com.gitlab.zachdeibert.jnet</code> domain. Every counter is striped so
+ * that recording does not contend between threads, so the metrics are meant to
+ * be left on. The latency histograms read the clock twice for every packet, so
+ * they can be turned off with {@link #setTimingEnabled(boolean)}, and the
+ * metrics of each packet id can be turned off with
+ * {@link #setPacketMetricsEnabled(boolean)}. Packets received with an id that
+ * has no handler or codec are counted under {@link #OTHER_ID}, so the other end
+ * cannot make a new entry for every id it sends. Nothing is registered with
+ * JMX until the first connection or server is opened. Registering a bean for
+ * every connection would take a global JMX lock on every connect and
+ * disconnect, so connections are only registered once
+ * {@link #setConnectionBeansEnabled(boolean)} has turned them on.
+ * 
+ * @author Zach Deibert
+ * @see ConnectionMetrics
+ * @see ServerMetrics
+ * @see PacketMetrics
+ * @since 1.3
+ * @version 1.3
+ */
+public final class Metrics {
+	/**
+	 * The JMX domain the metrics are registered under
+	 * 
+	 * @since 1.3
+	 */
+	public static final String DOMAIN = "com.gitlab.zachdeibert.jnet";
+	/**
+	 * The id that packets received with an id that has no handler or codec are
+	 * counted under
+	 * 
+	 * @see #getPacketMetrics(int)
+	 * @since 1.3
+	 */
+	public static final int OTHER_ID = Integer.MIN_VALUE;
+	/**
+	 * The metrics that are shared by every node, as they are exposed to JMX
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Global implements MetricsMXBean {
+		@Override
+		public HistogramSnapshot getLoopTime() {
+			return loopTime.snapshot();
+		}
+
+		@Override
+		public int getConnections() {
+			return connections.size();
+		}
+
+		@Override
+		public double getBufferHitRate() {
+			return BufferPool.getHitRate();
+		}
+
+		@Override
+		public long getBuffersOutstanding() {
+			return BufferPool.getOutstanding();
+		}
+
+		@Override
+		public Map<Integer, Long> getPacketsIn() {
+			return perId(PacketMetrics::getPacketsIn);
+		}
+
+		@Override
+		public Map<Integer, Long> getPacketsOut() {
+			return perId(PacketMetrics::getPacketsOut);
+		}
+
+		@Override
+		public Map<Integer, Long> getBytesIn() {
+			return perId(PacketMetrics::getBytesIn);
+		}
+
+		@Override
+		public Map<Integer, Long> getBytesOut() {
+			return perId(PacketMetrics::getBytesOut);
+		}
+
+		@Override
+		public Map<Integer, HistogramSnapshot> getSizes() {
+			return summaries(PacketMetrics::getSize);
+		}
+
+		@Override
+		public Map<Integer, HistogramSnapshot> getHandleTimes() {
+			return summaries(PacketMetrics::getHandleTime);
+		}
+
+		@Override
+		public int[] getSlowestIds() {
+			return getSlowest(SLOWEST).stream().mapToInt(PacketMetrics::getId).toArray();
+		}
+
+		@Override
+		public void resetPacketMetrics() {
+			Metrics.resetPacketMetrics();
+		}
+	}
+
+	/**
+	 * The number of packet ids listed by {@link MetricsMXBean#getSlowestIds()}
+	 * 
+	 * @since 1.3
+	 */
+	private static final int SLOWEST = 10;
+
+	/**
+	 * If latencies are being recorded
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile boolean timing = true;
+	/**
+	 * If the metrics of each packet id are being recorded
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile boolean packetMetrics = true;
+	/**
+	 * If the metrics of each connection and server are registered with JMX
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile boolean jmxEnabled = true;
+	/**
+	 * If the metrics of each connection are registered with JMX as well
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile boolean connectionBeans;
+	/**
+	 * The metrics of every open connection
+	 * 
+	 * @since 1.3
+	 */
+	private static final Set<ConnectionMetrics> connections = ConcurrentHashMap.newKeySet();
+	/**
+	 * The metrics of every server that is listening
+	 * 
+	 * @since 1.3
+	 */
+	private static final Set<ServerMetrics> servers = ConcurrentHashMap.newKeySet();
+	/**
+	 * The metrics of each packet id, looked up on every packet
+	 * 
+	 * @since 1.3
+	 */
+	private static final IntDispatchTable<PacketMetrics> packets = new IntDispatchTable<PacketMetrics>();
+	/**
+	 * The metrics of each packet id, in order of id
+	 * 
+	 * @since 1.3
+	 */
+	private static final Map<Integer, PacketMetrics> packetList = new TreeMap<Integer, PacketMetrics>();
+	/**
+	 * The metrics that packets received with an id that has no handler or
+	 * codec are counted in
+	 * 
+	 * @since 1.3
+	 */
+	private static final PacketMetrics other = createPacket(OTHER_ID);
+	/**
+	 * How long each runner spent handling its ready channels every time it
+	 * woke up
+	 * 
+	 * @since 1.3
+	 */
+	private static final Histogram loopTime = new Histogram(true);
+	/**
+	 * The number used to name the next connection registered with JMX
+	 * 
+	 * @since 1.3
+	 */
+	private static final AtomicLong ids = new AtomicLong();
+
+	/**
+	 * Holds the name of the metrics that are shared by every node, so they
+	 * are only registered with JMX once the first connection or server is
+	 * opened instead of whenever this class is loaded
+	 * 
+	 * @since 1.3
+	 */
+	private static final class GlobalBean {
+		/**
+		 * The name the shared metrics are registered under, or
+		 * <code>null</code> if they could not be registered
+		 * 
+		 * @since 1.3
+		 */
+		static final ObjectName NAME = register(new Global(), DOMAIN + ":type=Metrics");
+	}
+
+	/**
+	 * Checks if latencies are being recorded
+	 * 
+	 * @return If they are being recorded
+	 * @since 1.3
+	 */
+	public static boolean isTimingEnabled() {
+		return timing;
+	}
+
+	/**
+	 * Turns the recording of the decode, handler and loop times and of the
+	 * sizes of each packet id on or off. They are on by default. The counters
+	 * are always kept.
+	 * 
+	 * @param enabled
+	 *            If latencies should be recorded
+	 * @since 1.3
+	 */
+	public static void setTimingEnabled(final boolean enabled) {
+		timing = enabled;
+	}
+
+	/**
+	 * Checks if the metrics of each packet id are being recorded
+	 * 
+	 * @return If they are being recorded
+	 * @since 1.3
+	 */
+	public static boolean isPacketMetricsEnabled() {
+		return packetMetrics;
+	}
+
+	/**
+	 * Turns the recording of the metrics of each packet id on or off. They are
+	 * on by default. The metrics of each connection and server are always
+	 * kept.
+	 * 
+	 * @param enabled
+	 *            If the metrics of each packet id should be recorded
+	 * @since 1.3
+	 */
+	public static void setPacketMetricsEnabled(final boolean enabled) {
+		packetMetrics = enabled;
+	}
+
+	/**
+	 * Sets if the metrics of each connection and server that is opened after
+	 * this is called are registered with JMX. Servers are registered by
+	 * default, and connections once {@link #setConnectionBeansEnabled(boolean)}
+	 * has turned them on. The metrics that are shared by every node are
+	 * registered along with the first connection or server that is opened
+	 * while this is on.
+	 * 
+	 * @param enabled
+	 *            If the metrics should be registered
+	 * @since 1.3
+	 */
+	public static void setJmxEnabled(final boolean enabled) {
+		jmxEnabled = enabled;
+	}
+
+	/**
+	 * Checks if the metrics of each connection are registered with JMX
+	 * 
+	 * @return If they are registered
+	 * @since 1.3
+	 */
+	public static boolean isConnectionBeansEnabled() {
+		return connectionBeans;
+	}
+
+	/**
+	 * Sets if the metrics of each connection that is opened after this is
+	 * called are registered with JMX. They are not registered by default,
+	 * because registering them takes a lock that every connect and disconnect
+	 * would contend on. The metrics of every connection can still be read with
+	 * {@link #getConnections()}.
+	 * 
+	 * @param enabled
+	 *            If the metrics should be registered
+	 * @since 1.3
+	 */
+	public static void setConnectionBeansEnabled(final boolean enabled) {
+		connectionBeans = enabled;
+	}
+
+	/**
+	 * Gets the metrics of every open connection
+	 * 
+	 * @return The metrics
+	 * @since 1.3
+	 */
+	public static Set<ConnectionMetrics> getConnections() {
+		return Collections.unmodifiableSet(connections);
+	}
+
+	/**
+	 * Gets the metrics of every server that is listening
+	 * 
+	 * @return The metrics
+	 * @since 1.3
+	 */
+	public static Set<ServerMetrics> getServers() {
+		return Collections.unmodifiableSet(servers);
+	}
+
+	/**
+	 * Gets the metrics of a packet id
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return The metrics, or <code>null</code> if no packet with the id has
+	 *         been sent or received, or if it is only counted under
+	 *         {@link #OTHER_ID}
+	 * @since 1.3
+	 */
+	public static PacketMetrics getPacketMetrics(final int id) {
+		return packets.get(id);
+	}
+
+	/**
+	 * Gets how long each runner spent handling its ready channels every time
+	 * it woke up, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	public static HistogramSnapshot getLoopTime() {
+		return loopTime.snapshot();
+	}
+
+	/**
+	 * Records how long a runner spent handling its ready channels
+	 * 
+	 * @param nanos
+	 *            The time
+	 * @since 1.3
+	 */
+	static void loop(final long nanos) {
+		loopTime.record(nanos);
+	}
+
+	/**
+	 * Gets the metrics of a packet id, creating them if they do not exist yet
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return The metrics
+	 * @since 1.3
+	 */
+	static PacketMetrics packet(final int id) {
+		final PacketMetrics metrics = packets.get(id);
+		return metrics == null ? createPacket(id) : metrics;
+	}
+
+	/**
+	 * Gets the metrics to count a received packet in. Ids that have no handler
+	 * or codec are counted under {@link #OTHER_ID}, because the other end
+	 * picks them.
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return The metrics
+	 * @since 1.3
+	 */
+	static PacketMetrics received(final int id) {
+		final PacketMetrics metrics = packets.get(id);
+		if ( metrics != null ) {
+			return metrics;
+		}
+		return PacketHandler.isRegistered(id) || PacketCodecs.isRegistered(id) ? createPacket(id) : other;
+	}
+
+	/**
+	 * Creates the metrics of a packet id
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return The metrics
+	 * @since 1.3
+	 */
+	private static synchronized PacketMetrics createPacket(final int id) {
+		PacketMetrics metrics = packets.get(id);
+		if ( metrics == null ) {
+			metrics = new PacketMetrics(id);
+			packetList.put(id, metrics);
+			packets.put(id, metrics);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Reads one value from the metrics of every packet id
+	 * 
+	 * @param getter
+	 *            The value to read
+	 * @return The value for each id
+	 * @since 1.3
+	 */
+	private static synchronized Map<Integer, Long> perId(final ToLongFunction<PacketMetrics> getter) {
+		final Map<Integer, Long> values = new TreeMap<Integer, Long>();
+		packetList.forEach((id, metrics) -> values.put(id, getter.applyAsLong(metrics)));
+		return values;
+	}
+
+	/**
+	 * Reads one summary from the metrics of every packet id
+	 * 
+	 * @param getter
+	 *            The summary to read
+	 * @return The summary for each id
+	 * @since 1.3
+	 */
+	private static synchronized Map<Integer, HistogramSnapshot> summaries(
+			final Function<PacketMetrics, HistogramSnapshot> getter) {
+		final Map<Integer, HistogramSnapshot> values = new TreeMap<Integer, HistogramSnapshot>();
+		packetList.forEach((id, metrics) -> values.put(id, getter.apply(metrics)));
+		return values;
+	}
+
+	/**
+	 * Gets the packet ids whose handlers have been the slowest, going by the
+	 * 99th percentile of their handle times. Ids that have not been handled
+	 * are left out.
+	 * 
+	 * @param count
+	 *            The most ids to return
+	 * @return The metrics of the ids, slowest first
+	 * @see PacketMetrics#getHandleTime()
+	 * @since 1.3
+	 */
+	public static List<PacketMetrics> getSlowest(final int count) {
+		final List<PacketMetrics> all;
+		synchronized ( Metrics.class ) {
+			all = new ArrayList<PacketMetrics>(packetList.values());
+		}
+		final Map<PacketMetrics, HistogramSnapshot> times = new HashMap<PacketMetrics, HistogramSnapshot>();
+		for ( final PacketMetrics metrics : all ) {
+			final HistogramSnapshot time = metrics.getHandleTime();
+			if ( time.getCount() > 0 ) {
+				times.put(metrics, time);
+			}
+		}
+		final List<PacketMetrics> slowest = new ArrayList<PacketMetrics>(times.keySet());
+		slowest.sort(Comparator.comparingLong((final PacketMetrics m) -> times.get(m).getP99())
+				.thenComparingDouble(m -> times.get(m).getMean()).reversed());
+		return slowest.size() > count ? slowest.subList(0, count) : slowest;
+	}
+
+	/**
+	 * Forgets everything that has been recorded for every packet id
+	 * 
+	 * @see PacketMetrics#reset()
+	 * @since 1.3
+	 */
+	public static synchronized void resetPacketMetrics() {
+		packetList.values().forEach(PacketMetrics::reset);
+	}
+
+	/**
+	 * Adds the metrics of a connection that has been opened
+	 * 
+	 * @param metrics
+	 *            The metrics
+	 * @since 1.3
+	 */
+	static void add(final ConnectionMetrics metrics) {
+		if ( connections.add(metrics) && jmxEnabled ) {
+			registerGlobal();
+			if ( connectionBeans ) {
+				metrics.name = register(metrics, DOMAIN + ":type=Connection,id=" + ids.incrementAndGet());
+			}
+		}
+	}
+
+	/**
+	 * Removes the metrics of a connection that has been closed
+	 * 
+	 * @param metrics
+	 *            The metrics
+	 * @since 1.3
+	 */
+	static void remove(final ConnectionMetrics metrics) {
+		if ( connections.remove(metrics) ) {
+			unregister(metrics.name);
+			metrics.name = null;
+		}
+	}
+
+	/**
+	 * Adds the metrics of a server that has started listening
+	 * 
+	 * @param metrics
+	 *            The metrics
+	 * @param port
+	 *            The port the server is listening on
+	 * @since 1.3
+	 */
+	static void add(final ServerMetrics metrics, final int port) {
+		if ( servers.add(metrics) && jmxEnabled ) {
+			registerGlobal();
+			metrics.name = register(metrics, DOMAIN + ":type=Server,port=" + port);
+		}
+	}
+
+	/**
+	 * Registers the metrics that are shared by every node with JMX, if they
+	 * have not been registered yet
+	 * 
+	 * @since 1.3
+	 */
+	private static void registerGlobal() {
+		// Loading the holder registers them
+		@SuppressWarnings("unused")
+		final ObjectName name = GlobalBean.NAME;
+	}
+
+	/**
+	 * Removes the metrics of a server that has stopped listening
+	 * 
+	 * @param metrics
+	 *            The metrics
+	 * @since 1.3
+	 */
+	static void remove(final ServerMetrics metrics) {
+		if ( servers.remove(metrics) ) {
+			unregister(metrics.name);
+			metrics.name = null;
+		}
+	}
+
+	/**
+	 * Registers an object with JMX
+	 * 
+	 * @param bean
+	 *            The object
+	 * @param name
+	 *            The name to register it under
+	 * @return The name, or <code>null</code> if it could not be registered
+	 * @since 1.3
+	 */
+	private static ObjectName register(final Object bean, final String name) {
+		try {
+			final ObjectName objectName = new ObjectName(name);
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered(objectName) ) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(bean, objectName);
+			return objectName;
+		} catch ( final JMException | SecurityException ex ) {
+			NetworkErrors.networkError(ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Unregisters an object from JMX
+	 * 
+	 * @param name
+	 *            The name it was registered under, or <code>null</code> if it
+	 *            was not registered
+	 * @since 1.3
+	 */
+	private static void unregister(final ObjectName name) {
+		if ( name == null ) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch ( final JMException | SecurityException ex ) {
+			NetworkErrors.networkError(ex);
+		}
+	}
+
+	/**
+	 * This class only contains static members
+	 * 
+	 * @since 1.3
+	 */
+	private Metrics() {
+	}
+}
@@ -0,0 +1,116 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.Map;
+
+/**
+ * The metrics that are shared by every node and are exposed through JMX
+ * 
+ * @author Zach Deibert
+ * @see Metrics
+ * @since 1.3
+ * @version 1.3
+ */
+public interface MetricsMXBean {
+	/**
+	 * Gets how long each runner spent handling its ready channels every time
+	 * it woke up, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	HistogramSnapshot getLoopTime();
+
+	/**
+	 * Gets the number of connections that are open
+	 * 
+	 * @return The number of connections
+	 * @since 1.3
+	 */
+	int getConnections();
+
+	/**
+	 * Gets the fraction of buffers that were taken from the pool instead of
+	 * being allocated
+	 * 
+	 * @return The hit rate, from 0 to 1
+	 * @see BufferPool#getHitRate()
+	 * @since 1.3
+	 */
+	double getBufferHitRate();
+
+	/**
+	 * Gets the number of buffers that have been taken from the pool and not
+	 * given back yet
+	 * 
+	 * @return The number of buffers
+	 * @see BufferPool#getOutstanding()
+	 * @since 1.3
+	 */
+	long getBuffersOutstanding();
+
+	/**
+	 * Gets the number of packets that have been received with each packet id
+	 * 
+	 * @return The number of packets for each id
+	 * @since 1.3
+	 */
+	Map<Integer, Long> getPacketsIn();
+
+	/**
+	 * Gets the number of packets that have been sent with each packet id
+	 * 
+	 * @return The number of packets for each id
+	 * @since 1.3
+	 */
+	Map<Integer, Long> getPacketsOut();
+
+	/**
+	 * Gets the number of bytes that have been received with each packet id
+	 * 
+	 * @return The number of bytes for each id
+	 * @since 1.3
+	 */
+	Map<Integer, Long> getBytesIn();
+
+	/**
+	 * Gets the number of bytes that have been sent with each packet id
+	 * 
+	 * @return The number of bytes for each id
+	 * @since 1.3
+	 */
+	Map<Integer, Long> getBytesOut();
+
+	/**
+	 * Gets the length of the frames that have been received with each packet
+	 * id, in bytes
+	 * 
+	 * @return The summary of the lengths for each id
+	 * @since 1.3
+	 */
+	Map<Integer, HistogramSnapshot> getSizes();
+
+	/**
+	 * Gets how long the handler of each packet id took to run, in nanoseconds
+	 * 
+	 * @return The summary of the times for each id
+	 * @since 1.3
+	 */
+	Map<Integer, HistogramSnapshot> getHandleTimes();
+
+	/**
+	 * Gets the ten packet ids whose handlers have been the slowest
+	 * 
+	 * @return The ids, slowest first
+	 * @see Metrics#getSlowest(int)
+	 * @since 1.3
+	 */
+	int[] getSlowestIds();
+
+	/**
+	 * Forgets everything that has been recorded for every packet id
+	 * 
+	 * @see Metrics#resetPacketMetrics()
+	 * @since 1.3
+	 */
+	void resetPacketMetrics();
+}
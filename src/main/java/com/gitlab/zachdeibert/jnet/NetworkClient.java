@@ -1,19 +1,18 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 
 /**
  * A networking client
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 public final class NetworkClient extends AsyncDeserializer implements
                 LocalNetworkNode
@@ -25,23 +24,16 @@ public final class NetworkClient extends AsyncDeserializer implements
      * @see ConnectEvent#add
      * @since 1.0
      */
-    public ConnectEvent        onConnect;
-    /**
-     * The stream to write packets to
-     * 
-     * @author Zach Deibert
-     * @see sendPacket
-     * @since 1.0
-     */
-    private ObjectOutputStream ostream;
+    public ConnectEvent onConnect;
 
     /**
-     * Writes a packet to the socket
+     * Sends a packet to the server. The packet is queued and written by the
+     * runner, so this does not wait for the server to receive it.
      * 
      * @author Zach Deibert
      * @param packet
      *            The packet to write
-     * @see ostream
+     * @see writePacket
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
@@ -49,8 +41,7 @@ public final class NetworkClient extends AsyncDeserializer implements
     @Override
     public void sendPacket(final Packet packet) throws IOException
     {
-        ostream.writeObject(packet);
-        ostream.reset();
+        writePacket(packet);
     }
 
     /**
@@ -95,16 +86,97 @@ public final class NetworkClient extends AsyncDeserializer implements
     public void connect(final String IP, final short port, final int timeout)
                     throws UnknownHostException, IOException
     {
-        socket = new Socket();
-        socket.connect(new InetSocketAddress(IP, port), timeout);
-        ostream = new ObjectOutputStream(socket.getOutputStream());
-        closed = false;
+        connect(IP, port, timeout, SocketOptions.DEFAULT);
+    }
+
+    /**
+     * Connects the client to a remote server with the given socket options
+     * 
+     * @author Zach Deibert
+     * @param IP
+     *            The IP or host name to connect to
+     * @param port
+     *            The port to connect to
+     * @param options
+     *            The options to set on the socket
+     * @since 1.3
+     * @throws UnknownHostException
+     *             The DNS lookup failed
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void connect(final String IP, final short port,
+                    final SocketOptions options) throws UnknownHostException,
+                    IOException
+    {
+        connect(IP, port, 0, options);
+    }
+
+    /**
+     * Connects the client to a remote server with the given socket options
+     * 
+     * @author Zach Deibert
+     * @param IP
+     *            The IP or host name to connect to
+     * @param port
+     *            The port to connect to
+     * @param timeout
+     *            The amount of milliseconds to timeout the connection after
+     * @param options
+     *            The options to set on the socket
+     * @since 1.3
+     * @throws UnknownHostException
+     *             The DNS lookup failed
+     * @throws IOException
+     *             An I/O error has occurred
+     * @throws SocketTimeoutException
+     *             The client could not connect within the given timeout
+     */
+    public void connect(final String IP, final short port, final int timeout,
+                    final SocketOptions options) throws UnknownHostException,
+                    IOException
+    {
+        final SocketChannel channel = SocketChannel.open();
+        try
+        {
+            options.apply(channel);
+            channel.socket().connect(new InetSocketAddress(IP, port), timeout);
+            attach(channel);
+            offerCompression();
+        }
+        catch (final IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
         if (onConnect != null)
         {
             onConnect.onConnect(this, this);
         }
     }
 
+    /**
+     * Sets the codecs this client offers the server to compress packets with
+     * when it connects, and the smallest packet it compresses. This only
+     * takes effect the next time the client connects. By default nothing is
+     * compressed.
+     * 
+     * @author Zach Deibert
+     * @param compression
+     *            The compression settings
+     * @see Compression
+     * @see getCompressionCodec
+     * @since 1.3
+     */
+    public void setCompression(final Compression compression)
+    {
+        if (compression == null)
+        {
+            throw new NullPointerException();
+        }
+        this.compression = compression;
+    }
+
     /**
      * Disconnects the client from the server
      * 
@@ -116,19 +188,22 @@ public final class NetworkClient extends AsyncDeserializer implements
     @Override
     public void disconnect() throws IOException
     {
-        if (istream != null)
-        {
-            istream.close();
-        }
-        if (ostream != null)
-        {
-            ostream.close();
-        }
-        if (socket != null)
-        {
-            socket.close();
-        }
-        closed = true;
+        closeChannel(true);
+    }
+
+    /**
+     * Closes the socket after the server has closed the connection
+     * 
+     * @author Zach Deibert
+     * @see disconnect
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    protected void connectionLost() throws IOException
+    {
+        closeChannel(false);
     }
 
     /**
@@ -200,4 +275,16 @@ public final class NetworkClient extends AsyncDeserializer implements
             throw new IOException("Cannot get remote port");
         }
     }
+
+    /**
+     * Creates a new network client. Packets it receives are handled on one of
+     * the runners shared by every node.
+     * 
+     * @author Zach Deibert
+     * @since 1.0
+     */
+    public NetworkClient()
+    {
+        super(AsyncRunnerGroup.getDefault().next());
+    }
 }
@@ -1,13 +1,15 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * An interface that represents a node on the network
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 public interface NetworkNode
 {
@@ -23,6 +25,57 @@ public interface NetworkNode
      */
     public void sendPacket(Packet packet) throws IOException;
 
+    /**
+     * Sends a packet without waiting for it to be written. Nodes that cannot
+     * send packets asynchronously send it with {@link #sendPacket(Packet)}
+     * and return a stage that has already completed.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @return The stage that completes once the packet has been written to
+     *         the socket, or completes exceptionally if it could not be
+     * @since 1.3
+     */
+    public default CompletionStage<Void> sendPacketAsync(final Packet packet)
+    {
+        final CompletableFuture<Void> written = new CompletableFuture<Void>();
+        try
+        {
+            sendPacket(packet);
+            written.complete(null);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+            written.completeExceptionally(ex);
+        }
+        return written;
+    }
+
+    /**
+     * Sends a packet that only matters until a newer one with the same key is
+     * sent, such as the position of an entity. An older packet with the same
+     * id and key that has not started being written yet is replaced in place,
+     * so a slow connection is sent the newest value instead of falling behind.
+     * Nodes that cannot replace queued packets send it with
+     * {@link #sendPacket(Packet)}.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @param key
+     *            The key of the packet. It must implement
+     *            {@link Object#equals(Object)} and {@link Object#hashCode()}.
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public default void sendCoalesced(final Packet packet, final Object key)
+                    throws IOException
+    {
+        sendPacket(packet);
+    }
+
     /**
      * Disconencts this node
      * 
@@ -54,4 +107,18 @@ public interface NetworkNode
      *             An I/O error has occurred
      */
     public int getPort() throws IOException;
+
+    /**
+     * Writes out any packets that have been sent but are being held back so
+     * they can be written together. Nodes that do not hold packets back do
+     * nothing.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public default void flush() throws IOException
+    {
+    }
 }
@@ -1,19 +1,32 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * A networking server
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 public final class NetworkServer implements LocalNetworkNode
 {
@@ -26,47 +39,218 @@ public final class NetworkServer implements LocalNetworkNode
      */
     public ConnectEvent              onConnect;
     /**
-     * The socket to bind and listen on
+     * The event to call when the data waiting to be written to any client
+     * crosses one of its watermarks
      * 
-     * @author Zach Deiber
+     * @author Zach Deibert
+     * @see WatermarkEvent#add
+     * @see setBackpressure
+     * @since 1.3
+     */
+    public WatermarkEvent            onWatermark;
+    /**
+     * The sockets that are bound and listening. There is more than one only
+     * if there are several acceptors and the platform supports
+     * <code>SO_REUSEPORT</code>.
+     * 
+     * @author Zach Deibert
      * @since 1.0
      */
-    private ServerSocket             socket;
+    private ServerSocketChannel[]    sockets;
     /**
-     * The thread running the listener
+     * The threads running the listeners
      * 
      * @author Zach Deibert
-     * @see acceptClient()
+     * @see acceptClient(ServerSocketChannel)
      * @since 1.0
      */
-    private ServerListener           listener;
+    private ServerListener[]         listeners;
+    /**
+     * The number of threads to accept clients with
+     * 
+     * @author Zach Deibert
+     * @see setAcceptors
+     * @since 1.3
+     */
+    private int                      acceptors;
+    /**
+     * If the server is listening, so clients that have been accepted can
+     * still be added
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private volatile boolean         listening;
     /**
-     * A list of all of the clients that are connected to this server
+     * The options set on the sockets of the server and its clients
      * 
      * @author Zach Deibert
-     * @see acceptClient()
+     * @see connect(String, short, SocketOptions)
+     * @since 1.3
+     */
+    SocketOptions                    options;
+    /**
+     * All of the clients that are connected to this server. Clients are added
+     * and removed in constant time, and iterating over the set does not lock
+     * it, so sending to every client never holds up clients connecting or
+     * disconnecting.
+     * 
+     * @author Zach Deibert
+     * @see acceptClient(ServerSocketChannel)
      * @since 1.0
      */
-    private final List<RemoteClient> clients;
+    private final Set<RemoteClient>  clients;
+    /**
+     * The members of each group of clients. A group exists while it has at
+     * least one member.
+     * 
+     * @author Zach Deibert
+     * @see join
+     * @since 1.3
+     */
+    private final ConcurrentHashMap<String, Set<RemoteClient>> groups;
+    /**
+     * The runners that read from the clients connected to this server
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    final AsyncRunnerGroup           runners;
+    /**
+     * If the runners belong to this server and should be stopped when it
+     * disconnects
+     * 
+     * @author Zach Deibert
+     * @see disconnect()
+     * @since 1.3
+     */
+    private final boolean            ownsRunners;
+    /**
+     * The low watermark given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setBackpressure
+     * @since 1.3
+     */
+    private long                     lowWatermark;
+    /**
+     * The high watermark given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setBackpressure
+     * @since 1.3
+     */
+    private long                     highWatermark;
+    /**
+     * The backpressure policy given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setBackpressure
+     * @since 1.3
+     */
+    private BackpressurePolicy       policy;
+    /**
+     * The batching window in nanoseconds given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setBatching
+     * @since 1.3
+     */
+    private long                     batchWindow;
+    /**
+     * The batch size in bytes given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setBatching
+     * @since 1.3
+     */
+    private int                      batchBytes;
+    /**
+     * The compression settings given to new clients
+     * 
+     * @author Zach Deibert
+     * @see setCompression
+     * @since 1.3
+     */
+    private Compression              compression      = Compression.NONE;
+    /**
+     * The metrics of this server and all of its clients
+     * 
+     * @author Zach Deibert
+     * @see getMetrics
+     * @since 1.3
+     */
+    final ServerMetrics              metrics;
 
     /**
      * Accepts a client that is trying to connect. This method will block until
-     * a client starts connecting.
+     * a client starts connecting. The client is set up by the runner it is
+     * assigned to, so the listener can go straight back to accepting.
      * 
      * @author Zach Deibert
-     * @see listener
-     * @see clients
+     * @param socket
+     *            The socket to accept from
+     * @see listeners
+     * @see setUp
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
      */
-    void acceptClient() throws IOException
+    void acceptClient(final ServerSocketChannel socket) throws IOException
+    {
+        final SocketChannel channel = socket.accept();
+        metrics.accepted.mark();
+        final AsyncRunner runner = runners.next();
+        runner.execute(() -> setUp(runner, channel));
+    }
+
+    /**
+     * Sets up a client that has been accepted and calls the connect event
+     * 
+     * @author Zach Deibert
+     * @param runner
+     *            The runner that will read from the client
+     * @param channel
+     *            The client's channel
+     * @see acceptClient
+     * @since 1.3
+     */
+    private void setUp(final AsyncRunner runner, final SocketChannel channel)
     {
-        final Socket socket = this.socket.accept();
-        final RemoteClient client = new RemoteClient(this, socket);
-        synchronized (clients)
+        final RemoteClient client;
+        try
         {
-            clients.add(client);
+            client = new RemoteClient(this, runner, channel);
+        }
+        catch (final IOException ex)
+        {
+            NetworkErrors.networkError(ex, this);
+            try
+            {
+                channel.close();
+            }
+            catch (final IOException e)
+            {
+            }
+            return;
+        }
+        clients.add(client);
+        // The server may have been disconnected after it stopped closing
+        // clients, in which case whichever removes the client closes it
+        if (!listening)
+        {
+            if (remove(client))
+            {
+                try
+                {
+                    client.closeChannel(false);
+                }
+                catch (final IOException ex)
+                {
+                    NetworkErrors.networkError(ex, client);
+                }
+            }
+            return;
         }
         if (onConnect != null)
         {
@@ -75,7 +259,13 @@ public final class NetworkServer implements LocalNetworkNode
     }
 
     /**
-     * Sends a packet to all connected clients
+     * Sends a packet to all connected clients. The packet is only encoded
+     * once, and the same encoded data is queued for every client. This does
+     * not wait for the packet to be written, so a slow client does not hold up
+     * the others unless its backpressure policy is
+     * {@link BackpressurePolicy#BLOCK} and it is above its high watermark.
+     * Clients that connect or disconnect while the packet is being sent may or
+     * may not be sent the packet, but are never held up by it.
      * 
      * @author Zach Deibert
      * @param packet
@@ -88,49 +278,515 @@ public final class NetworkServer implements LocalNetworkNode
     @Override
     public void sendPacket(final Packet packet) throws IOException
     {
-        synchronized (clients)
+        send(packet, clients, null, null);
+    }
+
+    /**
+     * Sends a packet to every connected client without waiting. The packet is
+     * only encoded once. The future is completed once the packet has been
+     * written to every client it was queued for, and fails if any of them
+     * could not be written to.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @return The future that is completed once the packet has been written
+     * @see AsyncDeserializer#sendPacketAsync(Packet)
+     * @since 1.3
+     */
+    @Override
+    public CompletableFuture<Void> sendPacketAsync(final Packet packet)
+    {
+        final List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+        try
         {
-            final List<RemoteClient> disconnected = new LinkedList<RemoteClient>();
-            for (final RemoteClient client : clients)
+            send(packet, clients, null, written);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+            final CompletableFuture<Void> failed = new CompletableFuture<Void>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        return CompletableFuture.allOf(written
+                        .toArray(new CompletableFuture<?>[written.size()]));
+    }
+
+    /**
+     * Sends a packet to every connected client except one. The packet is
+     * only encoded once.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @param except
+     *            The client not to send the packet to
+     * @see sendPacket
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void sendToAllExcept(final Packet packet, final RemoteClient except)
+                    throws IOException
+    {
+        send(packet, clients, except, null);
+    }
+
+    /**
+     * Sends a packet to every client in a group. The packet is only encoded
+     * once. Clients that join or leave the group while the packet is being
+     * sent may or may not be sent the packet, but are never held up by it.
+     * 
+     * @author Zach Deibert
+     * @param group
+     *            The name of the group
+     * @param packet
+     *            The packet to send
+     * @see join
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void sendToGroup(final String group, final Packet packet)
+                    throws IOException
+    {
+        final Set<RemoteClient> members = groups.get(group);
+        if (members != null)
+        {
+            send(packet, members, null, null);
+        }
+    }
+
+    /**
+     * Sends a packet that only matters until a newer one with the same key is
+     * sent to every connected client. The packet is only encoded once, and
+     * replaces an older packet with the same id and key that each client has
+     * not started being sent yet.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @param key
+     *            The key of the packet
+     * @see AsyncDeserializer#sendCoalesced(Packet, Object)
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    public void sendCoalesced(final Packet packet, final Object key)
+                    throws IOException
+    {
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
+        final SharedBuffer frame = new SharedBuffer(PacketCodecs.encode(packet));
+        try
+        {
+            sendFrame(frame, packet.id, key, clients, null, null);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Encodes a packet once and queues it for some of the clients. Clients
+     * that turn out to be closed are removed from the server. The packet is
+     * compressed at most once for each codec the clients have agreed on, and
+     * only sent compressed to clients whose settings want it compressed.
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet to send
+     * @param targets
+     *            The clients to send to
+     * @param except
+     *            A client not to send to, or <code>null</code>
+     * @param written
+     *            The list to add a future for each client that is sent the
+     *            packet to, or <code>null</code> to wait for the packet to be
+     *            queued instead
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private void send(final Packet packet, final Set<RemoteClient> targets,
+                    final RemoteClient except,
+                    final List<CompletableFuture<Void>> written)
+                    throws IOException
+    {
+        final SharedBuffer frame = new SharedBuffer(PacketCodecs.encode(packet));
+        try
+        {
+            sendFrame(frame, packet.id, null, targets, except, written == null
+                            ? null : (client, future) -> written.add(future));
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Queues a frame that has already been encoded for some of the clients.
+     * Clients that turn out to be closed are removed from the server. The
+     * frame is compressed at most once for each codec the clients have
+     * agreed on, and only sent compressed to clients whose settings want it
+     * compressed.
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame, which is still owned by the caller
+     * @param id
+     *            The id of the packet in the frame
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code> if it cannot be replaced
+     * @param targets
+     *            The clients to send to
+     * @param except
+     *            A client not to send to, or <code>null</code>
+     * @param written
+     *            Given each client that is sent the frame along with a future
+     *            that is completed once it has been written, or
+     *            <code>null</code> to wait for the frame to be queued instead
+     * @see ReplicatedState
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    void sendFrame(final SharedBuffer frame, final int id, final Object key,
+                    final Collection<RemoteClient> targets,
+                    final RemoteClient except,
+                    final BiConsumer<RemoteClient, CompletableFuture<Void>> written)
+                    throws IOException
+    {
+        // Once a frame is big enough to compress, it compresses the same way
+        // whatever the threshold, so only the codec tells results apart
+        final Map<CompressionCodec, SharedBuffer> compressed = new IdentityHashMap<CompressionCodec, SharedBuffer>(
+                        2);
+        final ByteBuffer view = frame.view();
+        try
+        {
+            for (final RemoteClient client : targets)
             {
-                try
+                if (client == except)
                 {
-                    client.sendPacket(packet);
+                    continue;
                 }
-                catch (final SocketException ex)
+                SharedBuffer data = frame;
+                final CompressionCodec codec = client.getPacketCodec();
+                if (codec != null && client.compression.wants(view))
                 {
-                    if (ex.getMessage().equals("Broken pipe"))
+                    data = compressed.get(codec);
+                    if (data == null)
                     {
-                        disconnected.add(client);
+                        final ByteBuffer buffer = Compression.compressAlways(
+                                        view, codec);
+                        data = buffer == null ? frame : new SharedBuffer(
+                                        buffer);
+                        compressed.put(codec, data);
+                    }
+                }
+                try
+                {
+                    if (written == null)
+                    {
+                        client.writeFrame(data, id, null, key);
                     }
                     else
                     {
-                        throw ex;
+                        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+                        client.writeFrame(data, id, future, key);
+                        written.accept(client, future);
                     }
                 }
+                catch (final ClosedChannelException ex)
+                {
+                    remove(client);
+                }
+            }
+        }
+        finally
+        {
+            for (final SharedBuffer data : compressed.values())
+            {
+                if (data != frame)
+                {
+                    data.release();
+                }
             }
-            clients.removeAll(disconnected);
         }
     }
 
+    /**
+     * Adds a client to a group, creating the group if it does not exist. A
+     * client can be in any number of groups, and leaves all of them when it
+     * disconnects.
+     * 
+     * @author Zach Deibert
+     * @param group
+     *            The name of the group
+     * @param client
+     *            The client
+     * @see sendToGroup
+     * @since 1.3
+     */
+    public void join(final String group, final RemoteClient client)
+    {
+        if (!clients.contains(client))
+        {
+            return;
+        }
+        groups.compute(group, (name, members) -> {
+            final Set<RemoteClient> set = members == null ? ConcurrentHashMap
+                            .newKeySet() : members;
+            set.add(client);
+            return set;
+        });
+        client.groups.add(group);
+        // The client may have disconnected while it was joining
+        if (!clients.contains(client))
+        {
+            leave(group, client);
+        }
+    }
+
+    /**
+     * Removes a client from a group. The group is removed once it is empty.
+     * 
+     * @author Zach Deibert
+     * @param group
+     *            The name of the group
+     * @param client
+     *            The client
+     * @since 1.3
+     */
+    public void leave(final String group, final RemoteClient client)
+    {
+        client.groups.remove(group);
+        groups.computeIfPresent(group, (name, members) -> {
+            members.remove(client);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    /**
+     * Gets the clients in a group
+     * 
+     * @author Zach Deibert
+     * @param group
+     *            The name of the group
+     * @return The clients, which is empty if the group does not exist
+     * @since 1.3
+     */
+    public Set<RemoteClient> getGroup(final String group)
+    {
+        final Set<RemoteClient> members = groups.get(group);
+        return members == null ? Collections.<RemoteClient> emptySet()
+                        : Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * Gets the names of the groups that have at least one client
+     * 
+     * @author Zach Deibert
+     * @return The names
+     * @since 1.3
+     */
+    public Set<String> getGroups()
+    {
+        return Collections.unmodifiableSet(groups.keySet());
+    }
+
+    /**
+     * Removes a client from the server and from all of its groups
+     * 
+     * @author Zach Deibert
+     * @param client
+     *            The client
+     * @return If the client was connected to the server
+     * @since 1.3
+     */
+    private boolean remove(final RemoteClient client)
+    {
+        final boolean removed = clients.remove(client);
+        for (final String group : client.groups)
+        {
+            leave(group, client);
+        }
+        return removed;
+    }
+
     /**
      * Disconnects a single client from the server
      * 
      * @author Zach Deibert
      * @param client
      *            The client to disconnect
+     * @param flush
+     *            If packets that are still queued for the client should be
+     *            written before it is disconnected
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
      */
-    void disconnect(final RemoteClient client) throws IOException
+    void disconnect(final RemoteClient client, final boolean flush)
+                    throws IOException
+    {
+        // The channel is closed first so a thread that is waiting to send to
+        // the client stops waiting
+        client.closeChannel(flush);
+        remove(client);
+    }
+
+    /**
+     * Sets how much data can be waiting to be written to each client that
+     * connects after this is called, and what happens to packets sent to a
+     * client that is above its high watermark. Existing clients can be
+     * changed with {@link RemoteClient#setWatermarks(long, long)} and
+     * {@link RemoteClient#setBackpressurePolicy(BackpressurePolicy)}.
+     * 
+     * @author Zach Deibert
+     * @param low
+     *            The number of bytes a client's queue must fall to after it
+     *            has gone above the high watermark
+     * @param high
+     *            The most bytes that can be waiting before the policy is
+     *            applied
+     * @param policy
+     *            The policy
+     * @see onWatermark
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The low watermark is negative or above the high watermark
+     */
+    public void setBackpressure(final long low, final long high,
+                    final BackpressurePolicy policy)
+    {
+        if (low < 0 || low > high)
+        {
+            throw new IllegalArgumentException("Invalid watermarks");
+        }
+        if (policy == null)
+        {
+            throw new NullPointerException();
+        }
+        synchronized (this)
+        {
+            lowWatermark = low;
+            highWatermark = high;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Turns on batching for each client that connects after this is called,
+     * so packets sent to a client within a short window are written to its
+     * socket together. Existing clients can be changed with
+     * {@link RemoteClient#setBatching(long, TimeUnit, int)}.
+     * 
+     * @author Zach Deibert
+     * @param window
+     *            How long to gather packets for, or 0 to turn batching off
+     * @param unit
+     *            The unit of the window
+     * @param bytes
+     *            The number of bytes that causes a batch to be written before
+     *            its window has passed
+     * @see flush
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The window or byte count is negative
+     */
+    public void setBatching(final long window, final TimeUnit unit,
+                    final int bytes)
+    {
+        if (window < 0 || bytes < 0)
+        {
+            throw new IllegalArgumentException("Invalid batching settings");
+        }
+        synchronized (this)
+        {
+            batchWindow = unit.toNanos(window);
+            batchBytes = bytes;
+        }
+    }
+
+    /**
+     * Sets the codecs that clients connecting after this is called can agree
+     * on to compress their packets, and the smallest packet this server
+     * compresses. Clients that do not offer compression are not affected. By
+     * default nothing is compressed.
+     * 
+     * @author Zach Deibert
+     * @param compression
+     *            The compression settings
+     * @see Compression
+     * @since 1.3
+     */
+    public void setCompression(final Compression compression)
+    {
+        if (compression == null)
+        {
+            throw new NullPointerException();
+        }
+        synchronized (this)
+        {
+            this.compression = compression;
+        }
+    }
+
+    /**
+     * Writes out the packets that are being held back for batching to every
+     * client
+     * 
+     * @author Zach Deibert
+     * @see setBatching
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        for (final RemoteClient client : clients)
+        {
+            try
+            {
+                client.flush();
+            }
+            catch (final ClosedChannelException ex)
+            {
+                // The client is removed once its runner notices
+            }
+        }
+    }
+
+    /**
+     * Gives a new client the backpressure, batching and compression settings
+     * of this server
+     * 
+     * @author Zach Deibert
+     * @param client
+     *            The client
+     * @see setBackpressure
+     * @see setBatching
+     * @see setCompression
+     * @since 1.3
+     */
+    void configure(final RemoteClient client)
     {
-        synchronized (clients)
+        synchronized (this)
         {
-            clients.remove(client);
+            client.compression = compression;
+            client.setWatermarks(lowWatermark, highWatermark);
+            client.setBackpressurePolicy(policy);
+            client.setBatching(batchWindow, TimeUnit.NANOSECONDS, batchBytes);
         }
-        client.closed = true;
-        client.socket.close();
     }
 
     /**
@@ -144,17 +800,69 @@ public final class NetworkServer implements LocalNetworkNode
     @Override
     public void disconnect() throws IOException
     {
-        synchronized (clients)
+        listening = false;
+        // Every client is flushed at once by its own runner, so slow clients
+        // share one deadline instead of each taking their own
+        final long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS
+                                        .toNanos(AsyncDeserializer.CLOSE_TIMEOUT);
+        final List<RemoteClient> closing = new ArrayList<RemoteClient>();
+        final List<CompletableFuture<Void>> closed = new ArrayList<CompletableFuture<Void>>();
+        for (final RemoteClient client : clients)
         {
-            for (final RemoteClient client : clients)
+            if (remove(client))
             {
-                client.closed = true;
-                client.socket.close();
+                closing.add(client);
+                closed.add(client.closeAfterFlush(deadline));
             }
-            clients.clear();
         }
-        socket.close();
-        listener.interrupt();
+        // A runner cannot wait for the others, and the runners this server
+        // owns stop flushing once they are shut down
+        if (!(Thread.currentThread() instanceof AsyncRunner))
+        {
+            try
+            {
+                CompletableFuture.allOf(
+                                closed.toArray(new CompletableFuture<?>[closed
+                                                .size()])).get(
+                                Math.max(0, deadline - System.nanoTime()),
+                                TimeUnit.NANOSECONDS);
+            }
+            catch (final InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (final ExecutionException | TimeoutException ex)
+            {
+                // The clients that are left are closed without flushing
+            }
+        }
+        if (ownsRunners || !(Thread.currentThread() instanceof AsyncRunner))
+        {
+            for (int i = 0; i < closing.size(); ++i)
+            {
+                if (!closed.get(i).isDone())
+                {
+                    closing.get(i).closeChannel(false);
+                }
+            }
+        }
+        Metrics.remove(metrics);
+        if (listeners != null)
+        {
+            for (final ServerListener listener : listeners)
+            {
+                listener.interrupt();
+            }
+            for (final ServerSocketChannel socket : sockets)
+            {
+                socket.close();
+            }
+        }
+        if (ownsRunners)
+        {
+            runners.shutdown();
+        }
     }
 
     /**
@@ -174,13 +882,18 @@ public final class NetworkServer implements LocalNetworkNode
     }
 
     /**
-     * Binds the socket and starts the listener thread
+     * Binds the socket and starts the listener threads. If there are several
+     * acceptors and the platform supports <code>SO_REUSEPORT</code>, each
+     * acceptor gets its own socket bound to the same port and the kernel
+     * spreads new connections between them. Otherwise the acceptors share one
+     * socket.
      * 
      * @author Zach Deibert
      * @param IP
      *            The IP to listen on (currently does nothing)
      * @param port
      *            The port to listen on
+     * @see setAcceptors
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
@@ -188,8 +901,135 @@ public final class NetworkServer implements LocalNetworkNode
     @Override
     public void connect(final String IP, final short port) throws IOException
     {
-        socket = new ServerSocket(port);
-        listener = new ServerListener(this);
+        connect(IP, port, SocketOptions.DEFAULT);
+    }
+
+    /**
+     * Binds the socket with the given options and starts the listener
+     * threads. The options are also set on each client that is accepted.
+     * 
+     * @author Zach Deibert
+     * @param IP
+     *            The IP to listen on (currently does nothing)
+     * @param port
+     *            The port to listen on
+     * @param options
+     *            The options to set on the sockets
+     * @see connect(String, short)
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void connect(final String IP, final short port,
+                    final SocketOptions options) throws IOException
+    {
+        this.options = options;
+        final int count = acceptors;
+        final ServerSocketChannel first = ServerSocketChannel.open();
+        final SocketOption<Boolean> reusePort = count > 1 ? reusePort(first)
+                        : null;
+        sockets = new ServerSocketChannel[reusePort == null ? 1 : count];
+        sockets[0] = first;
+        try
+        {
+            for (int i = 0; i < sockets.length; ++i)
+            {
+                if (sockets[i] == null)
+                {
+                    sockets[i] = ServerSocketChannel.open();
+                }
+                options.apply(sockets[i]);
+                if (reusePort != null)
+                {
+                    sockets[i].setOption(reusePort, true);
+                }
+                // The first socket may have been given an ephemeral port,
+                // which the rest have to share
+                sockets[i].bind(new InetSocketAddress(i == 0 ? port
+                                : getPort()), options.getBacklog());
+            }
+        }
+        catch (final IOException ex)
+        {
+            for (final ServerSocketChannel socket : sockets)
+            {
+                if (socket != null)
+                {
+                    socket.close();
+                }
+            }
+            throw ex;
+        }
+        listening = true;
+        Metrics.add(metrics, getPort());
+        listeners = new ServerListener[count];
+        for (int i = 0; i < count; ++i)
+        {
+            listeners[i] = new ServerListener(this, sockets[i
+                            % sockets.length]);
+        }
+    }
+
+    /**
+     * Finds the <code>SO_REUSEPORT</code> option, which is only available on
+     * some platforms and from Java 9
+     * 
+     * @author Zach Deibert
+     * @param socket
+     *            The socket to look the option up on
+     * @return The option, or <code>null</code> if it is not supported
+     * @since 1.3
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePort(
+                    final ServerSocketChannel socket)
+    {
+        for (final SocketOption<?> option : socket.supportedOptions())
+        {
+            if ("SO_REUSEPORT".equals(option.name())
+                            && option.type() == Boolean.class)
+            {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the number of threads that accept clients the next time the server
+     * is connected. Each accepted client is set up by its runner rather than
+     * by the thread that accepted it, so a burst of clients connecting at
+     * once is accepted as fast as the sockets allow. There is one acceptor by
+     * default.
+     * 
+     * @author Zach Deibert
+     * @param count
+     *            The number of threads
+     * @see connect(String, short)
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The number of threads is less than one
+     */
+    public void setAcceptors(final int count)
+    {
+        if (count < 1)
+        {
+            throw new IllegalArgumentException("There must be an acceptor");
+        }
+        acceptors = count;
+    }
+
+    /**
+     * Gets the number of threads that accept clients
+     * 
+     * @author Zach Deibert
+     * @return The number of threads
+     * @see setAcceptors
+     * @since 1.3
+     */
+    public int getAcceptorCount()
+    {
+        return acceptors;
     }
 
     /**
@@ -207,6 +1047,26 @@ public final class NetworkServer implements LocalNetworkNode
         connect(null, port);
     }
 
+    /**
+     * Binds the socket with the given options and starts the listener
+     * threads
+     * 
+     * @author Zach Deibert
+     * @param port
+     *            The port to listen on
+     * @param options
+     *            The options to set on the sockets of the server and its
+     *            clients
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    public void connect(final short port, final SocketOptions options)
+                    throws IOException
+    {
+        connect(null, port, options);
+    }
+
     /**
      * Gets the IP the server is listening on
      * 
@@ -234,17 +1094,114 @@ public final class NetworkServer implements LocalNetworkNode
     @Override
     public int getPort() throws IOException
     {
-        return socket.getLocalPort();
+        return sockets[0].socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of clients that are connected to this server
+     * 
+     * @author Zach Deibert
+     * @return The number of clients
+     * @since 1.3
+     */
+    public int getClientCount()
+    {
+        return clients.size();
     }
 
     /**
-     * Creates a new network server
+     * Gets the clients that are connected to this server. The set is updated
+     * as clients connect and disconnect, and can be iterated over without
+     * locking it.
+     * 
+     * @author Zach Deibert
+     * @return The clients
+     * @since 1.3
+     */
+    public Set<RemoteClient> getClients()
+    {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    /**
+     * Gets the metrics of this server and all of its clients
+     * 
+     * @author Zach Deibert
+     * @return The metrics
+     * @see RemoteClient#getMetrics()
+     * @see Metrics
+     * @since 1.3
+     */
+    public ServerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of threads that read from the clients connected to this
+     * server
+     * 
+     * @author Zach Deibert
+     * @return The number of threads
+     * @see RemoteClient#getLoop()
+     * @since 1.3
+     */
+    public int getLoopCount()
+    {
+        return runners.size();
+    }
+
+    /**
+     * Creates a new network server. Its clients are read by the threads that
+     * are shared by every node, of which there is one per processor.
      * 
      * @author Zach Deibert
      * @since 1.0
      */
     public NetworkServer()
     {
-        clients = Collections.synchronizedList(new LinkedList<RemoteClient>());
+        this(AsyncRunnerGroup.getDefault(), false);
+    }
+
+    /**
+     * Creates a new network server with its own threads to read from its
+     * clients. Each client is assigned to one thread, so packets from a single
+     * client are always handled in order.
+     * 
+     * @author Zach Deibert
+     * @param loops
+     *            The number of threads to read from clients with
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The number of threads is less than one
+     */
+    public NetworkServer(final int loops)
+    {
+        this(new AsyncRunnerGroup(loops), true);
+    }
+
+    /**
+     * Creates a new network server whose clients are read by a group of
+     * threads
+     * 
+     * @author Zach Deibert
+     * @param runners
+     *            The threads to read from clients with
+     * @param ownsRunners
+     *            If the threads should be stopped when the server is
+     *            disconnected
+     * @since 1.3
+     */
+    private NetworkServer(final AsyncRunnerGroup runners,
+                    final boolean ownsRunners)
+    {
+        clients = ConcurrentHashMap.newKeySet();
+        groups = new ConcurrentHashMap<String, Set<RemoteClient>>();
+        this.runners = runners;
+        this.ownsRunners = ownsRunners;
+        acceptors = 1;
+        highWatermark = Long.MAX_VALUE;
+        policy = BackpressurePolicy.BLOCK;
+        metrics = new ServerMetrics(this);
     }
 }
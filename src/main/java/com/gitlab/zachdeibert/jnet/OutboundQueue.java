@@ -0,0 +1,1608 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The frames that are waiting to be written to a connection. Any thread can
+ * add frames to the queue, and the runner that owns the connection writes them
+ * out whenever the channel can accept more data. Once more data is queued than
+ * the high watermark allows, new frames are handled by the connection's
+ * {@link BackpressurePolicy}. Control frames, which the other end is waiting
+ * for, are never dropped or replaced by the policy.
+ * 
+ * @author Zach Deibert
+ * @see AsyncDeserializer#writeFrame
+ * @since 1.3
+ * @version 1.3
+ */
+final class OutboundQueue
+{
+    /**
+     * A single frame in the queue
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final class Frame
+    {
+        /**
+         * The frame, which may be shared with other connections
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        SharedBuffer data;
+        /**
+         * The view of the frame that this queue writes from
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        ByteBuffer   buffer;
+        /**
+         * The position of the buffer before any of it was written
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int          start;
+        /**
+         * The id of the packet in the frame
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        final int    id;
+        /**
+         * The future to complete once the frame has been written, or
+         * <code>null</code> if nothing is waiting for it
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        CompletableFuture<Void> written;
+        /**
+         * The stream that everything written after this frame is compressed
+         * with, or <code>null</code> if this frame does not start one
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        CompressionStream       startsStream;
+        /**
+         * The key newer frames replace this one by, or <code>null</code> if
+         * it cannot be replaced
+         * 
+         * @author Zach Deibert
+         * @see OutboundQueue#coalesce
+         * @since 1.3
+         */
+        Key                     key;
+        /**
+         * If the frame is being written by the current call to the channel,
+         * so its data cannot be replaced until the call returns
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        boolean                 writing;
+        /**
+         * If the other end is waiting for the frame, so the policy must never
+         * drop or replace it
+         * 
+         * @author Zach Deibert
+         * @see OutboundQueue#addControl
+         * @since 1.3
+         */
+        boolean                 control;
+
+        /**
+         * Checks if any of the frame has been written to the channel
+         * 
+         * @author Zach Deibert
+         * @return If the frame has been started
+         * @since 1.3
+         */
+        boolean isStarted()
+        {
+            return buffer.position() != start;
+        }
+
+        /**
+         * Replaces the data of the frame, keeping a reference to the new data
+         * and releasing the old data
+         * 
+         * @author Zach Deibert
+         * @param data
+         *            The new data
+         * @since 1.3
+         */
+        void replace(final SharedBuffer data)
+        {
+            data.retain();
+            this.data.release();
+            this.data = data;
+            buffer = data.view();
+            start = buffer.position();
+        }
+
+        /**
+         * Creates a new frame that keeps a reference to its data
+         * 
+         * @author Zach Deibert
+         * @param data
+         *            The data of the frame
+         * @param id
+         *            The id of the packet in the frame
+         * @param written
+         *            The future to complete once the frame has been written,
+         *            or <code>null</code>
+         * @since 1.3
+         */
+        Frame(final SharedBuffer data, final int id,
+                        final CompletableFuture<Void> written)
+        {
+            data.retain();
+            this.data = data;
+            buffer = data.view();
+            start = buffer.position();
+            this.id = id;
+            this.written = written;
+        }
+    }
+
+    /**
+     * The key of a frame that newer frames replace until it is written
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final class Key
+    {
+        /**
+         * The id of the packet in the frame
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        private final int    id;
+        /**
+         * The key given by the sender
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        private final Object key;
+
+        /**
+         * Gets the hash code of the key
+         * 
+         * @author Zach Deibert
+         * @return The hash code
+         * @since 1.3
+         */
+        @Override
+        public int hashCode()
+        {
+            return 31 * id + key.hashCode();
+        }
+
+        /**
+         * Checks if another key is the same as this one
+         * 
+         * @author Zach Deibert
+         * @param obj
+         *            The other key
+         * @return If both have the same packet id and sender's key
+         * @since 1.3
+         */
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return id == other.id && key.equals(other.key);
+        }
+
+        /**
+         * Creates a new key
+         * 
+         * @author Zach Deibert
+         * @param id
+         *            The id of the packet in the frame
+         * @param key
+         *            The key given by the sender
+         * @since 1.3
+         */
+        Key(final int id, final Object key)
+        {
+            this.id = id;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The most frames that are written to the channel in a single call
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int          MAX_GATHER  = 64;
+    /**
+     * The most bytes of scratch space that are kept between batches of
+     * compressed frames
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int          MAX_SCRATCH = 1024 * 1024;
+    /**
+     * The runner does not need to be asked to write the queue out
+     * 
+     * @author Zach Deibert
+     * @see add
+     * @since 1.3
+     */
+    static final int                  WRITE_NONE  = 0;
+    /**
+     * The runner needs to be asked to write the queue out straight away
+     * 
+     * @author Zach Deibert
+     * @see add
+     * @since 1.3
+     */
+    static final int                  WRITE_NOW   = 1;
+    /**
+     * The runner needs to be asked to write the queue out once the batching
+     * window has passed
+     * 
+     * @author Zach Deibert
+     * @see add
+     * @see getBatchWindow
+     * @since 1.3
+     */
+    static final int                  WRITE_LATER = 2;
+    /**
+     * The connection that this queue writes to
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final AsyncDeserializer   owner;
+    /**
+     * The frames that have not been completely written yet
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final ArrayDeque<Frame>   frames;
+    /**
+     * The frames that are being written by the current call to the channel
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final ByteBuffer[]        gather;
+    /**
+     * The number of frames at the start of the queue that are being written
+     * by the current call to the channel. These frames cannot be dropped or
+     * replaced until the call returns.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private int                       inFlight;
+    /**
+     * The frames that were removed from the queue while they were being
+     * written, which are released once the write has finished
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final List<SharedBuffer>  retired;
+    /**
+     * The futures of frames that were removed from the queue without being
+     * written. They are failed once the queue has been unlocked, so their
+     * callbacks never run while it is locked.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final List<CompletableFuture<Void>> dropped;
+    /**
+     * The frames that have not started being written yet and can still be
+     * replaced by newer frames with the same key
+     * 
+     * @author Zach Deibert
+     * @see coalesce
+     * @since 1.3
+     */
+    private final Map<Key, Frame>     coalescing;
+    /**
+     * The lock held by the thread that is writing to the channel
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final ReentrantLock       writer;
+    /**
+     * The number of bytes that are in the queue
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private long                      pendingBytes;
+    /**
+     * The number of bytes the queue must fall to after it has gone above the
+     * high watermark
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private long                      lowWatermark;
+    /**
+     * The most bytes that can be queued before the policy is applied
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private long                      highWatermark;
+    /**
+     * What to do with frames that are added when the queue is full
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private BackpressurePolicy        policy;
+    /**
+     * If the queue has gone above the high watermark and has not fallen back
+     * to the low watermark yet
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private boolean                   aboveHigh;
+    /**
+     * How the runner has been asked to write the queue out, which is one of
+     * {@link #WRITE_NONE}, {@link #WRITE_NOW} or {@link #WRITE_LATER}
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private int                       scheduled;
+    /**
+     * The number of nanoseconds that frames are gathered for before they are
+     * written, or 0 if they are written straight away
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private long                      batchWindow;
+    /**
+     * The number of queued bytes that causes a batch to be written before its
+     * window has passed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private int                       batchBytes;
+    /**
+     * If the connection is being closed because it could not keep up
+     * 
+     * @author Zach Deibert
+     * @see BackpressurePolicy#DISCONNECT
+     * @since 1.3
+     */
+    private boolean                   overflowed;
+    /**
+     * If the connection has been closed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private boolean                   closed;
+    /**
+     * The stream that everything is compressed with, or <code>null</code> if
+     * frames are written as they are. This is only used by the thread that
+     * holds the writer lock.
+     * 
+     * @author Zach Deibert
+     * @see addStreamStart
+     * @since 1.3
+     */
+    private CompressionStream         stream;
+    /**
+     * The compressed data that has not been written yet, or <code>null</code>
+     * if it has all been written. This is only used by the thread that holds
+     * the writer lock.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private PacketOutput              compressed;
+    /**
+     * The frames that are being compressed. This is only used by the thread
+     * that holds the writer lock.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final List<Frame>         batch;
+    /**
+     * The futures of the frames in the compressed data that has not been
+     * written yet. This is only used by the thread that holds the writer
+     * lock.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private final List<CompletableFuture<Void>> waiting;
+    /**
+     * The array frames are copied into before they are compressed. This is
+     * only used by the thread that holds the writer lock.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private byte[]                    scratch;
+
+    /**
+     * Sets the watermarks of the queue
+     * 
+     * @author Zach Deibert
+     * @param low
+     *            The number of bytes the queue must fall to after it has gone
+     *            above the high watermark
+     * @param high
+     *            The most bytes that can be queued before the policy is
+     *            applied
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The low watermark is negative or above the high watermark
+     */
+    synchronized void setWatermarks(final long low, final long high)
+    {
+        if (low < 0 || low > high)
+        {
+            throw new IllegalArgumentException("Invalid watermarks");
+        }
+        lowWatermark = low;
+        highWatermark = high;
+        notifyAll();
+    }
+
+    /**
+     * Sets what to do with frames that are added when the queue is full
+     * 
+     * @author Zach Deibert
+     * @param policy
+     *            The policy
+     * @since 1.3
+     */
+    synchronized void setPolicy(final BackpressurePolicy policy)
+    {
+        if (policy == null)
+        {
+            throw new NullPointerException();
+        }
+        this.policy = policy;
+        notifyAll();
+    }
+
+    /**
+     * Gets what to do with frames that are added when the queue is full
+     * 
+     * @author Zach Deibert
+     * @return The policy
+     * @since 1.3
+     */
+    synchronized BackpressurePolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Sets how frames are gathered into batches before they are written
+     * 
+     * @author Zach Deibert
+     * @param window
+     *            The number of nanoseconds to gather frames for, or 0 to write
+     *            them straight away
+     * @param bytes
+     *            The number of queued bytes that causes a batch to be written
+     *            before its window has passed
+     * @since 1.3
+     * @throws IllegalArgumentException
+     *             The window or byte count is negative
+     */
+    synchronized void setBatching(final long window, final int bytes)
+    {
+        if (window < 0 || bytes < 0)
+        {
+            throw new IllegalArgumentException("Invalid batching settings");
+        }
+        batchWindow = window;
+        batchBytes = bytes;
+    }
+
+    /**
+     * Gets the number of nanoseconds that frames are gathered for before they
+     * are written
+     * 
+     * @author Zach Deibert
+     * @return The number of nanoseconds, or 0 if batching is turned off
+     * @since 1.3
+     */
+    synchronized long getBatchWindow()
+    {
+        return batchWindow;
+    }
+
+    /**
+     * Makes a batch that is waiting for its window to pass be written
+     * straight away
+     * 
+     * @author Zach Deibert
+     * @return If the runner needs to be asked to write the queue out
+     * @since 1.3
+     */
+    synchronized boolean promote()
+    {
+        if (scheduled != WRITE_LATER)
+        {
+            return false;
+        }
+        scheduled = WRITE_NOW;
+        return true;
+    }
+
+    /**
+     * Adds a frame to the end of the queue, applying the policy if the queue
+     * is full
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add. The queue keeps its own reference to the
+     *            frame if it is queued.
+     * @param id
+     *            The id of the packet in the frame
+     * @param mayBlock
+     *            If the calling thread may wait for the queue to be written
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>. It is failed if the frame is dropped.
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     * @throws IOException
+     *             The connection has been closed, or the thread was
+     *             interrupted while waiting
+     */
+    int add(final SharedBuffer data, final int id, final boolean mayBlock,
+                    final CompletableFuture<Void> written) throws IOException
+    {
+        return add(data, id, mayBlock, written, null);
+    }
+
+    /**
+     * Adds a frame to the end of the queue, or replaces a frame with the same
+     * packet id and key that has not started being written yet. A frame that
+     * replaces another one keeps its place in the queue, and is never held
+     * back by the policy since the queue does not grow.
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add. The queue keeps its own reference to the
+     *            frame if it is queued.
+     * @param id
+     *            The id of the packet in the frame
+     * @param mayBlock
+     *            If the calling thread may wait for the queue to be written
+     * @param written
+     *            The future to complete once the frame, or a newer frame that
+     *            replaced it, has been written, or <code>null</code>. It is
+     *            failed if the frame is dropped.
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code> if it cannot be replaced
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     * @throws IOException
+     *             The connection has been closed, or the thread was
+     *             interrupted while waiting
+     */
+    int add(final SharedBuffer data, final int id, final boolean mayBlock,
+                    final CompletableFuture<Void> written, final Object key)
+                    throws IOException
+    {
+        return add(data, id, mayBlock, written, key, false);
+    }
+
+    /**
+     * Adds a control frame to the end of the queue. It may still wait for the
+     * queue to fall below its high watermark, but the policy never drops it,
+     * replaces it with another frame or replaces it with a newer one.
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add
+     * @param id
+     *            The id of the packet in the frame
+     * @param mayBlock
+     *            If the calling thread may wait for the queue to be written
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     * @throws IOException
+     *             The connection has been closed, or the thread was
+     *             interrupted while waiting
+     */
+    int addControl(final SharedBuffer data, final int id,
+                    final boolean mayBlock) throws IOException
+    {
+        return add(data, id, mayBlock, null, null, true);
+    }
+
+    /**
+     * Adds a frame to the end of the queue, or replaces a frame with the same
+     * packet id and key
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add
+     * @param id
+     *            The id of the packet in the frame
+     * @param mayBlock
+     *            If the calling thread may wait for the queue to be written
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code> if it cannot be replaced
+     * @param control
+     *            If the frame is a control frame
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     * @throws IOException
+     *             The connection has been closed, or the thread was
+     *             interrupted while waiting
+     */
+    private int add(final SharedBuffer data, final int id,
+                    final boolean mayBlock,
+                    final CompletableFuture<Void> written, final Object key,
+                    final boolean control) throws IOException
+    {
+        final Key coalesceKey = key == null ? null : new Key(id, key);
+        final int schedule;
+        final boolean block;
+        final boolean crossed;
+        final long pending;
+        final List<CompletableFuture<Void>> failed;
+        final IOException reason;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                throw new ClosedChannelException();
+            }
+            final boolean wasAbove = aboveHigh;
+            if (coalesce(coalesceKey, data, written))
+            {
+                block = false;
+                schedule = WRITE_NONE;
+            }
+            else
+            {
+                final boolean full = !frames.isEmpty()
+                                && pendingBytes + data.remaining() > highWatermark;
+                block = full && mayBlock
+                                && policy == BackpressurePolicy.BLOCK;
+                if (block)
+                {
+                    aboveHigh = true;
+                    schedule = WRITE_NONE;
+                }
+                else
+                {
+                    schedule = full ? overflow(data, id, written,
+                                    coalesceKey, control) : enqueue(data, id,
+                                    written, coalesceKey, control);
+                }
+            }
+            crossed = !wasAbove && aboveHigh;
+            pending = pendingBytes;
+            failed = takeDropped();
+            reason = failed == null ? null : dropReason();
+        }
+        fail(failed, reason);
+        if (crossed)
+        {
+            owner.watermarkCrossed(true, pending);
+        }
+        if (!block)
+        {
+            return schedule;
+        }
+        synchronized (this)
+        {
+            try
+            {
+                while (aboveHigh && !closed && policy == BackpressurePolicy.BLOCK)
+                {
+                    wait();
+                }
+            }
+            catch (final InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (closed)
+            {
+                throw new ClosedChannelException();
+            }
+            // Another frame with the same key may have been queued while
+            // this thread was waiting
+            if (coalesce(coalesceKey, data, written))
+            {
+                return WRITE_NONE;
+            }
+            return enqueue(data, id, written, coalesceKey, control);
+        }
+    }
+
+    /**
+     * Replaces the data of a frame with the same key that is not being
+     * written and has not started being written yet. The future of the frame
+     * that was replaced completes along with the new one, since the newer data
+     * is written in its place. The queue must be locked.
+     * 
+     * @author Zach Deibert
+     * @param key
+     *            The key of the new frame, or <code>null</code>
+     * @param data
+     *            The new data
+     * @param written
+     *            The future to complete once the new data has been written,
+     *            or <code>null</code>
+     * @return If a frame was replaced
+     * @since 1.3
+     */
+    private boolean coalesce(final Key key, final SharedBuffer data,
+                    final CompletableFuture<Void> written)
+    {
+        if (key == null)
+        {
+            return false;
+        }
+        final Frame frame = coalescing.get(key);
+        if (frame == null || frame.writing)
+        {
+            return false;
+        }
+        pendingBytes += data.remaining() - frame.buffer.remaining();
+        if (pendingBytes > highWatermark)
+        {
+            aboveHigh = true;
+        }
+        frame.replace(data);
+        final CompletableFuture<Void> old = frame.written;
+        if (written == null)
+        {
+            frame.written = old;
+        }
+        else
+        {
+            if (old != null)
+            {
+                written.whenComplete((v, ex) -> {
+                    if (ex == null)
+                    {
+                        old.complete(null);
+                    }
+                    else
+                    {
+                        old.completeExceptionally(ex);
+                    }
+                });
+            }
+            frame.written = written;
+        }
+        owner.metrics.dropped();
+        return true;
+    }
+
+    /**
+     * Stops a frame from being replaced, once it has started being written or
+     * has been removed from the queue. The queue must be locked.
+     * 
+     * @author Zach Deibert
+     * @param frame
+     *            The frame
+     * @since 1.3
+     */
+    private void forget(final Frame frame)
+    {
+        if (frame.key != null)
+        {
+            // A newer frame may have taken the key while this one was being
+            // written
+            coalescing.remove(frame.key, frame);
+            frame.key = null;
+        }
+    }
+
+    /**
+     * Adds a frame to the end of the queue, after which everything written is
+     * compressed with a stream. The policy is not applied to the frame, since
+     * the other end of the connection has to receive it.
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add
+     * @param id
+     *            The id of the packet in the frame
+     * @param stream
+     *            The stream to compress everything after the frame with
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     * @throws IOException
+     *             The connection has been closed
+     */
+    synchronized int addStreamStart(final SharedBuffer data, final int id,
+                    final CompressionStream stream) throws IOException
+    {
+        if (closed)
+        {
+            throw new ClosedChannelException();
+        }
+        final int schedule = enqueue(data, id, null, null, true);
+        frames.peekLast().startsStream = stream;
+        return schedule;
+    }
+
+    /**
+     * Takes the futures of the frames that have been dropped. The queue must
+     * be locked.
+     * 
+     * @author Zach Deibert
+     * @return The futures, or <code>null</code> if no frames were dropped
+     * @since 1.3
+     */
+    private List<CompletableFuture<Void>> takeDropped()
+    {
+        if (dropped.isEmpty())
+        {
+            return null;
+        }
+        final List<CompletableFuture<Void>> taken = new ArrayList<CompletableFuture<Void>>(
+                        dropped);
+        dropped.clear();
+        return taken;
+    }
+
+    /**
+     * Gets the reason the dropped frames were not written. The queue must be
+     * locked.
+     * 
+     * @author Zach Deibert
+     * @return The exception to fail their futures with
+     * @since 1.3
+     */
+    private IOException dropReason()
+    {
+        if (closed || overflowed)
+        {
+            return new ClosedChannelException();
+        }
+        return new IOException("The packet was dropped by the backpressure policy");
+    }
+
+    /**
+     * Fails the futures of frames that were dropped. The queue must not be
+     * locked.
+     * 
+     * @author Zach Deibert
+     * @param futures
+     *            The futures, or <code>null</code>
+     * @param reason
+     *            The exception to fail them with
+     * @since 1.3
+     */
+    private static void fail(final List<CompletableFuture<Void>> futures,
+                    final IOException reason)
+    {
+        if (futures != null)
+        {
+            for (final CompletableFuture<Void> future : futures)
+            {
+                future.completeExceptionally(reason);
+            }
+        }
+    }
+
+    /**
+     * Remembers that a frame was dropped so its future can be failed once the
+     * queue is unlocked. The queue must be locked.
+     * 
+     * @author Zach Deibert
+     * @param written
+     *            The future of the frame, or <code>null</code>
+     * @since 1.3
+     */
+    private void drop(final CompletableFuture<Void> written)
+    {
+        if (written != null)
+        {
+            dropped.add(written);
+        }
+    }
+
+    /**
+     * Adds a frame to the end of the queue. The queue must be locked.
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame to add
+     * @param id
+     *            The id of the packet in the frame
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code>
+     * @param control
+     *            If the frame is a control frame
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     */
+    private int enqueue(final SharedBuffer data, final int id,
+                    final CompletableFuture<Void> written, final Key key,
+                    final boolean control)
+    {
+        final Frame frame = new Frame(data, id, written);
+        frame.control = control;
+        if (key != null)
+        {
+            frame.key = key;
+            coalescing.put(key, frame);
+        }
+        frames.add(frame);
+        pendingBytes += data.remaining();
+        if (pendingBytes > highWatermark)
+        {
+            aboveHigh = true;
+        }
+        if (scheduled == WRITE_NOW)
+        {
+            return WRITE_NONE;
+        }
+        if (batchWindow > 0 && pendingBytes < batchBytes)
+        {
+            if (scheduled == WRITE_LATER)
+            {
+                return WRITE_NONE;
+            }
+            scheduled = WRITE_LATER;
+            return WRITE_LATER;
+        }
+        scheduled = WRITE_NOW;
+        return WRITE_NOW;
+    }
+
+    /**
+     * Applies the policy to a frame that does not fit in the queue. The queue
+     * must be locked.
+     * 
+     * @author Zach Deibert
+     * @param data
+     *            The frame that was added
+     * @param id
+     *            The id of the packet in the frame
+     * @param written
+     *            The future to complete once the frame has been written, or
+     *            <code>null</code>
+     * @param key
+     *            The key newer frames replace this one by, or
+     *            <code>null</code>
+     * @param control
+     *            If the frame is a control frame, which is queued instead of
+     *            being dropped or replacing another frame
+     * @return How the runner needs to be asked to write the queue out
+     * @since 1.3
+     */
+    private int overflow(final SharedBuffer data, final int id,
+                    final CompletableFuture<Void> written, final Key key,
+                    final boolean control)
+    {
+        aboveHigh = true;
+        switch (policy)
+        {
+            case DROP_OLDEST:
+            {
+                final long length = data.remaining();
+                final Iterator<Frame> it = frames.iterator();
+                for (int i = 0; i < inFlight; ++i)
+                {
+                    it.next();
+                }
+                while (it.hasNext() && pendingBytes + length > highWatermark)
+                {
+                    final Frame frame = it.next();
+                    if (!frame.isStarted() && !frame.control)
+                    {
+                        pendingBytes -= frame.buffer.remaining();
+                        frame.data.release();
+                        it.remove();
+                        forget(frame);
+                        drop(frame.written);
+                        owner.metrics.dropped();
+                    }
+                }
+                return enqueue(data, id, written, key, control);
+            }
+            case DROP_NEWEST:
+                if (control)
+                {
+                    return enqueue(data, id, written, key, true);
+                }
+                drop(written);
+                owner.metrics.dropped();
+                return WRITE_NONE;
+            case COALESCE:
+            {
+                final Iterator<Frame> it = frames.iterator();
+                for (int i = 0; i < inFlight; ++i)
+                {
+                    it.next();
+                }
+                while (!control && it.hasNext())
+                {
+                    final Frame frame = it.next();
+                    if (frame.id == id && !frame.isStarted() && !frame.control)
+                    {
+                        pendingBytes += data.remaining()
+                                        - frame.buffer.remaining();
+                        frame.replace(data);
+                        drop(frame.written);
+                        frame.written = written;
+                        forget(frame);
+                        if (key != null)
+                        {
+                            frame.key = key;
+                            coalescing.put(key, frame);
+                        }
+                        owner.metrics.dropped();
+                        return WRITE_NONE;
+                    }
+                }
+                return enqueue(data, id, written, key, control);
+            }
+            case DISCONNECT:
+                clear();
+                drop(written);
+                overflowed = true;
+                scheduled = WRITE_NOW;
+                // The runner must run even if the channel never becomes
+                // writable again, so it can close the connection
+                return WRITE_NOW;
+            default:
+                return enqueue(data, id, written, key, control);
+        }
+    }
+
+    /**
+     * Removes all of the frames from the queue and releases them. Frames that
+     * are being written are released once the write has finished. The queue
+     * must be locked.
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private void clear()
+    {
+        int skip = inFlight;
+        for (final Frame frame : frames)
+        {
+            drop(frame.written);
+            if (skip > 0)
+            {
+                --skip;
+                retired.add(frame.data);
+            }
+            else
+            {
+                frame.data.release();
+            }
+        }
+        frames.clear();
+        coalescing.clear();
+        inFlight = 0;
+        pendingBytes = 0;
+    }
+
+    /**
+     * Gets the number of bytes that are waiting to be written
+     * 
+     * @author Zach Deibert
+     * @return The number of bytes
+     * @since 1.3
+     */
+    synchronized long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+
+    /**
+     * Gets the number of frames that are waiting to be written
+     * 
+     * @author Zach Deibert
+     * @return The number of frames
+     * @since 1.3
+     */
+    synchronized int getPendingFrames()
+    {
+        return frames.size();
+    }
+
+    /**
+     * Allows frames to be added again after the connection has been opened
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    synchronized void open()
+    {
+        closed = false;
+        overflowed = false;
+        aboveHigh = false;
+        stream = null;
+    }
+
+    /**
+     * Removes all of the frames from the queue without writing them and
+     * wakes up any threads that are waiting to add frames
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    void close()
+    {
+        final List<CompletableFuture<Void>> failed;
+        synchronized (this)
+        {
+            clear();
+            scheduled = WRITE_NONE;
+            closed = true;
+            notifyAll();
+            failed = takeDropped();
+        }
+        fail(failed, new ClosedChannelException());
+        // The channel has already been closed, so a thread that is still
+        // writing to it gives up the writer lock soon
+        writer.lock();
+        try
+        {
+            abandonCompressed(new ClosedChannelException());
+        }
+        finally
+        {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Throws away the compressed data that has not been written yet and fails
+     * the futures of the frames in it. The writer lock must be held.
+     * 
+     * @author Zach Deibert
+     * @param reason
+     *            The exception to fail the futures with
+     * @since 1.3
+     */
+    private void abandonCompressed(final IOException reason)
+    {
+        if (compressed != null)
+        {
+            compressed.release();
+            compressed = null;
+        }
+        if (!waiting.isEmpty())
+        {
+            final List<CompletableFuture<Void>> failed = new ArrayList<CompletableFuture<Void>>(
+                            waiting);
+            waiting.clear();
+            fail(failed, reason);
+        }
+    }
+
+    /**
+     * Writes as much of the queue as possible without blocking
+     * 
+     * @author Zach Deibert
+     * @param channel
+     *            The channel to write to
+     * @return If the whole queue has been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred, or the connection could not keep
+     *             up with the packets sent to it
+     */
+    boolean drain(final SocketChannel channel) throws IOException
+    {
+        synchronized (this)
+        {
+            if (overflowed)
+            {
+                throw new IOException(
+                                "The connection is not reading packets fast enough");
+            }
+        }
+        if (!writer.tryLock())
+        {
+            // Another thread is flushing the queue before closing the channel
+            return true;
+        }
+        try
+        {
+            return write(channel);
+        }
+        finally
+        {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Writes the whole queue, blocking until it has been written or the
+     * timeout expires
+     * 
+     * @author Zach Deibert
+     * @param channel
+     *            The channel to write to
+     * @param timeout
+     *            The most milliseconds to wait for
+     * @return If the whole queue has been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    boolean flush(final SocketChannel channel, final long timeout)
+                    throws IOException
+    {
+        writer.lock();
+        try
+        {
+            if (write(channel))
+            {
+                return true;
+            }
+            final long deadline = System.currentTimeMillis() + timeout;
+            final Selector selector = Selector.open();
+            try
+            {
+                channel.register(selector, SelectionKey.OP_WRITE);
+                long remaining;
+                while ((remaining = deadline - System.currentTimeMillis()) > 0)
+                {
+                    selector.select(remaining);
+                    selector.selectedKeys().clear();
+                    if (write(channel))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            finally
+            {
+                selector.close();
+            }
+        }
+        finally
+        {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Writes frames until the queue is empty or the channel will not accept
+     * any more data. The writer lock must be held.
+     * 
+     * @author Zach Deibert
+     * @param channel
+     *            The channel to write to
+     * @return If the whole queue has been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private boolean write(final SocketChannel channel) throws IOException
+    {
+        while (true)
+        {
+            if (stream != null)
+            {
+                return writeCompressed(channel);
+            }
+            int count = 0;
+            synchronized (this)
+            {
+                for (final Frame frame : frames)
+                {
+                    frame.writing = true;
+                    gather[count++] = frame.buffer;
+                    // Nothing after the start of a stream can be written
+                    // until the frame that starts it has been
+                    if (count == MAX_GATHER || frame.startsStream != null)
+                    {
+                        break;
+                    }
+                }
+                if (count == 0)
+                {
+                    scheduled = WRITE_NONE;
+                    return true;
+                }
+                inFlight = count;
+            }
+            long written = 0;
+            final boolean full;
+            boolean crossed = false;
+            long pending = 0;
+            List<CompletableFuture<Void>> done = null;
+            try
+            {
+                written = channel.write(gather, 0, count);
+            }
+            finally
+            {
+                owner.metrics.wrote(written);
+                full = gather[count - 1].hasRemaining();
+                Arrays.fill(gather, 0, count, null);
+                synchronized (this)
+                {
+                    // The queue may have been cleared while it was being
+                    // written, in which case there is nothing left to remove
+                    if (inFlight > 0)
+                    {
+                        pendingBytes -= written;
+                        while (!frames.isEmpty()
+                                        && !frames.peekFirst().buffer
+                                                        .hasRemaining())
+                        {
+                            final Frame frame = frames.pollFirst();
+                            forget(frame);
+                            owner.metrics.sent(frame.id,
+                                            frame.data.remaining());
+                            frame.data.release();
+                            if (frame.startsStream != null)
+                            {
+                                stream = frame.startsStream;
+                            }
+                            if (frame.written != null)
+                            {
+                                if (done == null)
+                                {
+                                    done = new ArrayList<CompletableFuture<Void>>();
+                                }
+                                done.add(frame.written);
+                            }
+                        }
+                        // Frames the channel did not get to can still be
+                        // replaced, but ones it wrote part of cannot
+                        for (final Frame frame : frames)
+                        {
+                            if (!frame.writing)
+                            {
+                                break;
+                            }
+                            frame.writing = false;
+                            if (frame.isStarted())
+                            {
+                                forget(frame);
+                            }
+                        }
+                    }
+                    inFlight = 0;
+                    for (final SharedBuffer data : retired)
+                    {
+                        data.release();
+                    }
+                    retired.clear();
+                    if (aboveHigh && pendingBytes <= lowWatermark)
+                    {
+                        aboveHigh = false;
+                        crossed = true;
+                        pending = pendingBytes;
+                        notifyAll();
+                    }
+                }
+            }
+            if (done != null)
+            {
+                for (final CompletableFuture<Void> future : done)
+                {
+                    future.complete(null);
+                }
+            }
+            if (crossed)
+            {
+                owner.watermarkCrossed(false, pending);
+            }
+            if (full)
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Compresses frames with the stream and writes them until the queue is
+     * empty or the channel will not accept any more data. Frames are taken
+     * off the queue a batch at a time, and the stream is flushed at the end of
+     * each batch. The writer lock must be held.
+     * 
+     * @author Zach Deibert
+     * @param channel
+     *            The channel to write to
+     * @return If the whole queue has been written
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    private boolean writeCompressed(final SocketChannel channel)
+                    throws IOException
+    {
+        while (true)
+        {
+            if (compressed != null)
+            {
+                final ByteBuffer buffer = compressed.buffer();
+                final int written;
+                try
+                {
+                    written = channel.write(buffer);
+                }
+                catch (final IOException ex)
+                {
+                    abandonCompressed(ex);
+                    throw ex;
+                }
+                catch (final RuntimeException ex)
+                {
+                    abandonCompressed(new IOException(ex));
+                    throw ex;
+                }
+                owner.metrics.wrote(written);
+                if (buffer.hasRemaining())
+                {
+                    return false;
+                }
+                compressed.release();
+                compressed = null;
+                for (final CompletableFuture<Void> future : waiting)
+                {
+                    future.complete(null);
+                }
+                waiting.clear();
+            }
+            boolean crossed = false;
+            long pending = 0;
+            synchronized (this)
+            {
+                while (batch.size() < MAX_GATHER && !frames.isEmpty())
+                {
+                    final Frame frame = frames.pollFirst();
+                    forget(frame);
+                    pendingBytes -= frame.buffer.remaining();
+                    batch.add(frame);
+                }
+                if (batch.isEmpty())
+                {
+                    scheduled = WRITE_NONE;
+                    return true;
+                }
+                if (aboveHigh && pendingBytes <= lowWatermark)
+                {
+                    aboveHigh = false;
+                    crossed = true;
+                    pending = pendingBytes;
+                    notifyAll();
+                }
+            }
+            final PacketOutput out = new PacketOutput();
+            try
+            {
+                for (int i = 0; i < batch.size(); ++i)
+                {
+                    final Frame frame = batch.get(i);
+                    final int length = frame.buffer.remaining();
+                    byte[] src = scratch;
+                    if (src == null || src.length < length)
+                    {
+                        src = new byte[Math.max(length, 8192)];
+                        if (length <= MAX_SCRATCH)
+                        {
+                            scratch = src;
+                        }
+                    }
+                    frame.buffer.get(src, 0, length);
+                    stream.compress(src, length, i == batch.size() - 1, out);
+                    owner.metrics.sent(frame.id, length);
+                }
+            }
+            catch (final IOException | RuntimeException ex)
+            {
+                out.release();
+                for (final Frame frame : batch)
+                {
+                    frame.data.release();
+                    if (frame.written != null)
+                    {
+                        frame.written.completeExceptionally(ex);
+                    }
+                }
+                batch.clear();
+                throw ex;
+            }
+            out.buffer().flip();
+            compressed = out;
+            for (final Frame frame : batch)
+            {
+                frame.data.release();
+                if (frame.written != null)
+                {
+                    waiting.add(frame.written);
+                }
+            }
+            batch.clear();
+            if (crossed)
+            {
+                owner.watermarkCrossed(false, pending);
+            }
+        }
+    }
+
+    /**
+     * Creates a new, empty queue that does not limit how much data can be
+     * queued
+     * 
+     * @author Zach Deibert
+     * @param owner
+     *            The connection that the queue writes to
+     * @since 1.3
+     */
+    OutboundQueue(final AsyncDeserializer owner)
+    {
+        this.owner = owner;
+        frames = new ArrayDeque<Frame>();
+        gather = new ByteBuffer[MAX_GATHER];
+        retired = new ArrayList<SharedBuffer>();
+        dropped = new ArrayList<CompletableFuture<Void>>();
+        coalescing = new HashMap<Key, Frame>();
+        batch = new ArrayList<Frame>();
+        waiting = new ArrayList<CompletableFuture<Void>>();
+        writer = new ReentrantLock();
+        highWatermark = Long.MAX_VALUE;
+        policy = BackpressurePolicy.BLOCK;
+    }
+}
@@ -1,6 +1,7 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A packet that can be sent across a network. This should be extended to add
@@ -10,7 +11,7 @@ import java.io.Serializable;
  * @see PacketHandler
  * @serial
  * @since 1.0
- * @version 1.2.2
+ * @version 1.3
  */
 public class Packet implements Serializable {
 	/**
@@ -21,6 +22,13 @@ public class Packet implements Serializable {
 	 * @since 1.0
 	 */
 	private static final long serialVersionUID = 8570521268445574243L;
+	/**
+	 * Updates {@link #refs} atomically
+	 * 
+	 * @since 1.3
+	 */
+	private static final AtomicIntegerFieldUpdater<Packet> REFS = AtomicIntegerFieldUpdater.newUpdater(Packet.class,
+			"refs");
 	/**
 	 * The ID of this packet. Used to find the correct handler when the packet
 	 * is recieved.
@@ -30,6 +38,68 @@ public class Packet implements Serializable {
 	 * @since 1.0
 	 */
 	int id;
+	/**
+	 * The correlation id of the request this packet was received as, the
+	 * negative of the correlation id of the request it was received in answer
+	 * to, or 0 if it was not part of a request. This is set when the packet
+	 * is decoded.
+	 * 
+	 * @see RequestHandler
+	 * @see AsyncDeserializer#request(Packet, long, java.util.concurrent.TimeUnit)
+	 * @since 1.3
+	 */
+	transient int correlation;
+	/**
+	 * The number of references to this packet that have not been released, if
+	 * it came from a {@link Recycler}
+	 * 
+	 * @since 1.3
+	 */
+	transient volatile int refs;
+	/**
+	 * The recycler this packet goes back to once it has been released, or
+	 * <code>null</code> if it is not recycled
+	 * 
+	 * @since 1.3
+	 */
+	transient Recycler<?> recycler;
+
+	/**
+	 * Keeps this packet from being recycled until {@link #release()} is
+	 * called. A handler must call this if it keeps a reference to the packet
+	 * after it returns. This does nothing if the packet is not recycled.
+	 * 
+	 * @return This packet
+	 * @see Recycler
+	 * @since 1.3
+	 */
+	public final Packet retain() {
+		if ( recycler != null ) {
+			REFS.incrementAndGet(this);
+		}
+		return this;
+	}
+
+	/**
+	 * Releases a reference to this packet. Once every reference has been
+	 * released, the packet goes back to its recycler and must not be used
+	 * again. This does nothing if the packet is not recycled.
+	 * 
+	 * @see Recycler
+	 * @since 1.3
+	 * @throws IllegalStateException
+	 *             The packet has already been recycled
+	 */
+	public final void release() {
+		if ( recycler != null ) {
+			final int left = REFS.decrementAndGet(this);
+			if ( left == 0 ) {
+				recycler.recycle(this);
+			} else if ( left < 0 ) {
+				throw new IllegalStateException("The packet has already been released");
+			}
+		}
+	}
 
 	/**
 	 * Constructs a packet with id 0
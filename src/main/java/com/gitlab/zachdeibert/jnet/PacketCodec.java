@@ -0,0 +1,46 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * Converts packets to and from the bytes that are sent across the network.
+ * A codec is registered for each packet id with {@link PacketCodecs}, and
+ * packets without a registered codec are sent with Java serialization.
+ * 
+ * @author Zach Deibert
+ * @see PacketCodecs
+ * @see BinaryCodec
+ * @see GeneratedCodec
+ * @see SerializationCodec
+ * @since 1.3
+ * @version 1.3
+ */
+public interface PacketCodec {
+	/**
+	 * Writes the contents of a packet. The packet id is written by the caller
+	 * and does not need to be written again.
+	 * 
+	 * @param packet
+	 *            The packet to encode
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             The packet could not be encoded
+	 * @since 1.3
+	 */
+	void encode(Packet packet, PacketOutput out) throws IOException;
+
+	/**
+	 * Reads the contents of a packet
+	 * 
+	 * @param id
+	 *            The id of the packet
+	 * @param in
+	 *            The data of the packet
+	 * @return The packet
+	 * @throws IOException
+	 *             The packet could not be decoded
+	 * @since 1.3
+	 */
+	Packet decode(int id, PacketInput in) throws IOException;
+}
@@ -0,0 +1,359 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ServiceLoader;
+
+/**
+ * The registry of the codecs used for each packet id. Each packet is sent as a
+ * frame made up of the length of the rest of the frame, the packet id and then
+ * the data written by the packet's codec. The length is written as a variable
+ * length integer and the id as a signed variable length integer, so most
+ * frames only have two bytes of overhead. A packet that is a request or a
+ * response is wrapped in a frame with a reserved id, followed by the
+ * correlation id of the request and then the packet's own id and data. A frame
+ * that has been compressed is wrapped in the same way, with the length it
+ * decompresses to in place of the correlation id.
+ * 
+ * @author Zach Deibert
+ * @see PacketCodec
+ * @since 1.3
+ * @version 1.3
+ */
+public final class PacketCodecs {
+	/**
+	 * The most bytes a variable length integer can take up
+	 * 
+	 * @since 1.3
+	 */
+	static final int MAX_VAR_INT_LENGTH = 5;
+	/**
+	 * The id of a frame that contains a request
+	 * 
+	 * @since 1.3
+	 */
+	static final int REQUEST_ID = -1000000;
+	/**
+	 * The id of a frame that contains a response
+	 * 
+	 * @since 1.3
+	 */
+	static final int RESPONSE_ID = -999999;
+	/**
+	 * The id of a frame that reports that a request failed
+	 * 
+	 * @since 1.3
+	 */
+	static final int FAILURE_ID = -999998;
+	/**
+	 * The id of a frame that offers or agrees on a compression codec
+	 * 
+	 * @since 1.3
+	 */
+	static final int HELLO_ID = -999997;
+	/**
+	 * The id of a frame that contains another frame that has been compressed
+	 * 
+	 * @since 1.3
+	 */
+	static final int COMPRESSED_ID = -999996;
+	/**
+	 * The codecs that have been registered for each packet id
+	 * 
+	 * @since 1.3
+	 */
+	private static final IntDispatchTable<PacketCodec> codecs = new IntDispatchTable<PacketCodec>();
+	/**
+	 * The codec used for packets that do not have a registered codec
+	 * 
+	 * @since 1.3
+	 */
+	private static volatile PacketCodec fallback = SerializationCodec.INSTANCE;
+
+	/**
+	 * Registers the codec to use for a packet id. The same codec must be
+	 * registered on both ends of the connection.
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @param codec
+	 *            The codec
+	 * @since 1.3
+	 */
+	public static void register(final int id, final PacketCodec codec) {
+		codecs.put(id, codec);
+	}
+
+	/**
+	 * Registers every codec that has been generated for a
+	 * {@link PacketLayout} packet on the class path of the current thread
+	 * 
+	 * @return The number of codecs that were registered
+	 * @see PacketLayoutProcessor
+	 * @since 1.3
+	 */
+	public static int registerGenerated() {
+		return registerGenerated(Thread.currentThread().getContextClassLoader());
+	}
+
+	/**
+	 * Registers every codec that has been generated for a
+	 * {@link PacketLayout} packet. The codecs are listed by the processor
+	 * when the packets are compiled, so nothing has to be scanned.
+	 * 
+	 * @param loader
+	 *            The class loader to find the codecs with
+	 * @return The number of codecs that were registered
+	 * @see PacketLayoutProcessor
+	 * @since 1.3
+	 */
+	public static int registerGenerated(final ClassLoader loader) {
+		int count = 0;
+		for ( final GeneratedCodec codec : ServiceLoader.load(GeneratedCodec.class, loader) ) {
+			register(codec.getId(), codec);
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Removes the codec for a packet id, so the fallback codec is used instead
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @since 1.3
+	 */
+	public static void unregister(final int id) {
+		codecs.remove(id);
+	}
+
+	/**
+	 * Gets the codec to use for a packet id
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return The registered codec, or the fallback codec if none is
+	 *         registered
+	 * @since 1.3
+	 */
+	public static PacketCodec get(final int id) {
+		final PacketCodec codec = codecs.get(id);
+		return codec == null ? fallback : codec;
+	}
+
+	/**
+	 * Checks if a codec is registered for a packet id
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return If a codec other than the fallback codec is used for it
+	 * @since 1.3
+	 */
+	static boolean isRegistered(final int id) {
+		return codecs.get(id) != null;
+	}
+
+	/**
+	 * Sets the codec to use for packets that do not have a registered codec
+	 * 
+	 * @param codec
+	 *            The codec
+	 * @see SerializationCodec
+	 * @since 1.3
+	 */
+	public static void setFallback(final PacketCodec codec) {
+		fallback = codec == null ? SerializationCodec.INSTANCE : codec;
+	}
+
+	/**
+	 * Gets the number of bytes a variable length integer takes up
+	 * 
+	 * @param v
+	 *            The integer
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	static int varIntLength(final int v) {
+		int length = 1;
+		for ( int rest = v >>> 7; rest != 0; rest >>>= 7 ) {
+			++length;
+		}
+		return length;
+	}
+
+	/**
+	 * Encodes a packet into a frame
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @return A buffer from the {@link BufferPool} containing the frame, ready
+	 *         to be written to a channel
+	 * @throws IOException
+	 *             The packet could not be encoded
+	 * @since 1.3
+	 */
+	static ByteBuffer encode(final Packet packet) throws IOException {
+		return encode(packet, 0);
+	}
+
+	/**
+	 * Encodes a packet into a frame as part of a request
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @param correlation
+	 *            The correlation id if the packet is a request, its negative
+	 *            if the packet is a response, or 0 if it is neither
+	 * @return A buffer from the {@link BufferPool} containing the frame, ready
+	 *         to be written to a channel
+	 * @throws IOException
+	 *             The packet could not be encoded
+	 * @since 1.3
+	 */
+	static ByteBuffer encode(final Packet packet, final int correlation) throws IOException {
+		final PacketOutput out = new PacketOutput();
+		try {
+			out.skip(MAX_VAR_INT_LENGTH);
+			if ( correlation != 0 ) {
+				out.writeSignedVarInt(correlation > 0 ? REQUEST_ID : RESPONSE_ID);
+				out.writeVarInt(Math.abs(correlation));
+			}
+			out.writeSignedVarInt(packet.id);
+			get(packet.id).encode(packet, out);
+		} catch ( final IOException | RuntimeException ex ) {
+			out.release();
+			throw ex;
+		}
+		return finish(out);
+	}
+
+	/**
+	 * Encodes a frame that reports that a request failed
+	 * 
+	 * @param correlation
+	 *            The correlation id of the request
+	 * @param message
+	 *            The reason the request failed
+	 * @return A buffer from the {@link BufferPool} containing the frame, ready
+	 *         to be written to a channel
+	 * @since 1.3
+	 */
+	static ByteBuffer encodeFailure(final int correlation, final String message) {
+		final PacketOutput out = new PacketOutput();
+		out.skip(MAX_VAR_INT_LENGTH);
+		out.writeSignedVarInt(FAILURE_ID);
+		out.writeVarInt(correlation);
+		out.writeString(message);
+		return finish(out);
+	}
+
+	/**
+	 * Encodes a frame that offers compression codecs, or agrees on one of
+	 * them
+	 * 
+	 * @param names
+	 *            The names of the codecs
+	 * @return A buffer from the {@link BufferPool} containing the frame, ready
+	 *         to be written to a channel
+	 * @since 1.3
+	 */
+	static ByteBuffer encodeHello(final String... names) {
+		final PacketOutput out = new PacketOutput();
+		out.skip(MAX_VAR_INT_LENGTH);
+		out.writeSignedVarInt(HELLO_ID);
+		out.writeVarInt(names.length);
+		for ( final String name : names ) {
+			out.writeString(name);
+		}
+		return finish(out);
+	}
+
+	/**
+	 * Writes the length at the start of a frame
+	 * 
+	 * @param out
+	 *            The output the frame was written to, after space was left for
+	 *            the length
+	 * @return The frame, ready to be written to a channel
+	 * @since 1.3
+	 */
+	static ByteBuffer finish(final PacketOutput out) {
+		final ByteBuffer buffer = out.buffer();
+		buffer.flip();
+		int length = buffer.limit() - MAX_VAR_INT_LENGTH;
+		int index = MAX_VAR_INT_LENGTH - varIntLength(length);
+		buffer.position(index);
+		while ( (length & ~0x7F) != 0 ) {
+			buffer.put(index++, (byte) ((length & 0x7F) | 0x80));
+			length >>>= 7;
+		}
+		buffer.put(index, (byte) length);
+		return buffer;
+	}
+
+	/**
+	 * Decodes the packet in a frame
+	 * 
+	 * @param in
+	 *            The frame, not including the length
+	 * @return The packet
+	 * @throws IOException
+	 *             The packet could not be decoded
+	 * @since 1.3
+	 */
+	static Packet decode(final PacketInput in) throws IOException {
+		return decode(in.readSignedVarInt(), in);
+	}
+
+	/**
+	 * Decodes a packet after its id has been read
+	 * 
+	 * @param id
+	 *            The id at the start of the frame
+	 * @param in
+	 *            The rest of the frame
+	 * @return The packet
+	 * @throws IOException
+	 *             The packet could not be decoded
+	 * @since 1.3
+	 */
+	static Packet decode(final int id, final PacketInput in) throws IOException {
+		if ( id >= REQUEST_ID && id <= FAILURE_ID ) {
+			return decodeCorrelated(id, in);
+		}
+		return get(id).decode(id, in);
+	}
+
+	/**
+	 * Decodes the packet in a frame that is part of a request
+	 * 
+	 * @param frameId
+	 *            The id of the frame
+	 * @param in
+	 *            The rest of the frame
+	 * @return The packet, with its correlation id set
+	 * @throws IOException
+	 *             The packet could not be decoded
+	 * @since 1.3
+	 */
+	private static Packet decodeCorrelated(final int frameId, final PacketInput in) throws IOException {
+		final int correlation = in.readVarInt();
+		final Packet packet;
+		if ( frameId == FAILURE_ID ) {
+			packet = new RequestFailure(in.readString());
+		} else {
+			final int id = in.readSignedVarInt();
+			packet = get(id).decode(id, in);
+		}
+		packet.correlation = frameId == REQUEST_ID ? correlation : -correlation;
+		return packet;
+	}
+
+	/**
+	 * This class only contains static members
+	 * 
+	 * @since 1.3
+	 */
+	private PacketCodecs() {
+	}
+}
@@ -0,0 +1,34 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link PacketLayout} packet that is sent across the
+ * network. The field can be any primitive type, a {@link String} or a
+ * <code>byte[]</code>. <code>int</code> and <code>long</code> fields are
+ * written as signed variable length integers, strings and arrays are length
+ * prefixed, and everything else is written at its full size.
+ * 
+ * @author Zach Deibert
+ * @see PacketLayout
+ * @since 1.3
+ * @version 1.3
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface PacketField {
+	/**
+	 * The position of the field in the packet. Fields are written from the
+	 * lowest position to the highest, and no two fields of a packet can have
+	 * the same position.
+	 * 
+	 * @return The position
+	 * @since 1.3
+	 */
+	int value();
+}
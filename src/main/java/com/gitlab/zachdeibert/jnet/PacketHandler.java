@@ -1,7 +1,8 @@
 package com.gitlab.zachdeibert.jnet;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Handles a packet. This must be extended to add code to process the packet.
@@ -9,19 +10,35 @@ import java.util.Map;
  * @author Zach Deibert
  * @see Packet
  * @since 1.0
- * @version 1.2.2
+ * @version 1.3
  */
 public abstract class PacketHandler {
 	/**
-	 * Every packet handler that is registered and its id
+	 * Every packet handler that is registered and its id. It is read by every
+	 * runner without locking, so handlers can be registered at any time.
 	 * 
 	 * @author Zach Deibert
 	 * @since 1.0
 	 */
-	private static final Map<Integer, PacketHandler> handlers = new HashMap<Integer, PacketHandler>();
+	private static final IntDispatchTable<PacketHandler> handlers = new IntDispatchTable<PacketHandler>();
+	/**
+	 * Where this handler is run
+	 * 
+	 * @since 1.3
+	 */
+	private final ExecutionMode mode;
+	/**
+	 * If packets from one connection are handled one at a time in the order
+	 * they arrived when this handler is not run inline
+	 * 
+	 * @since 1.3
+	 */
+	private final boolean ordered;
 
 	/**
-	 * Abstract function to handle a packet
+	 * Abstract function to handle a packet. If the packet came from a
+	 * {@link Recycler}, it is reused once this returns, so it must be retained
+	 * if a reference to it is kept.
 	 * 
 	 * @author Zach Deibert
 	 * @param p
@@ -33,22 +50,197 @@ public abstract class PacketHandler {
 	protected abstract void handle(Packet p, NetworkNode sender);
 
 	/**
-	 * Processes a packet
+	 * Processes a packet. The packet is released once its handler has
+	 * returned, or straight away if it has no handler. Responses to requests
+	 * are given to the request that is waiting for them instead, and requests
+	 * that have no handler, or whose handler is not a {@link RequestHandler},
+	 * fail straight away on the other end.
 	 * 
 	 * @author Zach Deibert
 	 * @param p
 	 *            The packet to process
 	 * @param sender
 	 *            The node that received the packet
+	 * @see Packet#release()
 	 * @since 1.0
 	 */
 	static void process(final Packet p, final NetworkNode sender) {
-		if ( handlers.containsKey(p.id) ) {
-			final PacketHandler handler = handlers.get(p.id);
-			handler.handle(p, sender);
+		if ( p.correlation < 0 ) {
+			if ( sender instanceof AsyncDeserializer ) {
+				((AsyncDeserializer) sender).requests.complete(p);
+			} else {
+				p.release();
+			}
+			return;
+		}
+		final PacketHandler handler = handlers.get(p.id);
+		if ( handler != null ) {
+			handler.dispatch(p, sender);
+		} else {
+			try {
+				failRequest(p, sender, "No handler for packet id " + p.id);
+			} finally {
+				p.release();
+			}
+		}
+	}
+
+	/**
+	 * Checks if a packet id has a handler
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @return If a handler is registered for it
+	 * @since 1.3
+	 */
+	static boolean isRegistered(final int id) {
+		return handlers.get(id) != null;
+	}
+
+	/**
+	 * Tells the other end of the connection that a request failed, so it does
+	 * not wait for the request to time out. Packets that are not requests are
+	 * ignored.
+	 * 
+	 * @param p
+	 *            The packet
+	 * @param sender
+	 *            The node that received the packet
+	 * @param message
+	 *            The reason the request failed
+	 * @since 1.3
+	 */
+	private static void failRequest(final Packet p, final NetworkNode sender, final String message) {
+		if ( p.correlation > 0 && sender instanceof AsyncDeserializer ) {
+			try {
+				((AsyncDeserializer) sender).failRequest(p.correlation, message);
+			} catch ( final IOException ex ) {
+				NetworkErrors.networkError(ex, sender);
+			}
+		}
+	}
+
+	/**
+	 * Handles a packet, and fails it on the other end of the connection if it
+	 * is a request and the handler throws or cannot answer requests
+	 * 
+	 * @param p
+	 *            The packet to handle
+	 * @param sender
+	 *            The node that received the packet
+	 * @since 1.3
+	 */
+	private void run(final Packet p, final NetworkNode sender) {
+		try {
+			timedHandle(p, sender);
+		} catch ( final RuntimeException | Error t ) {
+			failRequest(p, sender, t.toString());
+			throw t;
+		}
+		// Only a request handler sends a response, so the other end would
+		// wait for one until the request timed out
+		if ( !(this instanceof RequestHandler) ) {
+			failRequest(p, sender, "The handler for packet id " + p.id + " does not answer requests");
+		}
+	}
+
+	/**
+	 * Handles a packet, and records how long the handler took in the metrics
+	 * of its packet id and of the connection it came from. If timing is turned
+	 * off this only costs one volatile read.
+	 * 
+	 * @param p
+	 *            The packet to handle
+	 * @param sender
+	 *            The node that received the packet
+	 * @see PacketMetrics#getHandleTime()
+	 * @see ConnectionMetrics#getHandlerTime()
+	 * @since 1.3
+	 */
+	private void timedHandle(final Packet p, final NetworkNode sender) {
+		if ( !Metrics.isTimingEnabled() ) {
+			handle(p, sender);
+			return;
+		}
+		final int id = p.id;
+		final long start = System.nanoTime();
+		try {
+			handle(p, sender);
+		} finally {
+			final long nanos = System.nanoTime() - start;
+			if ( Metrics.isPacketMetricsEnabled() ) {
+				Metrics.packet(id).handled(nanos);
+			}
+			if ( sender instanceof AsyncDeserializer ) {
+				((AsyncDeserializer) sender).metrics.handled(nanos);
+			}
 		}
 	}
 
+	/**
+	 * Runs this handler in its execution mode
+	 * 
+	 * @param p
+	 *            The packet to handle
+	 * @param sender
+	 *            The node that received the packet
+	 * @since 1.3
+	 */
+	private void dispatch(final Packet p, final NetworkNode sender) {
+		if ( mode == ExecutionMode.INLINE ) {
+			try {
+				run(p, sender);
+			} finally {
+				p.release();
+			}
+			return;
+		}
+		final Executor executor = ordered && sender instanceof AsyncReadable
+				? ((AsyncReadable) sender).orderedExecutor(mode) : HandlerExecutors.get(mode);
+		try {
+			executor.execute(() -> {
+				try {
+					run(p, sender);
+				} catch ( final Throwable t ) {
+					NetworkErrors.networkError(t, sender);
+				} finally {
+					p.release();
+				}
+			});
+		} catch ( final RejectedExecutionException ex ) {
+			try {
+				failRequest(p, sender, ex.toString());
+				NetworkErrors.networkError(ex, sender);
+			} finally {
+				p.release();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the pool of worker threads that {@link ExecutionMode#POOL}
+	 * handlers run on. The default pool has one thread for each processor.
+	 * Packets that the pool rejects are not handled, and the rejection is
+	 * reported as a network error and fails the request if they were one.
+	 * 
+	 * @param pool
+	 *            The new pool, or <code>null</code> to use the default pool
+	 * @since 1.3
+	 */
+	public static void setWorkerPool(final Executor pool) {
+		HandlerExecutors.setPool(pool);
+	}
+
+	/**
+	 * Gets where this handler is run
+	 * 
+	 * @return The execution mode
+	 * @since 1.3
+	 */
+	public ExecutionMode getExecutionMode() {
+		return mode;
+	}
+
 	/**
 	 * Constructs a new packet handler. Automatically registers the new handler.
 	 * 
@@ -60,7 +252,27 @@ public abstract class PacketHandler {
 	 * @since 1.0
 	 */
 	protected PacketHandler(final int id) {
-		this(id, false);
+		this(id, false, ExecutionMode.INLINE, false);
+	}
+
+	/**
+	 * Constructs a new packet handler that is not run on the thread that read
+	 * the packet. Automatically registers the new handler.
+	 * 
+	 * @param id
+	 *            The ID of the packet handler. It must be the same as the ID
+	 *            for the Packet.
+	 * @param mode
+	 *            Where the handler is run
+	 * @param ordered
+	 *            If packets from one connection should be handled one at a
+	 *            time in the order they arrived. Packets from different
+	 *            connections are still handled at the same time.
+	 * @see Packet#id
+	 * @since 1.3
+	 */
+	protected PacketHandler(final int id, final ExecutionMode mode, final boolean ordered) {
+		this(id, false, mode, ordered);
 	}
 
 	/**
@@ -75,9 +287,33 @@ public abstract class PacketHandler {
 	 * @since 1.2.2
 	 */
 	PacketHandler(final int id, final boolean canBeReserved) {
+		this(id, canBeReserved, ExecutionMode.INLINE, false);
+	}
+
+	/**
+	 * Constructs a new packet handler. Automatically registers the new handler.
+	 * 
+	 * @param id
+	 *            The ID of the packet handler. It must be the same as the ID
+	 *            for the Packet.
+	 * @param canBeReserved
+	 *            If the id can be a reserved id.
+	 * @param mode
+	 *            Where the handler is run
+	 * @param ordered
+	 *            If packets from one connection should be handled in order
+	 * @see Packet#id
+	 * @since 1.3
+	 */
+	PacketHandler(final int id, final boolean canBeReserved, final ExecutionMode mode, final boolean ordered) {
 		if ( !canBeReserved && ReservedIds.isReserved(id) ) {
 			throw new PacketIdReservationException("The packet id is reserved");
 		}
+		if ( mode == null ) {
+			throw new NullPointerException();
+		}
+		this.mode = mode;
+		this.ordered = ordered;
 		handlers.put(id, this);
 	}
 }
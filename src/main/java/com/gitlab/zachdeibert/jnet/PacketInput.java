@@ -0,0 +1,344 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The encoded data of a single packet that has been received. This is the
+ * counterpart to {@link PacketOutput}.
+ * 
+ * @author Zach Deibert
+ * @see PacketCodec
+ * @see PacketOutput
+ * @since 1.3
+ * @version 1.3
+ */
+public final class PacketInput extends InputStream {
+	/**
+	 * The buffer that contains the packet. Only absolute reads are used, so
+	 * the buffer's own position is never changed.
+	 * 
+	 * @since 1.3
+	 */
+	private ByteBuffer buffer;
+	/**
+	 * The index of the next byte to read
+	 * 
+	 * @since 1.3
+	 */
+	private int position;
+	/**
+	 * The index after the last byte of the packet
+	 * 
+	 * @since 1.3
+	 */
+	private int limit;
+
+	/**
+	 * Makes sure there is enough data left in the packet
+	 * 
+	 * @param length
+	 *            The number of bytes that are about to be read
+	 * @throws EOFException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	private void require(final int length) throws EOFException {
+		if ( limit - position < length ) {
+			throw new EOFException("Unexpected end of packet");
+		}
+	}
+
+	/**
+	 * Reads a single byte
+	 * 
+	 * @return The byte (from 0 to 255), or -1 at the end of the packet
+	 * @since 1.3
+	 */
+	@Override
+	public int read() {
+		if ( position >= limit ) {
+			return -1;
+		}
+		return buffer.get(position++) & 0xFF;
+	}
+
+	/**
+	 * Reads a range of bytes
+	 * 
+	 * @param b
+	 *            The array to read into
+	 * @param off
+	 *            The index to start storing bytes at
+	 * @param len
+	 *            The maximum number of bytes to read
+	 * @return The number of bytes read, or -1 at the end of the packet
+	 * @since 1.3
+	 */
+	@Override
+	public int read(final byte[] b, final int off, final int len) {
+		if ( len == 0 ) {
+			return 0;
+		}
+		if ( position >= limit ) {
+			return -1;
+		}
+		final int count = Math.min(len, limit - position);
+		if ( buffer.hasArray() ) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + position, b, off, count);
+			position += count;
+		} else {
+			for ( int i = 0; i < count; ++i ) {
+				b[off + i] = buffer.get(position++);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of bytes left in the packet
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public int available() {
+		return limit - position;
+	}
+
+	/**
+	 * Reads a boolean
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Reads a byte
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public byte readByte() throws IOException {
+		require(1);
+		return buffer.get(position++);
+	}
+
+	/**
+	 * Reads a 2 byte short
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public short readShort() throws IOException {
+		require(2);
+		final short v = buffer.getShort(position);
+		position += 2;
+		return v;
+	}
+
+	/**
+	 * Reads a 2 byte character
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public char readChar() throws IOException {
+		require(2);
+		final char v = buffer.getChar(position);
+		position += 2;
+		return v;
+	}
+
+	/**
+	 * Reads a fixed length 4 byte integer
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public int readInt() throws IOException {
+		require(4);
+		final int v = buffer.getInt(position);
+		position += 4;
+		return v;
+	}
+
+	/**
+	 * Reads a fixed length 8 byte integer
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public long readLong() throws IOException {
+		require(8);
+		final long v = buffer.getLong(position);
+		position += 8;
+		return v;
+	}
+
+	/**
+	 * Reads a 4 byte float
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	/**
+	 * Reads an 8 byte double
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 * Reads an unsigned variable length integer
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short or the integer is malformed
+	 * @since 1.3
+	 */
+	public int readVarInt() throws IOException {
+		int v = 0;
+		for ( int shift = 0; shift < 35; shift += 7 ) {
+			final byte b = readByte();
+			v |= (b & 0x7F) << shift;
+			if ( b >= 0 ) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * Reads a signed variable length integer
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short or the integer is malformed
+	 * @since 1.3
+	 */
+	public int readSignedVarInt() throws IOException {
+		final int v = readVarInt();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Reads an unsigned variable length long
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short or the long is malformed
+	 * @since 1.3
+	 */
+	public long readVarLong() throws IOException {
+		long v = 0;
+		for ( int shift = 0; shift < 70; shift += 7 ) {
+			final byte b = readByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ( b >= 0 ) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed variable length long");
+	}
+
+	/**
+	 * Reads a signed variable length long
+	 * 
+	 * @return The value
+	 * @throws IOException
+	 *             The packet is too short or the long is malformed
+	 * @since 1.3
+	 */
+	public long readSignedVarLong() throws IOException {
+		final long v = readVarLong();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Reads a length prefixed byte array
+	 * 
+	 * @return The array, which may be <code>null</code>
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public byte[] readByteArray() throws IOException {
+		final int length = readVarInt() - 1;
+		if ( length < 0 ) {
+			return null;
+		}
+		require(length);
+		final byte[] v = new byte[length];
+		read(v, 0, length);
+		return v;
+	}
+
+	/**
+	 * Reads a length prefixed UTF-8 string
+	 * 
+	 * @return The string, which may be <code>null</code>
+	 * @throws IOException
+	 *             The packet is too short
+	 * @since 1.3
+	 */
+	public String readString() throws IOException {
+		final byte[] v = readByteArray();
+		return v == null ? null : new String(v, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Points this input at the next packet
+	 * 
+	 * @param buffer
+	 *            The buffer that contains the packet
+	 * @param position
+	 *            The index of the first byte of the packet
+	 * @param limit
+	 *            The index after the last byte of the packet
+	 * @since 1.3
+	 */
+	void reset(final ByteBuffer buffer, final int position, final int limit) {
+		this.buffer = buffer;
+		this.position = position;
+		this.limit = limit;
+	}
+
+	/**
+	 * Creates a new input that does not contain any data
+	 * 
+	 * @since 1.3
+	 */
+	PacketInput() {
+		limit = position = 0;
+	}
+}
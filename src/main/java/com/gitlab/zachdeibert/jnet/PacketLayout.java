@@ -0,0 +1,49 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a packet whose codec is generated when it is compiled. Every field
+ * annotated with {@link PacketField} is written in the order given by the
+ * annotation, and the generated codec is found by
+ * {@link PacketCodecs#registerGenerated()}:
+ * 
+ * <pre>
+ * &#64;PacketLayout(id = 5)
+ * public class PositionPacket extends Packet {
+ * 	&#64;PacketField(0)
+ * 	int entity;
+ * 	&#64;PacketField(1)
+ * 	double x;
+ * 
+ * 	public PositionPacket() {
+ * 		super(5);
+ * 	}
+ * }
+ * </pre>
+ * 
+ * The packet must have a constructor without any arguments, and it and its
+ * fields must not be private, since the codec is generated in the same
+ * package.
+ * 
+ * @author Zach Deibert
+ * @see PacketLayoutProcessor
+ * @since 1.3
+ * @version 1.3
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface PacketLayout {
+	/**
+	 * The id the generated codec is registered for
+	 * 
+	 * @return The packet id
+	 * @since 1.3
+	 */
+	int id();
+}
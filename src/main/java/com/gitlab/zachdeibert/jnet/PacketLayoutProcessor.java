@@ -0,0 +1,325 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates the codecs of {@link PacketLayout} packets when they are compiled.
+ * For a packet named <code>PositionPacket</code>, a
+ * <code>PositionPacketCodec</code> is generated in the same package that
+ * writes and reads each field with a straight line of calls to
+ * {@link PacketOutput} and {@link PacketInput}. Every generated codec is
+ * listed in <code>META-INF/services</code>, which is the registry
+ * {@link PacketCodecs#registerGenerated()} reads from. The processor is
+ * found automatically by the compiler when this library is on the class path.
+ * 
+ * @author Zach Deibert
+ * @see PacketLayout
+ * @since 1.3
+ * @version 1.3
+ */
+@SupportedAnnotationTypes({ "com.gitlab.zachdeibert.jnet.PacketLayout", "com.gitlab.zachdeibert.jnet.PacketField" })
+public final class PacketLayoutProcessor extends AbstractProcessor {
+	/**
+	 * The file the generated codecs are listed in
+	 * 
+	 * @since 1.3
+	 */
+	static final String SERVICES = "META-INF/services/" + GeneratedCodec.class.getName();
+
+	/**
+	 * The names of the codecs that have been generated
+	 * 
+	 * @since 1.3
+	 */
+	private final Set<String> generated = new TreeSet<String>();
+
+	/**
+	 * Gets the latest version of the language the compiler supports, since the
+	 * processor only looks at fields
+	 * 
+	 * @return The version
+	 * @since 1.3
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/**
+	 * Generates the codecs of the packets in a round, and lists them once the
+	 * last round has finished
+	 * 
+	 * @param annotations
+	 *            The annotations in the round
+	 * @param round
+	 *            The round
+	 * @return <code>true</code>, since no other processor uses the annotations
+	 * @since 1.3
+	 */
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+		for ( final Element element : round.getElementsAnnotatedWith(PacketLayout.class) ) {
+			if ( element.getKind() != ElementKind.CLASS ) {
+				error("Only classes can have a packet layout", element);
+				continue;
+			}
+			try {
+				generate((TypeElement) element);
+			} catch ( final IOException ex ) {
+				error("Could not write the codec: " + ex.getMessage(), element);
+			}
+		}
+		if ( round.processingOver() && !generated.isEmpty() ) {
+			try {
+				writeServices();
+			} catch ( final IOException ex ) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Could not write " + SERVICES + ": " + ex.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reports an error in a packet
+	 * 
+	 * @param message
+	 *            The error
+	 * @param element
+	 *            The part of the packet that has the error
+	 * @since 1.3
+	 */
+	private void error(final String message, final Element element) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	/**
+	 * Generates the codec of a packet
+	 * 
+	 * @param type
+	 *            The packet
+	 * @throws IOException
+	 *             The codec could not be written
+	 * @since 1.3
+	 */
+	private void generate(final TypeElement type) throws IOException {
+		if ( !check(type) ) {
+			return;
+		}
+		final List<VariableElement> fields = fields(type);
+		if ( fields == null ) {
+			return;
+		}
+		final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		final String binary = processingEnv.getElementUtils().getBinaryName(type).toString();
+		final String simple = (pkg.isUnnamed() ? binary : binary.substring(pkg.getQualifiedName().length() + 1))
+				.replace('$', '_') + "Codec";
+		final String name = pkg.isUnnamed() ? simple : pkg.getQualifiedName() + "." + simple;
+		final String packet = type.getQualifiedName().toString();
+		try ( final PrintWriter out = new PrintWriter(
+				processingEnv.getFiler().createSourceFile(name, type).openWriter()) ) {
+			if ( !pkg.isUnnamed() ) {
+				out.println("package " + pkg.getQualifiedName() + ";");
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * The codec of {@link " + packet + "}, generated from its layout");
+			out.println(" */");
+			out.println("public final class " + simple + " extends com.gitlab.zachdeibert.jnet.GeneratedCodec {");
+			out.println("\tpublic static final int ID = " + type.getAnnotation(PacketLayout.class).id() + ";");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic void encode(final com.gitlab.zachdeibert.jnet.Packet packet,"
+					+ " final com.gitlab.zachdeibert.jnet.PacketOutput out) throws java.io.IOException {");
+			out.println("\t\tfinal " + packet + " p = (" + packet + ") packet;");
+			for ( final VariableElement field : fields ) {
+				out.println("\t\tout.write" + method(field.asType()) + "(p." + field.getSimpleName() + ");");
+			}
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic com.gitlab.zachdeibert.jnet.Packet decode(final int id,"
+					+ " final com.gitlab.zachdeibert.jnet.PacketInput in) throws java.io.IOException {");
+			out.println("\t\tfinal " + packet + " p = new " + packet + "();");
+			for ( final VariableElement field : fields ) {
+				out.println("\t\tp." + field.getSimpleName() + " = in.read" + method(field.asType()) + "();");
+			}
+			out.println("\t\treturn received(p, id);");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic " + simple + "() {");
+			out.println("\t\tsuper(ID);");
+			out.println("\t}");
+			out.println("}");
+		}
+		generated.add(name);
+	}
+
+	/**
+	 * Checks that a codec can be generated for a class
+	 * 
+	 * @param type
+	 *            The class
+	 * @return If the class is a packet that can be created by the codec
+	 * @since 1.3
+	 */
+	private boolean check(final TypeElement type) {
+		final TypeMirror packet = processingEnv.getElementUtils().getTypeElement(Packet.class.getName()).asType();
+		if ( !processingEnv.getTypeUtils().isAssignable(type.asType(), packet) ) {
+			error("A packet layout can only be given to a subclass of Packet", type);
+			return false;
+		}
+		if ( type.getModifiers().contains(Modifier.ABSTRACT) || type.getModifiers().contains(Modifier.PRIVATE)
+				|| (type.getNestingKind() != NestingKind.TOP_LEVEL
+						&& !type.getModifiers().contains(Modifier.STATIC)) ) {
+			error("A packet with a layout must be a concrete class that is not private or an inner class", type);
+			return false;
+		}
+		for ( final ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements()) ) {
+			if ( constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE) ) {
+				return true;
+			}
+		}
+		error("A packet with a layout must have a constructor without any arguments", type);
+		return false;
+	}
+
+	/**
+	 * Gets the fields of a packet in the order they are written
+	 * 
+	 * @param type
+	 *            The packet
+	 * @return The fields, or <code>null</code> if one of them cannot be
+	 *         written
+	 * @since 1.3
+	 */
+	private List<VariableElement> fields(final TypeElement type) {
+		final List<VariableElement> fields = new ArrayList<VariableElement>();
+		boolean valid = true;
+		for ( final VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements()) ) {
+			if ( field.getAnnotation(PacketField.class) == null ) {
+				continue;
+			}
+			final Set<Modifier> modifiers = field.getModifiers();
+			if ( modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)
+					|| modifiers.contains(Modifier.FINAL) ) {
+				error("A packet field cannot be private, static or final", field);
+				valid = false;
+			} else if ( method(field.asType()) == null ) {
+				error("A packet field must be a primitive, a String or a byte[]", field);
+				valid = false;
+			}
+			fields.add(field);
+		}
+		Collections.sort(fields, Comparator.comparingInt(field -> field.getAnnotation(PacketField.class).value()));
+		for ( int i = 1; i < fields.size(); ++i ) {
+			if ( fields.get(i).getAnnotation(PacketField.class).value() == fields.get(i - 1)
+					.getAnnotation(PacketField.class).value() ) {
+				error("Two packet fields have the same position", fields.get(i));
+				valid = false;
+			}
+		}
+		return valid ? fields : null;
+	}
+
+	/**
+	 * Gets the name of the {@link PacketOutput} and {@link PacketInput}
+	 * methods that write and read a type, without the <code>write</code> or
+	 * <code>read</code> at the start
+	 * 
+	 * @param type
+	 *            The type of the field
+	 * @return The name, or <code>null</code> if the type cannot be written
+	 * @since 1.3
+	 */
+	private String method(final TypeMirror type) {
+		switch ( type.getKind() ) {
+			case BOOLEAN:
+				return "Boolean";
+			case BYTE:
+				return "Byte";
+			case SHORT:
+				return "Short";
+			case CHAR:
+				return "Char";
+			case INT:
+				return "SignedVarInt";
+			case LONG:
+				return "SignedVarLong";
+			case FLOAT:
+				return "Float";
+			case DOUBLE:
+				return "Double";
+			case ARRAY:
+				return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE ? "ByteArray" : null;
+			case DECLARED:
+				return type.toString().equals(String.class.getName()) ? "String" : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Lists the generated codecs as services, along with any that were
+	 * already listed by an earlier compilation
+	 * 
+	 * @throws IOException
+	 *             The file could not be written
+	 * @since 1.3
+	 */
+	private void writeServices() throws IOException {
+		final Set<String> names = new TreeSet<String>(generated);
+		try {
+			final FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+					SERVICES);
+			try ( final BufferedReader in = new BufferedReader(
+					new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8)) ) {
+				String line;
+				while ( (line = in.readLine()) != null ) {
+					if ( !line.trim().isEmpty() ) {
+						names.add(line.trim());
+					}
+				}
+			}
+		} catch ( final IOException ex ) {
+			// Nothing has been listed yet
+		}
+		final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+		try ( final Writer out = file.openWriter() ) {
+			for ( final String name : names ) {
+				out.write(name);
+				out.write('\n');
+			}
+		}
+	}
+}
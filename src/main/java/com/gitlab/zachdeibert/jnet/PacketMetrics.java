@@ -0,0 +1,222 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The number of packets and bytes that have been received and sent with a
+ * single packet id over every connection, how large the packets were, and how
+ * long their handlers took to run
+ * 
+ * @author Zach Deibert
+ * @see Metrics#getPacketMetrics(int)
+ * @since 1.3
+ * @version 1.3
+ */
+public final class PacketMetrics {
+	/**
+	 * The packet id
+	 * 
+	 * @since 1.3
+	 */
+	private final int id;
+	/**
+	 * The packets that have been received
+	 * 
+	 * @since 1.3
+	 */
+	private final Meter packetsIn;
+	/**
+	 * The packets that have been sent
+	 * 
+	 * @since 1.3
+	 */
+	private final Meter packetsOut;
+	/**
+	 * The bytes of the frames that have been received
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder bytesIn;
+	/**
+	 * The bytes of the frames that have been sent
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder bytesOut;
+	/**
+	 * The length of each frame that has been received
+	 * 
+	 * @since 1.3
+	 */
+	private final Histogram size;
+	/**
+	 * How long the handler took to run for each packet
+	 * 
+	 * @since 1.3
+	 */
+	private final Histogram handleTime;
+
+	/**
+	 * Records a packet that has been received. Its size is only recorded if
+	 * timing is turned on.
+	 * 
+	 * @param length
+	 *            The length of the frame
+	 * @since 1.3
+	 */
+	void received(final int length) {
+		packetsIn.mark();
+		bytesIn.add(length);
+		if ( Metrics.isTimingEnabled() ) {
+			size.record(length);
+		}
+	}
+
+	/**
+	 * Records a packet that has been handled
+	 * 
+	 * @param nanos
+	 *            How long the handler took to run
+	 * @since 1.3
+	 */
+	void handled(final long nanos) {
+		handleTime.record(nanos);
+	}
+
+	/**
+	 * Records a packet that has been sent
+	 * 
+	 * @param length
+	 *            The length of the frame
+	 * @since 1.3
+	 */
+	void sent(final int length) {
+		packetsOut.mark();
+		bytesOut.add(length);
+	}
+
+	/**
+	 * Gets the packet id
+	 * 
+	 * @return The id
+	 * @since 1.3
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the number of packets that have been received
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	public long getPacketsIn() {
+		return packetsIn.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been received per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	public double getPacketsInRate() {
+		return packetsIn.getRate();
+	}
+
+	/**
+	 * Gets the number of packets that have been sent
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	public long getPacketsOut() {
+		return packetsOut.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been sent per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	public double getPacketsOutRate() {
+		return packetsOut.getRate();
+	}
+
+	/**
+	 * Gets the number of bytes of the frames that have been received
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * Gets the number of bytes of the frames that have been sent
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Gets the length of each frame that has been received, in bytes
+	 * 
+	 * @return The summary of the lengths
+	 * @see Metrics#setTimingEnabled(boolean)
+	 * @since 1.3
+	 */
+	public HistogramSnapshot getSize() {
+		return size.snapshot();
+	}
+
+	/**
+	 * Gets how long the handler took to run for each packet, in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @see Metrics#setTimingEnabled(boolean)
+	 * @since 1.3
+	 */
+	public HistogramSnapshot getHandleTime() {
+		return handleTime.snapshot();
+	}
+
+	/**
+	 * Forgets everything that has been recorded for this packet id
+	 * 
+	 * @since 1.3
+	 */
+	public void reset() {
+		packetsIn.reset();
+		packetsOut.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		size.reset();
+		handleTime.reset();
+	}
+
+	/**
+	 * Creates the metrics for a packet id
+	 * 
+	 * @param id
+	 *            The packet id
+	 * @since 1.3
+	 */
+	PacketMetrics(final int id) {
+		this.id = id;
+		packetsIn = new Meter();
+		packetsOut = new Meter();
+		bytesIn = new LongAdder();
+		bytesOut = new LongAdder();
+		size = new Histogram(true);
+		handleTime = new Histogram(true);
+	}
+}
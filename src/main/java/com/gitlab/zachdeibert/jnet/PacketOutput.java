@@ -0,0 +1,313 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffer that a packet is encoded into before it is sent. Integers can be
+ * written as variable length integers, so small values only take up one byte.
+ * The data is written into a direct buffer from the {@link BufferPool}, so it
+ * can be handed straight to the socket.
+ * 
+ * @author Zach Deibert
+ * @see PacketCodec
+ * @see PacketInput
+ * @since 1.3
+ * @version 1.3
+ */
+public final class PacketOutput extends OutputStream {
+	/**
+	 * The initial capacity of the buffer
+	 * 
+	 * @since 1.3
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+	/**
+	 * The buffer the data is written into
+	 * 
+	 * @since 1.3
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Makes sure there is room in the buffer for more data
+	 * 
+	 * @param length
+	 *            The number of bytes that are about to be written
+	 * @since 1.3
+	 */
+	private void ensure(final int length) {
+		if ( buffer.remaining() < length ) {
+			final ByteBuffer grown = BufferPool
+					.acquire(Math.max(buffer.capacity() * 2, buffer.position() + length));
+			buffer.flip();
+			grown.put(buffer);
+			BufferPool.release(buffer);
+			buffer = grown;
+		}
+	}
+
+	/**
+	 * Writes a single byte
+	 * 
+	 * @param b
+	 *            The byte to write (only the lowest 8 bits are used)
+	 * @since 1.3
+	 */
+	@Override
+	public void write(final int b) {
+		ensure(1);
+		buffer.put((byte) b);
+	}
+
+	/**
+	 * Writes a range of bytes
+	 * 
+	 * @param b
+	 *            The array to write from
+	 * @param off
+	 *            The index of the first byte to write
+	 * @param len
+	 *            The number of bytes to write
+	 * @since 1.3
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		ensure(len);
+		buffer.put(b, off, len);
+	}
+
+	/**
+	 * Writes a boolean as a single byte
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeBoolean(final boolean v) {
+		write(v ? 1 : 0);
+	}
+
+	/**
+	 * Writes a byte
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeByte(final int v) {
+		write(v);
+	}
+
+	/**
+	 * Writes a 2 byte short
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeShort(final int v) {
+		ensure(2);
+		buffer.putShort((short) v);
+	}
+
+	/**
+	 * Writes a 2 byte character
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeChar(final int v) {
+		ensure(2);
+		buffer.putChar((char) v);
+	}
+
+	/**
+	 * Writes a fixed length 4 byte integer
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeInt(final int v) {
+		ensure(4);
+		buffer.putInt(v);
+	}
+
+	/**
+	 * Writes a fixed length 8 byte integer
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeLong(final long v) {
+		ensure(8);
+		buffer.putLong(v);
+	}
+
+	/**
+	 * Writes a 4 byte float
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeFloat(final float v) {
+		ensure(4);
+		buffer.putFloat(v);
+	}
+
+	/**
+	 * Writes an 8 byte double
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeDouble(final double v) {
+		ensure(8);
+		buffer.putDouble(v);
+	}
+
+	/**
+	 * Writes an unsigned variable length integer. Values under 128 take one
+	 * byte and negative values take five bytes.
+	 * 
+	 * @param v
+	 *            The value
+	 * @see #writeSignedVarInt(int)
+	 * @since 1.3
+	 */
+	public void writeVarInt(int v) {
+		ensure(5);
+		while ( (v & ~0x7F) != 0 ) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	/**
+	 * Writes a signed variable length integer. Values close to zero take the
+	 * fewest bytes, whether they are positive or negative.
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeSignedVarInt(final int v) {
+		writeVarInt((v << 1) ^ (v >> 31));
+	}
+
+	/**
+	 * Writes an unsigned variable length long
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeVarLong(long v) {
+		ensure(10);
+		while ( (v & ~0x7FL) != 0 ) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	/**
+	 * Writes a signed variable length long
+	 * 
+	 * @param v
+	 *            The value
+	 * @since 1.3
+	 */
+	public void writeSignedVarLong(final long v) {
+		writeVarLong((v << 1) ^ (v >> 63));
+	}
+
+	/**
+	 * Writes a length prefixed byte array
+	 * 
+	 * @param v
+	 *            The array, which may be <code>null</code>
+	 * @since 1.3
+	 */
+	public void writeByteArray(final byte[] v) {
+		if ( v == null ) {
+			writeVarInt(0);
+		} else {
+			writeVarInt(v.length + 1);
+			write(v, 0, v.length);
+		}
+	}
+
+	/**
+	 * Writes a length prefixed UTF-8 string
+	 * 
+	 * @param v
+	 *            The string, which may be <code>null</code>
+	 * @since 1.3
+	 */
+	public void writeString(final String v) {
+		writeByteArray(v == null ? null : v.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets the number of bytes that have been written
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Gets the buffer the data has been written into. The buffer is left ready
+	 * to be written to.
+	 * 
+	 * @return The buffer
+	 * @since 1.3
+	 */
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gives the buffer back to the pool without sending it, after the packet
+	 * could not be encoded
+	 * 
+	 * @since 1.3
+	 */
+	void release() {
+		if ( buffer != null ) {
+			BufferPool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Skips over bytes so they can be filled in later
+	 * 
+	 * @param length
+	 *            The number of bytes to skip
+	 * @since 1.3
+	 */
+	void skip(final int length) {
+		ensure(length);
+		buffer.position(buffer.position() + length);
+	}
+
+	/**
+	 * Creates a new, empty output buffer
+	 * 
+	 * @since 1.3
+	 */
+	PacketOutput() {
+		buffer = BufferPool.acquire(INITIAL_CAPACITY);
+	}
+}
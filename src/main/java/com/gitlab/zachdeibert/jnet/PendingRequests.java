@@ -0,0 +1,167 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The requests that have been sent on a connection and are waiting for a
+ * response. Each request is given a correlation id that is sent back with its
+ * response, so any number of requests can be waiting at once and their
+ * responses can arrive in any order.
+ * 
+ * @author Zach Deibert
+ * @see AsyncDeserializer#request(Packet, long, TimeUnit)
+ * @since 1.3
+ * @version 1.3
+ */
+final class PendingRequests {
+	/**
+	 * The thread that fails requests that have not been answered in time
+	 * 
+	 * @since 1.3
+	 */
+	private static final ScheduledThreadPoolExecutor timer;
+	/**
+	 * The last correlation id that was given out
+	 * 
+	 * @since 1.3
+	 */
+	private final AtomicInteger ids;
+	/**
+	 * The future of each request that is waiting, by correlation id
+	 * 
+	 * @since 1.3
+	 */
+	private final Map<Integer, CompletableFuture<Packet>> pending;
+
+	static {
+		timer = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread thread = new Thread(r, "JNet request timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Gives out a correlation id that no waiting request is using
+	 * 
+	 * @return The correlation id, which is always positive
+	 * @since 1.3
+	 */
+	int next() {
+		int id;
+		do {
+			id = ids.incrementAndGet() & Integer.MAX_VALUE;
+		} while ( id == 0 || pending.containsKey(id) );
+		return id;
+	}
+
+	/**
+	 * Starts waiting for the response to a request
+	 * 
+	 * @param id
+	 *            The correlation id of the request
+	 * @param timeout
+	 *            How long to wait for, or 0 to wait until the connection is
+	 *            closed
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The future that is completed with the response
+	 * @since 1.3
+	 */
+	CompletableFuture<Packet> add(final int id, final long timeout, final TimeUnit unit) {
+		final CompletableFuture<Packet> future = new CompletableFuture<Packet>();
+		pending.put(id, future);
+		final ScheduledFuture<?> task = timeout > 0 ? timer.schedule(() -> {
+			future.completeExceptionally(new TimeoutException("The request was not answered in time"));
+		}, timeout, unit) : null;
+		// However the future completes, including being cancelled, it stops
+		// waiting
+		future.whenComplete((response, ex) -> {
+			pending.remove(id, future);
+			if ( task != null ) {
+				task.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Completes the request a response was received for. If the request is
+	 * no longer waiting, the response is released.
+	 * 
+	 * @param response
+	 *            The response
+	 * @since 1.3
+	 */
+	void complete(final Packet response) {
+		final CompletableFuture<Packet> future = pending.remove(-response.correlation);
+		if ( response instanceof RequestFailure ) {
+			if ( future != null ) {
+				future.completeExceptionally(new RequestFailedException(((RequestFailure) response).message));
+			}
+		} else if ( future == null || !future.complete(response) ) {
+			response.release();
+		}
+	}
+
+	/**
+	 * Fails a request
+	 * 
+	 * @param id
+	 *            The correlation id of the request
+	 * @param ex
+	 *            The reason it failed
+	 * @since 1.3
+	 */
+	void fail(final int id, final Throwable ex) {
+		final CompletableFuture<Packet> future = pending.remove(id);
+		if ( future != null ) {
+			future.completeExceptionally(ex);
+		}
+	}
+
+	/**
+	 * Fails every request that is waiting
+	 * 
+	 * @param ex
+	 *            The reason they failed
+	 * @since 1.3
+	 */
+	void failAll(final Throwable ex) {
+		final Iterator<CompletableFuture<Packet>> it = pending.values().iterator();
+		while ( it.hasNext() ) {
+			final CompletableFuture<Packet> future = it.next();
+			it.remove();
+			future.completeExceptionally(ex);
+		}
+	}
+
+	/**
+	 * Gets the number of requests that are waiting for a response
+	 * 
+	 * @return The number of requests
+	 * @since 1.3
+	 */
+	int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Creates a new set of requests with none waiting
+	 * 
+	 * @since 1.3
+	 */
+	PendingRequests() {
+		ids = new AtomicInteger();
+		pending = new ConcurrentHashMap<Integer, CompletableFuture<Packet>>();
+	}
+}
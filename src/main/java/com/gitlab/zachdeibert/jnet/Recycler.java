@@ -0,0 +1,209 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A pool of packets that are filled in again instead of being created for
+ * every packet that is received. Passing a recycler to a
+ * {@link BinaryCodec} makes the codec decode into packets from the pool:
+ * 
+ * <pre>
+ * PacketCodecs.register(5, new BinaryCodec&lt;PositionPacket&gt;(new Recycler&lt;PositionPacket&gt;(PositionPacket::new)));
+ * </pre>
+ * 
+ * A packet goes back to the pool once its handler has returned. It is kept
+ * by the releasing thread if that thread takes packets from the pool and has
+ * room, and otherwise goes to a pool shared by all threads. A handler that
+ * keeps a reference to the packet must call {@link Packet#retain()} and later
+ * {@link Packet#release()}. The packet's
+ * {@link BinaryPacket#read(PacketInput)} must set every field, because the
+ * fields still hold the data of the last packet that was read into it.
+ * 
+ * @author Zach Deibert
+ * @param <T>
+ *            The type of packet
+ * @see Packet#retain()
+ * @see Packet#release()
+ * @since 1.3
+ * @version 1.3
+ */
+public final class Recycler<T extends Packet> implements Supplier<T> {
+	/**
+	 * The packets that a single thread keeps for itself
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Cache {
+		/**
+		 * The packets in the cache
+		 * 
+		 * @since 1.3
+		 */
+		final Packet[] packets = new Packet[THREAD_CACHE_SIZE];
+		/**
+		 * The number of packets in the cache
+		 * 
+		 * @since 1.3
+		 */
+		int size;
+	}
+
+	/**
+	 * The most packets that a thread keeps for itself
+	 * 
+	 * @since 1.3
+	 */
+	private static final int THREAD_CACHE_SIZE = 32;
+	/**
+	 * The default number of packets that the shared pool holds on to
+	 * 
+	 * @since 1.3
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * Creates new packets when the pool is empty
+	 * 
+	 * @since 1.3
+	 */
+	private final Supplier<T> factory;
+	/**
+	 * The cache of the current thread, or <code>null</code> if it does not
+	 * have one
+	 * 
+	 * @since 1.3
+	 */
+	private final ThreadLocal<Cache> caches;
+	/**
+	 * The packets that are shared by all threads
+	 * 
+	 * @since 1.3
+	 */
+	private final Packet[] shared;
+	/**
+	 * The number of packets in the shared pool
+	 * 
+	 * @since 1.3
+	 */
+	private int sharedSize;
+	/**
+	 * The number of packets that have been created
+	 * 
+	 * @since 1.3
+	 */
+	private final LongAdder created;
+
+	/**
+	 * Gets a packet from the pool, creating a new one if the pool is empty.
+	 * The caller holds the only reference to the packet and must release it
+	 * once it is done with it.
+	 * 
+	 * @return The packet
+	 * @since 1.3
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get() {
+		final Cache cache = cache();
+		Packet packet = null;
+		if ( cache != null && cache.size > 0 ) {
+			packet = cache.packets[--cache.size];
+			cache.packets[cache.size] = null;
+		} else {
+			synchronized ( shared ) {
+				if ( sharedSize > 0 ) {
+					packet = shared[--sharedSize];
+					shared[sharedSize] = null;
+				}
+			}
+		}
+		if ( packet == null ) {
+			packet = factory.get();
+			packet.recycler = this;
+			created.increment();
+		}
+		packet.refs = 1;
+		packet.correlation = 0;
+		return (T) packet;
+	}
+
+	/**
+	 * Puts a packet that is no longer being used back in the pool
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @since 1.3
+	 */
+	void recycle(final Packet packet) {
+		final Cache cache = caches.get();
+		if ( cache != null && cache.size < THREAD_CACHE_SIZE ) {
+			cache.packets[cache.size++] = packet;
+			return;
+		}
+		synchronized ( shared ) {
+			if ( sharedSize < shared.length ) {
+				shared[sharedSize++] = packet;
+			}
+		}
+	}
+
+	/**
+	 * Gets the cache of the current thread, creating it the first time a
+	 * thread takes a packet from this recycler. Threads that only give packets
+	 * back, such as handlers on worker threads, do not get a cache so the
+	 * packets go back to the shared pool where the reading thread can find
+	 * them. Virtual threads never get a cache, since there is a new one for
+	 * each packet.
+	 * 
+	 * @return The cache, or <code>null</code> if the current thread does not
+	 *         have one
+	 * @since 1.3
+	 */
+	private Cache cache() {
+		Cache cache = caches.get();
+		if ( cache == null && !HandlerExecutors.isVirtualThread() ) {
+			cache = new Cache();
+			caches.set(cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the number of packets that this recycler has created. Once the
+	 * pool has warmed up, this should stop growing.
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	public long getCreated() {
+		return created.sum();
+	}
+
+	/**
+	 * Creates a new recycler
+	 * 
+	 * @param factory
+	 *            Creates an empty packet when the pool is empty
+	 * @param capacity
+	 *            The most packets that are shared between threads, not
+	 *            counting the few that each thread keeps for itself
+	 * @since 1.3
+	 */
+	public Recycler(final Supplier<T> factory, final int capacity) {
+		this.factory = factory;
+		caches = new ThreadLocal<Cache>();
+		shared = new Packet[capacity];
+		created = new LongAdder();
+	}
+
+	/**
+	 * Creates a new recycler that shares up to 256 packets between threads
+	 * 
+	 * @param factory
+	 *            Creates an empty packet when the pool is empty
+	 * @since 1.3
+	 */
+	public Recycler(final Supplier<T> factory) {
+		this(factory, DEFAULT_CAPACITY);
+	}
+}
@@ -1,10 +1,12 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class to represent a client connected to a server
@@ -12,7 +14,7 @@ import java.net.SocketAddress;
  * @author Zach Deibert
  * @see NetworkServer
  * @since 1.0
- * @version 1.2.1
+ * @version 1.3
  */
 final public class RemoteClient extends AsyncDeserializer implements
                 NetworkNode
@@ -23,23 +25,24 @@ final public class RemoteClient extends AsyncDeserializer implements
      * @author Zach Deibert
      * @since 1.0
      */
-    private final NetworkServer      server;
+    private final NetworkServer server;
     /**
-     * The stream used to send packets to the server
+     * The names of the groups this client is in
      * 
      * @author Zach Deibert
-     * @see sendPacket()
-     * @since 1.0
+     * @see NetworkServer#join
+     * @since 1.3
      */
-    private final ObjectOutputStream ostream;
+    final Set<String>           groups;
 
     /**
-     * Sends a packet to the server
+     * Sends a packet to the client. The packet is queued and written by the
+     * runner, so this does not wait for the client to receive it.
      * 
      * @author Zach Deibert
      * @param packet
      *            The packet to send
-     * @see ostream
+     * @see writePacket
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
@@ -47,8 +50,20 @@ final public class RemoteClient extends AsyncDeserializer implements
     @Override
     public void sendPacket(final Packet packet) throws IOException
     {
-        ostream.writeObject(packet);
-        ostream.reset();
+        writePacket(packet);
+    }
+
+    /**
+     * Gets the names of the groups this client is in
+     * 
+     * @author Zach Deibert
+     * @return The names
+     * @see NetworkServer#join
+     * @since 1.3
+     */
+    public Set<String> getGroups()
+    {
+        return Collections.unmodifiableSet(groups);
     }
 
     /**
@@ -63,8 +78,42 @@ final public class RemoteClient extends AsyncDeserializer implements
     @Override
     public void disconnect() throws IOException
     {
-        server.disconnect(this);
-        closed = true;
+        server.disconnect(this, true);
+    }
+
+    /**
+     * Removes this client from the server after it has closed the connection
+     * 
+     * @author Zach Deibert
+     * @see NetworkServer#disconnect(RemoteClient, boolean)
+     * @since 1.3
+     * @throws IOException
+     *             An I/O error has occurred
+     */
+    @Override
+    protected void connectionLost() throws IOException
+    {
+        server.disconnect(this, false);
+    }
+
+    /**
+     * Calls the watermark events of both this client and its server
+     * 
+     * @author Zach Deibert
+     * @param high
+     *            If the high watermark was crossed
+     * @param pendingBytes
+     *            The number of bytes waiting to be written
+     * @since 1.3
+     */
+    @Override
+    void watermarkCrossed(final boolean high, final long pendingBytes)
+    {
+        super.watermarkCrossed(high, pendingBytes);
+        if (server.onWatermark != null)
+        {
+            server.onWatermark.onWatermark(this, high, pendingBytes);
+        }
     }
 
     /**
@@ -143,17 +192,22 @@ final public class RemoteClient extends AsyncDeserializer implements
      * @author Zach Deibert
      * @param server
      *            The server that the client is connected to
+     * @param runner
+     *            The runner that will read from the client
      * @param client
-     *            The client's socket
+     *            The client's channel
      * @since 1.0
      * @throws IOException
      *             An I/O error has occurred
      */
-    RemoteClient(final NetworkServer server, final Socket client)
-                    throws IOException
+    RemoteClient(final NetworkServer server, final AsyncRunner runner,
+                    final SocketChannel client) throws IOException
     {
-        socket = client;
+        super(runner, server.metrics);
         this.server = server;
-        this.ostream = new ObjectOutputStream(client.getOutputStream());
+        groups = ConcurrentHashMap.newKeySet();
+        server.configure(this);
+        server.options.apply(client);
+        attach(client);
     }
 }
@@ -0,0 +1,492 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A state object that a server keeps in sync on its clients. Each time the
+ * state is published, every client is only sent the fields that have changed
+ * since the last state that was written to it, as a mask of the changed fields
+ * followed by their values. Fields that were changed by frames that are still
+ * queued are sent again, so the client ends up with the current state whether
+ * or not those frames are dropped on the way. A client that has just been
+ * added, or that has lost part of the state because a frame was dropped by
+ * its backpressure policy, is sent the whole state instead. Clients that need
+ * the same fields share one encoded frame.
+ * 
+ * <pre>
+ * // On the server
+ * ReplicatedState&lt;World&gt; world = new ReplicatedState&lt;World&gt;(7, new World(), codec);
+ * world.publish(server); // every tick
+ * 
+ * // On the client
+ * ReplicatedState&lt;World&gt; world = new ReplicatedState&lt;World&gt;(7, new World(), codec);
+ * PacketCodecs.register(7, world);
+ * </pre>
+ * 
+ * The receiving end changes its state object as soon as the data arrives, and
+ * then handles a {@link StateUpdate} with the id of the state. Both ends
+ * synchronize on the state object while they read or change it.
+ * 
+ * @author Zach Deibert
+ * @param <T>
+ *            The type of the state object
+ * @see StateCodec
+ * @since 1.3
+ * @version 1.3
+ */
+public final class ReplicatedState<T> implements PacketCodec {
+	/**
+	 * A copy of every field of the state, as it was encoded
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Snapshot {
+		/**
+		 * The encoded fields, one after the other
+		 * 
+		 * @since 1.3
+		 */
+		final byte[] data;
+		/**
+		 * The index after the end of each field
+		 * 
+		 * @since 1.3
+		 */
+		final int[] ends;
+
+		/**
+		 * Gets the index of the start of a field
+		 * 
+		 * @param field
+		 *            The index of the field
+		 * @return The index in {@link #data}
+		 * @since 1.3
+		 */
+		int start(final int field) {
+			return field == 0 ? 0 : ends[field - 1];
+		}
+
+		/**
+		 * Checks if a field was encoded the same way in another snapshot
+		 * 
+		 * @param other
+		 *            The other snapshot
+		 * @param field
+		 *            The index of the field
+		 * @return If the field is the same
+		 * @since 1.3
+		 */
+		boolean same(final Snapshot other, final int field) {
+			final int start = start(field);
+			final int length = ends[field] - start;
+			final int otherStart = other.start(field);
+			if ( other.ends[field] - otherStart != length ) {
+				return false;
+			}
+			for ( int i = 0; i < length; ++i ) {
+				if ( data[start + i] != other.data[otherStart + i] ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Creates a new snapshot
+		 * 
+		 * @param data
+		 *            The encoded fields
+		 * @param ends
+		 *            The index after the end of each field
+		 * @since 1.3
+		 */
+		Snapshot(final byte[] data, final int[] ends) {
+			this.data = data;
+			this.ends = ends;
+		}
+	}
+
+	/**
+	 * What a client has been sent
+	 * 
+	 * @since 1.3
+	 */
+	private static final class Baseline {
+		/**
+		 * The state in the last frame that was written to the client, or
+		 * <code>null</code> if none has been written yet. This is guarded by
+		 * the baseline's lock.
+		 * 
+		 * @since 1.3
+		 */
+		Snapshot written;
+		/**
+		 * The states in the frames that have been queued for the client but
+		 * not written yet, oldest first. This is guarded by the baseline's
+		 * lock.
+		 * 
+		 * @since 1.3
+		 */
+		final Deque<Snapshot> queued = new ArrayDeque<Snapshot>();
+		/**
+		 * If a frame sent to the client was dropped, so its state is no
+		 * longer known
+		 * 
+		 * @since 1.3
+		 */
+		final AtomicBoolean lost = new AtomicBoolean();
+	}
+
+	/**
+	 * The most fields a state can have
+	 * 
+	 * @since 1.3
+	 */
+	public static final int MAX_FIELDS = 64;
+	/**
+	 * The packet id the state is sent with
+	 * 
+	 * @since 1.3
+	 */
+	private final int id;
+	/**
+	 * The state object
+	 * 
+	 * @since 1.3
+	 */
+	private final T state;
+	/**
+	 * The codec of the fields of the state
+	 * 
+	 * @since 1.3
+	 */
+	private final StateCodec<T> codec;
+	/**
+	 * The number of fields in the state
+	 * 
+	 * @since 1.3
+	 */
+	private final int fields;
+	/**
+	 * What each client has been sent. Clients are forgotten once nothing else
+	 * refers to them.
+	 * 
+	 * @since 1.3
+	 */
+	private final Map<RemoteClient, Baseline> baselines = new WeakHashMap<RemoteClient, Baseline>();
+
+	/**
+	 * Gets the packet id the state is sent with
+	 * 
+	 * @return The id
+	 * @since 1.3
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the state object
+	 * 
+	 * @return The state object
+	 * @since 1.3
+	 */
+	public T getState() {
+		return state;
+	}
+
+	/**
+	 * Sends the changes to the state to every client connected to a server
+	 * 
+	 * @param server
+	 *            The server
+	 * @throws IOException
+	 *             An I/O error has occurred
+	 * @see publish(NetworkServer, Collection)
+	 * @since 1.3
+	 */
+	public void publish(final NetworkServer server) throws IOException {
+		publish(server, server.getClients());
+	}
+
+	/**
+	 * Sends the changes to the state to some of the clients connected to a
+	 * server. Each client is sent the fields that are different from the last
+	 * state written to it or from any state still queued for it, or the whole
+	 * state if it has not been sent the state yet or part of it was lost.
+	 * Nothing is sent to clients that already have the current state.
+	 * 
+	 * @param server
+	 *            The server
+	 * @param clients
+	 *            The clients to send to, such as a group
+	 * @throws IOException
+	 *             An I/O error has occurred
+	 * @see NetworkServer#getGroup(String)
+	 * @since 1.3
+	 */
+	public synchronized void publish(final NetworkServer server, final Collection<RemoteClient> clients)
+			throws IOException {
+		final Snapshot current = capture();
+		final Map<Long, List<RemoteClient>> groups = new HashMap<Long, List<RemoteClient>>();
+		for ( final RemoteClient client : clients ) {
+			Baseline baseline = baselines.get(client);
+			if ( baseline == null ) {
+				baseline = new Baseline();
+				baselines.put(client, baseline);
+			}
+			final Long changed = baseline.lost.getAndSet(false) ? null : changed(baseline, current);
+			if ( changed != null && changed == 0 ) {
+				continue;
+			}
+			List<RemoteClient> group = groups.get(changed);
+			if ( group == null ) {
+				group = new ArrayList<RemoteClient>();
+				groups.put(changed, group);
+			}
+			group.add(client);
+		}
+		for ( final Map.Entry<Long, List<RemoteClient>> group : groups.entrySet() ) {
+			final SharedBuffer frame = new SharedBuffer(encode(group.getKey(), current));
+			try {
+				server.sendFrame(frame, id, null, group.getValue(), null, (client, written) -> {
+					final Baseline baseline = baselines.get(client);
+					synchronized ( baseline ) {
+						baseline.queued.add(current);
+					}
+					written.whenComplete((v, ex) -> {
+						if ( ex != null ) {
+							baseline.lost.set(true);
+							return;
+						}
+						// Frames are written in the order they were queued, so
+						// any older ones have been written or dropped
+						synchronized ( baseline ) {
+							Snapshot done;
+							do {
+								done = baseline.queued.poll();
+							} while ( done != null && done != current );
+							baseline.written = current;
+						}
+					});
+				});
+			} catch ( final IOException | RuntimeException ex ) {
+				for ( final RemoteClient client : group.getValue() ) {
+					baselines.get(client).lost.set(true);
+				}
+				throw ex;
+			} finally {
+				frame.release();
+			}
+		}
+	}
+
+	/**
+	 * Sends the whole state to a client the next time it is published
+	 * 
+	 * @param client
+	 *            The client
+	 * @since 1.3
+	 */
+	public synchronized void resync(final RemoteClient client) {
+		final Baseline baseline = baselines.get(client);
+		if ( baseline != null ) {
+			baseline.lost.set(true);
+		}
+	}
+
+	/**
+	 * Encodes every field of the state
+	 * 
+	 * @return The snapshot
+	 * @throws IOException
+	 *             A field could not be encoded
+	 * @since 1.3
+	 */
+	private Snapshot capture() throws IOException {
+		final PacketOutput out = new PacketOutput();
+		try {
+			final int[] ends = new int[fields];
+			synchronized ( state ) {
+				for ( int i = 0; i < fields; ++i ) {
+					codec.writeField(state, i, out);
+					ends[i] = out.size();
+				}
+			}
+			final ByteBuffer buffer = out.buffer();
+			buffer.flip();
+			final byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return new Snapshot(data, ends);
+		} finally {
+			out.release();
+		}
+	}
+
+	/**
+	 * Finds the fields a client has to be sent to bring it to the current
+	 * state. These are the fields that are different from the last state
+	 * written to it or from any state still queued for it, since the client
+	 * may have any of them by the time the new frame arrives.
+	 * 
+	 * @param baseline
+	 *            What the client has been sent
+	 * @param to
+	 *            The current state
+	 * @return The mask of the fields, or <code>null</code> if the client has
+	 *         to be sent the whole state
+	 * @since 1.3
+	 */
+	private Long changed(final Baseline baseline, final Snapshot to) {
+		synchronized ( baseline ) {
+			if ( baseline.written == null && baseline.queued.isEmpty() ) {
+				return null;
+			}
+			long changed = 0;
+			if ( baseline.written != null ) {
+				changed |= changed(baseline.written, to);
+			}
+			for ( final Snapshot from : baseline.queued ) {
+				changed |= changed(from, to);
+			}
+			return changed;
+		}
+	}
+
+	/**
+	 * Finds the fields that are different between two states
+	 * 
+	 * @param from
+	 *            The old state
+	 * @param to
+	 *            The new state
+	 * @return The mask of the fields
+	 * @since 1.3
+	 */
+	private long changed(final Snapshot from, final Snapshot to) {
+		if ( from == to ) {
+			return 0;
+		}
+		long changed = 0;
+		for ( int i = 0; i < fields; ++i ) {
+			if ( !to.same(from, i) ) {
+				changed |= 1L << i;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Encodes a frame that changes some of the fields of a client's state
+	 * 
+	 * @param changed
+	 *            The mask of the fields to send, or <code>null</code> to send
+	 *            the whole state
+	 * @param to
+	 *            The current state
+	 * @return A buffer from the {@link BufferPool} containing the frame
+	 * @since 1.3
+	 */
+	private ByteBuffer encode(final Long changed, final Snapshot to) {
+		final PacketOutput out = new PacketOutput();
+		out.skip(PacketCodecs.MAX_VAR_INT_LENGTH);
+		out.writeSignedVarInt(id);
+		if ( changed == null ) {
+			out.writeBoolean(true);
+			out.write(to.data, 0, to.data.length);
+		} else {
+			out.writeBoolean(false);
+			out.writeVarLong(changed);
+			for ( long rest = changed; rest != 0; rest &= rest - 1 ) {
+				final int field = Long.numberOfTrailingZeros(rest);
+				final int start = to.start(field);
+				out.write(to.data, start, to.ends[field] - start);
+			}
+		}
+		return PacketCodecs.finish(out);
+	}
+
+	/**
+	 * Refuses to send the state as a normal packet, since it is only sent by
+	 * {@link #publish(NetworkServer, Collection)}
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             Always
+	 * @since 1.3
+	 */
+	@Override
+	public void encode(final Packet packet, final PacketOutput out) throws IOException {
+		throw new IOException("Replicated state can only be sent by publishing it");
+	}
+
+	/**
+	 * Changes the state object with data that has been received
+	 * 
+	 * @param id
+	 *            The id of the state
+	 * @param in
+	 *            The data to read from
+	 * @return The update to handle
+	 * @throws IOException
+	 *             The data is corrupted
+	 * @since 1.3
+	 */
+	@Override
+	public Packet decode(final int id, final PacketInput in) throws IOException {
+		final boolean snapshot = in.readBoolean();
+		final long all = fields == MAX_FIELDS ? -1 : (1L << fields) - 1;
+		final long changed = snapshot ? all : in.readVarLong();
+		if ( (changed & ~all) != 0 ) {
+			throw new IOException("Corrupted state update");
+		}
+		synchronized ( state ) {
+			for ( long rest = changed; rest != 0; rest &= rest - 1 ) {
+				codec.readField(state, Long.numberOfTrailingZeros(rest), in);
+			}
+		}
+		return new StateUpdate(id, changed, snapshot);
+	}
+
+	/**
+	 * Creates a new replicated state. The same id and codec must be used on
+	 * both ends of the connection.
+	 * 
+	 * @param id
+	 *            The packet id to send the state with
+	 * @param state
+	 *            The state object
+	 * @param codec
+	 *            The codec of the fields of the state
+	 * @since 1.3
+	 * @throws IllegalArgumentException
+	 *             The codec has no fields or more than {@link #MAX_FIELDS}
+	 * @throws PacketIdReservationException
+	 *             The id is reserved
+	 */
+	public ReplicatedState(final int id, final T state, final StateCodec<T> codec) {
+		fields = codec.getFieldCount();
+		if ( fields <= 0 || fields > MAX_FIELDS ) {
+			throw new IllegalArgumentException("A state must have between 1 and " + MAX_FIELDS + " fields");
+		}
+		if ( ReservedIds.isReserved(id) ) {
+			throw new PacketIdReservationException("The packet id is reserved");
+		}
+		this.id = id;
+		this.state = state;
+		this.codec = codec;
+	}
+}
@@ -0,0 +1,28 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * An exception that completes the future of a request when the handler on the
+ * other end of the connection failed to answer it
+ * 
+ * @author Zach Deibert
+ * @see RequestHandler
+ * @since 1.3
+ * @version 1.3
+ */
+public class RequestFailedException extends IOException {
+	private static final long serialVersionUID = -3038326720566431945L;
+
+	/**
+	 * Creates a new {@link RequestFailedException}
+	 * 
+	 * @param message
+	 *            The reason the request failed
+	 * @see Exception#Exception(String)
+	 * @since 1.3
+	 */
+	public RequestFailedException(final String message) {
+		super(message);
+	}
+}
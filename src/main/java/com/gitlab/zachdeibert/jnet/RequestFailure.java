@@ -0,0 +1,32 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * The packet that is received in place of a response when the handler on the
+ * other end of the connection failed to answer a request
+ * 
+ * @author Zach Deibert
+ * @see PacketCodecs#encodeFailure(int, String)
+ * @since 1.3
+ * @version 1.3
+ */
+final class RequestFailure extends Packet {
+	private static final long serialVersionUID = 5263640711873393040L;
+	/**
+	 * The reason the request failed
+	 * 
+	 * @since 1.3
+	 */
+	final String message;
+
+	/**
+	 * Creates a failure that has been received
+	 * 
+	 * @param message
+	 *            The reason the request failed
+	 * @since 1.3
+	 */
+	RequestFailure(final String message) {
+		super(PacketCodecs.FAILURE_ID, true);
+		this.message = message;
+	}
+}
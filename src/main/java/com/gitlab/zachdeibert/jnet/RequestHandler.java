@@ -0,0 +1,104 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * Handles a request and sends back a response. Requests are sent with
+ * {@link AsyncDeserializer#request(Packet, long, java.util.concurrent.TimeUnit)}
+ * and the response is sent back with the correlation id of the request, so the
+ * sender can match it up however many requests are waiting. If the packet was
+ * sent with {@link NetworkNode#sendPacket(Packet)} instead, the response is
+ * sent as a normal packet.
+ * 
+ * @author Zach Deibert
+ * @see PacketHandler
+ * @since 1.3
+ * @version 1.3
+ */
+public abstract class RequestHandler extends PacketHandler {
+	/**
+	 * Answers a request. If this throws an exception or returns
+	 * <code>null</code>, the request fails on the other end of the
+	 * connection.
+	 * 
+	 * @param request
+	 *            The request
+	 * @param sender
+	 *            The node that received the request
+	 * @return The response
+	 * @throws Exception
+	 *             The request could not be answered
+	 * @since 1.3
+	 */
+	protected abstract Packet respond(Packet request, NetworkNode sender) throws Exception;
+
+	/**
+	 * Answers a request and sends back the response
+	 * 
+	 * @param p
+	 *            The request
+	 * @param sender
+	 *            The node that received the request
+	 * @since 1.3
+	 */
+	@Override
+	protected final void handle(final Packet p, final NetworkNode sender) {
+		Packet response = null;
+		String failure = null;
+		try {
+			response = respond(p, sender);
+			if ( response == null ) {
+				failure = "The handler did not respond";
+			}
+		} catch ( final Exception ex ) {
+			failure = ex.toString();
+		}
+		try {
+			if ( p.correlation > 0 && sender instanceof AsyncDeserializer ) {
+				final AsyncDeserializer connection = (AsyncDeserializer) sender;
+				if ( failure == null ) {
+					connection.respond(response, p.correlation);
+				} else {
+					connection.failRequest(p.correlation, failure);
+				}
+			} else if ( response != null ) {
+				sender.sendPacket(response);
+			}
+		} catch ( final IOException ex ) {
+			NetworkErrors.networkError(ex, sender);
+		}
+	}
+
+	/**
+	 * Constructs a new request handler that is run on the thread that read the
+	 * request. Automatically registers the new handler.
+	 * 
+	 * @param id
+	 *            The ID of the request. It must be the same as the ID for the
+	 *            Packet.
+	 * @see Packet#id
+	 * @since 1.3
+	 */
+	protected RequestHandler(final int id) {
+		super(id);
+	}
+
+	/**
+	 * Constructs a new request handler that is not run on the thread that read
+	 * the request. Automatically registers the new handler.
+	 * 
+	 * @param id
+	 *            The ID of the request. It must be the same as the ID for the
+	 *            Packet.
+	 * @param mode
+	 *            Where the handler is run
+	 * @param ordered
+	 *            If requests from one connection should be answered one at a
+	 *            time in the order they arrived
+	 * @see Packet#id
+	 * @since 1.3
+	 */
+	protected RequestHandler(final int id, final ExecutionMode mode, final boolean ordered) {
+		super(id, mode, ordered);
+	}
+}
@@ -9,7 +9,7 @@ import java.util.List;
  * 
  * @author Zach Deibert
  * @since 1.2.2
- * @version 1.2.2
+ * @version 1.3
  */
 public class ReservedIds {
 	private static final List<PacketIdRange> allReservedRanges = new ArrayList<PacketIdRange>();
@@ -86,5 +86,8 @@ public class ReservedIds {
 
 	static {
 		addReservedRange(new PacketIdRange(-1000000, -999000));
+		// The first few ids are used by the library itself and must be the
+		// same on every node, so they are never handed out
+		removeReservedRange(new PacketIdRange(-1000000, -999991));
 	}
 }
@@ -0,0 +1,119 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on another executor one at a time in the order they were
+ * submitted. This is used to keep the packets from one connection in order
+ * when their handlers do not run on the thread that read them.
+ * 
+ * @author Zach Deibert
+ * @see PacketHandler
+ * @since 1.3
+ * @version 1.3
+ */
+final class SerialExecutor implements Executor, Runnable {
+	/**
+	 * The most tasks to run before giving the thread back to the executor, so
+	 * one busy connection cannot hold on to a worker forever
+	 * 
+	 * @since 1.3
+	 */
+	private static final int BATCH_SIZE = 64;
+	/**
+	 * Gets the executor the tasks are run on. It is looked up each time this
+	 * executor is submitted, so tasks move to a new pool once it has been
+	 * replaced without losing their order.
+	 * 
+	 * @since 1.3
+	 */
+	private final Supplier<Executor> executor;
+	/**
+	 * The tasks that have not been run yet
+	 * 
+	 * @since 1.3
+	 */
+	private final Queue<Runnable> tasks;
+	/**
+	 * If this executor has been submitted to the underlying executor and has
+	 * not finished running yet
+	 * 
+	 * @since 1.3
+	 */
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Adds a task to the end of the queue
+	 * 
+	 * @param task
+	 *            The task to run
+	 * @since 1.3
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		tasks.add(task);
+		try {
+			schedule();
+		} catch ( final RejectedExecutionException ex ) {
+			// If it is already gone it is being run, so it was not rejected
+			if ( tasks.remove(task) ) {
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Submits this executor to the underlying executor if it is not already
+	 * waiting to run
+	 * 
+	 * @since 1.3
+	 */
+	private void schedule() {
+		if ( scheduled.compareAndSet(false, true) ) {
+			try {
+				executor.get().execute(this);
+			} catch ( final RuntimeException ex ) {
+				scheduled.set(false);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Runs the queued tasks in order
+	 * 
+	 * @since 1.3
+	 */
+	@Override
+	public void run() {
+		try {
+			Runnable task;
+			for ( int i = 0; i < BATCH_SIZE && (task = tasks.poll()) != null; ++i ) {
+				task.run();
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		if ( !tasks.isEmpty() ) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Creates a new serial executor
+	 * 
+	 * @param executor
+	 *            Gets the executor to run the tasks on
+	 * @since 1.3
+	 */
+	SerialExecutor(final Supplier<Executor> executor) {
+		this.executor = executor;
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		scheduled = new AtomicBoolean();
+	}
+}
@@ -0,0 +1,77 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A codec that sends packets with Java serialization. This is used for every
+ * packet that does not have another codec registered, so any
+ * {@link java.io.Serializable} packet can be sent.
+ * 
+ * @author Zach Deibert
+ * @see PacketCodecs
+ * @since 1.3
+ * @version 1.3
+ */
+public final class SerializationCodec implements PacketCodec {
+	/**
+	 * The shared instance of this codec
+	 * 
+	 * @since 1.3
+	 */
+	public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+	/**
+	 * Serializes the packet
+	 * 
+	 * @param packet
+	 *            The packet
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             The packet could not be serialized
+	 * @since 1.3
+	 */
+	@Override
+	public void encode(final Packet packet, final PacketOutput out) throws IOException {
+		final ObjectOutputStream ostream = new ObjectOutputStream(out);
+		ostream.writeObject(packet);
+		ostream.flush();
+	}
+
+	/**
+	 * Deserializes the packet
+	 * 
+	 * @param id
+	 *            The id of the packet
+	 * @param in
+	 *            The data to read from
+	 * @return The packet
+	 * @throws IOException
+	 *             The packet could not be deserialized
+	 * @since 1.3
+	 */
+	@Override
+	public Packet decode(final int id, final PacketInput in) throws IOException {
+		final Object obj;
+		try {
+			obj = new ObjectInputStream(in).readObject();
+		} catch ( final ClassNotFoundException ex ) {
+			throw new IOException(ex);
+		}
+		if ( obj instanceof Packet ) {
+			return (Packet) obj;
+		}
+		throw new IOException("Corrupted network stream");
+	}
+
+	/**
+	 * Creates a new codec
+	 * 
+	 * @see #INSTANCE
+	 * @since 1.3
+	 */
+	private SerializationCodec() {
+	}
+}
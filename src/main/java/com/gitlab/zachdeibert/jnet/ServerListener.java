@@ -1,6 +1,8 @@
 package com.gitlab.zachdeibert.jnet;
 
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -11,7 +13,7 @@ import java.util.List;
  * @author Zach Deibert
  * @see NetworkServer
  * @since 1.0
- * @version 1.2.3
+ * @version 1.3
  */
 final class ServerListener extends Thread {
 	/**
@@ -37,6 +39,12 @@ final class ServerListener extends Thread {
 	 * @since 1.0
 	 */
 	private final NetworkServer server;
+	/**
+	 * The socket this thread accepts clients from
+	 * 
+	 * @since 1.3
+	 */
+	private final ServerSocketChannel socket;
 	/**
 	 * Contains whether the thread should keep iterating
 	 * 
@@ -78,7 +86,9 @@ final class ServerListener extends Thread {
 	public void run() {
 		while ( running ) {
 			try {
-				server.acceptClient();
+				server.acceptClient(socket);
+			} catch ( final ClosedChannelException ex ) {
+				// The server has been disconnected
 			} catch ( final SocketException ex ) {
 				if ( !ex.getMessage().matches("Socket (is )?closed") ) {
 					NetworkErrors.networkError(ex, server);
@@ -119,13 +129,16 @@ final class ServerListener extends Thread {
 	 * @author Zach Deibert
 	 * @param server
 	 *            The server to listen on
+	 * @param socket
+	 *            The socket to accept clients from
 	 * @see init
 	 * @since 1.0
 	 */
-	ServerListener(final NetworkServer server) {
+	ServerListener(final NetworkServer server, final ServerSocketChannel socket) {
 		init();
 		running = true;
 		this.server = server;
+		this.socket = socket;
 		start();
 	}
 }
@@ -0,0 +1,250 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of a server, added up over all of its clients. Each client also
+ * has its own {@link ConnectionMetrics}.
+ * 
+ * @author Zach Deibert
+ * @see NetworkServer#getMetrics()
+ * @see Metrics
+ * @since 1.3
+ * @version 1.3
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+	/**
+	 * The server these metrics are for
+	 * 
+	 * @since 1.3
+	 */
+	private final NetworkServer server;
+	/**
+	 * The clients that have been accepted
+	 * 
+	 * @since 1.3
+	 */
+	final Meter accepted;
+	/**
+	 * The packets that have been received
+	 * 
+	 * @since 1.3
+	 */
+	final Meter packetsIn;
+	/**
+	 * The packets that have been written
+	 * 
+	 * @since 1.3
+	 */
+	final Meter packetsOut;
+	/**
+	 * The bytes that have been read
+	 * 
+	 * @since 1.3
+	 */
+	final LongAdder bytesIn;
+	/**
+	 * The bytes that have been written
+	 * 
+	 * @since 1.3
+	 */
+	final LongAdder bytesOut;
+	/**
+	 * The packets that were dropped by the backpressure policy
+	 * 
+	 * @since 1.3
+	 */
+	final LongAdder dropped;
+	/**
+	 * How long it took to decode each packet
+	 * 
+	 * @since 1.3
+	 */
+	final Histogram decodeTime;
+	/**
+	 * How long the handler of each packet took to run
+	 * 
+	 * @since 1.3
+	 */
+	final Histogram handlerTime;
+	/**
+	 * The name these metrics are registered with JMX under, or
+	 * <code>null</code> if they are not registered
+	 * 
+	 * @since 1.3
+	 */
+	ObjectName name;
+
+	/**
+	 * Gets the port the server is listening on
+	 * 
+	 * @return The port, or -1 if the server is not listening
+	 * @since 1.3
+	 */
+	@Override
+	public int getPort() {
+		try {
+			return server.getPort();
+		} catch ( final Exception ex ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Gets the number of clients that are connected
+	 * 
+	 * @return The number of clients
+	 * @since 1.3
+	 */
+	@Override
+	public int getConnections() {
+		return server.getClientCount();
+	}
+
+	/**
+	 * Gets the number of clients that have been accepted
+	 * 
+	 * @return The number of clients
+	 * @since 1.3
+	 */
+	@Override
+	public long getAccepted() {
+		return accepted.getCount();
+	}
+
+	/**
+	 * Gets the number of clients that have been accepted per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	@Override
+	public double getAcceptRate() {
+		return accepted.getRate();
+	}
+
+	/**
+	 * Gets the number of packets that have been received from all clients
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getPacketsIn() {
+		return packetsIn.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been received from all clients per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	@Override
+	public double getPacketsInRate() {
+		return packetsIn.getRate();
+	}
+
+	/**
+	 * Gets the number of packets that have been written to all clients
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getPacketsOut() {
+		return packetsOut.getCount();
+	}
+
+	/**
+	 * Gets the number of packets that have been written to all clients per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	@Override
+	public double getPacketsOutRate() {
+		return packetsOut.getRate();
+	}
+
+	/**
+	 * Gets the number of bytes that have been read from all clients
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * Gets the number of bytes that have been written to all clients
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Gets the number of packets to any client that were dropped by the
+	 * backpressure policy
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	@Override
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Gets how long it took to decode each packet from any client, in
+	 * nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	@Override
+	public HistogramSnapshot getDecodeTime() {
+		return decodeTime.snapshot();
+	}
+
+	/**
+	 * Gets how long the handler of each packet from any client took to run,
+	 * in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	@Override
+	public HistogramSnapshot getHandlerTime() {
+		return handlerTime.snapshot();
+	}
+
+	/**
+	 * Creates the metrics for a server
+	 * 
+	 * @param server
+	 *            The server
+	 * @since 1.3
+	 */
+	ServerMetrics(final NetworkServer server) {
+		this.server = server;
+		accepted = new Meter();
+		packetsIn = new Meter();
+		packetsOut = new Meter();
+		bytesIn = new LongAdder();
+		bytesOut = new LongAdder();
+		dropped = new LongAdder();
+		decodeTime = new Histogram(true);
+		handlerTime = new Histogram(true);
+	}
+}
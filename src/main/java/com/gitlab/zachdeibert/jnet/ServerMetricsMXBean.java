@@ -0,0 +1,121 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * The metrics of a server and all of its clients that are exposed through JMX
+ * 
+ * @author Zach Deibert
+ * @see ServerMetrics
+ * @since 1.3
+ * @version 1.3
+ */
+public interface ServerMetricsMXBean {
+	/**
+	 * Gets the port the server is listening on
+	 * 
+	 * @return The port
+	 * @since 1.3
+	 */
+	int getPort();
+
+	/**
+	 * Gets the number of clients that are connected
+	 * 
+	 * @return The number of clients
+	 * @since 1.3
+	 */
+	int getConnections();
+
+	/**
+	 * Gets the number of clients that have been accepted
+	 * 
+	 * @return The number of clients
+	 * @since 1.3
+	 */
+	long getAccepted();
+
+	/**
+	 * Gets the number of clients that have been accepted per second, weighted
+	 * towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	double getAcceptRate();
+
+	/**
+	 * Gets the number of packets that have been received from all clients
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getPacketsIn();
+
+	/**
+	 * Gets the number of packets that have been received from all clients per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	double getPacketsInRate();
+
+	/**
+	 * Gets the number of packets that have been written to all clients
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getPacketsOut();
+
+	/**
+	 * Gets the number of packets that have been written to all clients per
+	 * second, weighted towards the last minute
+	 * 
+	 * @return The rate
+	 * @since 1.3
+	 */
+	double getPacketsOutRate();
+
+	/**
+	 * Gets the number of bytes that have been read from all clients
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	long getBytesIn();
+
+	/**
+	 * Gets the number of bytes that have been written to all clients
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	long getBytesOut();
+
+	/**
+	 * Gets the number of packets to any client that were dropped by the
+	 * backpressure policy
+	 * 
+	 * @return The number of packets
+	 * @since 1.3
+	 */
+	long getDropped();
+
+	/**
+	 * Gets how long it took to decode each packet from any client, in
+	 * nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	HistogramSnapshot getDecodeTime();
+
+	/**
+	 * Gets how long the handler of each packet from any client took to run,
+	 * in nanoseconds
+	 * 
+	 * @return The summary of the times
+	 * @since 1.3
+	 */
+	HistogramSnapshot getHandlerTime();
+}
@@ -0,0 +1,83 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An encoded frame that may be queued on several connections at once. The
+ * buffer is given back to the {@link BufferPool} once every connection has
+ * finished with it and the sender has released its own reference.
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+final class SharedBuffer {
+	/**
+	 * The frame
+	 * 
+	 * @since 1.3
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * The number of references to the frame that have not been released
+	 * 
+	 * @since 1.3
+	 */
+	private final AtomicInteger refs;
+
+	/**
+	 * Gets a view of the frame that has its own position, so it can be
+	 * written without changing any other view
+	 * 
+	 * @return The view
+	 * @since 1.3
+	 */
+	ByteBuffer view() {
+		return buffer.duplicate();
+	}
+
+	/**
+	 * Gets the length of the frame
+	 * 
+	 * @return The number of bytes
+	 * @since 1.3
+	 */
+	int remaining() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * Adds a reference to the frame
+	 * 
+	 * @since 1.3
+	 */
+	void retain() {
+		refs.incrementAndGet();
+	}
+
+	/**
+	 * Removes a reference to the frame, giving the buffer back to the pool if
+	 * it was the last one
+	 * 
+	 * @since 1.3
+	 */
+	void release() {
+		if ( refs.decrementAndGet() == 0 ) {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Wraps a frame that was taken from the pool. The caller holds the only
+	 * reference.
+	 * 
+	 * @param buffer
+	 *            The frame, ready to be written
+	 * @since 1.3
+	 */
+	SharedBuffer(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		refs = new AtomicInteger(1);
+	}
+}
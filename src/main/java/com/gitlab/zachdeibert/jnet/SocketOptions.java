@@ -0,0 +1,372 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The options to set on the sockets of a connection. Options that are not set
+ * are left at the defaults of the operating system. Turning on
+ * <code>TCP_NODELAY</code> lowers the latency of small packets, while large
+ * buffers raise the throughput of connections that send a lot of data.
+ * 
+ * <pre>
+ * SocketOptions options = SocketOptions.builder().tcpNoDelay(true).receiveBufferSize(1 &lt;&lt; 20).build();
+ * </pre>
+ * 
+ * @author Zach Deibert
+ * @see NetworkClient#connect(String, short, SocketOptions)
+ * @see NetworkServer#connect(short, SocketOptions)
+ * @since 1.3
+ * @version 1.3
+ */
+public final class SocketOptions {
+	/**
+	 * Builds a set of socket options
+	 * 
+	 * @see SocketOptions#builder()
+	 * @since 1.3
+	 */
+	public static final class Builder {
+		/**
+		 * The value of <code>TCP_NODELAY</code>
+		 * 
+		 * @since 1.3
+		 */
+		private Boolean tcpNoDelay;
+		/**
+		 * The value of <code>SO_KEEPALIVE</code>
+		 * 
+		 * @since 1.3
+		 */
+		private Boolean keepAlive;
+		/**
+		 * The value of <code>SO_REUSEADDR</code>
+		 * 
+		 * @since 1.3
+		 */
+		private Boolean reuseAddress;
+		/**
+		 * The value of <code>SO_SNDBUF</code>
+		 * 
+		 * @since 1.3
+		 */
+		private int sendBufferSize;
+		/**
+		 * The value of <code>SO_RCVBUF</code>
+		 * 
+		 * @since 1.3
+		 */
+		private int receiveBufferSize;
+		/**
+		 * The length of the queue of connections waiting to be accepted
+		 * 
+		 * @since 1.3
+		 */
+		private int backlog;
+
+		/**
+		 * Sets if small packets are sent straight away instead of being held
+		 * back to be combined with later ones (<code>TCP_NODELAY</code>)
+		 * 
+		 * @param on
+		 *            If small packets are sent straight away
+		 * @return This builder
+		 * @since 1.3
+		 */
+		public Builder tcpNoDelay(final boolean on) {
+			tcpNoDelay = on;
+			return this;
+		}
+
+		/**
+		 * Sets if the connection is probed while it is idle so a peer that
+		 * has gone away is noticed (<code>SO_KEEPALIVE</code>)
+		 * 
+		 * @param on
+		 *            If the connection is probed
+		 * @return This builder
+		 * @since 1.3
+		 */
+		public Builder keepAlive(final boolean on) {
+			keepAlive = on;
+			return this;
+		}
+
+		/**
+		 * Sets if the address can be bound while an old connection is still
+		 * closing (<code>SO_REUSEADDR</code>). Servers turn this on unless it
+		 * is set.
+		 * 
+		 * @param on
+		 *            If the address can be reused
+		 * @return This builder
+		 * @since 1.3
+		 */
+		public Builder reuseAddress(final boolean on) {
+			reuseAddress = on;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffer the operating system uses for data that
+		 * is being sent (<code>SO_SNDBUF</code>)
+		 * 
+		 * @param bytes
+		 *            The size of the buffer
+		 * @return This builder
+		 * @since 1.3
+		 * @throws IllegalArgumentException
+		 *             The size is not positive
+		 */
+		public Builder sendBufferSize(final int bytes) {
+			if ( bytes <= 0 ) {
+				throw new IllegalArgumentException("The buffer size must be positive");
+			}
+			sendBufferSize = bytes;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffer the operating system uses for data that
+		 * has been received (<code>SO_RCVBUF</code>). On a server this is set
+		 * before the socket is bound, so it can be larger than 64 KB.
+		 * 
+		 * @param bytes
+		 *            The size of the buffer
+		 * @return This builder
+		 * @since 1.3
+		 * @throws IllegalArgumentException
+		 *             The size is not positive
+		 */
+		public Builder receiveBufferSize(final int bytes) {
+			if ( bytes <= 0 ) {
+				throw new IllegalArgumentException("The buffer size must be positive");
+			}
+			receiveBufferSize = bytes;
+			return this;
+		}
+
+		/**
+		 * Sets how many connections can be waiting to be accepted by a server
+		 * before new ones are refused. This does nothing for clients.
+		 * 
+		 * @param connections
+		 *            The length of the queue
+		 * @return This builder
+		 * @since 1.3
+		 * @throws IllegalArgumentException
+		 *             The length is not positive
+		 */
+		public Builder backlog(final int connections) {
+			if ( connections <= 0 ) {
+				throw new IllegalArgumentException("The backlog must be positive");
+			}
+			backlog = connections;
+			return this;
+		}
+
+		/**
+		 * Creates the options
+		 * 
+		 * @return The options
+		 * @since 1.3
+		 */
+		public SocketOptions build() {
+			return new SocketOptions(this);
+		}
+
+		/**
+		 * Creates a builder with no options set
+		 * 
+		 * @since 1.3
+		 */
+		private Builder() {
+		}
+	}
+
+	/**
+	 * The options that leave every socket at the defaults of the operating
+	 * system
+	 * 
+	 * @since 1.3
+	 */
+	public static final SocketOptions DEFAULT = builder().build();
+	/**
+	 * The value of <code>TCP_NODELAY</code>, or <code>null</code> if it is not
+	 * set
+	 * 
+	 * @since 1.3
+	 */
+	private final Boolean tcpNoDelay;
+	/**
+	 * The value of <code>SO_KEEPALIVE</code>, or <code>null</code> if it is not
+	 * set
+	 * 
+	 * @since 1.3
+	 */
+	private final Boolean keepAlive;
+	/**
+	 * The value of <code>SO_REUSEADDR</code>, or <code>null</code> if it is not
+	 * set
+	 * 
+	 * @since 1.3
+	 */
+	private final Boolean reuseAddress;
+	/**
+	 * The value of <code>SO_SNDBUF</code>, or 0 if it is not set
+	 * 
+	 * @since 1.3
+	 */
+	private final int sendBufferSize;
+	/**
+	 * The value of <code>SO_RCVBUF</code>, or 0 if it is not set
+	 * 
+	 * @since 1.3
+	 */
+	private final int receiveBufferSize;
+	/**
+	 * The length of the queue of connections waiting to be accepted, or 0 if
+	 * it is not set
+	 * 
+	 * @since 1.3
+	 */
+	private final int backlog;
+
+	/**
+	 * Creates a builder with no options set
+	 * 
+	 * @return The builder
+	 * @since 1.3
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Sets the options on a connection before it is connected, or after it has
+	 * been accepted
+	 * 
+	 * @param channel
+	 *            The connection
+	 * @since 1.3
+	 * @throws IOException
+	 *             An option could not be set
+	 */
+	void apply(final SocketChannel channel) throws IOException {
+		if ( tcpNoDelay != null ) {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+		}
+		if ( keepAlive != null ) {
+			channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+		}
+		if ( reuseAddress != null ) {
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+		}
+		if ( sendBufferSize > 0 ) {
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+		}
+		if ( receiveBufferSize > 0 ) {
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		}
+	}
+
+	/**
+	 * Sets the options on a server socket before it is bound. Sockets that
+	 * are accepted from it still need {@link #apply(SocketChannel)}.
+	 * 
+	 * @param channel
+	 *            The server socket
+	 * @since 1.3
+	 * @throws IOException
+	 *             An option could not be set
+	 */
+	void apply(final ServerSocketChannel channel) throws IOException {
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress == null || reuseAddress);
+		if ( receiveBufferSize > 0 ) {
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		}
+	}
+
+	/**
+	 * Gets if small packets are sent straight away
+	 * 
+	 * @return The value of <code>TCP_NODELAY</code>, or <code>null</code> if it
+	 *         is left at the default
+	 * @since 1.3
+	 */
+	public Boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Gets if idle connections are probed
+	 * 
+	 * @return The value of <code>SO_KEEPALIVE</code>, or <code>null</code> if
+	 *         it is left at the default
+	 * @since 1.3
+	 */
+	public Boolean getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Gets if the address can be bound while an old connection is closing
+	 * 
+	 * @return The value of <code>SO_REUSEADDR</code>, or <code>null</code> if
+	 *         it is left at the default
+	 * @since 1.3
+	 */
+	public Boolean getReuseAddress() {
+		return reuseAddress;
+	}
+
+	/**
+	 * Gets the size of the buffer for data that is being sent
+	 * 
+	 * @return The value of <code>SO_SNDBUF</code>, or 0 if it is left at the
+	 *         default
+	 * @since 1.3
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Gets the size of the buffer for data that has been received
+	 * 
+	 * @return The value of <code>SO_RCVBUF</code>, or 0 if it is left at the
+	 *         default
+	 * @since 1.3
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Gets how many connections can be waiting to be accepted
+	 * 
+	 * @return The length of the queue, or 0 if it is left at the default
+	 * @since 1.3
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Creates the options from a builder
+	 * 
+	 * @param builder
+	 *            The builder
+	 * @since 1.3
+	 */
+	private SocketOptions(final Builder builder) {
+		tcpNoDelay = builder.tcpNoDelay;
+		keepAlive = builder.keepAlive;
+		reuseAddress = builder.reuseAddress;
+		sendBufferSize = builder.sendBufferSize;
+		receiveBufferSize = builder.receiveBufferSize;
+		backlog = builder.backlog;
+	}
+}
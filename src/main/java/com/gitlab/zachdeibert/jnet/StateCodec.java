@@ -0,0 +1,57 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+
+/**
+ * Describes the fields of a state object that is replicated with
+ * {@link ReplicatedState}. Each field is written and read on its own, so only
+ * the fields that have changed need to be sent.
+ * 
+ * @author Zach Deibert
+ * @param <T>
+ *            The type of the state object
+ * @see ReplicatedState
+ * @since 1.3
+ * @version 1.3
+ */
+public interface StateCodec<T> {
+	/**
+	 * Gets the number of fields in the state
+	 * 
+	 * @return The number of fields, which is at most
+	 *         {@link ReplicatedState#MAX_FIELDS}
+	 * @since 1.3
+	 */
+	int getFieldCount();
+
+	/**
+	 * Writes one field of the state. Two values of a field are treated as the
+	 * same if they are written as the same bytes.
+	 * 
+	 * @param state
+	 *            The state object
+	 * @param field
+	 *            The index of the field
+	 * @param out
+	 *            The buffer to write to
+	 * @throws IOException
+	 *             The field could not be written
+	 * @since 1.3
+	 */
+	void writeField(T state, int field, PacketOutput out) throws IOException;
+
+	/**
+	 * Reads one field of the state and stores it in the state object
+	 * 
+	 * @param state
+	 *            The state object
+	 * @param field
+	 *            The index of the field
+	 * @param in
+	 *            The data to read from
+	 * @throws IOException
+	 *             The field could not be read
+	 * @since 1.3
+	 */
+	void readField(T state, int field, PacketInput in) throws IOException;
+}
@@ -0,0 +1,77 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * The packet that is handled after a {@link ReplicatedState} has been updated
+ * with data that was received. The state object itself has already been
+ * changed by the time this is handled.
+ * 
+ * @author Zach Deibert
+ * @see ReplicatedState
+ * @since 1.3
+ * @version 1.3
+ */
+public final class StateUpdate extends Packet {
+	private static final long serialVersionUID = -6188021735461283473L;
+	/**
+	 * The bits of the fields that were changed
+	 * 
+	 * @since 1.3
+	 */
+	private final long changed;
+	/**
+	 * If the whole state was sent
+	 * 
+	 * @since 1.3
+	 */
+	private final boolean snapshot;
+
+	/**
+	 * Gets the fields that were sent
+	 * 
+	 * @return A mask with the bit of the index of each field set
+	 * @since 1.3
+	 */
+	public long getChanged() {
+		return changed;
+	}
+
+	/**
+	 * Checks if a field was sent
+	 * 
+	 * @param field
+	 *            The index of the field
+	 * @return If the field was sent
+	 * @since 1.3
+	 */
+	public boolean hasChanged(final int field) {
+		return (changed & (1L << field)) != 0;
+	}
+
+	/**
+	 * Checks if the whole state was sent, which happens when the state is
+	 * first sent and after any part of it has been lost
+	 * 
+	 * @return If every field was sent
+	 * @since 1.3
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Creates an update that has been received
+	 * 
+	 * @param id
+	 *            The id of the state
+	 * @param changed
+	 *            The bits of the fields that were changed
+	 * @param snapshot
+	 *            If the whole state was sent
+	 * @since 1.3
+	 */
+	StateUpdate(final int id, final long changed, final boolean snapshot) {
+		super(id);
+		this.changed = changed;
+		this.snapshot = snapshot;
+	}
+}
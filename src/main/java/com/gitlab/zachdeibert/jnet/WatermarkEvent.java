@@ -0,0 +1,51 @@
+package com.gitlab.zachdeibert.jnet;
+
+/**
+ * An event handler for when the amount of data waiting to be written to a
+ * connection crosses one of its watermarks
+ * 
+ * @author Zach Deibert
+ * @see AsyncDeserializer#setWatermarks(long, long)
+ * @since 1.3
+ * @version 1.3
+ */
+public interface WatermarkEvent {
+	/**
+	 * Handles the watermark event
+	 * 
+	 * @param node
+	 *            The connection whose queue crossed the watermark. This will
+	 *            always be either a NetworkClient or RemoteClient.
+	 * @param high
+	 *            <code>true</code> if the queue rose above the high watermark,
+	 *            or <code>false</code> if it fell back to the low watermark
+	 * @param pendingBytes
+	 *            The number of bytes waiting to be written
+	 * @since 1.3
+	 */
+	void onWatermark(NetworkNode node, boolean high, long pendingBytes);
+
+	/**
+	 * Adds two watermark events together so both run when the event is called
+	 * 
+	 * @param evt1
+	 *            The first event to call
+	 * @param evt2
+	 *            The second event to call
+	 * @return The new event that calls both evt1 and evt2, or null if both
+	 *         arguments are null
+	 * @since 1.3
+	 */
+	public static WatermarkEvent add(final WatermarkEvent evt1, final WatermarkEvent evt2) {
+		if ( evt1 == null ) {
+			return evt2;
+		}
+		if ( evt2 == null ) {
+			return evt1;
+		}
+		return (node, high, pendingBytes) -> {
+			evt1.onWatermark(node, high, pendingBytes);
+			evt2.onWatermark(node, high, pendingBytes);
+		};
+	}
+}
@@ -0,0 +1,74 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests accepting clients with several threads
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class AcceptorTest
+{
+    /**
+     * The number of clients to connect
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int CLIENTS = 20;
+
+    /**
+     * Tests that every client is accepted and set up by its runner when
+     * there are several acceptors
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testAcceptors() throws Throwable
+    {
+        final NetworkServer server = new NetworkServer(2);
+        server.setAcceptors(4);
+        final AtomicInteger connected = new AtomicInteger();
+        final AtomicInteger onRunner = new AtomicInteger();
+        server.onConnect = (s, client) -> {
+            connected.incrementAndGet();
+            if (Thread.currentThread() instanceof AsyncRunner)
+            {
+                onRunner.incrementAndGet();
+            }
+        };
+        server.connect((short) 4261);
+        final List<NetworkClient> clients = new ArrayList<NetworkClient>();
+        for (int i = 0; i < CLIENTS; ++i)
+        {
+            final NetworkClient client = new NetworkClient();
+            client.connect("127.0.0.1", (short) 4261);
+            clients.add(client);
+        }
+        for (int i = 0; i < 100 && server.getClientCount() < CLIENTS; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Clients were not accepted", CLIENTS,
+                        server.getClientCount());
+        Assert.assertEquals("The connect event was not called", CLIENTS,
+                        connected.get());
+        Assert.assertEquals("Clients were set up by the acceptors", CLIENTS,
+                        onRunner.get());
+        Assert.assertEquals("The server did not count the clients", CLIENTS,
+                        server.getMetrics().getAccepted());
+        for (final NetworkClient client : clients)
+        {
+            client.disconnect();
+        }
+        server.disconnect();
+    }
+}
@@ -0,0 +1,81 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests sending packets without waiting for them to be written
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class AsyncSendTest
+{
+    /**
+     * Tests that the future of every packet is completed once it has been
+     * written, and that packets sent to a closed connection fail
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testSendAsync() throws Throwable
+    {
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(79)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4266);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4266);
+        for (int i = 0; i < 100 && server.getClientCount() == 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        final List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 1000; ++i)
+        {
+            futures.add(client.sendPacketAsync(new TrackerPacket(i, 79)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                        .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Packets are still waiting to be written", 0,
+                        client.getPendingPackets());
+        server.sendPacketAsync(new TrackerPacket(-1, 79)).toCompletableFuture()
+                        .get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 100 && received.get() < 1001; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The packets were not received", 1001,
+                        received.get());
+        client.disconnect();
+        try
+        {
+            client.sendPacketAsync(new TrackerPacket(0, 79)).get(5,
+                            TimeUnit.SECONDS);
+            Assert.fail("The packet was written to a closed connection");
+        }
+        catch (final ExecutionException ex)
+        {
+            Assert.assertTrue("The wrong exception was reported",
+                            ex.getCause() instanceof ClosedChannelException);
+        }
+        server.disconnect();
+    }
+}
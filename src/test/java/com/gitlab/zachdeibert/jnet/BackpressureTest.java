@@ -0,0 +1,225 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the limits on how much data can be waiting to be sent to a client
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class BackpressureTest
+{
+    /**
+     * The number of bytes of data sent in each packet
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int PAYLOAD_SIZE   = 32 * 1024;
+    /**
+     * The high watermark to test with
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int HIGH_WATERMARK = 64 * 1024;
+
+    /**
+     * Creates a server with a client connected to it that never reads
+     * anything
+     * 
+     * @author Zach Deibert
+     * @param server
+     *            The server to connect to
+     * @param port
+     *            The port to bind the server to
+     * @param client
+     *            The pointer to store the server's side of the client in
+     * @return The socket of the client
+     * @since 1.3
+     * @throws Throwable
+     */
+    private Socket connectStalled(final NetworkServer server, final short port,
+                    final Pointer<RemoteClient> client) throws Throwable
+    {
+        server.onConnect = new ConnectEvent()
+        {
+            @Override
+            public void onConnect(final LocalNetworkNode node,
+                            final NetworkNode connector)
+            {
+                client.data = (RemoteClient) connector;
+            }
+        };
+        server.connect(port);
+        final Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        Thread.sleep(100);
+        Assert.assertNotNull("The client did not connect", client.data);
+        return socket;
+    }
+
+    /**
+     * Tests that packets are dropped once a client that is not reading is
+     * above its high watermark
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testDropNewest() throws Throwable
+    {
+        final Pointer<RemoteClient> client = new Pointer<RemoteClient>();
+        final Pointer<Boolean> high = new Pointer<Boolean>(false);
+        final NetworkServer server = new NetworkServer(1);
+        server.setBackpressure(0, HIGH_WATERMARK,
+                        BackpressurePolicy.DROP_NEWEST);
+        server.onWatermark = new WatermarkEvent()
+        {
+            @Override
+            public void onWatermark(final NetworkNode node,
+                            final boolean crossedHigh, final long pending)
+            {
+                high.data = high.data || crossedHigh;
+            }
+        };
+        final Socket socket = connectStalled(server, (short) 4252, client);
+        for (int i = 0; i < 1000; ++i)
+        {
+            client.data.sendPacket(new TrackerPacket(new byte[PAYLOAD_SIZE],
+                            61));
+        }
+        Assert.assertTrue("The high watermark event was not called",
+                        high.data);
+        Assert.assertTrue("Too much data was queued",
+                        client.data.getPendingBytes() <= HIGH_WATERMARK * 2);
+        socket.close();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that responses and failed requests are queued for a client that
+     * is not reading even when the policy drops or replaces other packets
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testControlFrames() throws Throwable
+    {
+        final Pointer<RemoteClient> client = new Pointer<RemoteClient>();
+        final NetworkServer server = new NetworkServer(1);
+        server.setBackpressure(0, HIGH_WATERMARK,
+                        BackpressurePolicy.DROP_NEWEST);
+        final Socket socket = connectStalled(server, (short) 4284, client);
+        // Hold the queue back so nothing is written while it is checked
+        client.data.setBatching(60000, TimeUnit.MILLISECONDS, 1024 * 1024);
+        for (int i = 0; i < 10; ++i)
+        {
+            client.data.sendPacket(new TrackerPacket(new byte[PAYLOAD_SIZE],
+                            96));
+        }
+        final int full = client.data.getPendingPackets();
+        client.data.failRequest(1, "Failed");
+        client.data.respond(new TrackerPacket(new byte[PAYLOAD_SIZE], 96), 2);
+        Assert.assertEquals("A control frame was dropped", full + 2,
+                        client.data.getPendingPackets());
+        client.data.setBackpressurePolicy(BackpressurePolicy.COALESCE);
+        client.data.respond(new TrackerPacket(new byte[PAYLOAD_SIZE], 96), 3);
+        client.data.sendPacket(new TrackerPacket(new byte[PAYLOAD_SIZE], 96));
+        Assert.assertEquals("A response was replaced", full + 3,
+                        client.data.getPendingPackets());
+        socket.close();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that a client that is not reading is disconnected once it is above
+     * its high watermark
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testDisconnect() throws Throwable
+    {
+        final Pointer<RemoteClient> client = new Pointer<RemoteClient>();
+        final NetworkServer server = new NetworkServer(1);
+        server.setBackpressure(0, HIGH_WATERMARK,
+                        BackpressurePolicy.DISCONNECT);
+        final Socket socket = connectStalled(server, (short) 4253, client);
+        boolean disconnected = false;
+        for (int i = 0; i < 1000 && !disconnected; ++i)
+        {
+            try
+            {
+                client.data.sendPacket(new TrackerPacket(
+                                new byte[PAYLOAD_SIZE], 62));
+                Thread.sleep(1);
+            }
+            catch (final ClosedChannelException ex)
+            {
+                disconnected = true;
+            }
+        }
+        Assert.assertTrue("The slow client was not disconnected", disconnected);
+        Assert.assertEquals("Data is still queued", 0,
+                        client.data.getPendingBytes());
+        socket.close();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that disconnecting a server waits for all of its clients that are
+     * not reading at the same time instead of one after another
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testDisconnectStalled() throws Throwable
+    {
+        final int count = 4;
+        final Pointer<RemoteClient> client = new Pointer<RemoteClient>();
+        final NetworkServer server = new NetworkServer(1);
+        final Socket[] sockets = new Socket[count];
+        sockets[0] = connectStalled(server, (short) 4280, client);
+        for (int i = 1; i < count; ++i)
+        {
+            sockets[i] = new Socket();
+            sockets[i].setReceiveBufferSize(4096);
+            sockets[i].connect(new InetSocketAddress("127.0.0.1", 4280));
+        }
+        Thread.sleep(100);
+        for (final RemoteClient remote : server.getClients())
+        {
+            for (int i = 0; i < 256; ++i)
+            {
+                remote.sendPacket(new TrackerPacket(new byte[PAYLOAD_SIZE], 92));
+            }
+        }
+        final long start = System.nanoTime();
+        server.disconnect();
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue(String.format(
+                        "Disconnecting took %d ms for %d stalled clients",
+                        elapsed, count),
+                        elapsed < AsyncDeserializer.CLOSE_TIMEOUT * 2);
+        for (final Socket socket : sockets)
+        {
+            socket.close();
+        }
+    }
+}
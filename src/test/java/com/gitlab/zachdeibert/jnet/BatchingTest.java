@@ -0,0 +1,105 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests gathering packets into batches before they are written
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class BatchingTest
+{
+    /**
+     * The number of packets to send in each test
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int COUNT = 40;
+
+    /**
+     * Sends packets from a client that batches them and counts how many the
+     * server has received
+     * 
+     * @author Zach Deibert
+     * @param port
+     *            The port to test on
+     * @param id
+     *            The id of the packets to send
+     * @param window
+     *            The batching window in milliseconds
+     * @param flush
+     *            If the client should be flushed after the packets are sent
+     * @return The number of packets the server received soon after they
+     *         were sent
+     * @since 1.3
+     * @throws Throwable
+     */
+    private int sendBatch(final short port, final int id, final long window,
+                    final boolean flush) throws Throwable
+    {
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(id)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect(port);
+        client.connect("127.0.0.1", port);
+        client.setBatching(window, TimeUnit.MILLISECONDS, 1024 * 1024);
+        Thread.sleep(50);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            client.sendPacket(new Packet(id));
+        }
+        Assert.assertEquals("The packets were not held back", COUNT,
+                        client.getPendingPackets());
+        if (flush)
+        {
+            client.flush();
+        }
+        Thread.sleep(200);
+        final int count = received.get();
+        client.disconnect();
+        server.disconnect();
+        return count;
+    }
+
+    /**
+     * Tests that a batch is written once its window has passed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testWindow() throws Throwable
+    {
+        Assert.assertEquals("The batch was not written", COUNT,
+                        sendBatch((short) 4254, 64, 50, false));
+    }
+
+    /**
+     * Tests that flushing writes a batch before its window has passed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testFlush() throws Throwable
+    {
+        Assert.assertEquals("The batch was not flushed", COUNT,
+                        sendBatch((short) 4255, 65, 60000, true));
+    }
+}
@@ -0,0 +1,96 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the pool of buffers that packets are encoded into and read from
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class BufferPoolTest
+{
+    /**
+     * The number of packets to send in each direction
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int COUNT = 200;
+
+    /**
+     * Tests that a buffer that has been given back is handed out again
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testReuse() throws Throwable
+    {
+        final ByteBuffer first = BufferPool.acquire(1000);
+        Assert.assertTrue("The buffer is not direct", first.isDirect());
+        Assert.assertEquals("The buffer has the wrong size class", 1024,
+                        first.capacity());
+        first.putInt(42);
+        BufferPool.release(first);
+        final long hits = BufferPool.getHits();
+        final ByteBuffer second = BufferPool.acquire(600);
+        Assert.assertSame("The buffer was not reused", first, second);
+        Assert.assertEquals("The buffer was not cleared", 0, second.position());
+        Assert.assertEquals("The hit was not counted", hits + 1,
+                        BufferPool.getHits());
+        BufferPool.release(second);
+    }
+
+    /**
+     * Tests that every buffer used to send and receive packets is given back
+     * once the connections are closed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testNoLeaks() throws Throwable
+    {
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(69)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.incrementAndGet();
+            }
+        };
+        final long outstanding = BufferPool.getOutstanding();
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4258);
+        client.connect("127.0.0.1", (short) 4258);
+        Thread.sleep(50);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            client.sendPacket(new TrackerPacket("client", 69));
+            server.sendPacket(new TrackerPacket("server", 69));
+        }
+        for (int i = 0; i < 100 && received.get() < 2 * COUNT; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Packets were lost", 2 * COUNT, received.get());
+        client.disconnect();
+        server.disconnect();
+        for (int i = 0; i < 100
+                        && BufferPool.getOutstanding() != outstanding; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Buffers were leaked", outstanding,
+                        BufferPool.getOutstanding());
+    }
+}
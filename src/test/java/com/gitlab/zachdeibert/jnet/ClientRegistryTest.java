@@ -0,0 +1,90 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests keeping track of the clients connected to a server
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class ClientRegistryTest
+{
+    /**
+     * Waits for the server to have a number of clients
+     * 
+     * @author Zach Deibert
+     * @param server
+     *            The server
+     * @param count
+     *            The number of clients
+     * @since 1.3
+     * @throws InterruptedException
+     */
+    private void waitForClients(final NetworkServer server, final int count)
+                    throws InterruptedException
+    {
+        for (int i = 0; i < 100 && server.getClientCount() != count; ++i)
+        {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Tests that clients can connect and disconnect while a packet is being
+     * sent to every client and the server is waiting for a client that is not
+     * reading
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testChurnDuringBroadcast() throws Throwable
+    {
+        final NetworkServer server = new NetworkServer(1);
+        server.setBackpressure(0, 64 * 1024, BackpressurePolicy.BLOCK);
+        server.connect((short) 4263);
+        final Socket stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress("127.0.0.1", 4263));
+        waitForClients(server, 1);
+        final Thread broadcast = new Thread(() -> {
+            try
+            {
+                for (int i = 0; i < 1000; ++i)
+                {
+                    server.sendPacket(new TrackerPacket(new byte[32 * 1024],
+                                    74));
+                }
+            }
+            catch (final IOException ex)
+            {
+                NetworkErrors.networkError(ex);
+            }
+        });
+        broadcast.start();
+        Thread.sleep(100);
+        Assert.assertTrue("The broadcast is not waiting", broadcast.isAlive());
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4263);
+        waitForClients(server, 2);
+        Assert.assertEquals("The client was not added during the broadcast", 2,
+                        server.getClientCount());
+        client.disconnect();
+        waitForClients(server, 1);
+        Assert.assertEquals("The client was not removed during the broadcast",
+                        1, server.getClientCount());
+        stalled.close();
+        broadcast.join(5000);
+        Assert.assertFalse("The broadcast did not finish", broadcast.isAlive());
+        Assert.assertEquals("The closed client was not removed", 0,
+                        server.getClientCount());
+        server.disconnect();
+    }
+}
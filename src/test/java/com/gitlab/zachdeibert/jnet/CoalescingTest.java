@@ -0,0 +1,229 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests replacing queued packets with newer ones that have the same key
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class CoalescingTest
+{
+    /**
+     * The number of keys that are sent
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int KEYS   = 3;
+    /**
+     * The number of values that are sent for each key
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int VALUES = 20;
+
+    /**
+     * Registers a handler that collects the packets that are received
+     * 
+     * @author Zach Deibert
+     * @param id
+     *            The id of the packets
+     * @return The packets that have been received
+     * @since 1.3
+     */
+    private List<TrackerPacket> collect(final int id)
+    {
+        final List<TrackerPacket> received = new CopyOnWriteArrayList<TrackerPacket>();
+        new PacketHandler(id)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add((TrackerPacket) p);
+            }
+        };
+        return received;
+    }
+
+    /**
+     * Sends every value of every key, so the newest value of each key is the
+     * last one sent
+     * 
+     * @author Zach Deibert
+     * @param node
+     *            The node to send from
+     * @param id
+     *            The id of the packets
+     * @since 1.3
+     * @throws Throwable
+     */
+    private void send(final NetworkNode node, final int id) throws Throwable
+    {
+        for (int value = 0; value < VALUES; ++value)
+        {
+            for (int key = 0; key < KEYS; ++key)
+            {
+                node.sendCoalesced(new TrackerPacket(new int[] { key, value },
+                                id), key);
+            }
+        }
+    }
+
+    /**
+     * Checks that only the newest value of each key was received, in the
+     * order the keys were first sent
+     * 
+     * @author Zach Deibert
+     * @param received
+     *            The packets that have been received
+     * @since 1.3
+     * @throws InterruptedException
+     */
+    private void check(final List<TrackerPacket> received)
+                    throws InterruptedException
+    {
+        for (int i = 0; i < 100 && received.size() < KEYS; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals("The packets were not coalesced", KEYS,
+                        received.size());
+        for (int key = 0; key < KEYS; ++key)
+        {
+            final int[] data = (int[]) received.get(key).data;
+            Assert.assertEquals("The packet moved in the queue", key, data[0]);
+            Assert.assertEquals("An old value was sent", VALUES - 1, data[1]);
+        }
+    }
+
+    /**
+     * Tests that a client only sends the newest packet for each key
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testClient() throws Throwable
+    {
+        final List<TrackerPacket> received = collect(84);
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4272);
+        client.connect("127.0.0.1", (short) 4272);
+        client.setBatching(60000, TimeUnit.MILLISECONDS, 1024 * 1024);
+        Thread.sleep(50);
+        send(client, 84);
+        Assert.assertEquals("The packets were not replaced", KEYS,
+                        client.getPendingPackets());
+        Assert.assertEquals("The replaced packets were not counted",
+                        KEYS * (VALUES - 1), client.getMetrics()
+                                        .getDropped());
+        client.flush();
+        check(received);
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that a server only sends the newest packet for each key to each
+     * client
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testServer() throws Throwable
+    {
+        final List<TrackerPacket> received = collect(85);
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4273);
+        client.connect("127.0.0.1", (short) 4273);
+        for (int i = 0; i < 100 && server.getClientCount() == 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        final RemoteClient remote = server.getClients().iterator().next();
+        remote.setBatching(60000, TimeUnit.MILLISECONDS, 1024 * 1024);
+        send(server, 85);
+        Assert.assertEquals("The packets were not replaced", KEYS,
+                        remote.getPendingPackets());
+        remote.flush();
+        check(received);
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that packets are still replaced after the runner has tried and
+     * failed to write them to a client that is reading slowly
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testStalled() throws Throwable
+    {
+        final NetworkServer server = new NetworkServer();
+        // A small send buffer makes the channel writable again often
+        server.connect((short) 4283, SocketOptions.builder()
+                        .sendBufferSize(8 * 1024).build());
+        final Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("127.0.0.1", 4283));
+        for (int i = 0; i < 100 && server.getClientCount() == 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        final RemoteClient remote = server.getClients().iterator().next();
+        final Thread reader = new Thread(() -> {
+            final byte[] buffer = new byte[4096];
+            try
+            {
+                while (socket.getInputStream().read(buffer) >= 0)
+                {
+                    Thread.sleep(1);
+                }
+            }
+            catch (final Exception ex)
+            {
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        for (int i = 0; i < 4; ++i)
+        {
+            remote.sendPacket(new TrackerPacket(new byte[1024 * 1024], 95));
+        }
+        // Every time the channel becomes writable the runner tries to write
+        // the whole queue, including the packet that is being replaced
+        for (int value = 0; value < VALUES; ++value)
+        {
+            remote.sendCoalesced(new TrackerPacket(new int[] { 0, value }, 95),
+                            0);
+            Thread.sleep(5);
+        }
+        Assert.assertTrue("The client read everything already",
+                        remote.getPendingPackets() > 1);
+        // A packet cannot be replaced during the call to the channel, so
+        // only most of them have to be
+        Assert.assertTrue("The packets were not replaced", remote.getMetrics()
+                        .getDropped() >= VALUES / 2);
+        socket.close();
+        server.disconnect();
+    }
+}
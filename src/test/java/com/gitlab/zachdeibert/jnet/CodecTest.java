@@ -0,0 +1,165 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the packet codecs
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class CodecTest
+{
+    /**
+     * A tracker packet that writes its own data
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @version 1.3
+     */
+    static class BinaryTrackerPacket extends TrackerPacket implements
+                    BinaryPacket
+    {
+        /**
+         * The serialization UID
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        private static final long serialVersionUID = -2203725010498421867L;
+
+        /**
+         * Writes the data
+         * 
+         * @author Zach Deibert
+         * @param out
+         *            The buffer to write to
+         * @since 1.3
+         */
+        @Override
+        public void write(final PacketOutput out) throws IOException
+        {
+            out.writeString((String) data);
+        }
+
+        /**
+         * Reads the data
+         * 
+         * @author Zach Deibert
+         * @param in
+         *            The data to read from
+         * @since 1.3
+         */
+        @Override
+        public void read(final PacketInput in) throws IOException
+        {
+            data = in.readString();
+        }
+
+        /**
+         * Default constructor
+         * 
+         * @author Zach Deibert
+         * @param data
+         *            The data to put in the packet
+         * @param id
+         *            The packet ID
+         * @since 1.3
+         */
+        BinaryTrackerPacket(final String data, final int id)
+        {
+            super(data, id);
+        }
+    }
+
+    /**
+     * Tests to make sure packets with a binary codec can be transmitted over
+     * the network
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testBinaryTransmission() throws Throwable
+    {
+        new TrackerPacketHandler(51);
+        PacketCodecs.register(51, new BinaryCodec<BinaryTrackerPacket>(
+                        () -> new BinaryTrackerPacket(null, 51)));
+        final TestRunner runner = new TestRunner((short) 4251, new Packet[] {
+                        new BinaryTrackerPacket("a", 51),
+                        new BinaryTrackerPacket("\u00e9t\u00e9", 51),
+                        new BinaryTrackerPacket(null, 51) });
+        runner.test();
+    }
+
+    /**
+     * Tests to make sure binary packets are much smaller than serialized ones
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testBinarySize() throws Throwable
+    {
+        PacketCodecs.register(52, new BinaryCodec<BinaryTrackerPacket>(
+                        () -> new BinaryTrackerPacket(null, 52)));
+        final ByteBuffer binary = PacketCodecs
+                        .encode(new BinaryTrackerPacket("abc", 52));
+        final ByteBuffer serialized = PacketCodecs.encode(new TrackerPacket(
+                        "abc", 53));
+        Assert.assertEquals("Binary frame has the wrong size", 6,
+                        binary.remaining());
+        Assert.assertTrue("Serialized frame is too small",
+                        serialized.remaining() > 100);
+    }
+
+    /**
+     * Tests to make sure variable length integers survive a round trip
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testVarInts() throws Throwable
+    {
+        final int[] ints = { 0, 1, 127, 128, 16383, 16384, -1, -1000000,
+                        Integer.MAX_VALUE, Integer.MIN_VALUE };
+        final long[] longs = { 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE };
+        final PacketOutput out = new PacketOutput();
+        for (final int i : ints)
+        {
+            out.writeVarInt(i);
+            out.writeSignedVarInt(i);
+        }
+        for (final long l : longs)
+        {
+            out.writeVarLong(l);
+            out.writeSignedVarLong(l);
+        }
+        final ByteBuffer buffer = out.buffer();
+        final PacketInput in = new PacketInput();
+        in.reset(buffer, 0, buffer.position());
+        for (final int i : ints)
+        {
+            Assert.assertEquals("Variable length integer was corrupted", i,
+                            in.readVarInt());
+            Assert.assertEquals("Signed variable length integer was corrupted",
+                            i, in.readSignedVarInt());
+        }
+        for (final long l : longs)
+        {
+            Assert.assertEquals("Variable length long was corrupted", l,
+                            in.readVarLong());
+            Assert.assertEquals("Signed variable length long was corrupted", l,
+                            in.readSignedVarLong());
+        }
+        Assert.assertEquals("Not all data was read", 0, in.available());
+    }
+}
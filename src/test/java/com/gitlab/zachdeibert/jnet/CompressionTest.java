@@ -0,0 +1,224 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests compressing packets once a codec has been agreed on
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class CompressionTest
+{
+    /**
+     * Creates a large packet that compresses well
+     * 
+     * @author Zach Deibert
+     * @return The packet
+     * @since 1.3
+     */
+    private TrackerPacket large()
+    {
+        return large(80);
+    }
+
+    /**
+     * Creates a large packet that compresses well
+     * 
+     * @author Zach Deibert
+     * @param id
+     *            The packet id
+     * @return The packet
+     * @since 1.3
+     */
+    private TrackerPacket large(final int id)
+    {
+        final char[] data = new char[16 * 1024];
+        Arrays.fill(data, 'a');
+        return new TrackerPacket(new String(data), id);
+    }
+
+    /**
+     * Waits for a number of packets to be received
+     * 
+     * @author Zach Deibert
+     * @param received
+     *            The packets that have been received
+     * @param count
+     *            The number of packets
+     * @since 1.3
+     * @throws InterruptedException
+     */
+    private void waitFor(final List<Object> received, final int count)
+                    throws InterruptedException
+    {
+        for (int i = 0; i < 100 && received.size() < count; ++i)
+        {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Tests that large packets are compressed in both directions and small
+     * ones are not, and that a client can still talk to a server that does
+     * not compress anything
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testCompression() throws Throwable
+    {
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        new PacketHandler(80)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(((TrackerPacket) p).data);
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.setCompression(Compression.of(256, DeflateCodec.INSTANCE));
+        server.connect((short) 4267);
+        final NetworkClient client = new NetworkClient();
+        client.setCompression(Compression.of(256, new DeflateCodec(1)));
+        client.connect("127.0.0.1", (short) 4267);
+        for (int i = 0; i < 100 && (client.getCompressionCodec() == null
+                        || server.getClientCount() == 0); ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The codec was not agreed on", "deflate",
+                        client.getCompressionCodec().getName());
+        final long before = client.getMetrics().getBytesOut();
+        client.sendPacket(large());
+        client.sendPacket(new TrackerPacket("small", 80));
+        server.sendPacket(large());
+        waitFor(received, 3);
+        Assert.assertEquals("The packets were not received", 3,
+                        received.size());
+        Assert.assertTrue("The small packet was not received",
+                        received.contains("small"));
+        Assert.assertEquals("The large packets were not decompressed", 2,
+                        Collections.frequency(received, large().data));
+        Assert.assertTrue("The large packet was not compressed",
+                        client.getMetrics().getBytesOut() - before < 4096);
+        client.disconnect();
+        for (int i = 0; i < 100 && server.getClientCount() > 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        server.setCompression(Compression.NONE);
+        received.clear();
+        client.connect("127.0.0.1", (short) 4267);
+        for (int i = 0; i < 100 && server.getClientCount() != 1; ++i)
+        {
+            Thread.sleep(20);
+        }
+        client.sendPacket(large());
+        server.sendPacket(large());
+        waitFor(received, 2);
+        Assert.assertEquals("The packets were not received without compression",
+                        2, received.size());
+        Assert.assertNull("A codec was agreed on", client.getCompressionCodec());
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that a packet sent to every client is only compressed for the
+     * clients whose threshold it reaches
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testBroadcastThresholds() throws Throwable
+    {
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        new PacketHandler(91)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(((TrackerPacket) p).data);
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.setCompression(Compression.of(256, DeflateCodec.INSTANCE));
+        server.connect((short) 4278);
+        final NetworkClient low = new NetworkClient();
+        low.setCompression(Compression.of(256, DeflateCodec.INSTANCE));
+        low.connect("127.0.0.1", (short) 4278);
+        for (int i = 0; i < 100 && (low.getCompressionCodec() == null
+                        || server.getClientCount() == 0); ++i)
+        {
+            Thread.sleep(20);
+        }
+        server.setCompression(Compression.of(64 * 1024,
+                        DeflateCodec.INSTANCE));
+        final NetworkClient high = new NetworkClient();
+        high.setCompression(Compression.of(256, DeflateCodec.INSTANCE));
+        high.connect("127.0.0.1", (short) 4278);
+        for (int i = 0; i < 100 && (high.getCompressionCodec() == null
+                        || server.getClientCount() < 2); ++i)
+        {
+            Thread.sleep(20);
+        }
+        final long lowBefore = low.getMetrics().getBytesIn();
+        final long highBefore = high.getMetrics().getBytesIn();
+        server.sendPacket(large(91));
+        waitFor(received, 2);
+        Assert.assertEquals("The packet was not received by both clients", 2,
+                        received.size());
+        Assert.assertTrue("The packet was not compressed for the low threshold",
+                        low.getMetrics().getBytesIn() - lowBefore < 4096);
+        Assert.assertTrue("The packet was compressed for the high threshold",
+                        high.getMetrics().getBytesIn() - highBefore > 16 * 1024);
+        low.disconnect();
+        high.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that packets larger than the maximum frame size are not
+     * compressed, and compressed packets that claim to be larger are rejected
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testMaxFrameSize() throws Throwable
+    {
+        final Compression compression = Compression.of(0,
+                        DeflateCodec.INSTANCE).withMaxFrameSize(1024);
+        Assert.assertEquals("The threshold was not kept", 0,
+                        compression.getThreshold());
+        final ByteBuffer frame = PacketCodecs.encode(large());
+        Assert.assertNull("A packet over the maximum was compressed",
+                        compression.compress(frame, DeflateCodec.INSTANCE));
+        BufferPool.release(frame);
+        final PacketInput in = new PacketInput();
+        in.reset(ByteBuffer.wrap(new byte[16]), 0, 16);
+        try
+        {
+            compression.decompress(in, DeflateCodec.INSTANCE, 64 * 1024 * 1024);
+            Assert.fail("A packet over the maximum was decompressed");
+        }
+        catch (final IOException ex)
+        {
+        }
+    }
+}
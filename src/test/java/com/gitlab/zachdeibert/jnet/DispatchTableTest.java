@@ -0,0 +1,72 @@
+package com.gitlab.zachdeibert.jnet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the table used to look up handlers and codecs by packet id
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class DispatchTableTest
+{
+    /**
+     * Tests looking up small, large and negative ids
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testLookup() throws Throwable
+    {
+        final IntDispatchTable<String> table = new IntDispatchTable<String>();
+        Assert.assertNull("An empty table returned a value", table.get(0));
+        final int[] ids = { 0, 1, 42, 4095, 4096, 1 << 20,
+                        Integer.MAX_VALUE, -1, -999999, Integer.MIN_VALUE };
+        for (final int id : ids)
+        {
+            table.put(id, "v" + id);
+        }
+        for (final int id : ids)
+        {
+            Assert.assertEquals("Wrong value for " + id, "v" + id,
+                            table.get(id));
+        }
+        Assert.assertNull("A missing id returned a value", table.get(2));
+        Assert.assertNull("A missing id returned a value", table.get(-2));
+        Assert.assertNull("A missing id returned a value", table.get(5000));
+    }
+
+    /**
+     * Tests replacing and removing values
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testUpdate() throws Throwable
+    {
+        final IntDispatchTable<String> table = new IntDispatchTable<String>();
+        for (int i = -500; i < 500; ++i)
+        {
+            table.put(i * 37, "a");
+        }
+        Assert.assertEquals("Wrong previous value", "a", table.put(37, "b"));
+        Assert.assertEquals("Value was not replaced", "b", table.get(37));
+        Assert.assertEquals("Wrong removed value", "a", table.remove(-37));
+        Assert.assertNull("Value was not removed", table.get(-37));
+        Assert.assertNull("Missing id was removed", table.remove(1));
+        for (int i = -500; i < 500; ++i)
+        {
+            if (i != 1 && i != -1)
+            {
+                Assert.assertEquals("Wrong value for " + i * 37, "a",
+                                table.get(i * 37));
+            }
+        }
+    }
+}
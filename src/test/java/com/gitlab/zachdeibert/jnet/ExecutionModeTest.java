@@ -0,0 +1,280 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests running packet handlers off of the thread that read the packet
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class ExecutionModeTest
+{
+    /**
+     * Tests that a slow handler on the worker pool does not hold up a handler
+     * that runs inline
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testOffload() throws Throwable
+    {
+        final Pointer<Boolean> fastHandled = new Pointer<Boolean>(false);
+        final Pointer<Thread> slowThread = new Pointer<Thread>();
+        new PacketHandler(66, ExecutionMode.POOL, false)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                slowThread.data = Thread.currentThread();
+                try
+                {
+                    Thread.sleep(500);
+                }
+                catch (final InterruptedException ex)
+                {
+                }
+            }
+        };
+        new PacketHandler(67)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                fastHandled.data = true;
+            }
+        };
+        final NetworkServer server = new NetworkServer(1);
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4256);
+        client.connect("127.0.0.1", (short) 4256);
+        Thread.sleep(50);
+        client.sendPacket(new Packet(66));
+        client.sendPacket(new Packet(67));
+        Thread.sleep(200);
+        Assert.assertTrue("The inline handler was held up", fastHandled.data);
+        Assert.assertFalse("The slow handler ran on the runner",
+                        slowThread.data instanceof AsyncRunner);
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that handlers are rejected instead of being run on the runner once
+     * the worker pool is full, and that the runner keeps reading
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testSaturatedPool() throws Throwable
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean onRunner = new AtomicBoolean();
+        final AtomicInteger rejected = new AtomicInteger();
+        final Pointer<Boolean> fastHandled = new Pointer<Boolean>(false);
+        final Pointer<RemoteClient> remote = new Pointer<RemoteClient>();
+        new PacketHandler(92, ExecutionMode.POOL, false)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                if (Thread.currentThread() instanceof AsyncRunner)
+                {
+                    onRunner.set(true);
+                    return;
+                }
+                try
+                {
+                    release.await();
+                }
+                catch (final InterruptedException ex)
+                {
+                }
+            }
+        };
+        new PacketHandler(93)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                fastHandled.data = true;
+            }
+        };
+        NetworkErrors.registerDynamicHandler(n -> n == remote.data,
+                        new ErrorEvent()
+                        {
+                            @Override
+                            public void handleError(final Throwable t,
+                                            final NetworkNode node)
+                            {
+                                if (t instanceof RejectedExecutionException)
+                                {
+                                    rejected.incrementAndGet();
+                                }
+                            }
+
+                            @Override
+                            public void handleUnknownError(final Throwable t)
+                            {
+                            }
+                        });
+        final NetworkServer server = new NetworkServer(1);
+        server.onConnect = new ConnectEvent()
+        {
+            @Override
+            public void onConnect(final LocalNetworkNode node,
+                            final NetworkNode connector)
+            {
+                remote.data = (RemoteClient) connector;
+            }
+        };
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4281);
+        client.connect("127.0.0.1", (short) 4281);
+        Thread.sleep(50);
+        try
+        {
+            // More than the default pool can have running and queued
+            final int count = Runtime.getRuntime().availableProcessors()
+                            + 4096 + 64;
+            for (int i = 0; i < count; ++i)
+            {
+                client.sendPacket(new Packet(92));
+            }
+            client.sendPacket(new Packet(93));
+            for (int i = 0; i < 100 && !fastHandled.data; ++i)
+            {
+                Thread.sleep(20);
+            }
+            Assert.assertFalse("A handler ran on the runner", onRunner.get());
+            Assert.assertTrue("The runner stopped reading", fastHandled.data);
+            Assert.assertTrue("No handlers were rejected", rejected.get() > 0);
+        }
+        finally
+        {
+            release.countDown();
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+
+    /**
+     * Tests that ordered handlers see the packets from one connection in the
+     * order they were sent
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testOrdering() throws Throwable
+    {
+        final List<Object> received = Collections
+                        .synchronizedList(new LinkedList<Object>());
+        new PacketHandler(68, ExecutionMode.VIRTUAL, true)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(((TrackerPacket) p).data);
+            }
+        };
+        final NetworkServer server = new NetworkServer(1);
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4257);
+        client.connect("127.0.0.1", (short) 4257);
+        Thread.sleep(50);
+        for (int i = 0; i < 500; ++i)
+        {
+            client.sendPacket(new TrackerPacket(i, 68));
+        }
+        for (int i = 0; i < 50 && received.size() < 500; ++i)
+        {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals("Not all packets were handled", 500,
+                        received.size());
+        for (int i = 0; i < 500; ++i)
+        {
+            Assert.assertEquals("Packets were handled out of order", i,
+                            received.get(i));
+        }
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that ordered handlers move to a new worker pool once it has
+     * replaced the one they were already running on
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testReplacedPool() throws Throwable
+    {
+        final List<String> threads = Collections
+                        .synchronizedList(new LinkedList<String>());
+        new PacketHandler(87, ExecutionMode.POOL, true)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                threads.add(Thread.currentThread().getName());
+            }
+        };
+        final ExecutorService pool = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "Replaced Pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final NetworkServer server = new NetworkServer(1);
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4275);
+        client.connect("127.0.0.1", (short) 4275);
+        Thread.sleep(50);
+        try
+        {
+            client.sendPacket(new Packet(87));
+            for (int i = 0; i < 100 && threads.isEmpty(); ++i)
+            {
+                Thread.sleep(20);
+            }
+            PacketHandler.setWorkerPool(pool);
+            client.sendPacket(new Packet(87));
+            for (int i = 0; i < 100 && threads.size() < 2; ++i)
+            {
+                Thread.sleep(20);
+            }
+            Assert.assertEquals("The packets were not handled", 2,
+                            threads.size());
+            Assert.assertFalse("The first packet used the new pool",
+                            "Replaced Pool".equals(threads.get(0)));
+            Assert.assertEquals("The old pool was still used",
+                            "Replaced Pool", threads.get(1));
+        }
+        finally
+        {
+            PacketHandler.setWorkerPool(null);
+            pool.shutdown();
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+}
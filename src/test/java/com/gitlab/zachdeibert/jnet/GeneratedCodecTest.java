@@ -0,0 +1,243 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the codecs generated for packets with a layout
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class GeneratedCodecTest
+{
+    /**
+     * A packet with one field of every type that can be in a layout
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @version 1.3
+     */
+    @PacketLayout(id = 82)
+    static class LayoutPacket extends Packet
+    {
+        /**
+         * The serialization UID
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        private static final long serialVersionUID = 3377950134018842075L;
+        /**
+         * A field that is written last even though it is declared first
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(9)
+        String                    name;
+        /**
+         * A boolean field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(0)
+        boolean                   flag;
+        /**
+         * A byte field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(1)
+        byte                      b;
+        /**
+         * A short field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(2)
+        short                     s;
+        /**
+         * A char field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(3)
+        char                      c;
+        /**
+         * An int field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(4)
+        int                       i;
+        /**
+         * A long field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(5)
+        long                      l;
+        /**
+         * A float field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(6)
+        float                     f;
+        /**
+         * A double field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(7)
+        double                    d;
+        /**
+         * A byte array field
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        @PacketField(8)
+        byte[]                    data;
+        /**
+         * A field that is not sent
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int                       local;
+
+        /**
+         * Default constructor
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        LayoutPacket()
+        {
+            super(82);
+        }
+    }
+
+    /**
+     * Creates a packet with every field set
+     * 
+     * @author Zach Deibert
+     * @return The packet
+     * @since 1.3
+     */
+    private LayoutPacket create()
+    {
+        final LayoutPacket packet = new LayoutPacket();
+        packet.name = "\u00e9t\u00e9";
+        packet.flag = true;
+        packet.b = -5;
+        packet.s = 1234;
+        packet.c = 'x';
+        packet.i = -300;
+        packet.l = Long.MIN_VALUE;
+        packet.f = 1.5f;
+        packet.d = Math.PI;
+        packet.data = new byte[] { 1, 2, 3 };
+        packet.local = 42;
+        return packet;
+    }
+
+    /**
+     * Checks that every field that is sent survived
+     * 
+     * @author Zach Deibert
+     * @param packet
+     *            The packet that was decoded
+     * @since 1.3
+     */
+    private void check(final LayoutPacket packet)
+    {
+        final LayoutPacket expected = create();
+        Assert.assertEquals("The id was not set", 82, packet.id);
+        Assert.assertEquals(expected.name, packet.name);
+        Assert.assertEquals(expected.flag, packet.flag);
+        Assert.assertEquals(expected.b, packet.b);
+        Assert.assertEquals(expected.s, packet.s);
+        Assert.assertEquals(expected.c, packet.c);
+        Assert.assertEquals(expected.i, packet.i);
+        Assert.assertEquals(expected.l, packet.l);
+        Assert.assertEquals(expected.f, packet.f, 0);
+        Assert.assertEquals(expected.d, packet.d, 0);
+        Assert.assertArrayEquals(expected.data, packet.data);
+        Assert.assertEquals("A field without a layout was sent", 0,
+                        packet.local);
+    }
+
+    /**
+     * Tests that the generated codec is registered and survives a round trip
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testRoundTrip() throws Throwable
+    {
+        Assert.assertTrue("No codecs were registered",
+                        PacketCodecs.registerGenerated() > 0);
+        Assert.assertTrue("The generated codec was not registered",
+                        PacketCodecs.get(82) instanceof GeneratedCodecTest_LayoutPacketCodec);
+        final ByteBuffer frame = PacketCodecs.encode(create());
+        Assert.assertTrue("The frame is too large", frame.remaining() < 48);
+        final PacketInput in = new PacketInput();
+        in.reset(frame, frame.position() + 1, frame.limit());
+        check((LayoutPacket) PacketCodecs.decode(in));
+        Assert.assertEquals("Not all data was read", 0, in.available());
+        BufferPool.release(frame);
+    }
+
+    /**
+     * Tests that a packet with a generated codec can be sent over the network
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testTransmission() throws Throwable
+    {
+        PacketCodecs.registerGenerated();
+        final List<Packet> received = new CopyOnWriteArrayList<Packet>();
+        new PacketHandler(82)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(p);
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4270);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4270);
+        client.sendPacket(create());
+        for (int i = 0; i < 100 && received.isEmpty(); ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The packet was not received", 1,
+                        received.size());
+        check((LayoutPacket) received.get(0));
+        client.disconnect();
+        server.disconnect();
+    }
+}
@@ -0,0 +1,118 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests sending packets to groups of clients
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class GroupTest
+{
+    /**
+     * Gets the number of packets a client has received
+     * 
+     * @author Zach Deibert
+     * @param counts
+     *            The number of packets each client has received
+     * @param client
+     *            The client
+     * @return The number of packets
+     * @since 1.3
+     */
+    private int count(final Map<NetworkNode, AtomicInteger> counts,
+                    final NetworkClient client)
+    {
+        final AtomicInteger count = counts.get(client);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Tests sending to a group and to every client except one, and that
+     * clients leave their groups when they disconnect
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testGroups() throws Throwable
+    {
+        final Map<NetworkNode, AtomicInteger> counts = new ConcurrentHashMap<NetworkNode, AtomicInteger>();
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(75)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                counts.computeIfAbsent(sender, n -> new AtomicInteger())
+                                .incrementAndGet();
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final List<RemoteClient> remotes = new ArrayList<RemoteClient>();
+        server.onConnect = (s, client) -> {
+            synchronized (remotes)
+            {
+                remotes.add((RemoteClient) client);
+            }
+        };
+        server.connect((short) 4264);
+        final NetworkClient[] clients = new NetworkClient[3];
+        final RemoteClient[] remote = new RemoteClient[3];
+        for (int i = 0; i < clients.length; ++i)
+        {
+            clients[i] = new NetworkClient();
+            clients[i].connect("127.0.0.1", (short) 4264);
+            for (int j = 0; j < 100 && server.getClientCount() <= i; ++j)
+            {
+                Thread.sleep(20);
+            }
+            synchronized (remotes)
+            {
+                remote[i] = remotes.get(i);
+            }
+        }
+        server.join("a", remote[0]);
+        server.join("a", remote[1]);
+        server.join("b", remote[2]);
+        Assert.assertEquals("The group has the wrong members", 2, server
+                        .getGroup("a").size());
+        server.sendToGroup("a", new TrackerPacket("group", 75));
+        server.sendToAllExcept(new TrackerPacket("except", 75), remote[0]);
+        for (int i = 0; i < 100 && received.get() < 4; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The first client got the wrong packets", 1,
+                        count(counts, clients[0]));
+        Assert.assertEquals("The second client got the wrong packets", 2,
+                        count(counts, clients[1]));
+        Assert.assertEquals("The third client got the wrong packets", 1,
+                        count(counts, clients[2]));
+        server.leave("a", remote[1]);
+        Assert.assertEquals("The client did not leave the group", 1, server
+                        .getGroup("a").size());
+        Assert.assertTrue("The client still lists the group", remote[1]
+                        .getGroups().isEmpty());
+        clients[0].disconnect();
+        clients[2].disconnect();
+        for (int i = 0; i < 100 && server.getClientCount() > 1; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue("The empty groups were not removed", server
+                        .getGroups().isEmpty());
+        clients[1].disconnect();
+        server.disconnect();
+    }
+}
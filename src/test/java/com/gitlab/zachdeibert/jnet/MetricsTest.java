@@ -0,0 +1,306 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.OutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.Assert;
+import org.junit.Test;
+import com.gitlab.zachdeibert.jnet.RecyclerTest.CounterPacket;
+
+/**
+ * Tests the metrics of connections, servers and packet ids
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class MetricsTest
+{
+    /**
+     * The number of packets to send
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int COUNT = 100;
+
+    /**
+     * Tests that packets and bytes are counted on both ends, that handlers
+     * are timed, and that the metrics can be read through JMX
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testCounts() throws Throwable
+    {
+        PacketCodecs.register(71, new BinaryCodec<CounterPacket>(
+                        CounterPacket::new));
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(71)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4260);
+        client.connect("127.0.0.1", (short) 4260);
+        Thread.sleep(50);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            client.sendPacket(new CounterPacket(i, 71));
+        }
+        final ServerMetrics metrics = server.getMetrics();
+        // The handler is timed after it returns
+        for (int i = 0; i < 100
+                        && metrics.getHandlerTime().getCount() < COUNT; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Packets were lost", COUNT, received.get());
+        final ConnectionMetrics sent = client.getMetrics();
+        Assert.assertEquals("The client was not counted", 1,
+                        metrics.getAccepted());
+        Assert.assertEquals("The client is not connected", 1,
+                        metrics.getConnections());
+        Assert.assertEquals("The sent packets were not counted", COUNT,
+                        sent.getPacketsOut());
+        Assert.assertEquals("The received packets were not counted", COUNT,
+                        metrics.getPacketsIn());
+        Assert.assertEquals("The bytes do not match", sent.getBytesOut(),
+                        metrics.getBytesIn());
+        Assert.assertEquals("The handlers were not timed", COUNT,
+                        metrics.getHandlerTime().getCount());
+        Assert.assertEquals("The packets were not decoded", COUNT,
+                        metrics.getDecodeTime().getCount());
+        final PacketMetrics packet = Metrics.getPacketMetrics(71);
+        Assert.assertEquals("The packet id was not counted", COUNT,
+                        packet.getPacketsIn());
+        Assert.assertEquals("The packet id was not counted", COUNT,
+                        packet.getPacketsOut());
+        final MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(Metrics.DOMAIN
+                        + ":type=Server,port=4260");
+        Assert.assertEquals("The server is not registered", (long) COUNT,
+                        jmx.getAttribute(name, "PacketsIn"));
+        final CompositeData decode = (CompositeData) jmx.getAttribute(name,
+                        "DecodeTime");
+        Assert.assertEquals("The histogram is not readable", (long) COUNT,
+                        decode.get("count"));
+        Assert.assertTrue("The metrics are not registered", jmx.isRegistered(
+                        new ObjectName(Metrics.DOMAIN + ":type=Metrics")));
+        Assert.assertTrue("The client is not listed", Metrics
+                        .getConnections().contains(sent));
+        client.disconnect();
+        server.disconnect();
+        Assert.assertFalse("The client is still listed", Metrics
+                        .getConnections().contains(sent));
+        Assert.assertFalse("The server is still registered",
+                        jmx.isRegistered(name));
+    }
+
+    /**
+     * Tests that connections are only registered with JMX once they have
+     * been turned on
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testConnectionBeans() throws Throwable
+    {
+        final MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName pattern = new ObjectName(Metrics.DOMAIN
+                        + ":type=Connection,*");
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4279);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4279);
+        Thread.sleep(50);
+        Assert.assertFalse("Connection beans are on by default",
+                        Metrics.isConnectionBeansEnabled());
+        Assert.assertTrue("A connection was registered", jmx.queryNames(
+                        pattern, null).isEmpty());
+        client.disconnect();
+        Metrics.setConnectionBeansEnabled(true);
+        try
+        {
+            client.connect("127.0.0.1", (short) 4279);
+            Thread.sleep(50);
+            Assert.assertFalse("The connection was not registered", jmx
+                            .queryNames(pattern, null).isEmpty());
+            client.disconnect();
+            server.disconnect();
+            Thread.sleep(50);
+            Assert.assertTrue("The connection is still registered", jmx
+                            .queryNames(pattern, null).isEmpty());
+        }
+        finally
+        {
+            Metrics.setConnectionBeansEnabled(false);
+        }
+    }
+
+    /**
+     * Tests that loading the metrics does not register anything with JMX
+     * before a connection or server has been opened
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testLazyRegistration() throws Throwable
+    {
+        final MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(Metrics.DOMAIN + ":type=Metrics");
+        final List<URL> urls = new ArrayList<URL>();
+        for (final String path : System.getProperty("java.class.path").split(
+                        File.pathSeparator))
+        {
+            urls.add(new File(path).toURI().toURL());
+        }
+        // The metrics in this class loader were loaded long ago, so load them
+        // again on their own
+        try (URLClassLoader loader = new URLClassLoader(urls
+                        .toArray(new URL[urls.size()]), ClassLoader
+                        .getSystemClassLoader().getParent()))
+        {
+            Class.forName(Metrics.class.getName(), true, loader);
+            Assert.assertFalse("The metrics were registered when they were loaded",
+                            jmx.isRegistered(name)
+                                            && jmx.getClassLoaderFor(name) == loader);
+        }
+    }
+
+    /**
+     * Tests that the handle times of each packet id are recorded, can be
+     * ranked and reset, and are not recorded while timing is off
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testSlowest() throws Throwable
+    {
+        new PacketHandler(72)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                try
+                {
+                    Thread.sleep(2);
+                }
+                catch (final InterruptedException ex)
+                {
+                }
+            }
+        };
+        new PacketHandler(73)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+            }
+        };
+        for (int i = 0; i < 10; ++i)
+        {
+            PacketHandler.process(new Packet(72), null);
+            PacketHandler.process(new Packet(73), null);
+        }
+        final PacketMetrics slow = Metrics.getPacketMetrics(72);
+        final PacketMetrics fast = Metrics.getPacketMetrics(73);
+        Assert.assertEquals("The handlers were not timed", 10,
+                        slow.getHandleTime().getCount());
+        Assert.assertTrue("The handle time is too short",
+                        slow.getHandleTime().getP50() >= 2000000);
+        final List<PacketMetrics> slowest = Metrics.getSlowest(100);
+        Assert.assertTrue("The slow handler is not ranked first",
+                        slowest.indexOf(slow) < slowest.indexOf(fast));
+        slow.reset();
+        Assert.assertEquals("The handle times were not reset", 0,
+                        slow.getHandleTime().getCount());
+        Metrics.setTimingEnabled(false);
+        try
+        {
+            PacketHandler.process(new Packet(72), null);
+        }
+        finally
+        {
+            Metrics.setTimingEnabled(true);
+        }
+        Assert.assertEquals("The handler was timed", 0,
+                        slow.getHandleTime().getCount());
+    }
+
+    /**
+     * Tests that packets received with ids that have no handler or codec are
+     * counted together, and that sizes are only recorded while timing is on
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testOtherIds() throws Throwable
+    {
+        final PacketMetrics other = Metrics.getPacketMetrics(Metrics.OTHER_ID);
+        final long before = other.getPacketsIn();
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4282);
+        // A client in this process would count the ids as it sent them
+        final Socket socket = new Socket("127.0.0.1", 4282);
+        final OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < COUNT; ++i)
+        {
+            final ByteBuffer frame = PacketCodecs.encode(new Packet(
+                            100000 + i));
+            final byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            out.write(bytes);
+        }
+        out.flush();
+        for (int i = 0; i < 100 && other.getPacketsIn() < before + COUNT; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The unknown ids were not counted together",
+                        before + COUNT, other.getPacketsIn());
+        Assert.assertNull("An unknown id was counted on its own",
+                        Metrics.getPacketMetrics(100000));
+        socket.close();
+        server.disconnect();
+        final PacketMetrics packet = Metrics.packet(94);
+        Metrics.setTimingEnabled(false);
+        try
+        {
+            packet.received(16);
+        }
+        finally
+        {
+            Metrics.setTimingEnabled(true);
+        }
+        Assert.assertEquals("The packet was not counted", 1,
+                        packet.getPacketsIn());
+        Assert.assertEquals("The size was recorded", 0,
+                        packet.getSize().getCount());
+    }
+}
@@ -1,5 +1,8 @@
 package com.gitlab.zachdeibert.jnet;
 
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -8,7 +11,7 @@ import org.junit.Test;
  * 
  * @author Zach Deibert
  * @since 1.0
- * @version 1.2
+ * @version 1.3
  */
 public class MultiClientTest
 {
@@ -269,4 +272,43 @@ public class MultiClientTest
         Assert.assertEquals("Not all packets arrived", 2L,
                         (long) (int) counter.data);
     }
+
+    /**
+     * Tests to make sure clients are spread across the server's loops
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testLoopAssignment() throws Throwable
+    {
+        final List<NetworkNode> connected = Collections
+                        .synchronizedList(new LinkedList<NetworkNode>());
+        final NetworkServer server = new NetworkServer(2);
+        server.onConnect = new ConnectEvent()
+        {
+            @Override
+            public void onConnect(final LocalNetworkNode node,
+                            final NetworkNode connector)
+            {
+                connected.add(connector);
+            }
+        };
+        Assert.assertEquals("Wrong number of loops", 2, server.getLoopCount());
+        server.connect((short) 4223);
+        final NetworkClient client1 = new NetworkClient();
+        final NetworkClient client2 = new NetworkClient();
+        client1.connect("127.0.0.1", (short) 4223);
+        client2.connect("127.0.0.1", (short) 4223);
+        Thread.sleep(100);
+        Assert.assertEquals("Not all clients connected", 2, connected.size());
+        final RemoteClient remote1 = (RemoteClient) connected.get(0);
+        final RemoteClient remote2 = (RemoteClient) connected.get(1);
+        Assert.assertTrue("Clients were not spread across the loops",
+                        remote1.getLoop() != remote2.getLoop());
+        client1.disconnect();
+        client2.disconnect();
+        server.disconnect();
+    }
 }
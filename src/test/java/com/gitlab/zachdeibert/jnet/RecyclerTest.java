@@ -0,0 +1,215 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests decoding packets into instances that are reused
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class RecyclerTest
+{
+    /**
+     * A packet that only contains a number
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    static class CounterPacket extends Packet implements BinaryPacket
+    {
+        /**
+         * The serialization UID
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        private static final long serialVersionUID = 4467328115263370261L;
+        /**
+         * The number
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int                       value;
+
+        /**
+         * Writes the number
+         * 
+         * @author Zach Deibert
+         * @param out
+         *            The buffer to write to
+         * @since 1.3
+         */
+        @Override
+        public void write(final PacketOutput out) throws IOException
+        {
+            out.writeVarInt(value);
+        }
+
+        /**
+         * Reads the number
+         * 
+         * @author Zach Deibert
+         * @param in
+         *            The data to read from
+         * @since 1.3
+         */
+        @Override
+        public void read(final PacketInput in) throws IOException
+        {
+            value = in.readVarInt();
+        }
+
+        /**
+         * Creates a packet to send
+         * 
+         * @author Zach Deibert
+         * @param value
+         *            The number
+         * @param id
+         *            The packet id
+         * @since 1.3
+         */
+        CounterPacket(final int value, final int id)
+        {
+            super(id);
+            this.value = value;
+        }
+
+        /**
+         * Creates an empty packet for the codec to read into
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        CounterPacket()
+        {
+        }
+    }
+
+    /**
+     * The number of packets to send
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final int COUNT = 100;
+
+    /**
+     * Tests that received packets are reused once they have been handled,
+     * except for one that the handler retains
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testRecycling() throws Throwable
+    {
+        final Recycler<CounterPacket> recycler = new Recycler<CounterPacket>(
+                        CounterPacket::new);
+        PacketCodecs.register(70, new BinaryCodec<CounterPacket>(recycler));
+        final Set<Packet> instances = Collections
+                        .newSetFromMap(new IdentityHashMap<Packet, Boolean>());
+        final AtomicInteger received = new AtomicInteger();
+        final CounterPacket[] kept = new CounterPacket[1];
+        new PacketHandler(70)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                final CounterPacket packet = (CounterPacket) p;
+                Assert.assertEquals("The packet was not read into",
+                                received.get(), packet.value);
+                instances.add(packet);
+                if (packet.value == 0)
+                {
+                    kept[0] = (CounterPacket) packet.retain();
+                }
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4259);
+        client.connect("127.0.0.1", (short) 4259);
+        Thread.sleep(50);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            client.sendPacket(new CounterPacket(i, 70));
+        }
+        for (int i = 0; i < 100 && received.get() < COUNT; ++i)
+        {
+            Thread.sleep(20);
+        }
+        client.disconnect();
+        server.disconnect();
+        Assert.assertEquals("Packets were lost", COUNT, received.get());
+        Assert.assertEquals("The packets were not reused", 2, instances.size());
+        Assert.assertEquals("The retained packet was reused", 0, kept[0].value);
+        kept[0].release();
+        Assert.assertSame("The released packet was not reused", kept[0],
+                        recycler.get());
+        try
+        {
+            kept[0].release();
+            kept[0].release();
+            Assert.fail("The packet was released too many times");
+        }
+        catch (final IllegalStateException ex)
+        {
+        }
+    }
+
+    /**
+     * Tests that packets released by handlers on virtual threads are reused,
+     * even though each packet is handled on a new thread
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testVirtualThreads() throws Throwable
+    {
+        final Recycler<CounterPacket> recycler = new Recycler<CounterPacket>(
+                        CounterPacket::new);
+        PacketCodecs.register(88, new BinaryCodec<CounterPacket>(recycler));
+        final AtomicInteger received = new AtomicInteger();
+        new PacketHandler(88, ExecutionMode.VIRTUAL, true)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.incrementAndGet();
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        server.connect((short) 4276);
+        client.connect("127.0.0.1", (short) 4276);
+        Thread.sleep(50);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            client.sendPacket(new CounterPacket(i, 88));
+            for (int j = 0; j < 100 && received.get() <= i; ++j)
+            {
+                Thread.sleep(1);
+            }
+        }
+        client.disconnect();
+        server.disconnect();
+        PacketCodecs.unregister(88);
+        Assert.assertEquals("Packets were lost", COUNT, received.get());
+        Assert.assertTrue("The packets were not reused",
+                        recycler.getCreated() < COUNT / 10);
+    }
+}
@@ -0,0 +1,301 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests replicating state from a server to its clients
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class ReplicationTest
+{
+    /**
+     * The state that is replicated
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @version 1.3
+     */
+    static class Entity
+    {
+        /**
+         * The x coordinate
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int    x;
+        /**
+         * The y coordinate
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int    y;
+        /**
+         * The health
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        int    health;
+        /**
+         * The name
+         * 
+         * @author Zach Deibert
+         * @since 1.3
+         */
+        String name;
+    }
+
+    /**
+     * The codec of the fields of an entity
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @version 1.3
+     */
+    static class EntityCodec implements StateCodec<Entity>
+    {
+        /**
+         * Gets the number of fields
+         * 
+         * @author Zach Deibert
+         * @return 4
+         * @since 1.3
+         */
+        @Override
+        public int getFieldCount()
+        {
+            return 4;
+        }
+
+        /**
+         * Writes a field
+         * 
+         * @author Zach Deibert
+         * @param state
+         *            The entity
+         * @param field
+         *            The index of the field
+         * @param out
+         *            The buffer to write to
+         * @since 1.3
+         */
+        @Override
+        public void writeField(final Entity state, final int field,
+                        final PacketOutput out)
+        {
+            switch (field)
+            {
+                case 0:
+                    out.writeSignedVarInt(state.x);
+                    break;
+                case 1:
+                    out.writeSignedVarInt(state.y);
+                    break;
+                case 2:
+                    out.writeSignedVarInt(state.health);
+                    break;
+                default:
+                    out.writeString(state.name);
+                    break;
+            }
+        }
+
+        /**
+         * Reads a field
+         * 
+         * @author Zach Deibert
+         * @param state
+         *            The entity
+         * @param field
+         *            The index of the field
+         * @param in
+         *            The data to read from
+         * @since 1.3
+         * @throws IOException
+         *             The field is corrupted
+         */
+        @Override
+        public void readField(final Entity state, final int field,
+                        final PacketInput in) throws IOException
+        {
+            switch (field)
+            {
+                case 0:
+                    state.x = in.readSignedVarInt();
+                    break;
+                case 1:
+                    state.y = in.readSignedVarInt();
+                    break;
+                case 2:
+                    state.health = in.readSignedVarInt();
+                    break;
+                default:
+                    state.name = in.readString();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Waits for a number of updates to be received
+     * 
+     * @author Zach Deibert
+     * @param received
+     *            The updates that have been received
+     * @param count
+     *            The number of updates
+     * @since 1.3
+     * @throws InterruptedException
+     */
+    private void waitFor(final List<StateUpdate> received, final int count)
+                    throws InterruptedException
+    {
+        for (int i = 0; i < 100 && received.size() < count; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The update was not received", count,
+                        received.size());
+    }
+
+    /**
+     * Tests that a new client is sent the whole state, and then only the
+     * fields that change
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testDeltas() throws Throwable
+    {
+        final List<StateUpdate> received = new CopyOnWriteArrayList<StateUpdate>();
+        new PacketHandler(83)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add((StateUpdate) p);
+            }
+        };
+        final ReplicatedState<Entity> local = new ReplicatedState<Entity>(83,
+                        new Entity(), new EntityCodec());
+        PacketCodecs.register(83, local);
+        final Entity entity = new Entity();
+        entity.x = 100;
+        entity.y = -200;
+        entity.health = 20;
+        entity.name = "A rather long entity name that is only sent once";
+        final ReplicatedState<Entity> state = new ReplicatedState<Entity>(83,
+                        entity, new EntityCodec());
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4271);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4271);
+        for (int i = 0; i < 100 && server.getClientCount() == 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        long before = client.getMetrics().getBytesIn();
+        state.publish(server);
+        waitFor(received, 1);
+        final long snapshot = client.getMetrics().getBytesIn() - before;
+        Assert.assertTrue("The first update was not a snapshot",
+                        received.get(0).isSnapshot());
+        Assert.assertEquals("The state was not replicated", entity.name,
+                        local.getState().name);
+        Assert.assertEquals("The state was not replicated", -200,
+                        local.getState().y);
+        state.publish(server);
+        entity.x = 101;
+        before = client.getMetrics().getBytesIn();
+        state.publish(server);
+        waitFor(received, 2);
+        Assert.assertFalse("A delta was sent as a snapshot", received.get(1)
+                        .isSnapshot());
+        Assert.assertEquals("The wrong fields were sent", 1, received.get(1)
+                        .getChanged());
+        Assert.assertEquals("The delta was not applied", 101,
+                        local.getState().x);
+        Assert.assertTrue("The delta is not much smaller than the snapshot",
+                        (client.getMetrics().getBytesIn() - before) * 5 < snapshot);
+        state.resync(server.getClients().iterator().next());
+        state.publish(server);
+        waitFor(received, 3);
+        Assert.assertTrue("The state was not resent after being lost",
+                        received.get(2).isSnapshot());
+        client.disconnect();
+        server.disconnect();
+        PacketCodecs.unregister(83);
+    }
+
+    /**
+     * Tests that a delta still brings the client to the current state when
+     * the frame queued before it is dropped
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testDroppedDelta() throws Throwable
+    {
+        final List<StateUpdate> received = new CopyOnWriteArrayList<StateUpdate>();
+        new PacketHandler(97)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add((StateUpdate) p);
+            }
+        };
+        final ReplicatedState<Entity> local = new ReplicatedState<Entity>(97,
+                        new Entity(), new EntityCodec());
+        PacketCodecs.register(97, local);
+        final Entity entity = new Entity();
+        entity.name = "Entity";
+        final ReplicatedState<Entity> state = new ReplicatedState<Entity>(97,
+                        entity, new EntityCodec());
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4285);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4285);
+        for (int i = 0; i < 100 && server.getClientCount() == 0; ++i)
+        {
+            Thread.sleep(20);
+        }
+        state.publish(server);
+        waitFor(received, 1);
+        final RemoteClient remote = server.getClients().iterator().next();
+        // Hold the frames back, and drop the older one when the newer one is
+        // queued
+        remote.setBatching(60000, TimeUnit.MILLISECONDS, 1024 * 1024);
+        remote.setWatermarks(0, 1);
+        remote.setBackpressurePolicy(BackpressurePolicy.DROP_OLDEST);
+        entity.x = 5;
+        state.publish(server);
+        entity.y = 7;
+        state.publish(server);
+        Assert.assertEquals("The older frame was not dropped", 1,
+                        remote.getPendingPackets());
+        remote.flush();
+        waitFor(received, 2);
+        Assert.assertEquals("The dropped change was lost", 5,
+                        local.getState().x);
+        Assert.assertEquals("The delta was not applied", 7,
+                        local.getState().y);
+        client.disconnect();
+        server.disconnect();
+        PacketCodecs.unregister(97);
+    }
+}
@@ -0,0 +1,176 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests sending requests and waiting for their responses
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class RpcTest
+{
+    /**
+     * Gets the reason a request failed
+     * 
+     * @author Zach Deibert
+     * @param future
+     *            The future of the request
+     * @return The exception the request failed with
+     * @since 1.3
+     * @throws Throwable
+     */
+    private Throwable failure(final CompletableFuture<?> future)
+                    throws Throwable
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        catch (final ExecutionException ex)
+        {
+            return ex.getCause();
+        }
+        Assert.fail("The request did not fail");
+        return null;
+    }
+
+    /**
+     * Tests that many requests can be waiting at once and each one gets its
+     * own response, and that failed, unanswered and closed requests complete
+     * their futures exceptionally
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testRequests() throws Throwable
+    {
+        new RequestHandler(76, ExecutionMode.POOL, false)
+        {
+            @Override
+            protected Packet respond(final Packet request,
+                            final NetworkNode sender)
+            {
+                return new TrackerPacket(
+                                (Integer) ((TrackerPacket) request).data * 2,
+                                76);
+            }
+        };
+        new RequestHandler(77)
+        {
+            @Override
+            protected Packet respond(final Packet request,
+                            final NetworkNode sender)
+            {
+                throw new IllegalStateException("Broken");
+            }
+        };
+        // Answers too late for the requests that are sent to it
+        new RequestHandler(78, ExecutionMode.POOL, false)
+        {
+            @Override
+            protected Packet respond(final Packet request,
+                            final NetworkNode sender) throws Exception
+            {
+                Thread.sleep(500);
+                return request;
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4265);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4265);
+        final List<CompletableFuture<TrackerPacket>> futures = new ArrayList<CompletableFuture<TrackerPacket>>();
+        for (int i = 0; i < 500; ++i)
+        {
+            futures.add(client.request(new TrackerPacket(i, 76)));
+        }
+        for (int i = 0; i < futures.size(); ++i)
+        {
+            Assert.assertEquals("The wrong response was received", i * 2,
+                            futures.get(i).get(5, TimeUnit.SECONDS).data);
+        }
+        final Throwable failed = failure(client.request(new TrackerPacket(0,
+                        77)));
+        Assert.assertTrue("The failure was not reported",
+                        failed instanceof RequestFailedException);
+        Assert.assertTrue("The reason was not sent", failed.getMessage()
+                        .contains("Broken"));
+        Assert.assertTrue("The request did not time out", failure(client
+                        .request(new TrackerPacket(0, 78), 100,
+                                        TimeUnit.MILLISECONDS)) instanceof TimeoutException);
+        final CompletableFuture<Packet> closed = client
+                        .request(new TrackerPacket(0, 78), 0,
+                                        TimeUnit.SECONDS);
+        client.disconnect();
+        Assert.assertTrue("The request did not fail when the connection closed",
+                        failure(closed) instanceof ClosedChannelException);
+        Assert.assertEquals("Requests are still waiting", 0,
+                        client.requests.size());
+        server.disconnect();
+    }
+
+    /**
+     * Tests that requests fail straight away instead of timing out when they
+     * have no handler, their handler throws or their handler cannot answer
+     * requests
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testUnhandled() throws Throwable
+    {
+        new PacketHandler(90)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                throw new IllegalStateException("Broken");
+            }
+        };
+        new PacketHandler(98)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        server.connect((short) 4277);
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4277);
+        final Throwable unhandled = failure(client.request(new TrackerPacket(
+                        0, 89), 60, TimeUnit.SECONDS));
+        Assert.assertTrue("The missing handler was not reported",
+                        unhandled instanceof RequestFailedException);
+        Assert.assertTrue("The packet id was not sent", unhandled
+                        .getMessage().contains("89"));
+        final Throwable thrown = failure(client.request(new TrackerPacket(0,
+                        90), 60, TimeUnit.SECONDS));
+        Assert.assertTrue("The exception was not reported",
+                        thrown instanceof RequestFailedException);
+        Assert.assertTrue("The reason was not sent", thrown.getMessage()
+                        .contains("Broken"));
+        final Throwable unanswered = failure(client.request(new TrackerPacket(
+                        0, 98), 60, TimeUnit.SECONDS));
+        Assert.assertTrue("The unanswered request was not reported",
+                        unanswered instanceof RequestFailedException);
+        Assert.assertTrue("The packet id was not sent", unanswered
+                        .getMessage().contains("98"));
+        client.disconnect();
+        server.disconnect();
+    }
+}
@@ -0,0 +1,80 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests setting options on the sockets of servers and clients
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class SocketOptionsTest
+{
+    /**
+     * Tests that the options are set on the client's socket and on the
+     * sockets the server accepts
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testOptions() throws Throwable
+    {
+        final NetworkServer server = new NetworkServer();
+        final AtomicReference<RemoteClient> accepted = new AtomicReference<RemoteClient>();
+        server.onConnect = (s, client) -> accepted.set((RemoteClient) client);
+        server.connect((short) 4262, SocketOptions.builder().tcpNoDelay(true)
+                        .sendBufferSize(128 * 1024).backlog(8).build());
+        final NetworkClient client = new NetworkClient();
+        client.connect("127.0.0.1", (short) 4262, SocketOptions.builder()
+                        .tcpNoDelay(true).keepAlive(true).build());
+        for (int i = 0; i < 100 && accepted.get() == null; ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue("TCP_NODELAY was not set on the client",
+                        client.socket.getTcpNoDelay());
+        Assert.assertTrue("SO_KEEPALIVE was not set on the client",
+                        client.socket.getKeepAlive());
+        Assert.assertNotNull("The client was not accepted", accepted.get());
+        Assert.assertTrue("TCP_NODELAY was not set on the accepted client",
+                        accepted.get().socket.getTcpNoDelay());
+        Assert.assertFalse("SO_KEEPALIVE was set on the accepted client",
+                        accepted.get().socket.getKeepAlive());
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that invalid options are refused
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    @Test
+    public void testInvalid()
+    {
+        try
+        {
+            SocketOptions.builder().receiveBufferSize(0);
+            Assert.fail("A buffer size of 0 was accepted");
+        }
+        catch (final IllegalArgumentException ex)
+        {
+        }
+        try
+        {
+            SocketOptions.builder().backlog(-1);
+            Assert.fail("A negative backlog was accepted");
+        }
+        catch (final IllegalArgumentException ex)
+        {
+        }
+        Assert.assertNull("The defaults set an option",
+                        SocketOptions.DEFAULT.getTcpNoDelay());
+    }
+}
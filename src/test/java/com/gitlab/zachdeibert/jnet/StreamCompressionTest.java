@@ -0,0 +1,239 @@
+package com.gitlab.zachdeibert.jnet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests compressing everything a connection sends as one stream
+ * 
+ * @author Zach Deibert
+ * @since 1.3
+ * @version 1.3
+ */
+public class StreamCompressionTest
+{
+    /**
+     * The text that starts every packet, which is also used as the dictionary
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     */
+    private static final String PREFIX = "player-position-update:";
+
+    /**
+     * Waits for a number of packets to be received
+     * 
+     * @author Zach Deibert
+     * @param received
+     *            The packets that have been received
+     * @param count
+     *            The number of packets
+     * @since 1.3
+     * @throws InterruptedException
+     */
+    private void waitFor(final List<Object> received, final int count)
+                    throws InterruptedException
+    {
+        for (int i = 0; i < 250 && received.size() < count; ++i)
+        {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Connects a client and a server that both use a codec, and waits for
+     * it to be agreed on
+     * 
+     * @author Zach Deibert
+     * @param server
+     *            The server
+     * @param client
+     *            The client
+     * @param codec
+     *            The codec
+     * @param port
+     *            The port to connect on
+     * @since 1.3
+     * @throws Throwable
+     */
+    private void connect(final NetworkServer server,
+                    final NetworkClient client, final DeflateCodec codec,
+                    final short port) throws Throwable
+    {
+        server.setCompression(Compression.of(256, codec));
+        server.connect(port);
+        client.setCompression(Compression.of(256, codec));
+        client.connect("127.0.0.1", port);
+        for (int i = 0; i < 100 && (client.getCompressionCodec() == null
+                        || server.getClientCount() == 0); ++i)
+        {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("The codec was not agreed on", codec.getName(),
+                        client.getCompressionCodec().getName());
+    }
+
+    /**
+     * Tests that many small packets are compressed against each other in both
+     * directions
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testStream() throws Throwable
+    {
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        new PacketHandler(81)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(((TrackerPacket) p).data);
+            }
+        };
+        final DeflateCodec codec = DeflateCodec.streaming(
+                        Deflater.DEFAULT_COMPRESSION,
+                        PREFIX.getBytes(StandardCharsets.UTF_8), false);
+        Assert.assertTrue("The dictionary is not part of the name",
+                        codec.getName().startsWith("deflate-stream-"));
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        connect(server, client, codec, (short) 4268);
+        final long before = client.getMetrics().getBytesOut();
+        int raw = 0;
+        for (int i = 0; i < 500; ++i)
+        {
+            final String data = PREFIX + (i % 10);
+            raw += data.length() + 3;
+            client.sendPacket(new TrackerPacket(data, 81));
+            server.sendPacket(new TrackerPacket(data, 81));
+        }
+        waitFor(received, 1000);
+        Assert.assertEquals("The packets were not received", 1000,
+                        received.size());
+        Assert.assertEquals("A packet was corrupted", PREFIX + 9,
+                        received.get(received.size() - 1));
+        Assert.assertTrue("The stream was not compressed", client.getMetrics()
+                        .getBytesOut() - before < raw / 4);
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that each packet arrives on its own when the stream is flushed
+     * after every packet
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testFlushEachPacket() throws Throwable
+    {
+        final List<Object> received = new CopyOnWriteArrayList<Object>();
+        new PacketHandler(81)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                received.add(((TrackerPacket) p).data);
+            }
+        };
+        final NetworkServer server = new NetworkServer();
+        final NetworkClient client = new NetworkClient();
+        connect(server, client, DeflateCodec.streaming(1, null, true),
+                        (short) 4269);
+        for (int i = 0; i < 20; ++i)
+        {
+            client.sendPacket(new TrackerPacket(PREFIX + i, 81));
+            waitFor(received, i + 1);
+            Assert.assertEquals("The packet was not received", PREFIX + i,
+                            received.get(i));
+        }
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Tests that the futures of packets that have been compressed but not
+     * written yet fail when the connection is closed
+     * 
+     * @author Zach Deibert
+     * @since 1.3
+     * @throws Throwable
+     */
+    @Test
+    public void testCloseWhileCompressed() throws Throwable
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        new PacketHandler(86)
+        {
+            @Override
+            protected void handle(final Packet p, final NetworkNode sender)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (final InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // The server has its own runners, so it keeps writing while the
+        // client is stuck handling the first packet
+        final NetworkServer server = new NetworkServer(1);
+        final NetworkClient client = new NetworkClient();
+        connect(server, client, DeflateCodec.streaming(1, null, false),
+                        (short) 4274);
+        final List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        final Random random = new Random(86);
+        try
+        {
+            for (int i = 0; i < 200; ++i)
+            {
+                // Random data does not compress, so the socket fills up
+                final byte[] data = new byte[64 * 1024];
+                random.nextBytes(data);
+                futures.add(server.sendPacketAsync(new TrackerPacket(data, 86)));
+            }
+            server.disconnect();
+            final long deadline = System.currentTimeMillis() + 5000;
+            for (final CompletableFuture<Void> future : futures)
+            {
+                while (!future.isDone()
+                                && System.currentTimeMillis() < deadline)
+                {
+                    Thread.sleep(20);
+                }
+            }
+            int failed = 0;
+            for (final CompletableFuture<Void> future : futures)
+            {
+                Assert.assertTrue("A future was never completed",
+                                future.isDone());
+                if (future.isCompletedExceptionally())
+                {
+                    ++failed;
+                }
+            }
+            Assert.assertTrue("The packets were all written", failed > 0);
+        }
+        finally
+        {
+            release.countDown();
+            client.disconnect();
+        }
+    }
+}